@@ -0,0 +1,208 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.model.entry.Entry;
+import com.ccacic.financemanager.model.entry.EntryFactory;
+import com.ccacic.financemanager.util.ParamTokenizer;
+
+/**
+ * Compares assembling and disassembling Entries through ParamMaps with
+ * reading and writing them straight through their EntrySchemas, in both
+ * the binary format of EntryCodec and the ParamMap text format, printing
+ * how many Entries a second each writes and reads and how many bytes they
+ * take. Compression and encryption are left out, as they cost the same
+ * either way. The Entries are a mix of every Entry type. Run with no
+ * arguments, or with the EntryChunk sizes to measure
+ * @author Cameron Cacic
+ *
+ */
+class AssemblyBenchmark {
+
+	private static final int[] DEFAULT_CHUNK_SIZES = new int[] {100, 1000, 10000};
+	private static final long MIN_MEASURE_NANOS = 500_000_000L;
+
+	/**
+	 * Something that produces the encoded form of Entries
+	 * @author Cameron Cacic
+	 *
+	 */
+	@FunctionalInterface
+	private interface Encoder {
+
+		/**
+		 * Encodes the passed Entries
+		 * @param entries the Entries to encode
+		 * @return the encoded Entries
+		 * @throws IOException if encoding fails
+		 */
+		byte[] encode(List<Entry> entries) throws IOException;
+
+	}
+
+	/**
+	 * Something that reads Entries back from their encoded form
+	 * @author Cameron Cacic
+	 *
+	 */
+	@FunctionalInterface
+	private interface Decoder {
+
+		/**
+		 * Decodes the passed Entries
+		 * @param encoded the encoded Entries
+		 * @return the Entries
+		 * @throws IOException if decoding fails
+		 */
+		List<Entry> decode(byte[] encoded) throws IOException;
+
+	}
+
+	/**
+	 * Runs the benchmark
+	 * @param args the EntryChunk sizes to measure, or none for the defaults
+	 * @throws IOException if encoding or decoding fails
+	 */
+	public static void main(String[] args) throws IOException {
+
+		int[] chunkSizes = Benchmarks.parseInts(args, DEFAULT_CHUNK_SIZES);
+		Benchmarks.registerAssemblers();
+
+		System.out.println(String.format("%-7s %-7s %7s %14s %14s %10s",
+				"format", "path", "entries", "writes/s", "reads/s", "bytes"));
+		for (int chunkSize: chunkSizes) {
+			List<Entry> entries = Benchmarks.generateEntries(chunkSize, Collections.emptyList());
+			measure("binary", "map", entries, AssemblyBenchmark::writeBinaryMaps, AssemblyBenchmark::readBinary);
+			measure("binary", "schema", entries, Benchmarks::writeBinary, AssemblyBenchmark::readBinary);
+			measure("text", "map", entries, AssemblyBenchmark::writeTextMaps, AssemblyBenchmark::readTextMaps);
+			measure("text", "schema", entries, Benchmarks::writeText, AssemblyBenchmark::readTextRecords);
+		}
+
+	}
+
+	/**
+	 * Measures one way of writing and reading Entries and prints a row for it,
+	 * after checking that it reads back exactly the Entries it wrote
+	 * @param format the name of the format written
+	 * @param path the name of the way Entries are assembled
+	 * @param entries the Entries to write and read
+	 * @param encoder encodes the Entries
+	 * @param decoder decodes the Entries
+	 * @throws IOException if encoding or decoding fails
+	 */
+	private static void measure(String format, String path, List<Entry> entries, Encoder encoder, Decoder decoder)
+			throws IOException {
+
+		byte[] encoded = encoder.encode(entries);
+		Benchmarks.checkSame(format + " " + path, entries, decoder.decode(encoded));
+
+		long writeNanos = Benchmarks.time(() -> encoder.encode(entries), MIN_MEASURE_NANOS);
+		long readNanos = Benchmarks.time(() -> decoder.decode(encoded), MIN_MEASURE_NANOS);
+		System.out.println(String.format("%-7s %-7s %7d %14.0f %14.0f %10d",
+				format, path, entries.size(), Benchmarks.perSecond(entries.size(), writeNanos),
+				Benchmarks.perSecond(entries.size(), readNanos), encoded.length));
+
+	}
+
+	/**
+	 * Disassembles the passed Entries and writes their ParamMaps as
+	 * MAP_VERSION binary files held them
+	 * @param entries the Entries to write
+	 * @return the contents of the Entry File
+	 * @throws IOException if encoding fails
+	 */
+	private static byte[] writeBinaryMaps(List<Entry> entries) throws IOException {
+		EntryFactory factory = EntryFactory.getInstance();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.write(EntryCodec.FORMAT);
+			out.writeByte(EntryCodec.MAP_VERSION);
+			EntryCodec.writeVarInt(out, entries.size());
+			EntryCodec codec = new EntryCodec();
+			for (Entry entry: entries) {
+				codec.writeEntry(out, factory.requestDisassembly(entry));
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads Entries from a binary Entry File of either version, through
+	 * their Assemblers or their EntrySchemas as the version calls for
+	 * @param encoded the contents of the Entry File
+	 * @return the Entries
+	 * @throws IOException if decoding fails
+	 */
+	private static List<Entry> readBinary(byte[] encoded) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+		EntryCodec codec = new EntryCodec();
+		int entryCount = codec.readHeader(in);
+		List<Entry> entries = new ArrayList<>(entryCount);
+		for (int i = 0; i < entryCount; i++) {
+			entries.add(codec.readRecord(in));
+		}
+		return entries;
+	}
+
+	/**
+	 * Disassembles the passed Entries and encodes their ParamMaps as text
+	 * @param entries the Entries to write
+	 * @return the contents of the Entry File
+	 * @throws IOException if encoding fails
+	 */
+	private static byte[] writeTextMaps(List<Entry> entries) throws IOException {
+		EntryFactory factory = EntryFactory.getInstance();
+		StringBuilder text = new StringBuilder();
+		for (Entry entry: entries) {
+			factory.requestDisassembly(entry).encode(text);
+			text.append('\n');
+		}
+		return text.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes text ParamMaps and assembles them into Entries
+	 * @param encoded the contents of the Entry File
+	 * @return the Entries
+	 * @throws IOException if decoding fails
+	 */
+	private static List<Entry> readTextMaps(byte[] encoded) throws IOException {
+		EntryFactory factory = EntryFactory.getInstance();
+		List<Entry> entries = new ArrayList<>();
+		Reader reader = new StringReader(new String(encoded, StandardCharsets.UTF_8));
+		StringBuilder section = new StringBuilder();
+		while (ParamTokenizer.readSection(reader, section)) {
+			entries.add(factory.requestItem(ParamMap.decode(section, false)));
+		}
+		return entries;
+	}
+
+	/**
+	 * Decodes text ParamMaps straight into Entries through their EntrySchemas
+	 * @param encoded the contents of the Entry File
+	 * @return the Entries
+	 * @throws IOException if decoding fails
+	 */
+	private static List<Entry> readTextRecords(byte[] encoded) throws IOException {
+		EntryFactory factory = EntryFactory.getInstance();
+		List<Entry> entries = new ArrayList<>();
+		Reader reader = new StringReader(new String(encoded, StandardCharsets.UTF_8));
+		StringBuilder section = new StringBuilder();
+		while (ParamTokenizer.readSection(reader, section)) {
+			entries.add(factory.requestItem(section, 0, section.length()));
+		}
+		return entries;
+	}
+
+}
@@ -0,0 +1,292 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.model.entry.Entry;
+import com.ccacic.financemanager.model.entry.EntryAssembler;
+import com.ccacic.financemanager.model.entry.EntryFactory;
+import com.ccacic.financemanager.model.entry.EntrySchema;
+import com.ccacic.financemanager.model.entry.children.CrypCurrEntryAssembler;
+import com.ccacic.financemanager.model.entry.children.FiatCurrEntryAssembler;
+import com.ccacic.financemanager.model.entry.children.StockEntryAssembler;
+
+/**
+ * What the benchmarks share: reading their arguments, timing Tasks, turning
+ * timings into rates, generating synthetic Entries and cleaning up after
+ * themselves. Every benchmark is a class of its own with a main method,
+ * kept out of the application jar in the benchmark source set, and is run
+ * through the benchmark task of the build, with -Pbenchmark naming the
+ * class and -PbenchmarkArgs passing its arguments
+ * @author Cameron Cacic
+ *
+ */
+final class Benchmarks {
+
+	private static final String[] DESCRIPTIONS = new String[] {
+			"Groceries", "Rent", "Paycheck", "Coffee", "Electric bill", "Transfer to savings",
+			"Gas station", "Restaurant", "Online order", "Insurance premium, {annual}"
+	};
+
+	/**
+	 * Something to be timed
+	 * @author Cameron Cacic
+	 *
+	 */
+	@FunctionalInterface
+	interface Task {
+
+		/**
+		 * Runs the Task once
+		 * @throws IOException if the Task fails
+		 */
+		void run() throws IOException;
+
+	}
+
+	/**
+	 * Not to be instantiated
+	 */
+	private Benchmarks() {
+
+	}
+
+	/**
+	 * Reads the passed arguments as ints, falling back to the passed
+	 * defaults when there are none
+	 * @param args the arguments of the benchmark
+	 * @param defaults the ints to use without arguments
+	 * @return the ints
+	 */
+	static int[] parseInts(String[] args, int... defaults) {
+		if (args.length == 0) {
+			return defaults;
+		}
+		int[] values = new int[args.length];
+		for (int i = 0; i < args.length; i++) {
+			values[i] = Integer.parseInt(args[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * Runs the passed Task repeatedly, after warming it up, for at least
+	 * the passed time
+	 * @param task the Task to time
+	 * @param minNanos how long to warm up for and then to measure for
+	 * @return the average time of a single run in nanoseconds
+	 * @throws IOException if the Task fails
+	 */
+	static long time(Task task, long minNanos) throws IOException {
+		long warmupEnd = System.nanoTime() + minNanos;
+		while (System.nanoTime() < warmupEnd) {
+			task.run();
+		}
+		int runs = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			task.run();
+			runs++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < minNanos);
+		return elapsed / runs;
+	}
+
+	/**
+	 * Converts a count and a duration into a rate
+	 * @param count how many things were processed
+	 * @param nanos how long processing them took
+	 * @return the things per second
+	 */
+	static double perSecond(long count, long nanos) {
+		return count / (nanos / 1_000_000_000.0);
+	}
+
+	/**
+	 * Converts a byte count and a duration into a throughput
+	 * @param bytes how many bytes were processed
+	 * @param nanos how long processing them took
+	 * @return the throughput in megabytes per second
+	 */
+	static double megabytesPerSecond(long bytes, long nanos) {
+		return perSecond(bytes, nanos) / (1024.0 * 1024.0);
+	}
+
+	/**
+	 * Adds the Assembler of every Entry type to the EntryFactory, as the
+	 * application does on start up
+	 */
+	static void registerAssemblers() {
+		EntryFactory factory = EntryFactory.getInstance();
+		for (EntryAssembler<?> assembler: new EntryAssembler<?>[] {
+				new FiatCurrEntryAssembler(), new StockEntryAssembler(), new CrypCurrEntryAssembler()}) {
+			if (factory.getSchema(assembler.getAssemblerName()) == null) {
+				factory.addAssembler(assembler);
+			}
+		}
+	}
+
+	/**
+	 * Generates disassembled Entries of every type, a few a day with a
+	 * handful of recurring descriptions. When there are attachments to pick
+	 * from, a quarter of the Entries get one or two of them. The same count
+	 * always generates the same Entries, apart from their IDs
+	 * @param count how many Entries to generate
+	 * @param attachments the paths of the attachments to pick from, possibly none
+	 * @return the disassembled Entries
+	 */
+	static List<ParamMap> generateEntryMaps(int count, List<String> attachments) {
+		Random random = new Random(count);
+		List<ParamMap> entryMaps = new ArrayList<>(count);
+		LocalDateTime dateTime = LocalDateTime.of(2019, 1, 1, 9, 0);
+		for (int i = 0; i < count; i++) {
+			dateTime = dateTime.plusMinutes(30 + random.nextInt(12 * 60));
+			ParamMap entryMap = new ParamMap();
+			entryMap.put(EntryAssembler.ID, UUID.randomUUID().toString());
+			entryMap.put(EntryAssembler.DATE_TIME, dateTime.toString());
+			entryMap.put(EntryAssembler.AMOUNT, Double.toString(Math.round(random.nextGaussian() * 10000) / 100.0));
+			entryMap.put(EntryAssembler.DESCRIPTION,
+					"{" + ParamMap.escape(DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)]) + "}");
+			StringBuilder files = new StringBuilder("{");
+			if (!attachments.isEmpty() && random.nextInt(4) == 0) {
+				files.append(attachments.get(random.nextInt(attachments.size())));
+				if (random.nextBoolean()) {
+					files.append(',').append(attachments.get(random.nextInt(attachments.size())));
+				}
+			}
+			entryMap.put(EntryAssembler.FILES, files.append('}').toString());
+			switch (i % 3) {
+			case 0:
+				entryMap.putType("FiatCurrEntry");
+				break;
+			case 1:
+				entryMap.putType("StockEntry");
+				entryMap.put(StockEntryAssembler.SHARES, Double.toString(1 + random.nextInt(100)));
+				break;
+			default:
+				entryMap.putType("CrypCurrEntry");
+				entryMap.put(CrypCurrEntryAssembler.TRANSACTION_ID, Long.toHexString(random.nextLong()));
+				entryMap.put(CrypCurrEntryAssembler.HISTORIC_FIAT_PRICE, Double.toString(random.nextInt(60000) / 7.0));
+				break;
+			}
+			entryMaps.add(entryMap);
+		}
+		return entryMaps;
+	}
+
+	/**
+	 * Generates Entries of every type the way generateEntryMaps does and
+	 * assembles them, which needs registerAssemblers to have been called
+	 * @param count how many Entries to generate
+	 * @param attachments the paths of the attachments to pick from, possibly none
+	 * @return the Entries
+	 */
+	static List<Entry> generateEntries(int count, List<String> attachments) {
+		EntryFactory factory = EntryFactory.getInstance();
+		List<Entry> entries = new ArrayList<>(count);
+		for (ParamMap entryMap: generateEntryMaps(count, attachments)) {
+			entries.add(factory.requestItem(entryMap));
+		}
+		return entries;
+	}
+
+	/**
+	 * Writes the passed Entries as records in the binary format of
+	 * EntryCodec, through their EntrySchemas
+	 * @param entries the Entries to write
+	 * @return the contents of the Entry File
+	 * @throws IOException if encoding fails
+	 */
+	static byte[] writeBinary(List<Entry> entries) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			EntryCodec codec = new EntryCodec();
+			codec.writeHeader(out, entries.size());
+			for (Entry entry: entries) {
+				codec.writeRecord(out, entry);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes the passed Entries as ParamMap text, as Entry Files were
+	 * before the binary format, straight through their EntrySchemas
+	 * @param entries the Entries to write
+	 * @return the contents of the Entry File
+	 * @throws IOException if encoding fails
+	 */
+	static byte[] writeText(List<Entry> entries) throws IOException {
+		EntryFactory factory = EntryFactory.getInstance();
+		StringBuilder text = new StringBuilder();
+		for (Entry entry: entries) {
+			encode(factory.getSchema(entry), entry, text);
+			text.append('\n');
+		}
+		return text.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks that the passed Entries read back are exactly the Entries written
+	 * @param what what read them back, for the message
+	 * @param expected the Entries written
+	 * @param actual the Entries read back
+	 * @throws IOException if they differ
+	 */
+	static void checkSame(String what, List<Entry> expected, List<Entry> actual) throws IOException {
+		EntryFactory factory = EntryFactory.getInstance();
+		if (expected.size() != actual.size()) {
+			throw new IOException(what + " read " + actual.size() + " of " + expected.size() + " entries");
+		}
+		for (int i = 0; i < expected.size(); i++) {
+			String encoded = factory.requestDisassembly(expected.get(i)).encode();
+			if (!encoded.equals(factory.requestDisassembly(actual.get(i)).encode())) {
+				throw new IOException(what + " did not reproduce " + encoded);
+			}
+		}
+	}
+
+	/**
+	 * Encodes the passed Entry through the passed EntrySchema of its type
+	 * @param schema the EntrySchema
+	 * @param entry the Entry to encode
+	 * @param text the StringBuilder to encode into
+	 * @throws IOException if encoding fails
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends Entry> void encode(EntrySchema<T> schema, Entry entry, StringBuilder text)
+			throws IOException {
+		schema.encode((T) entry, text);
+	}
+
+	/**
+	 * Deletes the passed directory and everything under it
+	 * @param directory the directory to delete
+	 * @throws IOException if something cannot be deleted
+	 */
+	static void deleteTree(File directory) throws IOException {
+		File[] children = directory.listFiles();
+		if (children != null) {
+			for (File child: children) {
+				if (child.isDirectory()) {
+					deleteTree(child);
+				} else {
+					Files.deleteIfExists(child.toPath());
+				}
+			}
+		}
+		Files.deleteIfExists(directory.toPath());
+	}
+
+}
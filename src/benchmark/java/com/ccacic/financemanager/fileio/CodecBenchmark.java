@@ -0,0 +1,141 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.model.entry.EntryFactory;
+
+/**
+ * Compares the FileCodecs on Entry Files of typical EntryChunk sizes, in
+ * both the binary format of EntryCodec and the older ParamMap text format,
+ * printing the compressed size and the compression and decompression
+ * throughput of each. Encryption is left out, as it costs the same per
+ * byte whichever FileCodec produced the bytes. The Entries are a mix of
+ * every Entry type. Run with no arguments, or with the EntryChunk sizes to
+ * measure
+ * @author Cameron Cacic
+ *
+ */
+class CodecBenchmark {
+
+	private static final int[] DEFAULT_CHUNK_SIZES = new int[] {10, 100, 1000, 5000};
+	private static final long MIN_MEASURE_NANOS = 200_000_000L;
+
+	/**
+	 * Runs the benchmark
+	 * @param args the EntryChunk sizes to measure, or none for the defaults
+	 * @throws IOException if a FileCodec fails
+	 */
+	public static void main(String[] args) throws IOException {
+
+		int[] chunkSizes = Benchmarks.parseInts(args, DEFAULT_CHUNK_SIZES);
+		Benchmarks.registerAssemblers();
+
+		System.out.println(String.format("%-8s %7s %-8s %10s %10s %7s %12s %12s",
+				"format", "entries", "codec", "raw", "encoded", "ratio", "comp MB/s", "decomp MB/s"));
+		for (int chunkSize: chunkSizes) {
+			List<ParamMap> entryMaps = Benchmarks.generateEntryMaps(chunkSize, Collections.emptyList());
+			measure("binary", chunkSize, encodeBinary(entryMaps));
+			measure("text", chunkSize, encodeText(entryMaps));
+		}
+
+	}
+
+	/**
+	 * Measures every FileCodec on the passed contents and prints a row for each
+	 * @param format the name of the format of the contents
+	 * @param chunkSize how many Entries the contents hold
+	 * @param contents the contents of an Entry File
+	 * @throws IOException if a FileCodec fails
+	 */
+	private static void measure(String format, int chunkSize, byte[] contents) throws IOException {
+
+		for (FileCodec codec: FileCodec.values()) {
+
+			byte[] encoded = compress(codec, contents);
+			byte[] decoded = decompress(encoded);
+			if (!Arrays.equals(decoded, contents)) {
+				throw new IOException(codec + " did not reproduce its input");
+			}
+
+			long compressNanos = Benchmarks.time(() -> compress(codec, contents), MIN_MEASURE_NANOS);
+			long decompressNanos = Benchmarks.time(() -> decompress(encoded), MIN_MEASURE_NANOS);
+			System.out.println(String.format("%-8s %7d %-8s %10d %10d %7.3f %12.1f %12.1f",
+					format, chunkSize, codec, contents.length, encoded.length,
+					encoded.length / (double) contents.length,
+					Benchmarks.megabytesPerSecond(contents.length, compressNanos),
+					Benchmarks.megabytesPerSecond(contents.length, decompressNanos)));
+
+		}
+
+	}
+
+	/**
+	 * Compresses the passed contents as FileIO would before encrypting them
+	 * @param codec the FileCodec to compress with
+	 * @param contents the contents to compress
+	 * @return the compressed contents, with their header
+	 * @throws IOException if the FileCodec fails
+	 */
+	private static byte[] compress(FileCodec codec, byte[] contents) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(contents.length / 2 + 64);
+		try (OutputStream out = codec.encode(bytes)) {
+			out.write(contents);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decompresses the passed contents as FileIO would after decrypting them
+	 * @param encoded the compressed contents, with their header
+	 * @return the decompressed contents
+	 * @throws IOException if the FileCodec fails
+	 */
+	private static byte[] decompress(byte[] encoded) throws IOException {
+		try (InputStream in = FileCodec.decode(new ByteArrayInputStream(encoded))) {
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * Encodes the passed Entries in the binary format of EntryCodec
+	 * @param entryMaps the disassembled Entries
+	 * @return the contents of the Entry File
+	 * @throws IOException if encoding fails
+	 */
+	private static byte[] encodeBinary(List<ParamMap> entryMaps) throws IOException {
+		EntryFactory factory = EntryFactory.getInstance();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			EntryCodec codec = new EntryCodec();
+			codec.writeHeader(out, entryMaps.size());
+			for (ParamMap entryMap: entryMaps) {
+				codec.writeRecord(out, factory.requestItem(entryMap));
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Encodes the passed Entries in the older ParamMap text format
+	 * @param entryMaps the disassembled Entries
+	 * @return the contents of the Entry File
+	 */
+	private static byte[] encodeText(List<ParamMap> entryMaps) {
+		StringBuilder text = new StringBuilder();
+		for (ParamMap entryMap: entryMaps) {
+			text.append(entryMap.encode()).append('\n');
+		}
+		return text.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ccacic.financemanager.model.entry.Entry;
+import com.ccacic.financemanager.util.InternTable;
+
+/**
+ * Measures how much heap sharing Strings and Files through an InternTable
+ * saves when loading a large synthetic set of Entries, in both the binary
+ * format of EntryCodec and the ParamMap text format. Each format is loaded
+ * through EntryFileIO once without an InternTable and once with one, and
+ * the heap held by the loaded Entries is measured after garbage collection
+ * and printed next to the estimate of the InternTable itself. The Entries
+ * have a handful of recurring descriptions, and some have attachments out
+ * of a handful of temporary Files. Run with no arguments, or with the
+ * number of Entries to load
+ * @author Cameron Cacic
+ *
+ */
+class InternBenchmark {
+
+	private static final int DEFAULT_ENTRY_COUNT = 200_000;
+	private static final int ATTACHMENT_COUNT = 8;
+	private static final int GC_PASSES = 4;
+
+	/**
+	 * Something that produces the encoded form of Entries
+	 * @author Cameron Cacic
+	 *
+	 */
+	@FunctionalInterface
+	private interface Encoder {
+
+		/**
+		 * Encodes the passed Entries
+		 * @param entries the Entries to encode
+		 * @return the encoded Entries
+		 * @throws IOException if encoding fails
+		 */
+		byte[] encode(List<Entry> entries) throws IOException;
+
+	}
+
+	/**
+	 * Runs the benchmark
+	 * @param args the number of Entries to load, or none for the default
+	 * @throws IOException if the attachments cannot be created or encoding or decoding fails
+	 */
+	public static void main(String[] args) throws IOException {
+
+		int entryCount = Benchmarks.parseInts(args, DEFAULT_ENTRY_COUNT)[0];
+		Benchmarks.registerAssemblers();
+
+		File attachmentDir = Files.createTempDirectory("intern-benchmark").toFile();
+		try {
+			List<String> attachments = new ArrayList<>(ATTACHMENT_COUNT);
+			for (int i = 0; i < ATTACHMENT_COUNT; i++) {
+				File attachment = new File(attachmentDir, "receipt-" + i + ".pdf");
+				Files.createFile(attachment.toPath());
+				attachments.add(attachment.getPath());
+			}
+
+			List<Entry> entries = Benchmarks.generateEntries(entryCount, attachments);
+			System.out.println(String.format("%-7s %8s %14s %14s %14s %14s %10s",
+					"format", "entries", "heap plain", "heap shared", "saved", "estimated", "hits"));
+			measure("binary", entries, Benchmarks::writeBinary);
+			measure("text", entries, Benchmarks::writeText);
+		} finally {
+			Benchmarks.deleteTree(attachmentDir);
+		}
+
+	}
+
+	/**
+	 * Loads the passed Entries encoded one way without and then with an
+	 * InternTable, and prints a row of how much heap each held, after
+	 * checking that both read back exactly the Entries written
+	 * @param format the name of the format written
+	 * @param entries the Entries to write and load
+	 * @param encoder encodes the Entries
+	 * @throws IOException if encoding or decoding fails
+	 */
+	private static void measure(String format, List<Entry> entries, Encoder encoder) throws IOException {
+
+		byte[] encoded = encoder.encode(entries);
+
+		long before = usedHeap();
+		List<Entry> plain = load(encoded, InternTable.NONE);
+		long plainHeap = usedHeap() - before;
+		Benchmarks.checkSame(format, entries, plain);
+		plain = null;
+
+		InternTable table = new InternTable();
+		before = usedHeap();
+		List<Entry> shared = load(encoded, table);
+		long sharedHeap = usedHeap() - before;
+		Benchmarks.checkSame(format, entries, shared);
+
+		System.out.println(String.format("%-7s %8d %14d %14d %14d %14d %10d",
+				format, shared.size(), plainHeap, sharedHeap, plainHeap - sharedHeap,
+				table.getSavedBytes(), table.getHits()));
+
+	}
+
+	/**
+	 * Loads Entries the way EntryFileIO does, through the passed InternTable
+	 * @param encoded the decrypted contents of the Entry File
+	 * @param table the InternTable to share Strings and Files through
+	 * @return the Entries
+	 * @throws IOException if decoding fails
+	 */
+	private static List<Entry> load(byte[] encoded, InternTable table) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		EntryFileIO.read(new ByteArrayInputStream(encoded), null, entries::add, table);
+		return entries;
+	}
+
+	/**
+	 * Returns the heap in use once garbage has been collected
+	 * @return the bytes in use
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < GC_PASSES; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
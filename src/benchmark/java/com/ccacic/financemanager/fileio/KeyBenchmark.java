@@ -0,0 +1,131 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares deriving a key with PBKDF2 for every file, as was done before
+ * the KeyManager, with deriving a master key once per session and a key
+ * per file from it through HKDF, printing how long encrypting and then
+ * decrypting a set of small files takes each way. Every file gets a fresh
+ * KeyManager in the first case and all files share one in the second. Run
+ * with no arguments, or with the number of files to encrypt
+ * @author Cameron Cacic
+ *
+ */
+class KeyBenchmark {
+
+	private static final int DEFAULT_FILE_COUNT = 300;
+	private static final int FILE_SIZE = 4 * 1024;
+	private static final String PASSWORD = "correct horse battery staple";
+
+	/**
+	 * Runs the benchmark
+	 * @param args the number of files to encrypt, or none for the default
+	 * @throws IOException if encryption or decryption fails
+	 */
+	public static void main(String[] args) throws IOException {
+
+		int fileCount = Benchmarks.parseInts(args, DEFAULT_FILE_COUNT)[0];
+		Random random = new Random(fileCount);
+		List<byte[]> files = new ArrayList<>(fileCount);
+		for (int i = 0; i < fileCount; i++) {
+			byte[] file = new byte[FILE_SIZE];
+			random.nextBytes(file);
+			files.add(file);
+		}
+
+		System.out.println(String.format("%-8s %7s %12s %12s %12s",
+				"keys", "files", "encrypt ms", "decrypt ms", "files/s"));
+		measure("per file", files, () -> new KeyManager(PASSWORD));
+		KeyManager session = new KeyManager(PASSWORD);
+		try {
+			measure("session", files, () -> session);
+		} finally {
+			session.destroy();
+		}
+
+	}
+
+	/**
+	 * Encrypts and then decrypts the passed files, each through the
+	 * KeyManager the passed Supplier hands out for it, and prints a row of
+	 * how long it took, after checking every file decrypts to what it was
+	 * @param keys the name of the way keys are managed
+	 * @param files the contents of the files
+	 * @param keyManagers hands out the KeyManager to use for each file
+	 * @throws IOException if encryption or decryption fails
+	 */
+	private static void measure(String keys, List<byte[]> files, Supplier<KeyManager> keyManagers)
+			throws IOException {
+
+		List<byte[]> encrypted = new ArrayList<>(files.size());
+		long start = System.nanoTime();
+		for (byte[] file: files) {
+			encrypted.add(encrypt(keyManagers.get(), file));
+		}
+		long encryptNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < files.size(); i++) {
+			if (!Arrays.equals(decrypt(keyManagers.get(), encrypted.get(i)), files.get(i))) {
+				throw new IOException(keys + " did not reproduce file " + i);
+			}
+		}
+		long decryptNanos = System.nanoTime() - start;
+
+		System.out.println(String.format("%-8s %7d %12.1f %12.1f %12.0f",
+				keys, files.size(), encryptNanos / 1e6, decryptNanos / 1e6,
+				Benchmarks.perSecond(2L * files.size(), encryptNanos + decryptNanos)));
+
+	}
+
+	/**
+	 * Encrypts the passed contents as FileIO would
+	 * @param keyManager the KeyManager to obtain the key from
+	 * @param contents the contents to encrypt
+	 * @return the encrypted contents, with their header
+	 * @throws IOException if encryption fails
+	 */
+	private static byte[] encrypt(KeyManager keyManager, byte[] contents) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(contents.length + 128);
+		OutputStream out = new Encryption(keyManager).wrapStream(bytes);
+		if (out == null) {
+			throw new IOException("Encryption failed");
+		}
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decrypts the passed contents as FileIO would
+	 * @param keyManager the KeyManager to obtain the key from
+	 * @param encrypted the encrypted contents, with their header
+	 * @return the decrypted contents
+	 * @throws IOException if decryption fails
+	 */
+	private static byte[] decrypt(KeyManager keyManager, byte[] encrypted) throws IOException {
+		InputStream in = new Encryption(keyManager).wrapStream(new ByteArrayInputStream(encrypted));
+		if (in == null) {
+			throw new IOException("Decryption failed");
+		}
+		try {
+			return in.readAllBytes();
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the FileBlobStore and the PageBlobStore on blobs of typical
+ * EntryChunk File sizes, printing how long putting, finding, reading and
+ * deleting them takes and how many Files and bytes they take up on disk.
+ * The blobs are random bytes, as a BlobStore never looks inside them. Run
+ * with no arguments, or with the number of blobs to store
+ * @author Cameron Cacic
+ *
+ */
+class StoreBenchmark {
+
+	private static final int DEFAULT_BLOB_COUNT = 5000;
+	private static final int MIN_BLOB_SIZE = 512;
+	private static final int MAX_BLOB_SIZE = 48 * 1024;
+
+	/**
+	 * Runs the benchmark
+	 * @param args the number of blobs to store, or none for the default
+	 * @throws IOException if a BlobStore fails
+	 */
+	public static void main(String[] args) throws IOException {
+
+		int blobCount = Benchmarks.parseInts(args, DEFAULT_BLOB_COUNT)[0];
+		List<byte[]> blobs = generateBlobs(blobCount);
+		List<String> hashes = new ArrayList<>(blobCount);
+		for (int i = 0; i < blobCount; i++) {
+			hashes.add(String.format("%064X", i * 0x9E3779B97F4A7C15L));
+		}
+
+		System.out.println(String.format("%-6s %7s %10s %10s %10s %10s %8s %12s",
+				"store", "blobs", "put ms", "find ms", "read ms", "delete ms", "files", "bytes"));
+		for (String kind: new String[] {"files", "pages"}) {
+			File storeDir = Files.createTempDirectory("store").toFile();
+			try {
+				measure(kind, storeDir, blobs, hashes);
+			} finally {
+				Benchmarks.deleteTree(storeDir);
+			}
+		}
+
+	}
+
+	/**
+	 * Measures one kind of BlobStore and prints a row for it
+	 * @param kind files or pages
+	 * @param storeDir the empty store directory to use
+	 * @param blobs the blobs to store
+	 * @param hashes the hash to store each blob under
+	 * @throws IOException if the BlobStore fails
+	 */
+	private static void measure(String kind, File storeDir, List<byte[]> blobs, List<String> hashes)
+			throws IOException {
+
+		File stagingDir = new File(storeDir.getParentFile(), storeDir.getName() + "$staging");
+		if (!stagingDir.mkdir()) {
+			throw new IOException("Creation of " + stagingDir + " failed");
+		}
+		try (BlobStore store = "pages".equals(kind) ? new PageBlobStore(storeDir) : new FileBlobStore(storeDir)) {
+
+			List<File> files = new ArrayList<>(blobs.size());
+			for (int i = 0; i < blobs.size(); i++) {
+				File file = new File(stagingDir, i + FileHandler.DATA_EXTENSION);
+				try (OutputStream out = new FileOutputStream(file)) {
+					out.write(blobs.get(i));
+				}
+				files.add(file);
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < blobs.size(); i++) {
+				store.put(hashes.get(i), files.get(i));
+			}
+			long putNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (String hash: hashes) {
+				if (!store.contains(hash)) {
+					throw new IOException(kind + " lost blob " + hash);
+				}
+			}
+			long findNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < blobs.size(); i++) {
+				try (InputStream in = store.open(hashes.get(i))) {
+					if (in.readAllBytes().length != blobs.get(i).length) {
+						throw new IOException(kind + " damaged blob " + hashes.get(i));
+					}
+				}
+			}
+			long readNanos = System.nanoTime() - start;
+
+			long[] usage = new long[2];
+			countTree(storeDir, usage);
+
+			start = System.nanoTime();
+			for (String hash: hashes) {
+				store.delete(hash);
+			}
+			long deleteNanos = System.nanoTime() - start;
+
+			System.out.println(String.format("%-6s %7d %10.1f %10.1f %10.1f %10.1f %8d %12d",
+					kind, blobs.size(), putNanos / 1e6, findNanos / 1e6, readNanos / 1e6, deleteNanos / 1e6,
+					usage[0], usage[1]));
+
+		} finally {
+			Benchmarks.deleteTree(stagingDir);
+		}
+
+	}
+
+	/**
+	 * Generates random blobs of sizes spread between MIN_BLOB_SIZE and MAX_BLOB_SIZE
+	 * @param count how many blobs to generate
+	 * @return the blobs
+	 */
+	private static List<byte[]> generateBlobs(int count) {
+		Random random = new Random(count);
+		List<byte[]> blobs = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] blob = new byte[MIN_BLOB_SIZE + random.nextInt(MAX_BLOB_SIZE - MIN_BLOB_SIZE)];
+			random.nextBytes(blob);
+			blobs.add(blob);
+		}
+		return blobs;
+	}
+
+	/**
+	 * Adds the Files under the passed directory and their lengths to the passed totals
+	 * @param directory the directory to count
+	 * @param usage the File count followed by the byte count
+	 */
+	private static void countTree(File directory, long[] usage) {
+		File[] children = directory.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child: children) {
+			if (child.isDirectory()) {
+				countTree(child, usage);
+			} else {
+				usage[0]++;
+				usage[1] += child.length();
+			}
+		}
+	}
+
+}
@@ -34,6 +34,7 @@ public class EntryChunkManagerControl extends VBox {
 	private String entryType;
 	private EntryChunkManager manager;
 	private final List<SelectionModel<Entry>> selectionModels;
+	private final List<EntryChunkView> views;
 	
 	/**
 	 * Creates a new EntryChunk
@@ -44,6 +45,7 @@ public class EntryChunkManagerControl extends VBox {
 		setSpacing(5.0);
 		setPadding(new Insets(10.0, 0.0, 0.0, 0.0));
 		selectionModels = new ArrayList<>();
+		views = new ArrayList<>();
 	}
 	
 	/**
@@ -56,6 +58,12 @@ public class EntryChunkManagerControl extends VBox {
 		
 		getChildren().clear();
 		selectionModels.clear();
+		synchronized (views) {
+			for (EntryChunkView view: views) {
+				view.close();
+			}
+			views.clear();
+		}
 		currentModel = null;
 		this.manager = manager;
 		this.currency = currency;
@@ -102,6 +110,9 @@ public class EntryChunkManagerControl extends VBox {
 	private EntryChunkView getEntryChunkView(EntryChunk entryChunk, boolean newChunk) {
 		
 		EntryChunkView entryChunkView = new EntryChunkView(entryChunk, currency, entryType, manager.getDateResolution());
+		synchronized (views) {
+			views.add(entryChunkView);
+		}
 		entryChunkView.open(() -> {
 		
 			SelectionModel<Entry> selectionModel = entryChunkView.getEntryTable().getSelectionModel();
@@ -145,6 +156,11 @@ public class EntryChunkManagerControl extends VBox {
 			
 			String chunkId = EventManager.getUniqueID(entryChunk);
 			EventManager.addListener(null, e -> {
+				synchronized (views) {
+					if (views.remove(entryChunkView)) {
+						entryChunkView.close();
+					}
+				}
 				Platform.runLater(() -> getChildren().remove(entryChunkView.getRoot()));
 				EventManager.removeThisListener();
 			}, Event.DELETE_ENTRY_CHUNK, chunkId);
@@ -97,7 +97,7 @@ public class EntryFrame extends FXPopupProgActivityFrame<Stage, BorderPane>{
 						LocalTime.of(Integer.parseInt(hourTextField.getText()),
 								Integer.parseInt(minTextField.getText()),
 								LocalTime.now().getSecond())).toString());
-		paramMap.put(EntryAssembler.DESCRIPTION, "{" + descrArea.getText() + "}");
+		paramMap.put(EntryAssembler.DESCRIPTION, "{" + ParamMap.escape(descrArea.getText()) + "}");
 		paramMap.put(EntryAssembler.AMOUNT, Currency.deformat(currTextField.getText()));
 		if (!filesCombo.getItems().isEmpty()) {
 			paramMap.put(EntryAssembler.FILES, filesCombo.getItems());
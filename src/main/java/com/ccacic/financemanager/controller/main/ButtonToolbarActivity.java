@@ -28,6 +28,8 @@ public class ButtonToolbarActivity extends FXActivity<HBox> {
 	private Button saveArchiveButton;
 	@FXML 
 	private Button loadArchiveButton;
+	@FXML
+	private Button pruneArchivesButton;
 	
 	@Override
 	protected void initializeActivity() {
@@ -71,6 +73,12 @@ public class ButtonToolbarActivity extends FXActivity<HBox> {
 			EventManager.onEventFinish(event, () -> Platform.runLater(() -> loadArchiveButton.setDisable(false)));
 		});
 		
+		pruneArchivesButton.setOnAction(e -> {
+			pruneArchivesButton.setDisable(true);
+			Event event = EventManager.fireEvent(new Event(Event.PRUNE_ARCHIVES_REQUEST));
+			EventManager.onEventFinish(event, () -> Platform.runLater(() -> pruneArchivesButton.setDisable(false)));
+		});
+		
 	}
 
 	@Override
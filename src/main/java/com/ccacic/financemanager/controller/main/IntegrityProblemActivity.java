@@ -0,0 +1,92 @@
+package com.ccacic.financemanager.controller.main;
+
+import java.util.List;
+
+import com.ccacic.financemanager.controller.FXPopupActivity;
+import com.ccacic.financemanager.event.Event;
+import com.ccacic.financemanager.event.EventManager;
+import com.ccacic.financemanager.fileio.FileHandler;
+import com.ccacic.financemanager.fileio.IntegrityVerifier;
+
+import javafx.application.Platform;
+import javafx.fxml.FXML;
+import javafx.scene.control.Button;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+
+/**
+ * A popup activity listing the records found to be corrupt, such as by
+ * the IntegrityScrubber. Opened by firing an INTEGRITY_PROBLEM event
+ * carrying the List of Corruptions, which will only work if the static
+ * method register() has been called first. It only needs to be called
+ * once per JVM, but can be called multiple times without issues
+ * @author Cameron Cacic
+ *
+ */
+public class IntegrityProblemActivity extends FXPopupActivity<VBox> {
+
+	private static boolean registered = false;
+
+	/**
+	 * Registers IntegrityProblemActivity with the EventManager to listen
+	 * for INTEGRITY_PROBLEM events
+	 */
+	public static void register() {
+		if (!registered) {
+
+			EventManager.addListener(null, e -> {
+				@SuppressWarnings("unchecked")
+				List<IntegrityVerifier.Corruption> problems = (List<IntegrityVerifier.Corruption>) e.getData();
+				if (problems != null && !problems.isEmpty()) {
+					Platform.runLater(() -> new IntegrityProblemActivity(problems).open());
+				}
+			}, Event.INTEGRITY_PROBLEM);
+
+			registered = true;
+		}
+	}
+
+	@FXML
+	private Text messageText;
+	@FXML
+	private ListView<String> problemList;
+	@FXML
+	private Button okButton;
+
+	private final List<IntegrityVerifier.Corruption> problems;
+
+	/**
+	 * Creates a new IntegrityProblemActivity
+	 * @param problems the Corruptions to list
+	 */
+	private IntegrityProblemActivity(List<IntegrityVerifier.Corruption> problems) {
+		this.problems = problems;
+	}
+
+	@Override
+	protected void callPopupLoader() {
+		load(FileHandler.getLayout("activity_integrity_problem.fxml"), new VBox());
+		getRoot().setSpacing(5.0);
+		popupStage.setTitle("Integrity Problems");
+	}
+
+	@Override
+	protected void initializeActivity() {
+
+		messageText.setText(problems.size() + " records failed their integrity check. "
+				+ "Restore them from an archive before opening the accounts they hold.");
+
+		for (IntegrityVerifier.Corruption problem: problems) {
+			if (problem.getActualHash() == null) {
+				problemList.getItems().add(problem.getFile() + " is missing or unreadable");
+			} else {
+				problemList.getItems().add(problem.getFile() + " does not match its expected hash");
+			}
+		}
+
+		okButton.setOnAction(e -> popupStage.close());
+
+	}
+
+}
@@ -78,9 +78,7 @@ public class UserSelectionActivity extends FXPopupActivity<BorderPane> {
 			File userDir = new File(FileHandler.getInstance().getUserDir(), user);
 			File userFile = new File(userDir, user + FileHandler.DATA_EXTENSION);
 			Thread thread = new Thread(() -> {
-				User.setCurrentUser(userFile);
-			
-				if (User.getCurrentUser() != null) {
+				if (User.setCurrentUser(userFile)) {
 				
 					Logger.getInstance().logDebug("User selected");
 					String id = EventManager.getUniqueID(this);
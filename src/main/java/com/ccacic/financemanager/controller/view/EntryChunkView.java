@@ -24,7 +24,8 @@ import javafx.scene.text.Text;
 
 /**
  * A view for displaying an EntryChunk. All Entries are
- * contained in an EntryTable
+ * contained in an EntryTable. The Entries are pinned in
+ * memory while the view shows them, until it is closed
  * @author Cameron Cacic
  *
  */
@@ -41,6 +42,8 @@ public class EntryChunkView extends FXActivity<VBox> {
 	private final Currency currency;
 	private final String entryType;
 	private final DateResolutionManager manager;
+	private boolean pinned;
+	private boolean closed;
 	
 	/**
 	 * Creates a new EntryChunkView
@@ -101,7 +104,15 @@ public class EntryChunkView extends FXActivity<VBox> {
 		}, Event.UPDATE, id);
 		
 		ObservableList<Entry> entriesList = FXCollections.observableArrayList();
-		ReadOnlyList.addAll(entriesList, entryChunk.getEntries());
+		ReadOnlyList<Entry> chunkEntries;
+		synchronized (this) {
+			chunkEntries = closed ? entryChunk.getEntries() : entryChunk.pin();
+			pinned = !closed && chunkEntries != null;
+		}
+		if (chunkEntries != null) {
+			ReadOnlyList.addAll(entriesList, chunkEntries);
+		}
+		// an unreadable EntryChunk has reported itself and is shown empty
 		
 		entryTable.managedProperty().bind(entryTable.visibleProperty());
 		entryTable.setItems(entriesList);
@@ -142,6 +153,18 @@ public class EntryChunkView extends FXActivity<VBox> {
 		return entryTable;
 	}
 	
+	/**
+	 * Closes the view, unpinning the Entries of its EntryChunk so
+	 * they may be released from memory again
+	 */
+	public synchronized void close() {
+		closed = true;
+		if (pinned) {
+			pinned = false;
+			entryChunk.unpin();
+		}
+	}
+	
 	/**
 	 * Toggles the visibility of the EntryTable and focuses it
 	 */
@@ -28,11 +28,14 @@ public class Event {
 	public static final String NEW_ENTRY_CHUNK = "new_entry_chunk";
 	public static final String LOAD_ARCHIVE_REQUEST = "load_archive_request";
 	public static final String SAVE_ARCHIVE_REQUEST = "save_archive_request";
+	public static final String PRUNE_ARCHIVES_REQUEST = "prune_archives_request";
 	public static final String CONFIRMATION_REQUEST = "confirmation_request";
 	public static final String CONFIRMATION_RECEIVED = "confirmation_received";
 	public static final String BLOCKING_PROGRESS_REQUEST = "blocking_progress_request";
 	public static final String BLOCKING_PROGRESS_END = "blocking_progress_end";
 	public static final String BLOCKING_PROGRESS_CANCELED = "blocking_progress_canceled";
+	public static final String INTEGRITY_PROBLEM = "integrity_problem";
+	public static final String SAVE_PROGRESS = "save_progress";
 	
 	private final String type;
 	private final Object data;
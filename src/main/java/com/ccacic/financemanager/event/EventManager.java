@@ -55,7 +55,8 @@ public final class EventManager {
 	 */
 	private static final ReferenceQueue<Object> garbageQueue = new ReferenceQueue<>();
 	/**
-	 * Maps a Reference bean to an EventListener to hold a reference to them
+	 * Maps a Reference bean to an EventListener to hold a reference to them.
+	 * Must be accessed while holding the garbageCollectionLock
 	 */
 	private static final Map<Reference<Object>, List<EventListener>> beanMap = new HashMap<>();
 	
@@ -332,7 +333,10 @@ public final class EventManager {
 		if (strong && bean != null) {
 			// given a strong, nonnull bean, so add a reference to the beanMap
 			HashedWeakReference<Object> reference = new HashedWeakReference<>(bean, garbageQueue);
-			List<EventListener> listeners = beanMap.computeIfAbsent(reference, k -> Collections.synchronizedList(new LinkedList<>()));
+			List<EventListener> listeners;
+			synchronized (garbageCollectionLock) {
+				listeners = beanMap.computeIfAbsent(reference, k -> Collections.synchronizedList(new LinkedList<>()));
+			}
 			listeners.add(listener);
 		}
 		
@@ -436,6 +440,9 @@ public final class EventManager {
 	 */
 	public static void removeListener(EventListener listener, String eventType, String... identifier) {
 		Map<String, List<WeakStrongReference<EventListener>>> idMap = eventMapper.get(eventType);
+		if (idMap == null) {
+			return;
+		}
 		for (String id: identifier) {
 			List<WeakStrongReference<EventListener>> listeners = idMap.get(id);
 			if (listeners != null) {
@@ -569,13 +576,8 @@ public final class EventManager {
 	 * @return the ID of the Object
 	 */
 	public static String getUniqueID(Object obj) {
-		if (objectIdMap.containsKey(obj)) {
-			return objectIdMap.get(obj);
-		} else {
-			String id = Unique.genUUID();
-			objectIdMap.put(obj, id);
-			return id;
-		}
+		// atomic, so concurrent first requests for an Object agree on its ID
+		return objectIdMap.computeIfAbsent(obj, k -> Unique.genUUID());
 	}
 	
 	/**
@@ -1,5 +1,6 @@
 package com.ccacic.financemanager.exception;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -10,6 +11,7 @@ import java.io.IOException;
  */
 public class MismatchedHashException extends IOException {
 
+	private final File file;
 	private final String expectedHash;
 	private final String actualHash;
 	
@@ -20,11 +22,31 @@ public class MismatchedHashException extends IOException {
 	 * @param actualHash the actual hash of the File
 	 */
 	public MismatchedHashException(String message, String expectedHash, String actualHash) {
+		this(message, null, expectedHash, actualHash);
+	}
+	
+	/**
+	 * Creates a new MismatchedHashException naming the File that failed
+	 * @param message the message for the Exception
+	 * @param file the File whose hash did not match
+	 * @param expectedHash the expected hash of the File
+	 * @param actualHash the actual hash of the File
+	 */
+	public MismatchedHashException(String message, File file, String expectedHash, String actualHash) {
 		super(message);
+		this.file = file;
 		this.expectedHash = expectedHash;
 		this.actualHash = actualHash;
 	}
 	
+	/**
+	 * Returns the File whose hash did not match
+	 * @return the File, or null if not known
+	 */
+	public File getFile() {
+		return file;
+	}
+	
 	/**
 	 * Returns the expected hash of the File
 	 * @return the expected hash of the File
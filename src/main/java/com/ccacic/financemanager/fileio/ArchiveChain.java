@@ -0,0 +1,195 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An archive along with every archive it is based on, back to the
+ * nearest full archive. Entries reference sections of the newest
+ * archive are resolved to the Entries section holding the same
+ * EntryChunk ID and hash in the nearest archive behind it. Every
+ * archive in the chain is opened when the ArchiveChain is, so a
+ * missing or damaged base archive is found before anything is read.
+ * Entries blob sections are read from the ChunkStore
+ * @author Cameron Cacic
+ *
+ */
+class ArchiveChain implements Closeable {
+
+	/**
+	 * An Entries section along with the archive holding it
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class HeldSection {
+
+		private final ArchiveReader reader;
+		private final ArchiveSection section;
+
+		/**
+		 * Creates a new HeldSection
+		 * @param reader the ArchiveReader of the archive holding the section
+		 * @param section the Entries section
+		 */
+		private HeldSection(ArchiveReader reader, ArchiveSection section) {
+			this.reader = reader;
+			this.section = section;
+		}
+
+	}
+
+	private final ArchiveReader head;
+	private final List<ArchiveReader> readers;
+	private final Map<String, HeldSection> heldSections;
+	private final Set<String> headChunks;
+
+	/**
+	 * Opens the passed archive File and every archive it is based on
+	 * @param archiveFile the newest archive File of the chain
+	 * @param keyManager the KeyManager to decrypt sections with
+	 * @throws IOException if an archive of the chain is missing or unreadable
+	 */
+	ArchiveChain(File archiveFile, KeyManager keyManager) throws IOException {
+
+		readers = new ArrayList<>();
+		heldSections = new HashMap<>();
+		headChunks = new HashSet<>();
+		try {
+			Set<String> visited = new HashSet<>();
+			File onFile = archiveFile;
+			while (true) {
+				if (!visited.add(onFile.getName())) {
+					throw new IOException("Archive " + onFile + " is based on itself");
+				}
+				if (!onFile.exists() || !ArchiveReader.isArchive(onFile)) {
+					throw new IOException("Missing base archive " + onFile);
+				}
+				ArchiveReader reader = new ArchiveReader(onFile, keyManager);
+				readers.add(reader);
+				if (!reader.isDifferential()) {
+					break;
+				}
+				onFile = new File(archiveFile.getParentFile(), reader.getBaseName());
+			}
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+		head = readers.get(0);
+
+		for (ArchiveSection section: head.getSections()) {
+			if (section.getKind() != ArchiveSection.Kind.ACCOUNT_HOLDER && section.getKind() != ArchiveSection.Kind.ACCOUNT
+					&& !section.getHash().isEmpty()) {
+				headChunks.add(key(section.getId(), section.getHash()));
+			}
+		}
+		// oldest first, so the nearest archive holding a section wins
+		for (int i = readers.size() - 1; i >= 0; i--) {
+			for (ArchiveSection section: readers.get(i).getSections()) {
+				if ((section.getKind() == ArchiveSection.Kind.ENTRIES || section.getKind() == ArchiveSection.Kind.ENTRIES_BLOB)
+						&& !section.getHash().isEmpty()) {
+					heldSections.put(key(section.getId(), section.getHash()), new HeldSection(readers.get(i), section));
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Returns the ArchiveReader of the newest archive of the chain, whose
+	 * sections list the whole model
+	 * @return the head ArchiveReader
+	 */
+	ArchiveReader getHead() {
+		return head;
+	}
+
+	/**
+	 * Checks if the head archive lists the EntryChunk with the passed ID
+	 * and hash, and so if an archive based on it may reference it. Only
+	 * EntryChunks the head lists are referenced, so that an archive made
+	 * full keeps everything the archives after it reference
+	 * @param chunkId the ID of the EntryChunk
+	 * @param hash the hash of the EntryChunk's source file
+	 * @return if the EntryChunk is listed
+	 */
+	boolean holds(String chunkId, String hash) {
+		return headChunks.contains(key(chunkId, hash));
+	}
+
+	/**
+	 * Reads the disassembled Entries of an Entries, Entries reference or
+	 * Entries blob section of the head archive one at a time
+	 * @param section the ArchiveSection of the head archive to read
+	 * @param consumer the EntryMapConsumer to pass each disassembled Entry to
+	 * @throws IOException if the referenced section or blob is missing or file IO errors occur
+	 */
+	void readEntries(ArchiveSection section, EntryFileIO.EntryMapConsumer consumer) throws IOException {
+		HeldSection held = resolve(section);
+		if (held.section.getKind() == ArchiveSection.Kind.ENTRIES_BLOB) {
+			ChunkStore store = ChunkStore.getInstance();
+			String hash = held.section.getHash();
+			if (!store.contains(hash)) {
+				throw new IOException("The chunk store is missing blob " + hash + " of entry chunk " + section.getId());
+			}
+			store.readBlobEntryMaps(hash, consumer);
+		} else {
+			held.reader.readEntries(held.section, consumer);
+		}
+	}
+
+	/**
+	 * Copies an Entries or Entries reference section of the head archive
+	 * into the passed ArchiveWriter as an Entries section, or as an Entries
+	 * blob section if it resolves to one, which has no bytes to copy
+	 * @param section the ArchiveSection of the head archive to copy
+	 * @param writer the ArchiveWriter to copy into
+	 * @throws IOException if the referenced section is missing or file IO errors occur
+	 */
+	void copyEntries(ArchiveSection section, ArchiveWriter writer) throws IOException {
+		HeldSection held = resolve(section);
+		writer.copySection(held.reader, held.section);
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (ArchiveReader reader: readers) {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Finds the Entries section holding the Entries of the passed section
+	 * @param section an Entries, Entries reference or Entries blob section
+	 * @return the HeldSection
+	 * @throws IOException if no archive of the chain holds the referenced Entries
+	 */
+	private HeldSection resolve(ArchiveSection section) throws IOException {
+		if (section.getKind() != ArchiveSection.Kind.ENTRIES_REF) {
+			return new HeldSection(head, section);
+		}
+		HeldSection held = heldSections.get(key(section.getId(), section.getHash()));
+		if (held == null) {
+			throw new IOException("No base archive holds entry chunk " + section.getId());
+		}
+		return held;
+	}
+
+	/**
+	 * Combines an EntryChunk ID and hash into a single key
+	 * @param chunkId the ID of the EntryChunk
+	 * @param hash the hash of the EntryChunk's source file
+	 * @return the key
+	 */
+	private static String key(String chunkId, String hash) {
+		return chunkId + '/' + hash;
+	}
+
+}
@@ -0,0 +1,255 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+import com.ccacic.financemanager.model.ParamMap;
+
+/**
+ * Reads archives written by ArchiveWriter. The table of contents is read
+ * when the ArchiveReader is opened, after which any section can be read
+ * on its own. Sections are read with positional reads, so several threads
+ * may read different sections of the same archive at once. Entries
+ * reference and blob sections are resolved by ArchiveChain
+ * @author Cameron Cacic
+ *
+ */
+class ArchiveReader implements Closeable {
+
+	/**
+	 * An InputStream over one section of the archive File
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class SectionInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private long position;
+		private final long end;
+
+		/**
+		 * Creates a new SectionInputStream
+		 * @param channel the FileChannel of the archive File
+		 * @param offset where the section begins
+		 * @param length the length of the section
+		 */
+		SectionInputStream(FileChannel channel, long offset, long length) {
+			this.channel = channel;
+			this.position = offset;
+			this.end = offset + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+			if (read == -1) {
+				throw new IOException("Archive section ends past the end of the file");
+			}
+			position += read;
+			return read;
+		}
+
+	}
+
+	/**
+	 * Checks if the passed File begins with the FORMAT bytes of ArchiveWriter
+	 * @param file the File to check
+	 * @return if the File is a sectioned archive
+	 * @throws IOException if file IO errors occur
+	 */
+	static boolean isArchive(File file) throws IOException {
+		try (InputStream stream = new FileInputStream(file)) {
+			return Arrays.equals(stream.readNBytes(ArchiveWriter.FORMAT.length), ArchiveWriter.FORMAT);
+		}
+	}
+
+	private final File archiveFile;
+	private final KeyManager keyManager;
+	private final FileChannel channel;
+	private final String baseName;
+	private final int depth;
+	private final List<ArchiveSection> sections;
+
+	/**
+	 * Opens the passed archive File and reads its table of contents
+	 * @param archiveFile the archive File to read
+	 * @param keyManager the KeyManager to decrypt sections with
+	 * @throws IOException if the File is not a readable archive or file IO errors occur
+	 */
+	ArchiveReader(File archiveFile, KeyManager keyManager) throws IOException {
+
+		this.archiveFile = archiveFile;
+		this.keyManager = keyManager;
+		this.channel = FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ);
+
+		try {
+			long size = channel.size();
+			if (size < ArchiveWriter.FORMAT.length + 1 + ArchiveWriter.TRAILER_LENGTH) {
+				throw new IOException("Archive " + archiveFile + " is truncated");
+			}
+			DataInputStream head = new DataInputStream(new SectionInputStream(channel, 0, ArchiveWriter.FORMAT.length + 1));
+			head.skipBytes(ArchiveWriter.FORMAT.length);
+			int version = head.readUnsignedByte();
+			if (version < 1 || version > ArchiveWriter.VERSION) {
+				throw new IOException("Unsupported archive version " + version);
+			}
+
+			DataInputStream trailer = new DataInputStream(new SectionInputStream(channel,
+					size - ArchiveWriter.TRAILER_LENGTH, ArchiveWriter.TRAILER_LENGTH));
+			long tocOffset = trailer.readLong();
+			long tocLength = trailer.readLong();
+			byte[] format = new byte[ArchiveWriter.FORMAT.length];
+			trailer.readFully(format);
+			if (!Arrays.equals(format, ArchiveWriter.FORMAT) || tocOffset < 0 || tocLength < 0
+					|| tocOffset + tocLength > size - ArchiveWriter.TRAILER_LENGTH) {
+				throw new IOException("Archive " + archiveFile + " is truncated or damaged");
+			}
+
+			List<ArchiveSection> readSections = new ArrayList<>();
+			try (DataInputStream toc = openSection(tocOffset, tocLength)) {
+				this.baseName = version > 1 ? toc.readUTF() : "";
+				this.depth = version > 1 ? toc.readInt() : 0;
+				int count = toc.readInt();
+				for (int i = 0; i < count; i++) {
+					readSections.add(ArchiveSection.read(toc, version));
+				}
+			}
+			this.sections = Collections.unmodifiableList(readSections);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+	}
+
+	/**
+	 * Returns the name of the archive this one is based on, in the same directory
+	 * @return the name of the base archive, or an empty String for a full archive
+	 */
+	String getBaseName() {
+		return baseName;
+	}
+
+	/**
+	 * Checks if the archive is differential, and so needs the archives it
+	 * is based on to be read in full
+	 * @return if the archive has a base archive
+	 */
+	boolean isDifferential() {
+		return !baseName.isEmpty();
+	}
+
+	/**
+	 * Returns how many differential archives lead back to a full archive,
+	 * including this one
+	 * @return the depth of the archive, 0 for a full archive
+	 */
+	int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns every section of the archive, in the order they were written
+	 * @return the ArchiveSections of the archive
+	 */
+	List<ArchiveSection> getSections() {
+		return sections;
+	}
+
+	/**
+	 * Reads the ParamMap held by an AccountHolder or Account section
+	 * @param section the ArchiveSection to read
+	 * @return the ParamMap in the section
+	 * @throws IOException if file IO errors occur
+	 */
+	ParamMap readMap(ArchiveSection section) throws IOException {
+		try (DataInputStream in = openSection(section.getOffset(), section.getLength())) {
+			return new EntryCodec().readEntry(in);
+		}
+	}
+
+	/**
+	 * Reads the disassembled Entries held by an Entries section one at a
+	 * time, passing each to the passed EntryMapConsumer
+	 * @param section the ArchiveSection to read
+	 * @param consumer the EntryMapConsumer to pass each disassembled Entry to
+	 * @throws IOException if file IO errors occur
+	 */
+	void readEntries(ArchiveSection section, EntryFileIO.EntryMapConsumer consumer) throws IOException {
+		if (section.getKind() == ArchiveSection.Kind.ENTRIES_REF) {
+			throw new IOException("Entry chunk " + section.getId() + " is held by an archive " + archiveFile.getName() + " is based on");
+		} else if (section.getKind() == ArchiveSection.Kind.ENTRIES_BLOB) {
+			throw new IOException("Entry chunk " + section.getId() + " of archive " + archiveFile.getName() + " is held by the chunk store");
+		}
+		try (DataInputStream in = openSection(section.getOffset(), section.getLength())) {
+			EntryCodec codec = new EntryCodec();
+			while (in.readBoolean()) {
+				consumer.accept(codec.readEntry(in));
+			}
+		}
+	}
+
+	/**
+	 * Copies the raw bytes of the passed section, still compressed and
+	 * encrypted, into the passed OutputStream
+	 * @param section the ArchiveSection to copy
+	 * @param out the OutputStream to copy into
+	 * @throws IOException if file IO errors occur
+	 */
+	void transferSection(ArchiveSection section, OutputStream out) throws IOException {
+		new SectionInputStream(channel, section.getOffset(), section.getLength()).transferTo(out);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Opens the section at the passed offset, decrypting and inflating it
+	 * @param offset where the section begins
+	 * @param length the length of the section
+	 * @return a DataInputStream over the section's contents
+	 * @throws IOException if the section cannot be decrypted or file IO errors occur
+	 */
+	private DataInputStream openSection(long offset, long length) throws IOException {
+		InputStream in = new BufferedInputStream(new SectionInputStream(channel, offset, length), FileIO.BUFFER_SIZE);
+		int flag = in.read();
+		if (flag == ArchiveWriter.ENCRYPTED) {
+			if (keyManager == null) {
+				throw new IOException("Archive " + archiveFile + " is encrypted");
+			}
+			in = new Encryption(keyManager).wrapStream(in);
+			if (in == null) {
+				throw new IOException("Decryption failed on a section of archive " + archiveFile);
+			}
+		} else if (flag != ArchiveWriter.PLAIN) {
+			throw new IOException("Unknown section format " + flag + " in archive " + archiveFile);
+		}
+		return new DataInputStream(new BufferedInputStream(new InflaterInputStream(in), FileIO.BUFFER_SIZE));
+	}
+
+}
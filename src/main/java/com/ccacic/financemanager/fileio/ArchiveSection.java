@@ -0,0 +1,160 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * An entry in the table of contents of an archive, locating a single
+ * independently compressed and encrypted section of the archive File.
+ * AccountHolder sections hold the disassembled AccountHolder, Account
+ * sections hold a disassembled Account without its Entries, and Entries
+ * sections hold the disassembled Entries of one EntryChunk of an Account.
+ * Entries reference sections hold nothing, and stand for an EntryChunk
+ * with the same ID and hash held by an earlier archive in the chain.
+ * Entries blob sections hold nothing either, and stand for the blob
+ * with their hash in the ChunkStore
+ * @author Cameron Cacic
+ *
+ */
+final class ArchiveSection {
+
+	/**
+	 * The kinds of sections in an archive
+	 * @author Cameron Cacic
+	 *
+	 */
+	enum Kind {
+		ACCOUNT_HOLDER, ACCOUNT, ENTRIES, ENTRIES_REF, ENTRIES_BLOB
+	}
+
+	private final Kind kind;
+	private final String id;
+	private final String parentId;
+	private final String hash;
+	private final long offset;
+	private final long length;
+	private final int count;
+
+	/**
+	 * Creates a new ArchiveSection
+	 * @param kind the Kind of section
+	 * @param id the ID of the AccountHolder, Account or EntryChunk in the section
+	 * @param parentId the ID of the AccountHolder or Account owning it, or an empty String
+	 * @param hash the hash of the EntryChunk's source file, or an empty String
+	 * @param offset where the section begins in the archive File
+	 * @param length the length of the section in bytes
+	 * @param count how many Entries the section holds, or 1 for other Kinds
+	 */
+	ArchiveSection(Kind kind, String id, String parentId, String hash, long offset, long length, int count) {
+		this.kind = kind;
+		this.id = id;
+		this.parentId = parentId;
+		this.hash = hash;
+		this.offset = offset;
+		this.length = length;
+		this.count = count;
+	}
+
+	/**
+	 * Reads an ArchiveSection written by write
+	 * @param in the DataInputStream to read from
+	 * @param version the version of the archive being read
+	 * @return the read ArchiveSection
+	 * @throws IOException if file IO errors occur
+	 */
+	static ArchiveSection read(DataInputStream in, int version) throws IOException {
+		int kind = in.readUnsignedByte();
+		if (kind >= Kind.values().length) {
+			throw new IOException("Unknown archive section kind " + kind);
+		}
+		String id = in.readUTF();
+		String parentId = in.readUTF();
+		String hash = version > 1 ? in.readUTF() : "";
+		return new ArchiveSection(Kind.values()[kind], id, parentId, hash, in.readLong(), in.readLong(), in.readInt());
+	}
+
+	/**
+	 * Writes this ArchiveSection to the table of contents
+	 * @param out the DataOutputStream to write to
+	 * @throws IOException if file IO errors occur
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeByte(kind.ordinal());
+		out.writeUTF(id);
+		out.writeUTF(parentId);
+		out.writeUTF(hash);
+		out.writeLong(offset);
+		out.writeLong(length);
+		out.writeInt(count);
+	}
+
+	/**
+	 * Returns the Kind of section
+	 * @return the Kind
+	 */
+	Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Returns the ID of the AccountHolder, Account or EntryChunk in the section
+	 * @return the ID
+	 */
+	String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the ID of the AccountHolder or Account owning the section's
+	 * contents, or an empty String for AccountHolders
+	 * @return the parent ID
+	 */
+	String getParentId() {
+		return parentId;
+	}
+
+	/**
+	 * Returns the hash of the source file of the EntryChunk in the section,
+	 * or an empty String for other Kinds and for archives that predate it
+	 * @return the hash
+	 */
+	String getHash() {
+		return hash;
+	}
+
+	/**
+	 * Returns where the section begins in the archive File
+	 * @return the offset
+	 */
+	long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the length of the section in bytes
+	 * @return the length
+	 */
+	long getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns how many Entries the section holds, or 1 for other Kinds
+	 * @return the count
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns a copy of this ArchiveSection located at the passed offset,
+	 * for when its bytes are copied into another archive
+	 * @param newOffset where the copy begins
+	 * @return the moved ArchiveSection
+	 */
+	ArchiveSection moveTo(long newOffset) {
+		return new ArchiveSection(kind, id, parentId, hash, newOffset, length, count);
+	}
+
+}
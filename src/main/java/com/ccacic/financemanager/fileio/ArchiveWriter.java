@@ -0,0 +1,288 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.model.entrychunk.EntryChunk;
+
+/**
+ * Streams the model into an archive File one section at a time. Each
+ * section is compressed with Deflate and then encrypted on its own as it
+ * is written, so only the section being written is ever buffered, and any
+ * section can later be read without reading those before it. A table of
+ * contents locating every section is written after the last one, followed
+ * by a fixed length trailer locating the table of contents. The archive is
+ * written to a temporary File that replaces the archive File once closed.
+ * A differential archive names the archive it was based on, and holds
+ * reference sections in place of EntryChunks that archive already holds
+ * with the same hash, so the table of contents of every archive still
+ * lists the whole model. EntryChunks whose source files are in the
+ * ChunkStore are written as blob sections pointing at them by hash
+ * @author Cameron Cacic
+ *
+ */
+class ArchiveWriter implements Closeable {
+
+	/**
+	 * Marks a File as a sectioned archive, both at its start and at its end
+	 */
+	static final byte[] FORMAT = new byte[] {'F', 'M', 'A', 'R'};
+	static final int VERSION = 3;
+
+	static final int PLAIN = 0;
+	static final int ENCRYPTED = 1;
+
+	/**
+	 * The offset and length of the table of contents, then the FORMAT bytes
+	 */
+	static final int TRAILER_LENGTH = 2 * Long.BYTES + FORMAT.length;
+
+	/**
+	 * An OutputStream that counts the bytes passed through it, and
+	 * only flushes instead of closing the stream beneath it, so that
+	 * a section's compression and encryption streams can be finished
+	 * without closing the archive File
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class SectionOutputStream extends FilterOutputStream {
+
+		private long position;
+
+		/**
+		 * Creates a new SectionOutputStream
+		 * @param stream the OutputStream of the archive File
+		 */
+		SectionOutputStream(OutputStream stream) {
+			super(stream);
+			this.position = 0;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			position++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			position += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.flush();
+		}
+
+	}
+
+	private final File archiveFile;
+	private final File tmpFile;
+	private final KeyManager keyManager;
+	private final String baseName;
+	private final int depth;
+	private final FileOutputStream fileStream;
+	private final SectionOutputStream stream;
+	private final List<ArchiveSection> sections;
+
+	/**
+	 * Creates a new ArchiveWriter, beginning the archive in a temporary File
+	 * @param archiveFile the archive File to write
+	 * @param keyManager the KeyManager to encrypt sections with, or null for no encryption
+	 * @param baseName the name of the archive this one is based on, or an empty String for a full archive
+	 * @param depth how many differential archives lead back to a full archive, including this one
+	 * @throws IOException if file IO errors occur
+	 */
+	ArchiveWriter(File archiveFile, KeyManager keyManager, String baseName, int depth) throws IOException {
+		this.archiveFile = archiveFile;
+		this.tmpFile = new File(archiveFile.getParentFile(), archiveFile.getName() + FileHandler.TMP_EXTENSION);
+		this.keyManager = keyManager;
+		this.baseName = baseName;
+		this.depth = depth;
+		this.fileStream = new FileOutputStream(tmpFile);
+		this.stream = new SectionOutputStream(new BufferedOutputStream(fileStream, FileIO.BUFFER_SIZE));
+		this.sections = new ArrayList<>();
+		stream.write(FORMAT);
+		stream.write(VERSION);
+	}
+
+	/**
+	 * Writes a section holding the passed disassembled AccountHolder
+	 * @param acctHoldId the ID of the AccountHolder
+	 * @param acctHoldMap the disassembled AccountHolder
+	 * @throws IOException if file IO errors occur
+	 */
+	void writeAcctHolder(String acctHoldId, ParamMap acctHoldMap) throws IOException {
+		writeMap(ArchiveSection.Kind.ACCOUNT_HOLDER, acctHoldId, "", acctHoldMap);
+	}
+
+	/**
+	 * Writes a section holding the passed disassembled Account
+	 * @param acctId the ID of the Account
+	 * @param acctHoldId the ID of the AccountHolder owning the Account
+	 * @param acctMap the disassembled Account, without its Entries
+	 * @throws IOException if file IO errors occur
+	 */
+	void writeAccount(String acctId, String acctHoldId, ParamMap acctMap) throws IOException {
+		writeMap(ArchiveSection.Kind.ACCOUNT, acctId, acctHoldId, acctMap);
+	}
+
+	/**
+	 * Writes a section holding the Entries of the passed EntryChunk,
+	 * streaming them one at a time
+	 * @param acctId the ID of the Account owning the EntryChunk
+	 * @param chunk the EntryChunk to write the Entries of
+	 * @param hash the hash of the EntryChunk's source file, or an empty String
+	 * @throws IOException if file IO errors occur
+	 */
+	void writeEntries(String acctId, EntryChunk chunk, String hash) throws IOException {
+		long offset = stream.position;
+		EntryCodec codec = new EntryCodec();
+		int[] count = new int[1];
+		try (DataOutputStream out = openSection()) {
+			chunk.forEachEntryMap(entryMap -> {
+				out.writeBoolean(true);
+				codec.writeEntry(out, entryMap);
+				count[0]++;
+			});
+			out.writeBoolean(false);
+		}
+		sections.add(new ArchiveSection(ArchiveSection.Kind.ENTRIES, chunk.getIdentifier(), acctId, hash,
+				offset, stream.position - offset, count[0]));
+	}
+
+	/**
+	 * Lists an EntryChunk held by the archive this one is based on
+	 * without writing its Entries
+	 * @param acctId the ID of the Account owning the EntryChunk
+	 * @param chunkId the ID of the EntryChunk
+	 * @param hash the hash of the EntryChunk's source file
+	 * @param count how many Entries the EntryChunk holds
+	 */
+	void writeEntriesRef(String acctId, String chunkId, String hash, int count) {
+		sections.add(new ArchiveSection(ArchiveSection.Kind.ENTRIES_REF, chunkId, acctId, hash, stream.position, 0, count));
+	}
+
+	/**
+	 * Lists an EntryChunk whose source file is a blob in the ChunkStore
+	 * without writing its Entries
+	 * @param acctId the ID of the Account owning the EntryChunk
+	 * @param chunkId the ID of the EntryChunk
+	 * @param hash the hash of the blob
+	 * @param count how many Entries the EntryChunk holds
+	 */
+	void writeEntriesBlob(String acctId, String chunkId, String hash, int count) {
+		sections.add(new ArchiveSection(ArchiveSection.Kind.ENTRIES_BLOB, chunkId, acctId, hash, stream.position, 0, count));
+	}
+	
+	/**
+	 * Copies the passed section of another archive into this one as is,
+	 * without decrypting it. Both archives must be encrypted with the
+	 * same KeyManager
+	 * @param source the ArchiveReader of the other archive
+	 * @param section the ArchiveSection to copy
+	 * @throws IOException if file IO errors occur
+	 */
+	void copySection(ArchiveReader source, ArchiveSection section) throws IOException {
+		long offset = stream.position;
+		source.transferSection(section, stream);
+		sections.add(section.moveTo(offset));
+	}
+
+	/**
+	 * Writes the table of contents and the trailer, forces the archive to
+	 * the storage device and moves it into place
+	 * @throws IOException if file IO errors occur
+	 */
+	@Override
+	public void close() throws IOException {
+
+		long tocOffset = stream.position;
+		try (DataOutputStream out = openSection()) {
+			out.writeUTF(baseName);
+			out.writeInt(depth);
+			out.writeInt(sections.size());
+			for (ArchiveSection section: sections) {
+				section.write(out);
+			}
+		}
+		long tocLength = stream.position - tocOffset;
+
+		DataOutputStream trailer = new DataOutputStream(stream);
+		trailer.writeLong(tocOffset);
+		trailer.writeLong(tocLength);
+		trailer.write(FORMAT);
+		trailer.flush();
+		fileStream.getFD().sync();
+		fileStream.close();
+
+		Files.move(tmpFile.toPath(), archiveFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+	}
+
+	/**
+	 * Abandons the archive, deleting the temporary File
+	 */
+	void abort() {
+		try {
+			fileStream.close();
+		} catch (IOException e) {
+			// the temporary file is deleted regardless
+		}
+		if (tmpFile.exists() && !tmpFile.delete()) {
+			tmpFile.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Writes a section holding a single ParamMap
+	 * @param kind the Kind of section
+	 * @param id the ID of the section's contents
+	 * @param parentId the ID of the owner of the section's contents
+	 * @param paramMap the ParamMap to write
+	 * @throws IOException if file IO errors occur
+	 */
+	private void writeMap(ArchiveSection.Kind kind, String id, String parentId, ParamMap paramMap) throws IOException {
+		long offset = stream.position;
+		try (DataOutputStream out = openSection()) {
+			new EntryCodec().writeEntry(out, paramMap);
+		}
+		sections.add(new ArchiveSection(kind, id, parentId, "", offset, stream.position - offset, 1));
+	}
+
+	/**
+	 * Begins a new section at the current position of the archive File.
+	 * Closing the returned stream finishes the section's compression and
+	 * encryption without closing the archive File
+	 * @return a DataOutputStream into the section
+	 * @throws IOException if file IO errors occur
+	 */
+	private DataOutputStream openSection() throws IOException {
+		OutputStream sink = stream;
+		if (keyManager != null) {
+			stream.write(ENCRYPTED);
+			sink = new Encryption(keyManager).wrapStream(stream);
+			if (sink == null) {
+				throw new IOException("Failed to encrypt a section of archive " + archiveFile);
+			}
+		} else {
+			stream.write(PLAIN);
+		}
+		return new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(sink), FileIO.BUFFER_SIZE));
+	}
+
+}
@@ -1,20 +1,28 @@
 package com.ccacic.financemanager.fileio;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ccacic.financemanager.event.Event;
 import com.ccacic.financemanager.event.EventManager;
@@ -33,7 +41,6 @@ import com.ccacic.financemanager.model.entry.Entry;
 import com.ccacic.financemanager.model.entry.EntryFactory;
 import com.ccacic.financemanager.model.entrychunk.DateResolution;
 import com.ccacic.financemanager.model.entrychunk.EntryChunk;
-import com.ccacic.financemanager.util.StringProcessing;
 
 /**
  * Utility class for creating and loading archives. Archives are
@@ -41,8 +48,15 @@ import com.ccacic.financemanager.util.StringProcessing;
  * created, they are named with the current date and time. Must
  * have its register() method invoked before it will work with
  * EventManager. Pertinent Event types are LOAD_ARCHIVE_REQUEST,
- * which loads the most recent archive, and SAVE_ARCHIVE_REQUEST,
- * which creates a new archive of the current model state
+ * which loads the most recent archive, SAVE_ARCHIVE_REQUEST,
+ * which creates a new archive of the current model state, and
+ * PRUNE_ARCHIVES_REQUEST, which deletes all but the most recent
+ * archives. Most archives are differential, holding only the
+ * EntryChunks whose hashes changed since the archive before them,
+ * with a full archive made every FULL_ARCHIVE_INTERVAL archives.
+ * EntryChunks committed to the ChunkStore are archived as pointers
+ * to their blobs rather than copies, and pruning collects the blobs
+ * no longer referenced afterwards
  * @author Cameron Cacic
  *
  */
@@ -50,7 +64,20 @@ public class Archiver {
 	
 	private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("MM-dd-yyyy HH-mm-ss'.arc'");
 	
-	private static final String ENTRIES = "entries";
+	/**
+	 * The most threads that will assemble Accounts at once while importing
+	 */
+	private static final int MAX_IMPORT_THREADS = 8;
+	
+	/**
+	 * How many archives are made for every full archive, the rest being differential
+	 */
+	private static final int FULL_ARCHIVE_INTERVAL = 7;
+	
+	/**
+	 * How many archives PRUNE_ARCHIVES_REQUEST keeps when not passed a count
+	 */
+	private static final int DEFAULT_ARCHIVES_KEPT = 14;
 
 	private static boolean registered = false;
 
@@ -63,6 +90,11 @@ public class Archiver {
 			EventManager.addListener(null, e -> loadMostRecentArchive(), Event.LOAD_ARCHIVE_REQUEST);
 			
 			EventManager.addListener(null, e -> createArchive(), Event.SAVE_ARCHIVE_REQUEST);
+			
+			EventManager.addListener(null, e -> {
+				Integer kept = (Integer) e.getData();
+				pruneArchives(kept == null ? DEFAULT_ARCHIVES_KEPT : kept);
+			}, Event.PRUNE_ARCHIVES_REQUEST);
 
 			registered = true;
 			
@@ -84,16 +116,8 @@ public class Archiver {
 		}
 		
 		// finds the most recent archive
-		File mostRecentArchive = null;
-		LocalDateTime mostRecent = LocalDateTime.MIN;
-		FileFilter filter = f -> f.getName().endsWith(".arc");
-		for (File archive: Objects.requireNonNull(archiveDir.listFiles(filter))) {
-			LocalDateTime time = LocalDateTime.parse(archive.getName(), FORMATTER);
-			if (time.isAfter(mostRecent)) {
-				mostRecent = time;
-				mostRecentArchive = archive;
-			}
-		}
+		List<File> archives = listArchives(archiveDir);
+		File mostRecentArchive = archives.isEmpty() ? null : archives.get(archives.size() - 1);
 		
 		if (mostRecentArchive == null) {
 			Logger.getInstance().logWarning("Failed to find the most recent archive to load from");
@@ -104,6 +128,32 @@ public class Archiver {
 		
 	}
 	
+	/**
+	 * Lists the archives in the passed directory from oldest to newest
+	 * @param archiveDir the archive directory
+	 * @return the archive Files, oldest first
+	 */
+	static List<File> listArchives(File archiveDir) {
+		
+		List<File> archives = new ArrayList<>();
+		FileFilter filter = f -> f.getName().endsWith(FileHandler.ARCH_EXTENSION);
+		File[] files = archiveDir.listFiles(filter);
+		if (files == null) {
+			return archives;
+		}
+		for (File archive: files) {
+			try {
+				LocalDateTime.parse(archive.getName(), FORMATTER);
+				archives.add(archive);
+			} catch (DateTimeParseException e) {
+				Logger.getInstance().logWarning("Ignoring archive " + archive.getName() + " with an unexpected name");
+			}
+		}
+		archives.sort(Comparator.comparing(archive -> LocalDateTime.parse(archive.getName(), FORMATTER)));
+		return archives;
+		
+	}
+	
 	/**
 	 * Loads the passed File as an archive file into the model. Dumps
 	 * the current model as a result, along with all files associated with it.
@@ -132,55 +182,19 @@ public class Archiver {
 						"Interrupted while loading archive waiting for blocking progress to finish");
 			}
 		}
-		EventManager.fireEvent(new Event(Event.UPDATE, -1.0, archiverId));
 		
 		// begin trying to load the archive
+		ForkJoinPool importPool = new ForkJoinPool(Math.min(MAX_IMPORT_THREADS, Runtime.getRuntime().availableProcessors()));
 		try {
 			
-			FileInputStream recordFileInputStream = new FileInputStream(archiveFile);
-			
-			String readFile;
-			
-			if (GeneralConfig.getInstance().isEncrypted()) {
-				
-				// the archive is encrypted, so it must be decrypted first before it's read in
-				String password = User.getCurrentUser().getPassword();
-				if (password == null) {
-					recordFileInputStream.close();
-					return false;
-				}
-				Encryption encryption = new Encryption(recordFileInputStream, password);
-				byte[] decryptedData = encryption.getDataDecrypted();
-				recordFileInputStream.close();
-				
-				if (decryptedData == null) {
-					// failed decryption
-					return false;
-				} else {
-					readFile = new String(decryptedData, StandardCharsets.UTF_8);
-					Logger.getInstance().logDebug("Password accepted, decryption check passed");
-				}
-				
-				
+			List<AccountHolder> accountHolders;
+			if (ArchiveReader.isArchive(archiveFile)) {
+				accountHolders = readArchive(archiveFile, importPool, archiverId);
 			} else {
-				
-				// the archive is unencrypted, so just read it in
-				BufferedReader reader = new BufferedReader(new InputStreamReader(recordFileInputStream, StandardCharsets.UTF_8));
-				StringBuilder readFileBuilder = new StringBuilder();
-				while (reader.ready()) {
-					readFileBuilder.append(reader.readLine());
-				}
-				readFile = readFileBuilder.toString();
-				reader.close();
-				
+				accountHolders = readLegacyArchive(archiveFile, importPool, archiverId);
 			}
-			
-			int index = readFile.indexOf("~ACCOUNT_HOLDER");
-			List<AccountHolder> accountHolders = new ArrayList<>();
-			while (index > -1) {
-				String acctHoldStr = StringProcessing.pullBracketSection(readFile, index);
-				accountHolders.add(readAcctHolder(acctHoldStr));
-				index = readFile.indexOf("~ACCOUNT_HOLDER", index + Objects.requireNonNull(acctHoldStr).length() + 1);
+			if (accountHolders == null) {
+				return false;
 			}
 
 			// deletes the current model and all files associated with it
@@ -196,6 +210,7 @@ public class Archiver {
 			e.printStackTrace();
 			return false;
 		} finally {
+			importPool.shutdown();
 			// finish the blocking progress
 			EventManager.fireEvent(new Event(Event.BLOCKING_PROGRESS_END, archiverId));
 		}
@@ -204,206 +219,503 @@ public class Archiver {
 	}
 	
 	/**
-	 * Converts the passed String to an AccountHolder. Only works
-	 * for the archived String representation of an AccountHolder
-	 * @param str the AccountHolder as a String to read
-	 * @return the read AccountHolder
+	 * Reads the AccountHolders from an archive File written by ArchiveWriter,
+	 * along with the archives it is based on if it is differential.
+	 * The AccountHolders are read first, then each Account is assembled on
+	 * the passed ForkJoinPool, with the Entries sections of each Account
+	 * read in parallel. An UPDATE Event is fired as each section is finished
+	 * @param archiveFile the archive File to read
+	 * @param importPool the ForkJoinPool to assemble Accounts on
+	 * @param archiverId the ID to fire UPDATE Events with
+	 * @return the AccountHolders in the archive
+	 * @throws IOException if file IO errors occur
 	 */
-	private static AccountHolder readAcctHolder(String str) {
+	private static List<AccountHolder> readArchive(File archiveFile, ForkJoinPool importPool, String archiverId)
+			throws IOException {
 		
-		String id = null;
-		String name = null;
-		String category = null;
-		Currency mainCurr = null;
-		List<Account> accounts = new ArrayList<>();
-		String accountsString = null;
-		String[][] args = StringProcessing.pullArgs(str);
-		int smallLength = Math.min(args[0].length, args[1].length);
-		
-		for (int i = 0; i < smallLength; i++) {
-			String field = args[0][i];
-			String value = args[1][i];
-			switch (field) {
-			case "id":
-				id = value;
-				break;
-			case "name":
-				name = value;
-				break;
-			case "category":
-				category = value;
-				break;
-			case "main_curr_code":
-				try {
-					mainCurr = Currency.getCurrency(value);
-				} catch (InvalidCurrencyCodeException e) {
-					Logger.getInstance().logError(e.getMessage());
-					Launcher.exitImmediately();
-				}
-				break;
-			case "accounts":
-				if (id != null) {
-					
-					AccountFactory accountFactory = AccountFactory.getInstance();
-					List<ParamMap> paramMaps = ParamMap.decodeList(value);
-					for (ParamMap paramMap: paramMaps) {
-						
-						paramMap.put(AccountAssembler.ENTRY_CHUNK_HASHES, "{}");
-						paramMap.put(AccountAssembler.ENTRY_CHUNK_IDS, "{}");
-						paramMap.put(AccountAssembler.ACCT_HOLD_ID, id);
-						paramMap.put(AccountAssembler.DATE_RESOLUTION, DateResolution.ANNUALY.name());
-						
-						Account account = accountFactory.requestItem(paramMap);
-						List<ParamMap> entryMaps = ParamMap.decodeList(StringProcessing.pullBracketSection(paramMap.get(ENTRIES), 0));
-						EntryFactory entryFactory = EntryFactory.getInstance();
-						List<Entry> entries = entryFactory.requestItems(entryMaps);
-						account.getEntryChunkManager().addAllEntries(entries);
-						accounts.add(account);
-						
-					}
-					
+		try (ArchiveChain chain = new ArchiveChain(archiveFile, User.getCurrentUser().getKeyManager())) {
+			
+			ArchiveReader reader = chain.getHead();
+			List<ArchiveSection> acctHoldSections = new ArrayList<>();
+			Map<String, List<ArchiveSection>> children = new HashMap<>();
+			for (ArchiveSection section: reader.getSections()) {
+				if (section.getKind() == ArchiveSection.Kind.ACCOUNT_HOLDER) {
+					acctHoldSections.add(section);
 				} else {
-					accountsString = value;
+					children.computeIfAbsent(section.getParentId(), k -> new ArrayList<>()).add(section);
 				}
-				break;
 			}
-		}
-		
-		if (accountsString != null) {
 			
-			if (id == null) {
-				id = Unique.genUUID();
-			}
+			double total = Math.max(reader.getSections().size() - acctHoldSections.size(), 1);
+			AtomicInteger completed = new AtomicInteger();
+			Runnable progress = () -> EventManager.fireEvent(new Event(Event.UPDATE, completed.incrementAndGet() / total, archiverId));
 			
-			AccountFactory accountFactory = AccountFactory.getInstance();
-			List<ParamMap> paramMaps = ParamMap.decodeList(accountsString);
-			for (ParamMap paramMap: paramMaps) {
+			List<ParamMap> acctHoldMaps = new ArrayList<>();
+			List<List<ForkJoinTask<Account>>> acctTasks = new ArrayList<>();
+			for (ArchiveSection acctHoldSection: acctHoldSections) {
 				
-				paramMap.put(AccountAssembler.ENTRY_CHUNK_HASHES, "{}");
-				paramMap.put(AccountAssembler.ENTRY_CHUNK_IDS, "{}");
-				paramMap.put(AccountAssembler.ACCT_HOLD_ID, id);
-				paramMap.put(AccountAssembler.DATE_RESOLUTION, DateResolution.ANNUALY.name());
+				acctHoldMaps.add(reader.readMap(acctHoldSection));
+				List<ForkJoinTask<Account>> tasks = new ArrayList<>();
+				for (ArchiveSection acctSection: children.getOrDefault(acctHoldSection.getId(), Collections.emptyList())) {
+					List<ArchiveSection> entrySections = children.getOrDefault(acctSection.getId(), Collections.emptyList());
+					tasks.add(importPool.submit(() -> readAccount(chain, acctSection, acctHoldSection.getId(), entrySections, progress)));
+				}
+				acctTasks.add(tasks);
 				
-				Account account = accountFactory.requestItem(paramMap);
-				List<ParamMap> entryMaps = ParamMap.decodeList(StringProcessing.pullBracketSection(paramMap.get(ENTRIES), 0));
+			}
+			
+			List<AccountHolder> accountHolders = new ArrayList<>();
+			for (int i = 0; i < acctHoldSections.size(); i++) {
+				List<Account> accounts = new ArrayList<>();
+				for (ForkJoinTask<Account> task: acctTasks.get(i)) {
+					accounts.add(join(task));
+				}
+				AccountHolder accountHolder = assembleAcctHolder(acctHoldSections.get(i).getId(), acctHoldMaps.get(i), accounts);
+				if (accountHolder != null) {
+					accountHolders.add(accountHolder);
+				}
+			}
+			return accountHolders;
+			
+		}
+		
+	}
+	
+	/**
+	 * Reads an Account section of an archive along with the Entries sections
+	 * of the Account, which are read in parallel
+	 * @param chain the ArchiveChain of the archive
+	 * @param acctSection the Account section
+	 * @param acctHoldId the ID of the AccountHolder owning the Account
+	 * @param entrySections the Entries sections of the Account
+	 * @param progress run as each section is finished
+	 * @return the assembled Account
+	 */
+	private static Account readAccount(ArchiveChain chain, ArchiveSection acctSection, String acctHoldId,
+			List<ArchiveSection> entrySections, Runnable progress) {
+		
+		ParamMap acctMap;
+		try {
+			acctMap = chain.getHead().readMap(acctSection);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		
+		List<ForkJoinTask<List<Entry>>> entryTasks = new ArrayList<>(entrySections.size());
+		for (ArchiveSection entrySection: entrySections) {
+			entryTasks.add(ForkJoinTask.adapt(() -> {
 				EntryFactory entryFactory = EntryFactory.getInstance();
-				List<Entry> entries = entryFactory.requestItems(entryMaps);
-				account.getEntryChunkManager().addAllEntries(entries);
-				accounts.add(account);
+				List<Entry> entries = new ArrayList<>(entrySection.getCount());
+				try {
+					chain.readEntries(entrySection, entryMap -> entries.add(entryFactory.requestItem(entryMap)));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				progress.run();
+				return entries;
+			}));
+		}
+		ForkJoinTask.invokeAll(entryTasks);
+		
+		List<Entry> entries = new ArrayList<>();
+		for (ForkJoinTask<List<Entry>> entryTask: entryTasks) {
+			entries.addAll(entryTask.join());
+		}
+		Account account = assembleAccount(acctMap, acctHoldId, entries);
+		progress.run();
+		return account;
+		
+	}
+	
+	/**
+	 * Reads the AccountHolders from an archive File in the older single
+	 * String format. The archive is decrypted and parsed as a stream, one
+	 * AccountHolder at a time, while the Accounts already parsed are
+	 * assembled on the passed ForkJoinPool. An UPDATE Event is fired with
+	 * the fraction of the File read after each AccountHolder
+	 * @param archiveFile the archive File to read
+	 * @param importPool the ForkJoinPool to assemble Accounts on
+	 * @param archiverId the ID to fire UPDATE Events with
+	 * @return the AccountHolders in the archive, or null if it could not be decrypted
+	 * @throws IOException if file IO errors occur
+	 */
+	private static List<AccountHolder> readLegacyArchive(File archiveFile, ForkJoinPool importPool, String archiverId)
+			throws IOException {
+		
+		try (FileInputStream recordFileInputStream = new FileInputStream(archiveFile)) {
+			
+			InputStream stream = new BufferedInputStream(recordFileInputStream, FileIO.BUFFER_SIZE);
+			if (GeneralConfig.getInstance().isEncrypted()) {
+				
+				// the archive is encrypted, so it is decrypted as it's read in
+				KeyManager keyManager = User.getCurrentUser().getKeyManager();
+				if (keyManager == null) {
+					return null;
+				}
+				stream = new Encryption(keyManager).wrapStream(stream);
+				if (stream == null) {
+					// failed decryption
+					Logger.getInstance().logError("Decryption failed, missing decrypt check");
+					return null;
+				}
+				Logger.getInstance().logDebug("Password accepted, decryption check passed");
 				
 			}
+			
+			double length = Math.max(archiveFile.length(), 1);
+			LegacyArchiveReader reader = new LegacyArchiveReader(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)));
+			List<ForkJoinTask<AccountHolder>> tasks = new ArrayList<>();
+			LegacyArchiveReader.LegacyAcctHolder legacyAcctHolder;
+			while ((legacyAcctHolder = reader.next()) != null) {
+				final LegacyArchiveReader.LegacyAcctHolder toAssemble = legacyAcctHolder;
+				tasks.add(importPool.submit(() -> assembleLegacyAcctHolder(toAssemble)));
+				double read = recordFileInputStream.getChannel().position() / length;
+				EventManager.fireEvent(new Event(Event.UPDATE, read, archiverId));
+			}
+			
+			List<AccountHolder> accountHolders = new ArrayList<>();
+			for (ForkJoinTask<AccountHolder> task: tasks) {
+				AccountHolder accountHolder = join(task);
+				if (accountHolder != null) {
+					accountHolders.add(accountHolder);
+				}
+			}
+			return accountHolders;
+			
+		}
+		
+	}
+	
+	/**
+	 * Assembles an AccountHolder read from an archive in the older single
+	 * String format, decoding the Entries of its Accounts in parallel
+	 * @param legacyAcctHolder the LegacyAcctHolder to assemble
+	 * @return the AccountHolder, or null if its category is unknown
+	 */
+	private static AccountHolder assembleLegacyAcctHolder(LegacyArchiveReader.LegacyAcctHolder legacyAcctHolder) {
+		
+		ParamMap acctHoldMap = legacyAcctHolder.getAcctHoldMap();
+		String id = acctHoldMap.contains("id") ? acctHoldMap.get("id") : Unique.genUUID();
+		
+		List<ForkJoinTask<Account>> tasks = new ArrayList<>();
+		for (LegacyArchiveReader.LegacyAccount legacyAccount: legacyAcctHolder.getAccounts()) {
+			tasks.add(ForkJoinTask.adapt(() -> {
+				List<ParamMap> entryMaps = new ArrayList<>(legacyAccount.getEncodedEntries().size());
+				for (String encodedEntry: legacyAccount.getEncodedEntries()) {
+					entryMaps.add(ParamMap.decode(encodedEntry, false));
+				}
+				List<Entry> entries = EntryFactory.getInstance().requestItems(entryMaps);
+				return assembleAccount(legacyAccount.getAcctMap(), id, entries);
+			}));
+		}
+		ForkJoinTask.invokeAll(tasks);
+		
+		List<Account> accounts = new ArrayList<>();
+		for (ForkJoinTask<Account> task: tasks) {
+			accounts.add(task.join());
+		}
+		return assembleAcctHolder(id, acctHoldMap, accounts);
+		
+	}
+	
+	/**
+	 * Assembles an Account read from an archive, giving it the passed Entries
+	 * @param acctMap the disassembled Account, without anything tied to its files
+	 * @param acctHoldId the ID of the AccountHolder owning the Account
+	 * @param entries the Entries of the Account
+	 * @return the assembled Account
+	 */
+	private static Account assembleAccount(ParamMap acctMap, String acctHoldId, List<Entry> entries) {
+		
+		acctMap.put(AccountAssembler.ENTRY_CHUNK_HASHES, "{}");
+		acctMap.put(AccountAssembler.ENTRY_CHUNK_IDS, "{}");
+		acctMap.put(AccountAssembler.ACCT_HOLD_ID, acctHoldId);
+		if (!acctMap.contains(AccountAssembler.DATE_RESOLUTION)) {
+			acctMap.put(AccountAssembler.DATE_RESOLUTION, DateResolution.ANNUALY.name());
 		}
 		
+		Account account = AccountFactory.getInstance().requestItem(acctMap);
+		account.getEntryChunkManager().addAllEntries(entries);
+		return account;
+		
+	}
+	
+	/**
+	 * Assembles an AccountHolder read from an archive
+	 * @param acctHoldId the ID of the AccountHolder
+	 * @param acctHoldMap the disassembled AccountHolder
+	 * @param accounts the assembled Accounts of the AccountHolder
+	 * @return the AccountHolder, or null if its category is unknown
+	 */
+	private static AccountHolder assembleAcctHolder(String acctHoldId, ParamMap acctHoldMap, List<Account> accounts) {
+		
+		Currency mainCurr = null;
+		try {
+			mainCurr = Currency.getCurrency(acctHoldMap.get("main_curr_code"));
+		} catch (InvalidCurrencyCodeException e) {
+			Logger.getInstance().logError(e.getMessage());
+			Launcher.exitImmediately();
+		}
+		String category = acctHoldMap.get("category");
 		if (AccountHolder.getCategory(category) != null) {
-			return new AccountHolder(id, name, category, mainCurr, accounts);
+			return new AccountHolder(acctHoldId, acctHoldMap.get("name"), category, mainCurr, accounts);
 		} else {
 			return null;
 		}
 		
 	}
 	
+	/**
+	 * Waits for the passed import task, rethrowing any IOException it failed with
+	 * @param task the task to wait for
+	 * @param <T> the type the task produces
+	 * @return the result of the task
+	 * @throws IOException if the task failed with an IOException
+	 */
+	private static <T> T join(ForkJoinTask<T> task) throws IOException {
+		try {
+			return task.join();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
 	/**
 	 * Converts the current state of the model into an archive named with the
-	 * current date and time. Does not affect the current state of the model
+	 * current date and time. Does not affect the current state of the model.
+	 * The archive is streamed one EntryChunk at a time, with an UPDATE Event
+	 * fired for each, so memory use does not grow with the size of the model.
+	 * EntryChunks whose committed source files are in the ChunkStore are
+	 * written as pointers to their blobs. Unless a full archive is due, the
+	 * archive is based on the most recent one, and of the rest only the
+	 * EntryChunks whose hashes are not listed there are written, so the
+	 * time taken follows how much changed
 	 * @return if the conversion succeeded
 	 */
 	private static boolean createArchive() {
 		
+		User currUser = User.getCurrentUser();
+		File archiveDir = new File(currUser.getUserDir(), "archives");
+		if (!archiveDir.exists()) {
+			if (!archiveDir.mkdir()) {
+				Logger.getInstance().logError("Creation of " + archiveDir + " failed");
+				return false;
+			}
+		}
+		File archiveFile = new File(archiveDir.getAbsolutePath(), LocalDateTime.now().format(FORMATTER));
+		
+		List<AccountHolder> accountHolders = new ArrayList<>();
+		int chunkCount = 0;
+		for (AccountHolder aH: AccountHolder.getAccountHolders()) {
+			accountHolders.add(aH);
+			for (Account a: aH.getAccounts()) {
+				chunkCount += a.getEntryChunks().size();
+			}
+		}
+		
+		Object eventIdLock = new Object();
+		String archiverId = EventManager.getUniqueID(eventIdLock);
+		String[] data = new String[] {archiverId, "Creating archive " + archiveFile.getName(), "Creating Archive"};
+		EventManager.fireEvent(new Event(Event.BLOCKING_PROGRESS_REQUEST, data));
+		
+		List<File> archives = listArchives(archiveDir);
+		File baseFile = archives.isEmpty() ? null : archives.get(archives.size() - 1);
+		ArchiveChain base = openBase(baseFile, archiveFile);
+		ChunkStore store = ChunkStore.getInstance();
+		ArchiveWriter writer = null;
 		try {
 			
-			File archiveDir = new File(User.getCurrentUser().getUserDir(), "archives");
-			if (!archiveDir.exists()) {
-				if(!archiveDir.mkdir()) {
-					throw new IOException("Creation of " + archiveDir + " failed");
-				}
+			if (base == null) {
+				writer = new ArchiveWriter(archiveFile, currUser.getKeyManager(), "", 0);
+			} else {
+				writer = new ArchiveWriter(archiveFile, currUser.getKeyManager(), baseFile.getName(), base.getHead().getDepth() + 1);
 			}
-			
-			LocalDateTime currTime = LocalDateTime.now();
-			String archiveName = String.format("%02d", currTime.getMonthValue()) + "-" + String.format("%02d", currTime.getDayOfMonth()) + "-"
-					+ currTime.getYear() + " " + String.format("%02d", currTime.getHour()) + "-" + String.format("%02d", currTime.getMinute())
-					+ "-" + String.format("%02d", currTime.getSecond()) + ".arc";
-			File archiveFile = new File(archiveDir.getAbsolutePath(), archiveName);
-			if (archiveFile.createNewFile()) {
-				throw new IOException("Failed to create" + archiveFile);
+			double total = Math.max(chunkCount, 1);
+			int written = 0;
+			for (AccountHolder aH: accountHolders) {
+				writer.writeAcctHolder(aH.getIdentifier(), disassembleAcctHolder(aH));
+				for (Account a: aH.getAccounts()) {
+					writer.writeAccount(a.getIdentifier(), aH.getIdentifier(), disassembleAccount(a));
+					for (EntryChunk chunk: a.getEntryChunks()) {
+						String hash = chunk.getCommittedHash();
+						if (hash != null && store.contains(hash)) {
+							writer.writeEntriesBlob(a.getIdentifier(), chunk.getIdentifier(), hash, chunk.getEntryCount());
+						} else if (base != null && hash != null && base.holds(chunk.getIdentifier(), hash)) {
+							writer.writeEntriesRef(a.getIdentifier(), chunk.getIdentifier(), hash, chunk.getEntryCount());
+						} else {
+							writer.writeEntries(a.getIdentifier(), chunk, hash == null ? "" : hash);
+						}
+						EventManager.fireEvent(new Event(Event.UPDATE, ++written / total, archiverId));
+					}
+				}
 			}
-			
-			ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(byteOutStream, StandardCharsets.UTF_8));
-			writeAcctHolders(writer);
 			writer.close();
 			
-			byte[] data = byteOutStream.toByteArray();
-			FileIO fileIO = new FileIO();
-			fileIO.writeToFile(archiveFile, data);
-			
-		} catch (IOException e) {
-			e.printStackTrace();
+		} catch (IOException | RuntimeException e) {
+			Logger.getInstance().logException(e);
+			if (writer != null) {
+				writer.abort();
+			}
 			return false;
+		} finally {
+			if (base != null) {
+				try {
+					base.close();
+				} catch (IOException e) {
+					Logger.getInstance().logException(e);
+				}
+			}
+			EventManager.fireEvent(new Event(Event.BLOCKING_PROGRESS_END, archiverId));
 		}
 		return true;
+		
 	}
 	
 	/**
-	 * Writes all AccountHolders currently in the model into a String
-	 * format and passing them into the passed Writer
-	 * @param writer the Writer to pass the AccountHolder String to
-	 * @return if the conversion to a String succeeded
+	 * Opens the ArchiveChain a new archive should be based on, unless a
+	 * full archive is due or the most recent archive cannot be based on
+	 * @param baseFile the most recent archive, or null if there are none
+	 * @param archiveFile the archive about to be created
+	 * @return the ArchiveChain of the most recent archive, or null if a full archive should be made
 	 */
-	private static boolean writeAcctHolders(BufferedWriter writer) {
+	private static ArchiveChain openBase(File baseFile, File archiveFile) {
+		
+		if (baseFile == null || baseFile.equals(archiveFile)) {
+			return null;
+		}
 		try {
-			for (AccountHolder aH: AccountHolder.getAccountHolders()) {
-				writer.write("~ACCOUNT_HOLDER{");
-				writer.write("id=" + aH.getIdentifier() + ";");
-				writer.write("name=" + aH.getName() + ";");
-				writer.write("category=" + aH.getCategory() + ";");
-				writer.write("main_curr_code=" + aH.getMainCurr().getCode() + ";");
-				writer.write("accounts={");
-				if (aH.getAccounts().isEmpty()) {
-					writer.write("");
-				} else {
-					for (Account a: aH.getAccounts()) {
-						writeAccount(writer, a);
-					}
-				}
-				writer.write("};");
-				writer.write("}");
+			if (!ArchiveReader.isArchive(baseFile)) {
+				return null;
 			}
-		} catch (Exception ex) {
-			ex.printStackTrace();
-			return false;
+			ArchiveChain base = new ArchiveChain(baseFile, User.getCurrentUser().getKeyManager());
+			if (base.getHead().getDepth() + 1 >= FULL_ARCHIVE_INTERVAL) {
+				base.close();
+				return null;
+			}
+			return base;
+		} catch (IOException e) {
+			Logger.getInstance().logWarning("Cannot base an archive on " + baseFile.getName()
+					+ ", creating a full archive: " + e.getMessage());
+			return null;
 		}
-		return true;
+		
 	}
 	
 	/**
-	 * Writes the passed Account into a String format and passes it
-	 * into the passed Writer
-	 * @param writer the Writer to pass the Account String to
-	 * @param a the Account to convert
-	 * @return if the conversion succeeded
+	 * Deletes all but the passed number of most recent archives. If the
+	 * oldest archive kept is differential, it is first rewritten as a full
+	 * archive, so the archives kept never depend on those deleted. The
+	 * ChunkStore is then cleared of blobs only the deleted archives held
+	 * @param kept how many of the most recent archives to keep
+	 * @return if the pruning succeeded
 	 */
-	private static boolean writeAccount(BufferedWriter writer, Account a) {
+	public static boolean pruneArchives(int kept) {
+		
+		if (kept < 1) {
+			throw new IllegalArgumentException("At least one archive must be kept, not " + kept);
+		}
+		File archiveDir = new File(User.getCurrentUser().getUserDir(), "archives");
+		List<File> archives = listArchives(archiveDir);
+		if (archives.size() <= kept) {
+			return true;
+		}
+		
+		File oldestKept = archives.get(archives.size() - kept);
 		try {
-			AccountFactory accountFactory = AccountFactory.getInstance();
-			ParamMap paramMap = accountFactory.requestDisassembly(a);
-			paramMap.remove(AccountAssembler.ACCT_HOLD_ID);
-			paramMap.remove(AccountAssembler.ENTRY_CHUNK_HASHES);
-			paramMap.remove(AccountAssembler.ENTRY_CHUNK_IDS);
-			paramMap.remove(AccountAssembler.DATE_RESOLUTION);
-			List<String> entries = new ArrayList<>();
-			EntryFactory entryFactory = EntryFactory.getInstance();
-			for (EntryChunk chunk: a.getEntryChunks()) {
-				for (Entry entry: chunk.getEntries()) {
-					entries.add(entryFactory.requestDisassembly(entry).encode());
-				}
+			if (ArchiveReader.isArchive(oldestKept)) {
+				makeFull(oldestKept);
 			}
-			paramMap.put(ENTRIES, entries);
-			writer.write(paramMap.encode());
-		} catch (Exception ex) {
-			ex.printStackTrace();
+		} catch (IOException e) {
+			Logger.getInstance().logException(e);
+			return false;
+		}
+		
+		for (File archive: archives.subList(0, archives.size() - kept)) {
+			if (!archive.delete()) {
+				Logger.getInstance().logWarning("Failed to delete archive " + archive);
+			}
+		}
+		
+		try {
+			ChunkStore.getInstance().collectGarbage();
+		} catch (IOException e) {
+			Logger.getInstance().logException(e);
 			return false;
 		}
 		return true;
+		
+	}
+	
+	/**
+	 * Rewrites the passed differential archive as a full archive, copying
+	 * the EntryChunks it references from the archives it is based on
+	 * without decrypting them. Does nothing to a full archive
+	 * @param archiveFile the archive File to rewrite
+	 * @throws IOException if file IO errors occur
+	 */
+	private static void makeFull(File archiveFile) throws IOException {
+		
+		KeyManager keyManager = User.getCurrentUser().getKeyManager();
+		ArchiveWriter writer;
+		try (ArchiveChain chain = new ArchiveChain(archiveFile, keyManager)) {
+			
+			ArchiveReader head = chain.getHead();
+			if (!head.isDifferential()) {
+				return;
+			}
+			writer = new ArchiveWriter(archiveFile, keyManager, "", 0);
+			try {
+				for (ArchiveSection section: head.getSections()) {
+					if (section.getKind() == ArchiveSection.Kind.ACCOUNT_HOLDER || section.getKind() == ArchiveSection.Kind.ACCOUNT) {
+						writer.copySection(head, section);
+					} else {
+						chain.copyEntries(section, writer);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				writer.abort();
+				throw e;
+			}
+			
+		}
+		
+		// closed only once the chain is, as it replaces a File the chain reads
+		try {
+			writer.close();
+		} catch (IOException e) {
+			writer.abort();
+			throw e;
+		}
+		
+	}
+	
+	/**
+	 * Converts the passed AccountHolder into the ParamMap archived for it
+	 * @param aH the AccountHolder to convert
+	 * @return the ParamMap of the AccountHolder
+	 */
+	private static ParamMap disassembleAcctHolder(AccountHolder aH) {
+		ParamMap paramMap = new ParamMap();
+		paramMap.put("id", aH.getIdentifier());
+		paramMap.put("name", aH.getName());
+		paramMap.put("category", aH.getCategory());
+		paramMap.put("main_curr_code", aH.getMainCurr().getCode());
+		return paramMap;
+	}
+	
+	/**
+	 * Converts the passed Account into the ParamMap archived for it,
+	 * which leaves out its Entries and anything tied to its files. Its
+	 * EntryChunks are not committed, so archiving leaves the Account and
+	 * its EntryJournal exactly as they were
+	 * @param a the Account to convert
+	 * @return the ParamMap of the Account
+	 */
+	private static ParamMap disassembleAccount(Account a) {
+		AccountFactory accountFactory = AccountFactory.getInstance();
+		ParamMap paramMap = accountFactory.requestDisassemblyWithoutEntries(a);
+		paramMap.remove(AccountAssembler.ACCT_HOLD_ID);
+		return paramMap;
 	}
 
 }
@@ -0,0 +1,93 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the ChunkStore keeps its blobs. A blob is the exact bytes of a
+ * File written for an EntryChunk, already compressed and encrypted, and
+ * is named by the hash Hashing gave that File, so a BlobStore only moves
+ * bytes around and never needs a key. Blobs are never changed once put
+ * @author Cameron Cacic
+ *
+ */
+interface BlobStore extends Closeable {
+
+	/**
+	 * Receives the blobs of a BlobStore one at a time as it is listed
+	 * @author Cameron Cacic
+	 *
+	 */
+	@FunctionalInterface
+	interface BlobVisitor {
+
+		/**
+		 * Accepts the next blob
+		 * @param hash the hash of the blob
+		 * @param length the length of the blob in bytes
+		 * @param lastModified when the blob was put, in milliseconds since the epoch
+		 * @throws IOException if file IO errors occur
+		 */
+		void visit(String hash, long length, long lastModified) throws IOException;
+
+	}
+
+	/**
+	 * Returns the store directory the BlobStore keeps its blobs in
+	 * @return the store directory
+	 */
+	File getDirectory();
+
+	/**
+	 * Checks if the BlobStore holds a blob with the passed hash
+	 * @param hash the hash of the blob
+	 * @return if the blob is stored
+	 * @throws IOException if file IO errors occur
+	 */
+	boolean contains(String hash) throws IOException;
+
+	/**
+	 * Returns the File holding only the blob with the passed hash, for
+	 * BlobStores that keep each blob in a File of its own
+	 * @param hash the hash of the blob
+	 * @return the File of the blob, which may not exist, or null if blobs are not kept in Files of their own
+	 */
+	File getFile(String hash);
+
+	/**
+	 * Opens the blob with the passed hash for reading
+	 * @param hash the hash of the blob
+	 * @return an InputStream over the bytes of the blob
+	 * @throws IOException if the blob is not stored or file IO errors occur
+	 */
+	InputStream open(String hash) throws IOException;
+
+	/**
+	 * Takes the passed File into the BlobStore as the blob with the passed
+	 * hash. The File no longer exists afterwards. If a blob with the same
+	 * hash is already stored, the File is deleted and the blob is kept
+	 * @param hash the hash of the File
+	 * @param file the File to take
+	 * @throws IOException if the File cannot be taken into the BlobStore
+	 */
+	void put(String hash, File file) throws IOException;
+
+	/**
+	 * Deletes the blob with the passed hash
+	 * @param hash the hash of the blob
+	 * @return if the blob was deleted
+	 * @throws IOException if file IO errors occur
+	 */
+	boolean delete(String hash) throws IOException;
+
+	/**
+	 * Passes every blob in the BlobStore to the passed BlobVisitor. The
+	 * BlobVisitor may delete the blob it was passed
+	 * @param visitor the BlobVisitor to pass each blob to
+	 * @throws IOException if file IO errors occur
+	 */
+	void forEach(BlobVisitor visitor) throws IOException;
+
+}
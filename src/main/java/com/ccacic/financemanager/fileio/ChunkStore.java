@@ -0,0 +1,539 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ccacic.financemanager.logger.Logger;
+import com.ccacic.financemanager.model.AccountHolder;
+import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.model.account.Account;
+import com.ccacic.financemanager.model.account.AccountAssembler;
+import com.ccacic.financemanager.model.entry.Entry;
+import com.ccacic.financemanager.model.entrychunk.EntryChunk;
+import com.ccacic.financemanager.util.StringProcessing;
+
+/**
+ * Content addressed store for the committed source files of EntryChunks.
+ * Each source file is kept once in the store directory of the current
+ * User, named by its hash, so a blob is never changed once stored and any
+ * number of Account files and archives can point at it by hash instead of
+ * holding a copy. A commit writes the EntryChunk's own File and then moves
+ * it into the store, and blobs superseded by later commits are left in
+ * place until collectGarbage finds nothing referencing them anymore.
+ * References are counted from the Account files on disk, the EntryChunks
+ * in memory and the blob sections of every archive. Blobs are kept by a
+ * BlobStore: a PageBlobStore if the store directory holds a page File, and
+ * a FileBlobStore with a File per blob otherwise. StoreMigrator moves a
+ * store directory from one to the other
+ * @author Cameron Cacic
+ *
+ */
+public class ChunkStore {
+
+	/**
+	 * The disk usage of the store, along with how many references
+	 * point at its blobs
+	 * @author Cameron Cacic
+	 *
+	 */
+	public static final class Usage {
+
+		private int blobs;
+		private long bytes;
+		private int referencedBlobs;
+		private int references;
+		private long sharedBytes;
+		private int collectedBlobs;
+		private long collectedBytes;
+
+		/**
+		 * Creates a new, empty Usage
+		 */
+		private Usage() {
+			// counted by ChunkStore
+		}
+
+		/**
+		 * Returns how many blobs are in the store, not counting those counted
+		 * as collected, so that the two add up to every blob the store held
+		 * @return the blob count
+		 */
+		public int getBlobs() {
+			return blobs;
+		}
+
+		/**
+		 * Returns the size of the blobs counted by getBlobs
+		 * @return the size in bytes
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Returns how many blobs are referenced at least once
+		 * @return the referenced blob count
+		 */
+		public int getReferencedBlobs() {
+			return referencedBlobs;
+		}
+
+		/**
+		 * Returns how many references point at blobs in the store
+		 * @return the reference count
+		 */
+		public int getReferences() {
+			return references;
+		}
+
+		/**
+		 * Returns how many bytes would be needed to give every reference
+		 * beyond the first its own copy of the blob, which is what the
+		 * store saves
+		 * @return the saved size in bytes
+		 */
+		public long getSharedBytes() {
+			return sharedBytes;
+		}
+
+		/**
+		 * Returns how many unreferenced blobs were deleted, or are waiting
+		 * to be if the Usage was not produced by collectGarbage
+		 * @return the unreferenced blob count
+		 */
+		public int getCollectedBlobs() {
+			return collectedBlobs;
+		}
+
+		/**
+		 * Returns the size of the unreferenced blobs
+		 * @return the unreferenced size in bytes
+		 */
+		public long getCollectedBytes() {
+			return collectedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return blobs + " blobs (" + bytes + " bytes), " + referencedBlobs + " referenced by " + references
+					+ " references, " + sharedBytes + " bytes shared, " + collectedBlobs + " unreferenced ("
+					+ collectedBytes + " bytes)";
+		}
+
+	}
+
+	private static final String STORE_DIR = "store";
+
+	/**
+	 * How long an unreferenced blob is kept after it was last written, so
+	 * a blob committed after references were counted is never collected
+	 */
+	private static final long GRACE_MILLIS = 60L * 60 * 1000;
+
+	private static final ChunkStore instance = new ChunkStore();
+
+	/**
+	 * Returns the singleton instance of ChunkStore
+	 * @return the instance of ChunkStore
+	 */
+	public static ChunkStore getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Opens the BlobStore of the passed store directory
+	 * @param storeDir the store directory
+	 * @return a PageBlobStore if the store directory holds a page File, a FileBlobStore otherwise
+	 * @throws IOException if the page File cannot be opened
+	 */
+	static BlobStore openBlobStore(File storeDir) throws IOException {
+		if (PageBlobStore.exists(storeDir)) {
+			return new PageBlobStore(storeDir);
+		}
+		return new FileBlobStore(storeDir);
+	}
+
+	/**
+	 * The hashes stored since collectGarbage last began counting references
+	 */
+	private final Set<String> storedSinceCount;
+	/**
+	 * The BlobStore of the store directory last used, reopened when the User changes
+	 */
+	private BlobStore blobStore;
+
+	/**
+	 * Creates the ChunkStore
+	 */
+	private ChunkStore() {
+		storedSinceCount = ConcurrentHashMap.newKeySet();
+	}
+
+	/**
+	 * Returns the store directory of the current User
+	 * @return the store directory
+	 */
+	public File getStoreDir() {
+		return new File(User.getCurrentUser().getUserDir(), STORE_DIR);
+	}
+
+	/**
+	 * Returns the BlobStore of the current User's store directory, opening
+	 * it if the User changed since it was last used
+	 * @return the BlobStore
+	 * @throws IOException if the BlobStore cannot be opened
+	 */
+	private synchronized BlobStore getBlobStore() throws IOException {
+		File storeDir = getStoreDir();
+		if (blobStore == null || !blobStore.getDirectory().equals(storeDir)) {
+			close();
+			blobStore = openBlobStore(storeDir);
+		}
+		return blobStore;
+	}
+
+	/**
+	 * Closes the BlobStore, which is opened again the next time it is used
+	 */
+	public synchronized void close() {
+		if (blobStore == null) {
+			return;
+		}
+		try {
+			blobStore.close();
+		} catch (IOException e) {
+			Logger.getInstance().logException(e);
+		}
+		blobStore = null;
+	}
+
+	/**
+	 * Returns the File the blob with the passed hash is kept in, if the
+	 * store keeps each blob in a File of its own
+	 * @param hash the hash of the blob
+	 * @return the File of the blob, which may not exist, or null if blobs
+	 * are not kept in Files of their own
+	 * @throws IOException if the store cannot be opened
+	 */
+	File getBlobFile(String hash) throws IOException {
+		if (!isHash(hash)) {
+			throw new IllegalArgumentException(hash + " is not a chunk hash");
+		}
+		return getBlobStore().getFile(hash);
+	}
+
+	/**
+	 * Checks if the store holds a blob with the passed hash
+	 * @param hash the hash of the blob
+	 * @return if the blob is stored, false if the store cannot be read
+	 */
+	public boolean contains(String hash) {
+		if (!isHash(hash)) {
+			return false;
+		}
+		try {
+			return getBlobStore().contains(hash);
+		} catch (IOException e) {
+			Logger.getInstance().logException(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Checks if the committed Entries of an EntryChunk can be read, either
+	 * from the blob with the passed hash or from the passed File of the
+	 * EntryChunk itself, for EntryChunks last committed before the store
+	 * existed
+	 * @param entryChunkFile the File of the EntryChunk
+	 * @param hash the expected hash of the EntryChunk's source file, or null
+	 * @return if there are committed Entries to read
+	 */
+	public boolean holds(File entryChunkFile, String hash) {
+		return contains(hash) || entryChunkFile.exists();
+	}
+
+	/**
+	 * Reads the committed Entries of an EntryChunk one disassembled Entry at
+	 * a time, from the blob with the passed hash if the store holds it and
+	 * from the passed File of the EntryChunk otherwise
+	 * @param entryChunkFile the File of the EntryChunk
+	 * @param hash the expected hash of the EntryChunk's source file, or null
+	 * @param consumer the EntryMapConsumer to pass each disassembled Entry to
+	 * @throws IOException if the Entries cannot be read
+	 */
+	public void readEntryMaps(File entryChunkFile, String hash, EntryFileIO.EntryMapConsumer consumer)
+			throws IOException {
+		if (contains(hash)) {
+			readBlobEntryMaps(hash, consumer);
+		} else {
+			new EntryFileIO().readEntryMaps(entryChunkFile, hash, consumer);
+		}
+	}
+
+	/**
+	 * Reads the Entries of the blob with the passed hash one disassembled
+	 * Entry at a time
+	 * @param hash the hash of the blob
+	 * @param consumer the EntryMapConsumer to pass each disassembled Entry to
+	 * @throws IOException if the blob is not stored or cannot be read
+	 */
+	void readBlobEntryMaps(String hash, EntryFileIO.EntryMapConsumer consumer) throws IOException {
+		BlobStore store = getBlobStore();
+		File blobFile = store.getFile(hash);
+		if (blobFile != null) {
+			new EntryFileIO().readEntryMaps(blobFile, hash, consumer);
+		} else {
+			// named for reporting only, as the blob shares a page File with others
+			File label = new File(store.getDirectory(), hash + FileHandler.DATA_EXTENSION);
+			new EntryFileIO().readEntryMaps(store.open(hash), label, hash, consumer);
+		}
+	}
+
+	/**
+	 * Loads the committed Entries of an EntryChunk, from the blob with the
+	 * passed hash if the store holds it and from the passed File of the
+	 * EntryChunk otherwise. Entries are read straight into their fields
+	 * through their EntrySchemas
+	 * @param entryChunkFile the File of the EntryChunk
+	 * @param hash the expected hash of the EntryChunk's source file, or null
+	 * @return the Entries
+	 * @throws IOException if the Entries cannot be read
+	 */
+	public List<Entry> loadEntries(File entryChunkFile, String hash) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		readEntries(entryChunkFile, hash, entries::add);
+		return entries;
+	}
+
+	/**
+	 * Reads the committed Entries of an EntryChunk one Entry at a time, as
+	 * loadEntries does, and tells if they are in the current binary format
+	 * @param entryChunkFile the File of the EntryChunk
+	 * @param hash the expected hash of the EntryChunk's source file, or null
+	 * @param consumer the EntryConsumer to pass each Entry to
+	 * @return if the Entries are in the current binary format, as opposed to
+	 * an older format that should be migrated
+	 * @throws IOException if the Entries cannot be read
+	 */
+	public boolean readEntries(File entryChunkFile, String hash, EntryFileIO.EntryConsumer consumer)
+			throws IOException {
+		if (contains(hash)) {
+			BlobStore store = getBlobStore();
+			File blobFile = store.getFile(hash);
+			if (blobFile != null) {
+				return new EntryFileIO().readEntries(blobFile, hash, consumer);
+			}
+			// named for reporting only, as the blob shares a page File with others
+			File label = new File(store.getDirectory(), hash + FileHandler.DATA_EXTENSION);
+			return new EntryFileIO().readEntries(store.open(hash), label, hash, consumer);
+		}
+		return new EntryFileIO().readEntries(entryChunkFile, hash, consumer);
+	}
+
+	/**
+	 * Opens the raw bytes of the blob with the passed hash
+	 * @param hash the hash of the blob
+	 * @return an InputStream over the bytes of the blob
+	 * @throws IOException if the blob is not stored or file IO errors occur
+	 */
+	InputStream openBlob(String hash) throws IOException {
+		return getBlobStore().open(hash);
+	}
+
+	/**
+	 * Takes the passed File, just written with the passed hash, into the
+	 * store. If the store already holds a blob with the same hash, the
+	 * File is deleted and the blob is shared instead
+	 * @param file the File to store
+	 * @param hash the hash of the File
+	 * @throws IOException if the File cannot be taken into the store
+	 */
+	public synchronized void store(File file, String hash) throws IOException {
+		if (!isHash(hash)) {
+			throw new IllegalArgumentException(hash + " is not a chunk hash");
+		}
+		storedSinceCount.add(hash);
+		getBlobStore().put(hash, file);
+	}
+
+	/**
+	 * Counts the references to every blob in the store without deleting anything
+	 * @return the Usage of the store
+	 * @throws IOException if an Account file or archive cannot be read
+	 */
+	public Usage getUsage() throws IOException {
+		return count(countReferences(), false);
+	}
+
+	/**
+	 * Deletes every blob nothing references anymore, leaving alone those
+	 * written within the grace period or stored while references were
+	 * being counted. Nothing is deleted if any Account file or archive
+	 * cannot be read, as the references it holds would be missed
+	 * @return the Usage of the store, counting the deleted blobs as collected
+	 * @throws IOException if an Account file or archive cannot be read
+	 */
+	public Usage collectGarbage() throws IOException {
+		storedSinceCount.clear();
+		Usage usage = count(countReferences(), true);
+		Logger.getInstance().logInfo("Collected chunk store garbage: " + usage);
+		return usage;
+	}
+
+	/**
+	 * Tallies the blobs in the store against the passed reference counts,
+	 * optionally deleting those left unreferenced. Unreferenced blobs are
+	 * counted only as collected whether or not they are deleted, while those
+	 * kept by the grace period are counted with the rest
+	 * @param references how many times each hash is referenced
+	 * @param sweep if unreferenced blobs should be deleted
+	 * @return the Usage of the store
+	 * @throws IOException if the store cannot be read
+	 */
+	private Usage count(Map<String, Integer> references, boolean sweep) throws IOException {
+
+		Usage usage = new Usage();
+		long cutoff = System.currentTimeMillis() - GRACE_MILLIS;
+		getBlobStore().forEach((hash, length, lastModified) -> {
+			int referenceCount = references.getOrDefault(hash, 0);
+			if (referenceCount == 0 && (!sweep || collect(hash, lastModified, cutoff))) {
+				usage.collectedBlobs++;
+				usage.collectedBytes += length;
+				return;
+			}
+			usage.blobs++;
+			usage.bytes += length;
+			if (referenceCount > 0) {
+				usage.referencedBlobs++;
+				usage.references += referenceCount;
+				usage.sharedBytes += length * (referenceCount - 1);
+			}
+		});
+		return usage;
+
+	}
+
+	/**
+	 * Deletes the passed unreferenced blob unless it is still within the
+	 * grace period or was stored while references were being counted
+	 * @param hash the hash of the blob
+	 * @param lastModified when the blob was written
+	 * @param cutoff the time a blob must have been written before to be deleted
+	 * @return if the blob was deleted
+	 * @throws IOException if the store cannot be written
+	 */
+	private synchronized boolean collect(String hash, long lastModified, long cutoff) throws IOException {
+		if (storedSinceCount.contains(hash) || lastModified > cutoff) {
+			return false;
+		}
+		return getBlobStore().delete(hash);
+	}
+
+	/**
+	 * Counts how many times each hash is referenced by the Account files
+	 * of the current User, the EntryChunks in memory and the archives of
+	 * the current User
+	 * @return how many times each hash is referenced
+	 * @throws IOException if an Account file or archive cannot be read
+	 */
+	private Map<String, Integer> countReferences() throws IOException {
+
+		Map<String, Integer> references = new HashMap<>();
+		User user = User.getCurrentUser();
+		FileIO fileIO = new FileIO();
+
+		// the Account files last saved, which are what is read back after a restart
+		for (String acctHoldId: new ArrayList<>(user.getAcctHoldIds())) {
+			File acctHoldDir = new File(user.getUserDir(), acctHoldId);
+			String acctHoldContents = fileIO.loadFile(new File(acctHoldDir, acctHoldId + FileHandler.DATA_EXTENSION),
+					null, user.getKeyManager());
+			if (acctHoldContents == null) {
+				throw new IOException("Failed to read account holder " + acctHoldId);
+			}
+			String[][] args = StringProcessing.pullArgs(acctHoldContents);
+			List<String> acctIds = new ArrayList<>();
+			for (int i = 0; i < Math.min(args[0].length, args[1].length); i++) {
+				if (args[0][i].equals("accounts")) {
+					acctIds = StringProcessing.decodeList(args[1][i]);
+				}
+			}
+			for (String acctId: acctIds) {
+				File acctFile = new File(new File(acctHoldDir, acctId), acctId + FileHandler.DATA_EXTENSION);
+				if (!acctFile.exists()) {
+					// an Account not saved yet
+					continue;
+				}
+				String acctContents = fileIO.loadFile(acctFile, null, user.getKeyManager());
+				if (acctContents == null) {
+					throw new IOException("Failed to read account " + acctId);
+				}
+				for (String hash: ParamMap.decode(acctContents).getAsList(AccountAssembler.ENTRY_CHUNK_HASHES)) {
+					reference(references, hash.trim());
+				}
+			}
+		}
+
+		// the EntryChunks in memory, which may have been committed since
+		for (AccountHolder acctHolder: AccountHolder.getAccountHolders()) {
+			for (Account account: acctHolder.getAccounts()) {
+				for (EntryChunk chunk: account.getEntryChunks()) {
+					reference(references, chunk.getSummary().get(EntryChunk.HASH));
+				}
+			}
+		}
+
+		// the blob sections of every archive
+		for (File archiveFile: Archiver.listArchives(new File(user.getUserDir(), "archives"))) {
+			if (!ArchiveReader.isArchive(archiveFile)) {
+				continue;
+			}
+			try (ArchiveReader reader = new ArchiveReader(archiveFile, user.getKeyManager())) {
+				for (ArchiveSection section: reader.getSections()) {
+					if (section.getKind() == ArchiveSection.Kind.ENTRIES_BLOB) {
+						reference(references, section.getHash());
+					}
+				}
+			}
+		}
+		return references;
+
+	}
+
+	/**
+	 * Adds a reference to the passed hash, ignoring anything that is not a hash
+	 * @param references the reference counts to add to
+	 * @param hash the referenced hash
+	 */
+	private static void reference(Map<String, Integer> references, String hash) {
+		if (isHash(hash)) {
+			references.merge(hash, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Checks if the passed String is a hash made by Hashing, and so safe
+	 * to name a File with
+	 * @param hash the String to check
+	 * @return if the String is a hash
+	 */
+	private static boolean isHash(String hash) {
+		if (hash == null || hash.length() < 2) {
+			return false;
+		}
+		for (int i = 0; i < hash.length(); i++) {
+			char c = hash.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'A' || c > 'F')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -2,180 +2,679 @@ package com.ccacic.financemanager.fileio;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.SequenceInputStream;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
-import java.util.Random;
-
-import javax.crypto.BadPaddingException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
+import javax.crypto.CipherInputStream;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import com.ccacic.financemanager.logger.Logger;
 
 /**
  * Handles password-based encryption and decryption in a single, centralized
- * class. Uses PBKDF2WithHmacSHA256 to generate the secret key and AES 
- * as the algorithm
+ * class. Keys are obtained from a KeyManager, which derives a master key with
+ * PBKDF2WithHmacSHA256 once per session and per-file keys from it with HKDF.
+ * Files are written with AES-GCM in segments, each carrying its own tag, so
+ * that a single pass both decrypts and authenticates them, and a wrong key is
+ * detected by the tag of the first segment. Files written with AES-CBC, both
+ * with KeyManager derived keys and from before key management existed, when
+ * PBKDF2 was run over a per-file salt, are still decrypted and are rewritten
+ * with AES-GCM the next time they are saved. Streams can be wrapped directly
+ * so that data is encrypted or decrypted as it flows, in the same manner as
+ * Hashing
  * @author Cameron Cacic
  *
  */
 class Encryption {
-	
+
 	/**
-	 * A byte sequence placed in the head of a byte sequence before encryption.
-	 * Its presence in a decrypted byte sequence is the check for proper decryption,
-	 * at which point it is removed from the String
+	 * A byte sequence placed in the head of a byte sequence before encryption
+	 * with AES-CBC. Its presence in a decrypted byte sequence is the check for
+	 * proper decryption, at which point it is removed from the String
 	 */
 	private static final byte[] DECRYP_CHECK = "decrypted_data".getBytes(StandardCharsets.UTF_8);
-	
-	private final String password;
+
+	/**
+	 * Marks a file as using KeyManager derived keys with AES-CBC. Followed by
+	 * the master salt, the file salt, and the initial vector. Files without
+	 * a marker start directly with their legacy PBKDF2 salt
+	 */
+	private static final byte[] KEYED_FORMAT = new byte[] {'F', 'M', 'K', 1};
+
+	/**
+	 * Marks a file as using KeyManager derived keys with AES-GCM. Followed by
+	 * the master salt, the file salt, and the nonce prefix, and then by the
+	 * segments, each an int holding its length and the FINAL_SEGMENT flag
+	 * followed by its ciphertext and tag
+	 */
+	static final byte[] AUTHENTICATED_FORMAT = new byte[] {'F', 'M', 'K', 2};
+
+	static final int SEGMENT_SIZE = 64 * 1024;
+	static final int SEGMENT_HEADER_LENGTH = Integer.BYTES;
+	static final int FINAL_SEGMENT = 0x80000000;
+	static final int TAG_LENGTH = 128 / 8;
+
+	private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+	private static final String CHECK_TRANSFORMATION = "AES/CBC/NoPadding";
+	private static final String AUTHENTICATED_TRANSFORMATION = "AES/GCM/NoPadding";
+
+	private static final int IV_LENGTH = 128 / 8;
+	private static final int BLOCK_LENGTH = 128 / 8;
+	private static final int NONCE_PREFIX_LENGTH = 8;
+	private static final int KEYED_HEADER_LENGTH = KEYED_FORMAT.length + 2 * KeyManager.SALT_LENGTH + IV_LENGTH;
+	private static final int LEGACY_HEADER_LENGTH = KeyManager.LEGACY_SALT_LENGTH + IV_LENGTH;
+	static final int AUTHENTICATED_HEADER_LENGTH = AUTHENTICATED_FORMAT.length + 2 * KeyManager.SALT_LENGTH
+			+ NONCE_PREFIX_LENGTH;
+	private static final int PREFIX_LENGTH = Math.max(KEYED_HEADER_LENGTH + BLOCK_LENGTH, AUTHENTICATED_HEADER_LENGTH);
+
+	/**
+	 * Returns the GCM parameters for the passed segment of a file
+	 * @param noncePrefix the nonce prefix recorded in the file
+	 * @param segment the index of the segment
+	 * @return the GCM parameters
+	 */
+	private static GCMParameterSpec segmentParameters(byte[] noncePrefix, int segment) {
+		byte[] nonce = Arrays.copyOf(noncePrefix, NONCE_PREFIX_LENGTH + Integer.BYTES);
+		nonce[NONCE_PREFIX_LENGTH] = (byte) (segment >>> 24);
+		nonce[NONCE_PREFIX_LENGTH + 1] = (byte) (segment >>> 16);
+		nonce[NONCE_PREFIX_LENGTH + 2] = (byte) (segment >>> 8);
+		nonce[NONCE_PREFIX_LENGTH + 3] = (byte) segment;
+		return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+	}
+
+	/**
+	 * Returns the header of a segment, which is also its additional
+	 * authenticated data
+	 * @param length the length of the segment's plaintext
+	 * @param last if the segment is the last of the file
+	 * @return the header of the segment
+	 */
+	private static byte[] segmentHeader(int length, boolean last) {
+		int header = last ? length | FINAL_SEGMENT : length;
+		return new byte[] {(byte) (header >>> 24), (byte) (header >>> 16), (byte) (header >>> 8), (byte) header};
+	}
+
+	/**
+	 * An OutputStream that encrypts everything written to it with AES-GCM,
+	 * one segment at a time. A segment is only written once it is known
+	 * whether it is the last, so the final segment is written on close
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class AuthenticatedOutputStream extends FilterOutputStream {
+
+		private static final int INITIAL_BUFFER_SIZE = 4096;
+
+		private final Cipher cipher;
+		private final SecretKeySpec key;
+		private final byte[] noncePrefix;
+		private byte[] plaintext;
+		private byte[] ciphertext;
+		private int count;
+		private int segment;
+		private boolean closed;
+
+		/**
+		 * Creates a new AuthenticatedOutputStream. The file header must
+		 * already have been written
+		 * @param stream the OutputStream to write segments to
+		 * @param cipher the AES-GCM Cipher to encrypt with
+		 * @param key the file's key
+		 * @param noncePrefix the nonce prefix written in the file header
+		 */
+		AuthenticatedOutputStream(OutputStream stream, Cipher cipher, SecretKeySpec key, byte[] noncePrefix) {
+			super(stream);
+			this.cipher = cipher;
+			this.key = key;
+			this.noncePrefix = noncePrefix;
+			this.plaintext = new byte[INITIAL_BUFFER_SIZE];
+			this.ciphertext = new byte[0];
+			this.count = 0;
+			this.segment = 0;
+			this.closed = false;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == SEGMENT_SIZE) {
+				writeSegment(false);
+			}
+			if (count == plaintext.length) {
+				plaintext = Arrays.copyOf(plaintext, Math.min(SEGMENT_SIZE, 2 * plaintext.length));
+			}
+			plaintext[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == SEGMENT_SIZE) {
+					writeSegment(false);
+				}
+				int copied = Math.min(len, SEGMENT_SIZE - count);
+				if (count + copied > plaintext.length) {
+					plaintext = Arrays.copyOf(plaintext, Math.min(SEGMENT_SIZE, Math.max(count + copied, 2 * plaintext.length)));
+				}
+				System.arraycopy(b, off, plaintext, count, copied);
+				count += copied;
+				off += copied;
+				len -= copied;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				writeSegment(true);
+			} finally {
+				out.close();
+			}
+		}
+
+		/**
+		 * Encrypts the buffered plaintext as the next segment and writes it
+		 * @param last if this is the last segment of the file
+		 * @throws IOException if encryption fails or file IO errors occur
+		 */
+		private void writeSegment(boolean last) throws IOException {
+			byte[] header = segmentHeader(count, last);
+			if (ciphertext.length < count + TAG_LENGTH) {
+				ciphertext = new byte[Math.max(count, plaintext.length) + TAG_LENGTH];
+			}
+			int length;
+			try {
+				cipher.init(Cipher.ENCRYPT_MODE, key, segmentParameters(noncePrefix, segment));
+				cipher.updateAAD(header);
+				length = cipher.doFinal(plaintext, 0, count, ciphertext, 0);
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Failed to encrypt segment " + segment, e);
+			}
+			out.write(header);
+			out.write(ciphertext, 0, length);
+			segment++;
+			count = 0;
+		}
+
+	}
+
+	/**
+	 * An InputStream that decrypts and authenticates a file written by an
+	 * AuthenticatedOutputStream, one segment at a time. A segment's bytes
+	 * are only returned once its tag has been checked, and a file that
+	 * ends before its final segment, or continues after it, is rejected
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class AuthenticatedInputStream extends InputStream {
+
+		private final InputStream stream;
+		private final Cipher cipher;
+		private final SecretKeySpec key;
+		private final byte[] noncePrefix;
+		private byte[] ciphertext;
+		private byte[] plaintext;
+		private int position;
+		private int limit;
+		private int segment;
+		private boolean last;
+
+		/**
+		 * Creates a new AuthenticatedInputStream. The file header must
+		 * already have been read
+		 * @param stream the InputStream to read segments from
+		 * @param cipher the AES-GCM Cipher to decrypt with
+		 * @param key the file's key
+		 * @param noncePrefix the nonce prefix read from the file header
+		 */
+		AuthenticatedInputStream(InputStream stream, Cipher cipher, SecretKeySpec key, byte[] noncePrefix) {
+			this.stream = stream;
+			this.cipher = cipher;
+			this.key = key;
+			this.noncePrefix = noncePrefix;
+			this.ciphertext = new byte[0];
+			this.plaintext = new byte[0];
+			this.position = 0;
+			this.limit = 0;
+			this.segment = 0;
+			this.last = false;
+		}
+
+		/**
+		 * Reads and authenticates the first segment, which tells whether the
+		 * key is correct. If it fails, the bytes it consumed are kept so
+		 * that the file can be tried in another format
+		 * @return if the first segment was authenticated
+		 * @throws IOException if file IO errors occur
+		 */
+		boolean authenticate() throws IOException {
+			try {
+				return readSegment();
+			} catch (AEADBadTagException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Returns an InputStream over the raw bytes of the file, as if the
+		 * first segment had never been read. Only valid after authenticate
+		 * has failed
+		 * @param header the file header that was read before this stream was created
+		 * @return an InputStream over the whole file
+		 */
+		InputStream rewind(byte[] header) {
+			byte[] consumed = Arrays.copyOf(header, header.length + limit);
+			System.arraycopy(ciphertext, 0, consumed, header.length, limit);
+			return new SequenceInputStream(new ByteArrayInputStream(consumed), stream);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return plaintext[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int read = Math.min(len, limit - position);
+			System.arraycopy(plaintext, position, b, off, read);
+			position += read;
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return limit - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			stream.close();
+		}
+
+		/**
+		 * Reads segments until there are bytes to return or the final
+		 * segment has been read
+		 * @return if there are bytes to return
+		 * @throws IOException if a segment fails authentication or file IO errors occur
+		 */
+		private boolean fill() throws IOException {
+			while (position == limit) {
+				if (last) {
+					return false;
+				}
+				try {
+					if (!readSegment()) {
+						throw new IOException("Segment " + segment + " is damaged");
+					}
+				} catch (AEADBadTagException e) {
+					throw new IOException("Segment " + segment + " failed authentication", e);
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Reads, decrypts, and authenticates the next segment. On failure,
+		 * the raw bytes of the segment are left at the start of ciphertext
+		 * with limit set to their length
+		 * @return false if the segment is truncated or malformed
+		 * @throws AEADBadTagException if the segment failed authentication
+		 * @throws IOException if file IO errors occur
+		 */
+		private boolean readSegment() throws AEADBadTagException, IOException {
+
+			position = 0;
+			limit = 0;
+			byte[] header = stream.readNBytes(SEGMENT_HEADER_LENGTH);
+			ensureCiphertext(header.length);
+			System.arraycopy(header, 0, ciphertext, 0, header.length);
+			limit = header.length;
+			if (header.length < SEGMENT_HEADER_LENGTH) {
+				return false;
+			}
+
+			int value = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+			int length = value & ~FINAL_SEGMENT;
+			if (length > SEGMENT_SIZE) {
+				return false;
+			}
+			ensureCiphertext(SEGMENT_HEADER_LENGTH + length + TAG_LENGTH);
+			int read = stream.readNBytes(ciphertext, SEGMENT_HEADER_LENGTH, length + TAG_LENGTH);
+			limit = SEGMENT_HEADER_LENGTH + read;
+			if (read < length + TAG_LENGTH) {
+				return false;
+			}
+
+			if (plaintext.length < length) {
+				plaintext = new byte[length];
+			}
+			try {
+				cipher.init(Cipher.DECRYPT_MODE, key, segmentParameters(noncePrefix, segment));
+				cipher.updateAAD(header);
+				limit = cipher.doFinal(ciphertext, SEGMENT_HEADER_LENGTH, length + TAG_LENGTH, plaintext, 0);
+			} catch (AEADBadTagException e) {
+				throw e;
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Failed to decrypt segment " + segment, e);
+			}
+
+			segment++;
+			last = (value & FINAL_SEGMENT) != 0;
+			if (last && stream.read() != -1) {
+				throw new IOException("Data found after the final segment");
+			}
+			return true;
+
+		}
+
+		/**
+		 * Grows the ciphertext buffer to hold at least the passed number
+		 * of bytes, keeping its contents
+		 * @param length the number of bytes
+		 */
+		private void ensureCiphertext(int length) {
+			if (ciphertext.length < length) {
+				ciphertext = Arrays.copyOf(ciphertext, length);
+			}
+		}
+
+	}
+
+	private final KeyManager keyManager;
 	private InputStream dataStream;
 
 	/**
-	 * Creates a new Encryption object
+	 * Creates a new Encryption object working with a single use
+	 * KeyManager for the passed password
 	 * @param dataStream the InputStream to read data from
 	 * @param password the password to work with
 	 */
 	public Encryption(InputStream dataStream, String password) {
+		this(dataStream, new KeyManager(password));
+	}
+
+	/**
+	 * Creates a new Encryption object
+	 * @param dataStream the InputStream to read data from
+	 * @param keyManager the KeyManager to obtain keys from
+	 */
+	public Encryption(InputStream dataStream, KeyManager keyManager) {
 		this.dataStream = dataStream;
-		this.password = password;
+		this.keyManager = keyManager;
+	}
+
+	/**
+	 * Creates a new Encryption object with no data stream, for
+	 * use with the wrapStream methods only
+	 * @param keyManager the KeyManager to obtain keys from
+	 */
+	public Encryption(KeyManager keyManager) {
+		this(null, keyManager);
 	}
-	
+
 	/**
 	 * Retrieves all data from the dataStream and returns it encrypted
 	 * @return the encrypted data
 	 */
 	public byte[] getDataEncrypted() {
-		
+
 		try {
-			
-			byte[] salt = new byte[8];
-			Random random = new Random();
-			random.nextBytes(salt);
-			SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-			KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 10000, 128);
-			SecretKey tmp = factory.generateSecret(spec);
-			SecretKeySpec skey = new SecretKeySpec(tmp.getEncoded(), "AES");
-			
-			byte[] initVec = new byte[128 / 8];
-			random.nextBytes(initVec);
-			IvParameterSpec ivParameterSpec = new IvParameterSpec(initVec);
-			
+
 			ByteArrayOutputStream dataOutput = new ByteArrayOutputStream();
-			dataOutput.write(salt);
-			dataOutput.write(initVec);
-			
-			Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-			cipher.init(Cipher.ENCRYPT_MODE, skey, ivParameterSpec);
-			
-			dataStream = new SequenceInputStream(new ByteArrayInputStream(DECRYP_CHECK), dataStream);
-			processData(cipher, dataStream, dataOutput);
-			
+			OutputStream encrypting = wrapStream(dataOutput);
+			if (encrypting == null) {
+				return null;
+			}
+			dataStream.transferTo(encrypting);
+			dataStream.close();
+			encrypting.close();
 			return dataOutput.toByteArray();
-			
-		} catch (InvalidKeyException | NoSuchAlgorithmException | InvalidKeySpecException | NoSuchPaddingException
-				| InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException
-				| IOException e) {
+
+		} catch (IOException e) {
 			Logger.getInstance().logError(e.getMessage());
 		}
-		
+
 		return null;
-		
+
 	}
-	
+
 	/**
 	 * Retrieves all data from the dataStream and returns it decrypted
 	 * @return the decrypted data
 	 */
 	public byte[] getDataDecrypted() {
-		
+
 		try {
-			
-			byte[] salt = new byte[8];
-			byte[] initVec = new byte[128 / 8];
-			if (dataStream.read(salt) != 8){
-				throw new IOException("Missing salt data");
-			}
-			if (dataStream.read(initVec) != 128 / 8) {
-				throw new IOException("Missing initial vector data");
-			}
-			
-			SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-			KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 10000, 128);
-			SecretKey tmp = factory.generateSecret(spec);
-			SecretKeySpec skey = new SecretKeySpec(tmp.getEncoded(), "AES");
-			
-			Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-			cipher.init(Cipher.DECRYPT_MODE, skey, new IvParameterSpec(initVec));
-			
-			ByteArrayOutputStream dataOutput = new ByteArrayOutputStream();
-			processData(cipher, dataStream, dataOutput);
-			
-			byte[] rawOutput = dataOutput.toByteArray();
-			for (int i = 0; i < DECRYP_CHECK.length; i++) {
-				if (DECRYP_CHECK[i] != rawOutput[i]) {
-					throw new IOException("Decryption failed, missing decrypt check");
-				}
+
+			InputStream decrypting = wrapStream(dataStream);
+			if (decrypting == null) {
+				dataStream.close();
+				throw new IOException("Decryption failed, missing decrypt check");
 			}
-			
-			byte[] output = new byte[rawOutput.length - DECRYP_CHECK.length];
-			System.arraycopy(rawOutput, DECRYP_CHECK.length, output, 0, rawOutput.length - DECRYP_CHECK.length);
-			
+			byte[] output = decrypting.readAllBytes();
+			decrypting.close();
 			return output;
-			
-		} catch (InvalidKeyException | NoSuchAlgorithmException | InvalidKeySpecException | NoSuchPaddingException
-				| InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException
-				| IOException e) {
+
+		} catch (IOException e) {
 			Logger.getInstance().logError(e.getMessage());
 		}
-		
+
 		return null;
-		
+
 	}
-	
-	/**
-	 * Processes the data in the InputStream into the OutputStream,
-	 * applying the given Cipher to it
-	 * @param cipher the Cipher to apply
-	 * @param in the InputStream to fetch data from
-	 * @param out the OutputStream to put the data in
-	 * @throws IllegalBlockSizeException if the block size is illegal
-	 * @throws BadPaddingException if the padding is bad
+
+	/**
+	 * Wraps the passed OutputStream with the returned OutputStream, which
+	 * encrypts everything written to it with AES-GCM. The header is written
+	 * to the passed OutputStream immediately, each full segment as soon as
+	 * more is written, and the final segment when the returned OutputStream
+	 * is closed
+	 * @param stream the OutputStream to write encrypted data to
+	 * @return the encrypting OutputStream, or null if no Cipher could be created
 	 * @throws IOException if file IO errors occur
 	 */
-	private void processData(Cipher cipher, InputStream in, OutputStream out) 
-		throws IllegalBlockSizeException, BadPaddingException, IOException {
-		
-		byte[] inputBuffer = new byte[1024];
-		int len;
-		while ((len = in.read(inputBuffer)) != -1) {
-			byte[] outputBuffer = cipher.update(inputBuffer, 0, len);
-			if (outputBuffer != null) {
-				out.write(outputBuffer);
-			}
-		}
-		byte[] outputBuffer = cipher.doFinal();
-		if (outputBuffer != null) {
-			out.write(outputBuffer);
-		}
-		
-		in.close();
-		out.close();
-		
+	public OutputStream wrapStream(OutputStream stream) throws IOException {
+
+		try {
+
+			byte[] masterSalt = keyManager.getSessionSalt();
+			byte[] fileSalt = KeyManager.randomBytes(KeyManager.SALT_LENGTH);
+			byte[] noncePrefix = KeyManager.randomBytes(NONCE_PREFIX_LENGTH);
+			SecretKeySpec skey = keyManager.getFileKey(masterSalt, fileSalt);
+			Cipher cipher = Cipher.getInstance(AUTHENTICATED_TRANSFORMATION);
+
+			stream.write(AUTHENTICATED_FORMAT);
+			stream.write(masterSalt);
+			stream.write(fileSalt);
+			stream.write(noncePrefix);
+
+			return new AuthenticatedOutputStream(stream, cipher, skey, noncePrefix);
+
+		} catch (GeneralSecurityException e) {
+			Logger.getInstance().logError(e.getMessage());
+		}
+
+		return null;
+
 	}
-	
+
+	/**
+	 * Wraps the passed InputStream with the returned InputStream, which
+	 * decrypts everything read from it. Only the header and the first
+	 * segment or block are read up front, which is enough to tell the
+	 * file format apart and to check that the key is correct
+	 * @param stream the InputStream to read encrypted data from
+	 * @return the decrypting InputStream, or null if the decrypt check failed
+	 * @throws IOException if file IO errors occur
+	 */
+	public InputStream wrapStream(InputStream stream) throws IOException {
+
+		PushbackInputStream pushback = new PushbackInputStream(stream, PREFIX_LENGTH);
+		byte[] prefix = pushback.readNBytes(PREFIX_LENGTH);
+
+		try {
+
+			InputStream decrypting = null;
+			if (startsWith(prefix, AUTHENTICATED_FORMAT) && prefix.length >= AUTHENTICATED_HEADER_LENGTH) {
+				pushback.unread(prefix, AUTHENTICATED_HEADER_LENGTH, prefix.length - AUTHENTICATED_HEADER_LENGTH);
+				AuthenticatedInputStream authenticated = openAuthenticated(prefix, pushback);
+				if (authenticated.authenticate()) {
+					return authenticated;
+				}
+				// a legacy salt that happens to start with the marker
+				pushback = new PushbackInputStream(authenticated.rewind(Arrays.copyOf(prefix, AUTHENTICATED_HEADER_LENGTH)),
+						PREFIX_LENGTH);
+				prefix = pushback.readNBytes(PREFIX_LENGTH);
+			} else if (startsWith(prefix, KEYED_FORMAT) && prefix.length == KEYED_HEADER_LENGTH + BLOCK_LENGTH) {
+				int offset = KEYED_FORMAT.length;
+				byte[] masterSalt = Arrays.copyOfRange(prefix, offset, offset += KeyManager.SALT_LENGTH);
+				byte[] fileSalt = Arrays.copyOfRange(prefix, offset, offset += KeyManager.SALT_LENGTH);
+				byte[] initVec = Arrays.copyOfRange(prefix, offset, offset + IV_LENGTH);
+				SecretKeySpec skey = keyManager.getFileKey(masterSalt, fileSalt);
+				decrypting = openCipherStream(skey, initVec, prefix, KEYED_HEADER_LENGTH, pushback);
+			}
+			// either a legacy file, or a legacy salt that happens to start with a marker
+			if (decrypting == null && prefix.length >= LEGACY_HEADER_LENGTH + BLOCK_LENGTH) {
+				byte[] salt = Arrays.copyOfRange(prefix, 0, KeyManager.LEGACY_SALT_LENGTH);
+				byte[] initVec = Arrays.copyOfRange(prefix, KeyManager.LEGACY_SALT_LENGTH, LEGACY_HEADER_LENGTH);
+				SecretKeySpec skey = keyManager.getLegacyKey(salt);
+				decrypting = openCipherStream(skey, initVec, prefix, LEGACY_HEADER_LENGTH, pushback);
+			}
+			return decrypting;
+
+		} catch (GeneralSecurityException e) {
+			Logger.getInstance().logError(e.getMessage());
+		}
+
+		return null;
+
+	}
+
+	/**
+	 * Wraps the passed InputStream with the returned InputStream, which
+	 * decrypts and authenticates everything read from it if it is in the
+	 * AES-GCM format. Files in the AES-CBC formats carry no authentication,
+	 * so they are returned as they are, positioned at their start
+	 * @param stream the InputStream to read from
+	 * @return the authenticating InputStream, the passed stream's bytes as they are,
+	 * or null if the first segment failed authentication
+	 * @throws IOException if file IO errors occur
+	 */
+	InputStream wrapAuthenticated(InputStream stream) throws IOException {
+
+		PushbackInputStream pushback = new PushbackInputStream(stream, AUTHENTICATED_HEADER_LENGTH);
+		byte[] header = pushback.readNBytes(AUTHENTICATED_HEADER_LENGTH);
+		if (!startsWith(header, AUTHENTICATED_FORMAT) || header.length < AUTHENTICATED_HEADER_LENGTH) {
+			pushback.unread(header);
+			return pushback;
+		}
+
+		try {
+			AuthenticatedInputStream authenticated = openAuthenticated(header, pushback);
+			if (authenticated.authenticate()) {
+				return authenticated;
+			}
+		} catch (GeneralSecurityException e) {
+			Logger.getInstance().logError(e.getMessage());
+		}
+		return null;
+
+	}
+
+	/**
+	 * Creates an AuthenticatedInputStream for the file with the passed header
+	 * @param header the bytes read from the stream, beginning with the file header
+	 * @param stream the stream positioned just after the file header
+	 * @return the AuthenticatedInputStream, not yet authenticated
+	 * @throws GeneralSecurityException if a Cipher cannot be created
+	 */
+	private AuthenticatedInputStream openAuthenticated(byte[] header, InputStream stream)
+			throws GeneralSecurityException {
+		int offset = AUTHENTICATED_FORMAT.length;
+		byte[] masterSalt = Arrays.copyOfRange(header, offset, offset += KeyManager.SALT_LENGTH);
+		byte[] fileSalt = Arrays.copyOfRange(header, offset, offset += KeyManager.SALT_LENGTH);
+		byte[] noncePrefix = Arrays.copyOfRange(header, offset, offset + NONCE_PREFIX_LENGTH);
+		SecretKeySpec skey = keyManager.getFileKey(masterSalt, fileSalt);
+		return new AuthenticatedInputStream(stream, Cipher.getInstance(AUTHENTICATED_TRANSFORMATION), skey, noncePrefix);
+	}
+
+	/**
+	 * Checks the first block of ciphertext for the decrypt check, and if
+	 * present returns a decrypting InputStream positioned just after it
+	 * @param skey the key to decrypt with
+	 * @param initVec the initial vector
+	 * @param prefix the bytes already read from the stream
+	 * @param offset where the ciphertext begins in the prefix
+	 * @param stream the stream the prefix was read from
+	 * @return the decrypting InputStream, or null if the decrypt check failed
+	 * @throws GeneralSecurityException if a Cipher cannot be created
+	 * @throws IOException if file IO errors occur
+	 */
+	private static InputStream openCipherStream(SecretKeySpec skey, byte[] initVec, byte[] prefix, int offset,
+			PushbackInputStream stream) throws GeneralSecurityException, IOException {
+
+		Cipher check = Cipher.getInstance(CHECK_TRANSFORMATION);
+		check.init(Cipher.DECRYPT_MODE, skey, new IvParameterSpec(initVec));
+		byte[] firstBlock = check.update(prefix, offset, BLOCK_LENGTH);
+		if (firstBlock == null || !startsWith(firstBlock, DECRYP_CHECK)) {
+			return null;
+		}
+
+		Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+		cipher.init(Cipher.DECRYPT_MODE, skey, new IvParameterSpec(initVec));
+		stream.unread(prefix, offset, prefix.length - offset);
+		InputStream decrypting = new CipherInputStream(stream, cipher);
+		if (decrypting.readNBytes(DECRYP_CHECK.length).length != DECRYP_CHECK.length) {
+			return null;
+		}
+		return decrypting;
+
+	}
+
+	/**
+	 * Checks if the passed data begins with the passed prefix
+	 * @param data the data to check
+	 * @param prefix the prefix to look for
+	 * @return if the data begins with the prefix
+	 */
+	private static boolean startsWith(byte[] data, byte[] prefix) {
+		if (data.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 }
@@ -0,0 +1,869 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.ccacic.financemanager.logger.Logger;
+import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.model.entry.Entry;
+import com.ccacic.financemanager.model.entry.EntryAssembler;
+import com.ccacic.financemanager.model.entry.EntryFactory;
+import com.ccacic.financemanager.model.entry.EntrySchema;
+import com.ccacic.financemanager.util.DateTimeCodec;
+import com.ccacic.financemanager.util.InternTable;
+
+/**
+ * Encodes and decodes Entries in a compact binary format. A file starts
+ * with a header of the FORMAT bytes and a version byte, followed by a varint
+ * count of Entries. In the current version each Entry is a record laid out
+ * by the EntrySchema of its type: a varint index into the layouts seen so
+ * far in the file, where an index equal to the number of layouts introduces
+ * a new one as the type name and the name and tag of every field, followed
+ * by the value of every field in that order without keys or tags. Records
+ * are read straight into the fields of a new Entry, matching fields by name
+ * so fields added to or removed from an EntrySchema since do no harm.
+ * Files of MAP_VERSION instead hold disassembled ParamMaps, each a varint
+ * count of fields, and each field a key, a tag byte and a value, the form
+ * EntryJournals and archives still use for single Entries without a header.
+ * Strings are dictionary encoded: a varint index into the Strings seen so
+ * far in the file, where an index equal to the size of the dictionary
+ * introduces a new length prefixed UTF-8 String. Values are stored in the
+ * smallest form they can be rebuilt from exactly, so doubles are raw IEEE
+ * 754 bits, whole minute timestamps are varint epoch minutes, and attachment
+ * lists are length prefixed. Instances hold the dictionary and layouts for
+ * a single file and are not thread safe
+ * @author Cameron Cacic
+ *
+ */
+class EntryCodec {
+
+	/**
+	 * Marks a file as holding binary encoded Entries. Files without this
+	 * marker hold Entries as ParamMap text
+	 */
+	static final byte[] FORMAT = new byte[] {'F', 'M', 'E', 'C'};
+	static final int VERSION = 2;
+	/**
+	 * The version of files holding disassembled ParamMaps instead of records
+	 */
+	static final int MAP_VERSION = 1;
+
+	private static final int TAG_NULL = 0;
+	private static final int TAG_STRING = 1;
+	private static final int TAG_BRACKETED = 2;
+	private static final int TAG_DOUBLE = 3;
+	private static final int TAG_MINUTE = 4;
+	private static final int TAG_DATE_TIME = 5;
+	private static final int TAG_UUID = 6;
+	private static final int TAG_LIST = 7;
+
+	private static final int ID_NULL = 0;
+	private static final int ID_UUID = 1;
+	private static final int ID_STRING = 2;
+
+	private static final int DATE_TIME_NULL = 0;
+	private static final int DATE_TIME_MINUTE = 1;
+	private static final int DATE_TIME_SECOND = 2;
+
+	/**
+	 * How the records of a single Entry type are laid out in a file, and
+	 * which fields of its EntrySchema they are read into
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class Layout {
+
+		private final String type;
+		private final EntrySchema<? extends Entry> schema;
+		private final String[] names;
+		private final int[] tags;
+		private final EntrySchema.Field<?>[] targets;
+		private final List<EntrySchema.Field<?>> missing;
+
+		/**
+		 * Creates a new Layout, matching its fields to those of the
+		 * passed EntrySchema by name and FieldType
+		 * @param type the type name of the Entries
+		 * @param schema the EntrySchema of the type, or null if it has no Assembler
+		 * @param names the names of the fields in the order they are written
+		 * @param tags the tags of the fields in the order they are written
+		 * @throws IOException if a tag is not recognized
+		 */
+		private Layout(String type, EntrySchema<? extends Entry> schema, String[] names, int[] tags) throws IOException {
+			this.type = type;
+			this.schema = schema;
+			this.names = names;
+			this.tags = tags;
+			this.targets = new EntrySchema.Field<?>[names.length];
+			this.missing = new ArrayList<>();
+			for (int i = 0; i < names.length; i++) {
+				EntrySchema.FieldType fieldType = fieldType(tags[i]);
+				EntrySchema.Field<?> field = schema == null ? null : schema.getField(names[i]);
+				if (field != null && field.getFieldType() == fieldType) {
+					targets[i] = field;
+				}
+			}
+			if (schema != null) {
+				for (EntrySchema.Field<?> field: schema.getFields()) {
+					if (!Arrays.asList(targets).contains(field)) {
+						missing.add(field);
+					}
+				}
+			}
+		}
+
+	}
+
+	private final Map<String, Integer> writeDictionary;
+	private final List<String> readDictionary;
+	private final Map<String, Integer> writeLayouts;
+	private final List<Layout> readLayouts;
+	private final InternTable table;
+	private final StringBuilder scratch;
+	private int version;
+
+	/**
+	 * Creates a new EntryCodec with an empty dictionary, reading and
+	 * writing single disassembled Entries as in MAP_VERSION files until
+	 * a header says otherwise
+	 */
+	EntryCodec() {
+		this(InternTable.NONE);
+	}
+
+	/**
+	 * Creates a new EntryCodec with an empty dictionary that reads text
+	 * and Files through the passed InternTable. Strings read through the
+	 * dictionary are already shared within a file, so the InternTable
+	 * shares the values built from them
+	 * @param table the InternTable to share text and Files through
+	 */
+	EntryCodec(InternTable table) {
+		this.table = table;
+		scratch = new StringBuilder();
+		writeDictionary = new HashMap<>();
+		readDictionary = new ArrayList<>();
+		writeLayouts = new HashMap<>();
+		readLayouts = new ArrayList<>();
+		version = MAP_VERSION;
+	}
+
+	/**
+	 * Writes the header of a binary Entry file, to be followed by
+	 * records written with writeRecord
+	 * @param out the DataOutputStream to write to
+	 * @param entryCount the number of Entries that will follow
+	 * @throws IOException if file IO errors occur
+	 */
+	void writeHeader(DataOutputStream out, int entryCount) throws IOException {
+		out.write(FORMAT);
+		out.writeByte(VERSION);
+		writeVarInt(out, entryCount);
+		version = VERSION;
+	}
+
+	/**
+	 * Reads the header of a binary Entry file, assuming the FORMAT bytes
+	 * are next in the stream. Either version is accepted, and readRecord
+	 * and readEntry read whichever it holds
+	 * @param in the DataInputStream to read from
+	 * @return the number of Entries that follow
+	 * @throws IOException if the header is not recognized or file IO errors occur
+	 */
+	int readHeader(DataInputStream in) throws IOException {
+		byte[] format = new byte[FORMAT.length];
+		in.readFully(format);
+		for (int i = 0; i < FORMAT.length; i++) {
+			if (format[i] != FORMAT[i]) {
+				throw new IOException("Not a binary Entry file");
+			}
+		}
+		int fileVersion = in.readUnsignedByte();
+		if (fileVersion != VERSION && fileVersion != MAP_VERSION) {
+			throw new IOException("Unsupported Entry file version " + fileVersion);
+		}
+		version = fileVersion;
+		return readVarInt(in);
+	}
+
+	/**
+	 * Returns the version of the file whose header was last read or
+	 * written
+	 * @return the version
+	 */
+	int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Writes the passed Entry as a record laid out by its EntrySchema,
+	 * reading every field straight from the Entry
+	 * @param out the DataOutputStream to write to
+	 * @param entry the Entry to write
+	 * @throws IOException if the Entry type has no EntrySchema or file IO errors occur
+	 */
+	void writeRecord(DataOutputStream out, Entry entry) throws IOException {
+
+		EntrySchema<? extends Entry> schema = EntryFactory.getInstance().getSchema(entry);
+		if (schema == null) {
+			throw new IOException("No schema for entry type " + entry.getClass().getSimpleName());
+		}
+		List<? extends EntrySchema.Field<?>> fields = schema.getFields();
+
+		Integer index = writeLayouts.get(schema.getType());
+		if (index != null) {
+			writeVarInt(out, index);
+		} else {
+			writeVarInt(out, writeLayouts.size());
+			writeLayouts.put(schema.getType(), writeLayouts.size());
+			writeString(out, schema.getType());
+			writeVarInt(out, fields.size());
+			for (EntrySchema.Field<?> field: fields) {
+				writeString(out, field.getName());
+				out.writeByte(tag(field.getFieldType()));
+			}
+		}
+
+		for (EntrySchema.Field<?> field: fields) {
+			switch (field.getFieldType()) {
+			case DOUBLE:
+				out.writeDouble(field.getDouble(entry));
+				break;
+			case ID:
+				writeId(out, (String) field.get(entry));
+				break;
+			case DATE_TIME:
+				writeDateTime(out, (LocalDateTime) field.get(entry));
+				break;
+			case FILES:
+				List<?> files = (List<?>) field.get(entry);
+				if (files == null) {
+					writeVarInt(out, 0);
+				} else {
+					writeVarInt(out, files.size() + 1);
+					for (Object file: files) {
+						writeString(out, file.toString());
+					}
+				}
+				break;
+			default:
+				writeNullableString(out, (String) field.get(entry));
+				break;
+			}
+		}
+
+	}
+
+	/**
+	 * Reads the next Entry, straight into its fields from a record or
+	 * through its Assembler from a disassembled Entry in MAP_VERSION files
+	 * @param in the DataInputStream to read from
+	 * @return the Entry, or null if its type has no Assembler
+	 * @throws IOException if file IO errors occur
+	 */
+	Entry readRecord(DataInputStream in) throws IOException {
+
+		if (version == MAP_VERSION) {
+			return EntryFactory.getInstance().requestItem(readEntry(in), table);
+		}
+
+		Layout layout = readLayout(in);
+		Entry entry = layout.schema == null ? null : layout.schema.create();
+		for (int i = 0; i < layout.tags.length; i++) {
+			EntrySchema.Field<?> target = entry == null ? null : layout.targets[i];
+			if (layout.tags[i] == TAG_DOUBLE) {
+				double value = in.readDouble();
+				if (target != null) {
+					target.setDouble(entry, value);
+				}
+			} else {
+				Object value = readFieldValue(in, layout.tags[i]);
+				if (target != null) {
+					if (layout.tags[i] == TAG_LIST) {
+						@SuppressWarnings("unchecked")
+						List<String> paths = (List<String>) value;
+						value = paths == null ? null : EntrySchema.toFiles(paths, table);
+					}
+					target.set(entry, value);
+				}
+			}
+		}
+		if (entry != null) {
+			for (EntrySchema.Field<?> field: layout.missing) {
+				field.read(entry, null, table);
+			}
+		}
+		return entry;
+
+	}
+
+	/**
+	 * Writes the passed disassembled Entry as in MAP_VERSION files, the
+	 * form single Entries are written in without a header
+	 * @param out the DataOutputStream to write to
+	 * @param paramMap the ParamMap of the Entry
+	 * @throws IOException if file IO errors occur
+	 */
+	void writeEntry(DataOutputStream out, ParamMap paramMap) throws IOException {
+		writeVarInt(out, paramMap.keySet().size());
+		for (String key: paramMap.keySet()) {
+			writeString(out, key);
+			writeValue(out, key, paramMap.get(key));
+		}
+	}
+
+	/**
+	 * Reads the next disassembled Entry, converting records into the
+	 * ParamMap their Assembler would have disassembled them into
+	 * @param in the DataInputStream to read from
+	 * @return the ParamMap of the Entry
+	 * @throws IOException if file IO errors occur
+	 */
+	ParamMap readEntry(DataInputStream in) throws IOException {
+		ParamMap paramMap = new ParamMap();
+		if (version != MAP_VERSION) {
+			Layout layout = readLayout(in);
+			paramMap.putType(layout.type);
+			for (int i = 0; i < layout.tags.length; i++) {
+				String param;
+				if (layout.tags[i] == TAG_DOUBLE) {
+					param = Double.toString(in.readDouble());
+				} else {
+					param = fieldType(layout.tags[i]).format(readFieldValue(in, layout.tags[i]));
+					if (layout.tags[i] == TAG_BRACKETED || layout.tags[i] == TAG_LIST) {
+						param = table.intern(param);
+					}
+				}
+				paramMap.put(layout.names[i], param);
+			}
+			return paramMap;
+		}
+		int fieldCount = readVarInt(in);
+		for (int i = 0; i < fieldCount; i++) {
+			String key = readString(in);
+			paramMap.put(key, readValue(in));
+		}
+		return paramMap;
+	}
+
+	/**
+	 * Checks if the passed bytes begin with the FORMAT marker
+	 * @param head the first bytes of a decrypted file
+	 * @param length how many of the bytes are valid
+	 * @return if the bytes mark a binary Entry file
+	 */
+	static boolean isBinary(byte[] head, int length) {
+		if (length < FORMAT.length) {
+			return false;
+		}
+		for (int i = 0; i < FORMAT.length; i++) {
+			if (head[i] != FORMAT[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the index of the layout of the next record, and the layout
+	 * itself if it is new
+	 * @param in the DataInputStream to read from
+	 * @return the Layout of the record
+	 * @throws IOException if the index is out of range or file IO errors occur
+	 */
+	private Layout readLayout(DataInputStream in) throws IOException {
+
+		int index = readVarInt(in);
+		if (index < readLayouts.size()) {
+			return readLayouts.get(index);
+		}
+		if (index != readLayouts.size()) {
+			throw new IOException("Layout index " + index + " out of range");
+		}
+
+		String type = readString(in);
+		int fieldCount = readVarInt(in);
+		String[] names = new String[fieldCount];
+		int[] tags = new int[fieldCount];
+		for (int i = 0; i < fieldCount; i++) {
+			names[i] = readString(in);
+			tags[i] = in.readUnsignedByte();
+		}
+		EntrySchema<? extends Entry> schema = EntryFactory.getInstance().getSchema(type);
+		if (schema == null) {
+			Logger.getInstance().logError("No assembler found for type " + type);
+		}
+		Layout layout = new Layout(type, schema, names, tags);
+		readLayouts.add(layout);
+		return layout;
+
+	}
+
+	/**
+	 * Reads the value of a field of a record that is not a double
+	 * @param in the DataInputStream to read from
+	 * @param tag the tag of the field
+	 * @return the value, with attachment lists as a List of paths
+	 * @throws IOException if the value is malformed or file IO errors occur
+	 */
+	private Object readFieldValue(DataInputStream in, int tag) throws IOException {
+		switch (tag) {
+		case TAG_UUID:
+			int idKind = in.readUnsignedByte();
+			switch (idKind) {
+			case ID_NULL:
+				return null;
+			case ID_UUID:
+				return new UUID(in.readLong(), in.readLong()).toString();
+			case ID_STRING:
+				return readString(in);
+			default:
+				throw new IOException("Unrecognized identifier kind " + idKind);
+			}
+		case TAG_DATE_TIME:
+			long packed = readVarLong(in);
+			long time = unZigZag(packed >>> 2);
+			switch ((int) (packed & 3)) {
+			case DATE_TIME_NULL:
+				return null;
+			case DATE_TIME_MINUTE:
+				return DateTimeCodec.ofEpochMinute(time);
+			case DATE_TIME_SECOND:
+				return LocalDateTime.ofEpochSecond(time, readVarInt(in), ZoneOffset.UTC);
+			default:
+				throw new IOException("Unrecognized date time kind " + (packed & 3));
+			}
+		case TAG_LIST:
+			int count = readVarInt(in);
+			if (count == 0) {
+				return null;
+			}
+			List<String> paths = new ArrayList<>(count - 1);
+			for (int i = 1; i < count; i++) {
+				paths.add(readString(in));
+			}
+			return paths;
+		default:
+			int index = readVarInt(in);
+			return index == 0 ? null : readString(in, index - 1);
+		}
+	}
+
+	/**
+	 * Writes the passed identifier, as two longs if it is a UUID
+	 * @param out the DataOutputStream to write to
+	 * @param id the identifier
+	 * @throws IOException if file IO errors occur
+	 */
+	private void writeId(DataOutputStream out, String id) throws IOException {
+		if (id == null) {
+			out.writeByte(ID_NULL);
+			return;
+		}
+		UUID uuid = toUuid(id);
+		if (uuid != null) {
+			out.writeByte(ID_UUID);
+			out.writeLong(uuid.getMostSignificantBits());
+			out.writeLong(uuid.getLeastSignificantBits());
+		} else {
+			out.writeByte(ID_STRING);
+			writeString(out, id);
+		}
+	}
+
+	/**
+	 * Writes the passed LocalDateTime as a single varint holding its kind
+	 * in the lowest two bits, followed by the nanoseconds if it does not
+	 * fall on a whole minute
+	 * @param out the DataOutputStream to write to
+	 * @param dateTime the LocalDateTime, or null
+	 * @throws IOException if file IO errors occur
+	 */
+	private static void writeDateTime(DataOutputStream out, LocalDateTime dateTime) throws IOException {
+		if (dateTime == null) {
+			writeVarLong(out, DATE_TIME_NULL);
+			return;
+		}
+		long epochSecond = dateTime.toEpochSecond(ZoneOffset.UTC);
+		if (dateTime.getSecond() == 0 && dateTime.getNano() == 0) {
+			writeVarLong(out, zigZag(epochSecond / 60) << 2 | DATE_TIME_MINUTE);
+		} else {
+			writeVarLong(out, zigZag(epochSecond) << 2 | DATE_TIME_SECOND);
+			writeVarInt(out, dateTime.getNano());
+		}
+	}
+
+	/**
+	 * Returns the tag record layouts give fields of the passed FieldType
+	 * @param type the FieldType
+	 * @return the tag
+	 */
+	private static int tag(EntrySchema.FieldType type) {
+		switch (type) {
+		case ID:
+			return TAG_UUID;
+		case TEXT:
+			return TAG_BRACKETED;
+		case DOUBLE:
+			return TAG_DOUBLE;
+		case DATE_TIME:
+			return TAG_DATE_TIME;
+		case FILES:
+			return TAG_LIST;
+		default:
+			return TAG_STRING;
+		}
+	}
+
+	/**
+	 * Returns the FieldType of fields with the passed tag in record layouts
+	 * @param tag the tag
+	 * @return the FieldType
+	 * @throws IOException if the tag is not recognized
+	 */
+	private static EntrySchema.FieldType fieldType(int tag) throws IOException {
+		switch (tag) {
+		case TAG_UUID:
+			return EntrySchema.FieldType.ID;
+		case TAG_STRING:
+			return EntrySchema.FieldType.STRING;
+		case TAG_BRACKETED:
+			return EntrySchema.FieldType.TEXT;
+		case TAG_DOUBLE:
+			return EntrySchema.FieldType.DOUBLE;
+		case TAG_DATE_TIME:
+			return EntrySchema.FieldType.DATE_TIME;
+		case TAG_LIST:
+			return EntrySchema.FieldType.FILES;
+		default:
+			throw new IOException("Unrecognized field tag " + tag);
+		}
+	}
+
+	/**
+	 * Writes the passed value in the most compact form that decodes
+	 * back to exactly the same String
+	 * @param out the DataOutputStream to write to
+	 * @param key the key of the value
+	 * @param value the value to write
+	 * @throws IOException if file IO errors occur
+	 */
+	private void writeValue(DataOutputStream out, String key, String value) throws IOException {
+
+		if (value == null) {
+			out.writeByte(TAG_NULL);
+			return;
+		}
+
+		int length = value.length();
+		if (length >= 2 && value.charAt(0) == '{' && value.charAt(length - 1) == '}') {
+			String inner = value.substring(1, length - 1);
+			if (EntryAssembler.FILES.equals(key)) {
+				String[] items = inner.isEmpty() ? new String[0] : inner.split(",", -1);
+				out.writeByte(TAG_LIST);
+				writeVarInt(out, items.length);
+				for (String item: items) {
+					writeString(out, item);
+				}
+			} else {
+				out.writeByte(TAG_BRACKETED);
+				writeString(out, inner);
+			}
+			return;
+		}
+
+		if (looksNumeric(value)) {
+			try {
+				double d = Double.parseDouble(value);
+				if (Double.toString(d).equals(value)) {
+					out.writeByte(TAG_DOUBLE);
+					out.writeDouble(d);
+					return;
+				}
+			} catch (NumberFormatException e) {
+				// not a double after all
+			}
+		}
+
+		if (length >= 16 && value.charAt(4) == '-' && value.charAt(10) == 'T') {
+			try {
+				LocalDateTime dateTime = DateTimeCodec.parse(value);
+				if (DateTimeCodec.format(dateTime).equals(value)) {
+					long epochSecond = dateTime.toEpochSecond(ZoneOffset.UTC);
+					if (dateTime.getSecond() == 0 && dateTime.getNano() == 0) {
+						out.writeByte(TAG_MINUTE);
+						writeVarLong(out, zigZag(epochSecond / 60));
+					} else {
+						out.writeByte(TAG_DATE_TIME);
+						writeVarLong(out, zigZag(epochSecond));
+						writeVarInt(out, dateTime.getNano());
+					}
+					return;
+				}
+			} catch (DateTimeException e) {
+				// not a date time after all
+			}
+		}
+
+		UUID uuid = toUuid(value);
+		if (uuid != null) {
+			out.writeByte(TAG_UUID);
+			out.writeLong(uuid.getMostSignificantBits());
+			out.writeLong(uuid.getLeastSignificantBits());
+			return;
+		}
+
+		out.writeByte(TAG_STRING);
+		writeString(out, value);
+
+	}
+
+	/**
+	 * Reads a value written by writeValue
+	 * @param in the DataInputStream to read from
+	 * @return the value as a String
+	 * @throws IOException if the tag is not recognized or file IO errors occur
+	 */
+	private String readValue(DataInputStream in) throws IOException {
+
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_STRING:
+			return readString(in);
+		case TAG_BRACKETED:
+			scratch.setLength(0);
+			scratch.append('{').append(readString(in)).append('}');
+			return table.intern(scratch, 0, scratch.length());
+		case TAG_DOUBLE:
+			return Double.toString(in.readDouble());
+		case TAG_MINUTE:
+			return DateTimeCodec.format(DateTimeCodec.ofEpochMinute(unZigZag(readVarLong(in))));
+		case TAG_DATE_TIME:
+			long epochSecond = unZigZag(readVarLong(in));
+			return DateTimeCodec.format(LocalDateTime.ofEpochSecond(epochSecond, readVarInt(in), ZoneOffset.UTC));
+		case TAG_UUID:
+			return new UUID(in.readLong(), in.readLong()).toString();
+		case TAG_LIST:
+			int count = readVarInt(in);
+			scratch.setLength(0);
+			scratch.append('{');
+			for (int i = 0; i < count; i++) {
+				if (i > 0) {
+					scratch.append(',');
+				}
+				scratch.append(readString(in));
+			}
+			scratch.append('}');
+			return table.intern(scratch, 0, scratch.length());
+		default:
+			throw new IOException("Unrecognized value tag " + tag);
+		}
+
+	}
+
+	/**
+	 * Writes the passed String through the dictionary
+	 * @param out the DataOutputStream to write to
+	 * @param str the String to write
+	 * @throws IOException if file IO errors occur
+	 */
+	private void writeString(DataOutputStream out, String str) throws IOException {
+		writeString(out, str, 0);
+	}
+
+	/**
+	 * Writes the passed String, which may be null, through the dictionary
+	 * with its index shifted up by one, as 0 stands for null
+	 * @param out the DataOutputStream to write to
+	 * @param str the String to write, or null
+	 * @throws IOException if file IO errors occur
+	 */
+	private void writeNullableString(DataOutputStream out, String str) throws IOException {
+		if (str == null) {
+			writeVarInt(out, 0);
+		} else {
+			writeString(out, str, 1);
+		}
+	}
+
+	/**
+	 * Writes the passed String through the dictionary, adding the passed
+	 * shift to the index
+	 * @param out the DataOutputStream to write to
+	 * @param str the String to write
+	 * @param shift what to add to the index
+	 * @throws IOException if file IO errors occur
+	 */
+	private void writeString(DataOutputStream out, String str, int shift) throws IOException {
+		Integer index = writeDictionary.get(str);
+		if (index != null) {
+			writeVarInt(out, index + shift);
+			return;
+		}
+		int newIndex = writeDictionary.size();
+		writeDictionary.put(str, newIndex);
+		writeVarInt(out, newIndex + shift);
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a String written by writeString
+	 * @param in the DataInputStream to read from
+	 * @return the String
+	 * @throws IOException if the index is out of range or file IO errors occur
+	 */
+	private String readString(DataInputStream in) throws IOException {
+		return readString(in, readVarInt(in));
+	}
+
+	/**
+	 * Reads a String written by writeString whose index was already read
+	 * @param in the DataInputStream to read from
+	 * @param index the index of the String in the dictionary
+	 * @return the String
+	 * @throws IOException if the index is out of range or file IO errors occur
+	 */
+	private String readString(DataInputStream in, int index) throws IOException {
+		if (index < readDictionary.size()) {
+			return readDictionary.get(index);
+		}
+		if (index != readDictionary.size()) {
+			throw new IOException("Dictionary index " + index + " out of range");
+		}
+		byte[] bytes = new byte[readVarInt(in)];
+		in.readFully(bytes);
+		String str = new String(bytes, StandardCharsets.UTF_8);
+		readDictionary.add(str);
+		return str;
+	}
+
+	/**
+	 * Converts the passed String into a UUID if it is the canonical
+	 * form of one, so it can be stored as two longs
+	 * @param value the String to convert
+	 * @return the UUID, or null if the String is not one
+	 */
+	private static UUID toUuid(String value) {
+		if (value.length() != 36 || value.charAt(8) != '-') {
+			return null;
+		}
+		try {
+			UUID uuid = UUID.fromString(value);
+			return uuid.toString().equals(value) ? uuid : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Cheaply checks if the passed String only holds characters that
+	 * can appear in the toString of a double
+	 * @param value the String to check
+	 * @return if the String could be a double
+	 */
+	private static boolean looksNumeric(String value) {
+		if (value.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c < '0' || c > '9') && c != '.' && c != '-' && c != 'E') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the passed non-negative int as a varint
+	 * @param out the OutputStream to write to
+	 * @param value the value to write
+	 * @throws IOException if file IO errors occur
+	 */
+	static void writeVarInt(OutputStream out, int value) throws IOException {
+		writeVarLong(out, value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Writes the passed long as an unsigned varint, seven bits at a time
+	 * @param out the OutputStream to write to
+	 * @param value the value to write
+	 * @throws IOException if file IO errors occur
+	 */
+	static void writeVarLong(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Reads a varint written by writeVarInt
+	 * @param in the InputStream to read from
+	 * @return the value read
+	 * @throws IOException if file IO errors occur
+	 */
+	static int readVarInt(InputStream in) throws IOException {
+		return (int) readVarLong(in);
+	}
+
+	/**
+	 * Reads a varint written by writeVarLong
+	 * @param in the InputStream to read from
+	 * @return the value read
+	 * @throws IOException if the varint is malformed or file IO errors occur
+	 */
+	static long readVarLong(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b == -1) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Maps signed values onto unsigned ones so small negative
+	 * values stay small as varints
+	 * @param value the signed value
+	 * @return the zigzag encoded value
+	 */
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Reverses zigZag
+	 * @param value the zigzag encoded value
+	 * @return the signed value
+	 */
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
@@ -1,24 +1,90 @@
 package com.ccacic.financemanager.fileio;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import com.ccacic.financemanager.logger.Logger;
 import com.ccacic.financemanager.model.ParamMap;
 import com.ccacic.financemanager.model.entry.Entry;
 import com.ccacic.financemanager.model.entry.EntryFactory;
-import com.ccacic.financemanager.util.StringProcessing;
+import com.ccacic.financemanager.util.InternTable;
+import com.ccacic.financemanager.util.ParamTokenizer;
 
 /**
- * Provides Entry specific FileIO methods
+ * Provides Entry specific FileIO methods. Entries are streamed
+ * to and from their Files one at a time, so only a single
+ * encoded Entry is ever held in memory. Entries are written
+ * in the binary format of EntryCodec, straight from the fields
+ * EntrySchemas describe, and Files still in an older binary
+ * version or the ParamMap text format are read transparently.
+ * Entry Files are compressed with ENTRY_CODEC
  * @author Cameron Cacic
  *
  */
 public class EntryFileIO extends FileIO {
 
 	/**
-	 * Loads the passed File as a List of Entries
+	 * The FileCodec Entry Files are written with. Entry Files are read
+	 * far more often than they are written, whenever an EntryChunk is
+	 * loaded back into memory, so they favor fast decompression
+	 */
+	static final FileCodec ENTRY_CODEC = FileCodec.LZ;
+
+	/**
+	 * The version of the binary format Entry Files are written in. Files
+	 * read in any other format are migrated the next time they are written
+	 */
+	public static final int FORMAT_VERSION = EntryCodec.VERSION;
+
+	/**
+	 * Receives disassembled Entries one at a time as they are read
+	 * @author Cameron Cacic
+	 *
+	 */
+	@FunctionalInterface
+	public interface EntryMapConsumer {
+		
+		/**
+		 * Accepts the next disassembled Entry
+		 * @param entryMap the ParamMap of the Entry
+		 * @throws IOException if file IO errors occur
+		 */
+		void accept(ParamMap entryMap) throws IOException;
+		
+	}
+
+	/**
+	 * Receives Entries one at a time as they are read
+	 * @author Cameron Cacic
+	 *
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer {
+		
+		/**
+		 * Accepts the next Entry
+		 * @param entry the Entry
+		 * @throws IOException if file IO errors occur
+		 */
+		void accept(Entry entry) throws IOException;
+		
+	}
+
+	/**
+	 * Loads the passed File as a List of Entries. Both the binary
+	 * format of EntryCodec and the older ParamMap text format are
+	 * read, so text files are migrated the next time they are written
 	 * @param sourceFile the File to read
 	 * @param expectedHash the expected hash of the File
 	 * @return a List of Entries from the File
@@ -26,23 +92,161 @@ public class EntryFileIO extends FileIO {
 	 */
 	public List<Entry> loadEntries(File sourceFile, String expectedHash) throws IOException {
 		
-		String entryStrings = loadFile(sourceFile, expectedHash);
 		List<Entry> entries = new ArrayList<>();
-		if (entryStrings == null) {
-			return entries;
+		readEntries(sourceFile, expectedHash, entries::add);
+		return entries;
+		
+	}
+	
+	/**
+	 * Reads the passed File one Entry at a time, passing each to the passed
+	 * EntryConsumer. Entries are read straight into their fields through the
+	 * EntrySchema of their type, without a ParamMap in between, unless the
+	 * File predates records. Entries of a type without an Assembler are skipped
+	 * @param sourceFile the File to read
+	 * @param expectedHash the expected hash of the File
+	 * @param consumer the EntryConsumer to pass each Entry to
+	 * @return if the File is in the current binary format, as opposed to an
+	 * older one that should be migrated
+	 * @throws IOException if file IO errors occur
+	 */
+	public boolean readEntries(File sourceFile, String expectedHash, EntryConsumer consumer) throws IOException {
+		return read(openInputStream(sourceFile, expectedHash), null, consumer);
+	}
+	
+	/**
+	 * Reads the passed raw bytes of an Entry File kept somewhere other than
+	 * a File of its own one Entry at a time, passing each to the passed
+	 * EntryConsumer
+	 * @param rawStream the raw bytes of the Entry File
+	 * @param sourceFile the File the bytes were written as, used to report failures
+	 * @param expectedHash the expected hash of the Entry File
+	 * @param consumer the EntryConsumer to pass each Entry to
+	 * @return if the Entry File is in the current binary format
+	 * @throws IOException if file IO errors occur
+	 */
+	boolean readEntries(InputStream rawStream, File sourceFile, String expectedHash, EntryConsumer consumer)
+			throws IOException {
+		return read(openInputStream(rawStream, sourceFile, expectedHash, User.getCurrentUser().getKeyManager()), null, consumer);
+	}
+	
+	/**
+	 * Reads the passed File one disassembled Entry at a time, passing
+	 * each to the passed EntryMapConsumer without building the Entries.
+	 * Both the binary format of EntryCodec and the older ParamMap text
+	 * format are read
+	 * @param sourceFile the File to read
+	 * @param expectedHash the expected hash of the File
+	 * @param consumer the EntryMapConsumer to pass each disassembled Entry to
+	 * @throws IOException if file IO errors occur
+	 */
+	public void readEntryMaps(File sourceFile, String expectedHash, EntryMapConsumer consumer) throws IOException {
+		read(openInputStream(sourceFile, expectedHash), consumer, null);
+	}
+	
+	/**
+	 * Reads the passed raw bytes of an Entry File kept somewhere other than
+	 * a File of its own one disassembled Entry at a time, passing each to
+	 * the passed EntryMapConsumer
+	 * @param rawStream the raw bytes of the Entry File
+	 * @param sourceFile the File the bytes were written as, used to report failures
+	 * @param expectedHash the expected hash of the Entry File
+	 * @param consumer the EntryMapConsumer to pass each disassembled Entry to
+	 * @throws IOException if file IO errors occur
+	 */
+	void readEntryMaps(InputStream rawStream, File sourceFile, String expectedHash, EntryMapConsumer consumer)
+			throws IOException {
+		read(openInputStream(rawStream, sourceFile, expectedHash, User.getCurrentUser().getKeyManager()), consumer, null);
+	}
+	
+	/**
+	 * Reads the passed decrypted contents of an Entry File one Entry at a
+	 * time through an InternTable of its own, so that the Entries read
+	 * share their keys, types, recurring text and Files, and logs how
+	 * much heap that saved
+	 * @param stream the contents of the Entry File, or null if decryption failed
+	 * @param mapConsumer the EntryMapConsumer to pass each disassembled Entry to, or null
+	 * @param entryConsumer the EntryConsumer to pass each Entry to, or null
+	 * @return if the contents are in the current binary format
+	 * @throws IOException if file IO errors occur
+	 */
+	private static boolean read(InputStream stream, EntryMapConsumer mapConsumer, EntryConsumer entryConsumer)
+			throws IOException {
+		
+		InternTable table = new InternTable();
+		boolean current = read(stream, mapConsumer, entryConsumer, table);
+		if (table.getHits() > 0) {
+			Logger.getInstance().logDebug("Shared " + table.getHits() + " repeated Strings and Files while reading Entries, saving about "
+					+ table.getSavedBytes() + " bytes");
 		}
-		List<String> entryStringList = StringProcessing.pullBracketSections(entryStrings);
-		EntryFactory factory = EntryFactory.getInstance();
-		for (String entryStr: entryStringList) {
-			ParamMap entryMap = ParamMap.decode(entryStr, false);
-			entries.add(factory.requestItem(entryMap));
+		return current;
+		
+	}
+	
+	/**
+	 * Reads the passed decrypted contents of an Entry File one Entry at a
+	 * time, closing the stream once done. Exactly one of the consumers is
+	 * passed, and decides if Entries are built or only disassembled
+	 * @param stream the contents of the Entry File, or null if decryption failed
+	 * @param mapConsumer the EntryMapConsumer to pass each disassembled Entry to, or null
+	 * @param entryConsumer the EntryConsumer to pass each Entry to, or null
+	 * @param table the InternTable to share Strings and Files through
+	 * @return if the contents are in the current binary format, as opposed
+	 * to an older binary version or the ParamMap text format
+	 * @throws IOException if file IO errors occur
+	 */
+	static boolean read(InputStream stream, EntryMapConsumer mapConsumer, EntryConsumer entryConsumer, InternTable table)
+			throws IOException {
+		
+		if (stream == null) {
+			return true;
+		}
+		
+		try (stream) {
+			byte[] head = new byte[EntryCodec.FORMAT.length];
+			stream.mark(head.length);
+			int headLength = stream.readNBytes(head, 0, head.length);
+			stream.reset();
+			
+			if (EntryCodec.isBinary(head, headLength)) {
+				DataInputStream in = new DataInputStream(stream);
+				EntryCodec codec = new EntryCodec(table);
+				int entryCount = codec.readHeader(in);
+				for (int i = 0; i < entryCount; i++) {
+					if (entryConsumer == null) {
+						mapConsumer.accept(codec.readEntry(in));
+					} else {
+						Entry entry = codec.readRecord(in);
+						if (entry != null) {
+							entryConsumer.accept(entry);
+						}
+					}
+				}
+				return codec.getVersion() == EntryCodec.VERSION;
+			} else {
+				EntryFactory factory = EntryFactory.getInstance();
+				Reader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+				// reused for every Entry, which is decoded straight out of it
+				StringBuilder section = new StringBuilder();
+				while (ParamTokenizer.readSection(reader, section)) {
+					if (entryConsumer == null) {
+						mapConsumer.accept(ParamMap.decode(section, false, table));
+					} else {
+						Entry entry = factory.requestItem(section, 0, section.length(), table);
+						if (entry != null) {
+							entryConsumer.accept(entry);
+						}
+					}
+				}
+				return false;
+			}
 		}
-		return entries;
 		
 	}
 
 	/**
-	 * Writes the passed Entries to the passed File
+	 * Writes the passed Entries to the passed File in the binary
+	 * format of EntryCodec
 	 * @param file the File to write to
 	 * @param entries the Entries to write
 	 * @return the hash of the File post writing Entries
@@ -50,15 +254,45 @@ public class EntryFileIO extends FileIO {
 	 */
 	public String writeEntries(File file, List<Entry> entries) throws IOException {
 		
-		StringBuilder stringBuilder = new StringBuilder();
-		EntryFactory factory = EntryFactory.getInstance();
-		for (Entry entry: entries) {
-			String encoded = factory.requestDisassembly(entry).encode();
-			stringBuilder.append(encoded);
+		HashedOutputStream stream = openOutputStream(file, User.getCurrentUser().getKeyManager(), ENTRY_CODEC);
+		try (DataOutputStream out = new DataOutputStream(stream)) {
+			encodeEntries(out, entries);
 		}
-
-		return writeToFile(file, stringBuilder.toString());
+		return stream.getHash();
+		
+	}
+	
+	/**
+	 * Encodes the passed Entries in the binary format of EntryCodec
+	 * right away, and queues them to be written to the passed File
+	 * by the PersistenceService
+	 * @param file the File to write to
+	 * @param entries the Entries to write
+	 * @return a future for the hash of the File post writing Entries
+	 * @throws IOException if the Entries cannot be encoded
+	 */
+	public CompletableFuture<String> writeEntriesLater(File file, List<Entry> entries) throws IOException {
 		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			encodeEntries(out, entries);
+		}
+		return PersistenceService.getInstance().write(file, bytes.toByteArray(), User.getCurrentUser().getKeyManager(), ENTRY_CODEC);
+		
+	}
+	
+	/**
+	 * Writes the header and the passed Entries to the passed stream
+	 * @param out the stream to write to
+	 * @param entries the Entries to write
+	 * @throws IOException if file IO errors occur
+	 */
+	private static void encodeEntries(DataOutputStream out, List<Entry> entries) throws IOException {
+		EntryCodec codec = new EntryCodec();
+		codec.writeHeader(out, entries.size());
+		for (Entry entry: entries) {
+			codec.writeRecord(out, entry);
+		}
 	}
 	
 }
@@ -0,0 +1,402 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.ccacic.financemanager.logger.Logger;
+import com.ccacic.financemanager.model.ParamMap;
+
+/**
+ * An append-only record of the changes made to the Entries of a single
+ * Account since its EntryChunks were last committed. Each change is a
+ * Record naming the Operation, the EntryChunk it was made in and the
+ * disassembled Entry, or for modifications just the changed fields.
+ * Records are framed with their length and a CRC32, and encrypted one
+ * at a time with the current User's KeyManager, so a change costs a
+ * single small append no matter how large its EntryChunk is. The offsets
+ * of the Records appended for each EntryChunk are kept, so reading back the
+ * Records of one EntryChunk only decrypts those. A Record torn by a crash
+ * is detected and discarded along with anything after it. Thread safe
+ * @author Cameron Cacic
+ *
+ */
+public class EntryJournal {
+
+	/**
+	 * The kinds of changes recorded in an EntryJournal
+	 * @author Cameron Cacic
+	 *
+	 */
+	public enum Operation {
+		ADD, REMOVE, MODIFY
+	}
+
+	/**
+	 * A single change read back from an EntryJournal
+	 * @author Cameron Cacic
+	 *
+	 */
+	public static final class Record {
+
+		private final Operation operation;
+		private final String chunkId;
+		private final ParamMap entryMap;
+
+		/**
+		 * Creates a new Record
+		 * @param operation the Operation performed
+		 * @param chunkId the ID of the EntryChunk it was performed in
+		 * @param entryMap the disassembled Entry, or its changed fields
+		 */
+		private Record(Operation operation, String chunkId, ParamMap entryMap) {
+			this.operation = operation;
+			this.chunkId = chunkId;
+			this.entryMap = entryMap;
+		}
+
+		/**
+		 * Returns the Operation performed
+		 * @return the Operation
+		 */
+		public Operation getOperation() {
+			return operation;
+		}
+
+		/**
+		 * Returns the ID of the EntryChunk the Operation was performed in
+		 * @return the EntryChunk ID
+		 */
+		public String getChunkId() {
+			return chunkId;
+		}
+
+		/**
+		 * Returns the disassembled Entry for ADD and REMOVE, or the
+		 * type, ID and changed fields of the Entry for MODIFY
+		 * @return the Entry ParamMap
+		 */
+		public ParamMap getEntryMap() {
+			return entryMap;
+		}
+
+	}
+
+	private static final int PLAIN = 0;
+	private static final int ENCRYPTED = 1;
+
+	private final File journalFile;
+	/**
+	 * Maps the ID of each EntryChunk with Records appended since the journal
+	 * was last recovered to the offsets of those Records, in ascending order
+	 */
+	private final Map<String, List<Long>> recordOffsets;
+	private long length;
+
+	/**
+	 * Creates a new EntryJournal backed by the passed File. Nothing is
+	 * read until recover is called
+	 * @param journalFile the File to append Records to
+	 */
+	public EntryJournal(File journalFile) {
+		this.journalFile = journalFile;
+		this.recordOffsets = new HashMap<>();
+		this.length = journalFile.length();
+	}
+
+	/**
+	 * Reads every intact Record left in the journal File, such as those
+	 * of a session that ended before its changes were committed. Any
+	 * torn Record at the end of the File is cut off. The returned Records
+	 * are not considered by hasRecords or readRecords, and should be
+	 * applied again and then dropped by passing the length the journal
+	 * had after recovering to compact
+	 * @return the recovered Records, in the order they were appended
+	 * @throws IOException if file IO errors occur
+	 */
+	public synchronized List<Record> recover() throws IOException {
+
+		List<Record> records = new ArrayList<>();
+		if (!journalFile.exists()) {
+			length = 0;
+			return records;
+		}
+
+		long validLength = readRecords(records);
+		if (validLength < journalFile.length()) {
+			Logger.getInstance().logWarning("Discarding " + (journalFile.length() - validLength)
+					+ " bytes of torn records from journal " + journalFile);
+			try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+				file.setLength(validLength);
+			}
+		}
+		length = validLength;
+		recordOffsets.clear();
+		return records;
+
+	}
+
+	/**
+	 * Appends a Record to the journal File and forces it to the storage device
+	 * @param operation the Operation performed
+	 * @param chunkId the ID of the EntryChunk it was performed in
+	 * @param entryMap the disassembled Entry, or its changed fields
+	 * @throws IOException if file IO errors occur
+	 */
+	public synchronized void append(Operation operation, String chunkId, ParamMap entryMap) throws IOException {
+		appendAll(operation, chunkId, Collections.singletonList(entryMap));
+	}
+
+	/**
+	 * Appends a Record for each of the passed disassembled Entries to the
+	 * journal File, forcing them to the storage device together once all
+	 * are written
+	 * @param operation the Operation performed on every Entry
+	 * @param chunkId the ID of the EntryChunk it was performed in
+	 * @param entryMaps the disassembled Entries, or their changed fields
+	 * @throws IOException if file IO errors occur
+	 */
+	public synchronized void appendAll(Operation operation, String chunkId, List<ParamMap> entryMaps) throws IOException {
+
+		if (entryMaps.isEmpty()) {
+			return;
+		}
+
+		KeyManager keyManager = User.getCurrentUser().getKeyManager();
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		DataOutputStream framesOut = new DataOutputStream(frames);
+		List<Long> offsets = new ArrayList<>(entryMaps.size());
+		for (ParamMap entryMap: entryMaps) {
+
+			ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			payload.write(PLAIN);
+			OutputStream content = payload;
+			if (keyManager != null) {
+				ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+				encrypted.write(ENCRYPTED);
+				Encryption encryption = new Encryption(keyManager);
+				OutputStream encrypting = encryption.wrapStream(encrypted);
+				if (encrypting != null) {
+					payload = encrypted;
+					content = encrypting;
+				}
+			}
+			try (DataOutputStream out = new DataOutputStream(content)) {
+				out.writeByte(operation.ordinal());
+				out.writeUTF(chunkId);
+				new EntryCodec().writeEntry(out, entryMap);
+			}
+			byte[] bytes = payload.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+
+			offsets.add(length + frames.size());
+			framesOut.writeInt(bytes.length);
+			framesOut.writeInt((int) crc.getValue());
+			framesOut.write(bytes);
+
+		}
+
+		File parent = journalFile.getParentFile();
+		if (!parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Failed to create directories described in " + parent);
+		}
+		try (FileOutputStream file = new FileOutputStream(journalFile, true)) {
+			frames.writeTo(file);
+			file.getFD().sync();
+		}
+		length += frames.size();
+		recordOffsets.computeIfAbsent(chunkId, k -> new ArrayList<>()).addAll(offsets);
+
+	}
+
+	/**
+	 * Checks if any Records were appended for the passed EntryChunk
+	 * since the journal was last recovered or compacted
+	 * @param chunkId the ID of the EntryChunk
+	 * @return if the EntryChunk has Records
+	 */
+	public synchronized boolean hasRecords(String chunkId) {
+		return recordOffsets.containsKey(chunkId);
+	}
+
+	/**
+	 * Reads back the Records appended for the passed EntryChunk since
+	 * the journal was last recovered or compacted, seeking straight to
+	 * each of them so the Records of other EntryChunks are never read
+	 * @param chunkId the ID of the EntryChunk
+	 * @return the Records of the EntryChunk, in the order they were appended
+	 * @throws IOException if file IO errors occur
+	 */
+	public synchronized List<Record> readRecords(String chunkId) throws IOException {
+		List<Record> records = new ArrayList<>();
+		List<Long> offsets = recordOffsets.get(chunkId);
+		if (offsets == null) {
+			return records;
+		}
+		KeyManager keyManager = User.getCurrentUser().getKeyManager();
+		try (RandomAccessFile file = new RandomAccessFile(journalFile, "r")) {
+			for (long offset: offsets) {
+				file.seek(offset);
+				Record record = readRecord(file, keyManager);
+				if (record == null) {
+					break;
+				}
+				records.add(record);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Returns the length of the journal File, which can be passed to
+	 * compact once everything appended so far has been committed
+	 * @return the length of the journal
+	 */
+	public synchronized long getLength() {
+		return length;
+	}
+
+	/**
+	 * Drops the passed number of bytes from the start of the journal,
+	 * which should be a length returned by getLength before the changes
+	 * it covers were committed. Records appended after that are kept.
+	 * The journal File is deleted once it is empty
+	 * @param committedLength the length of the journal that was committed
+	 * @throws IOException if file IO errors occur
+	 */
+	public synchronized void compact(long committedLength) throws IOException {
+
+		if (committedLength <= 0) {
+			return;
+		}
+
+		if (committedLength >= length) {
+			if (journalFile.exists() && !journalFile.delete()) {
+				throw new IOException("Failed to delete journal " + journalFile);
+			}
+		} else {
+			byte[] remaining = new byte[(int) (length - committedLength)];
+			try (RandomAccessFile file = new RandomAccessFile(journalFile, "r")) {
+				file.seek(committedLength);
+				file.readFully(remaining);
+			}
+			File compacted = new File(journalFile.getParentFile(), journalFile.getName() + FileHandler.TMP_EXTENSION);
+			try (FileOutputStream file = new FileOutputStream(compacted)) {
+				file.write(remaining);
+				file.getFD().sync();
+			}
+			Files.move(compacted.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		committedLength = Math.min(committedLength, length);
+		length -= committedLength;
+		Iterator<List<Long>> iterator = recordOffsets.values().iterator();
+		while (iterator.hasNext()) {
+			List<Long> offsets = iterator.next();
+			List<Long> kept = new ArrayList<>(offsets.size());
+			for (long offset: offsets) {
+				if (offset >= committedLength) {
+					kept.add(offset - committedLength);
+				}
+			}
+			if (kept.isEmpty()) {
+				iterator.remove();
+			} else {
+				offsets.clear();
+				offsets.addAll(kept);
+			}
+		}
+
+	}
+
+	/**
+	 * Reads every intact Record of the journal File into the passed List,
+	 * stopping at the first torn or unreadable Record
+	 * @param records the List to add Records to
+	 * @return the offset just past the last intact Record
+	 * @throws IOException if file IO errors occur
+	 */
+	private long readRecords(List<Record> records) throws IOException {
+
+		KeyManager keyManager = User.getCurrentUser().getKeyManager();
+		long offset = 0;
+		try (RandomAccessFile file = new RandomAccessFile(journalFile, "r")) {
+			Record record;
+			while ((record = readRecord(file, keyManager)) != null) {
+				records.add(record);
+				offset = file.getFilePointer();
+			}
+		}
+		return offset;
+
+	}
+
+	/**
+	 * Reads the Record at the current position of the passed journal File
+	 * @param file the journal File, positioned at the start of a Record
+	 * @param keyManager the KeyManager to decrypt the Record with, or null
+	 * @return the Record, or null if it is torn or unreadable
+	 * @throws IOException if file IO errors occur
+	 */
+	private Record readRecord(RandomAccessFile file, KeyManager keyManager) throws IOException {
+
+		byte[] bytes;
+		try {
+			int recordLength = file.readInt();
+			int expectedCrc = file.readInt();
+			if (recordLength <= 0 || recordLength > file.length() - file.getFilePointer()) {
+				return null;
+			}
+			bytes = new byte[recordLength];
+			file.readFully(bytes);
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			if ((int) crc.getValue() != expectedCrc) {
+				return null;
+			}
+		} catch (EOFException e) {
+			return null;
+		}
+
+		InputStream content = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+		if (bytes[0] == ENCRYPTED) {
+			if (keyManager == null) {
+				return null;
+			}
+			content = new Encryption(keyManager).wrapStream(content);
+			if (content == null) {
+				Logger.getInstance().logError("Decryption failed on a record of journal " + journalFile);
+				return null;
+			}
+		}
+		try (DataInputStream in = new DataInputStream(content)) {
+			Operation operation = Operation.values()[in.readUnsignedByte()];
+			String chunkId = in.readUTF();
+			return new Record(operation, chunkId, new EntryCodec().readEntry(in));
+		} catch (IOException | ArrayIndexOutOfBoundsException e) {
+			Logger.getInstance().logError("Unreadable record in journal " + journalFile);
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.ccacic.financemanager.logger.Logger;
+
+/**
+ * A BlobStore keeping each blob in a File of its own, named by its hash
+ * and fanned out into subdirectories by the first two characters of the
+ * hash. Putting a blob is a single rename, and the IntegrityIndex follows
+ * the File so a verified File is not hashed again once stored
+ * @author Cameron Cacic
+ *
+ */
+final class FileBlobStore implements BlobStore {
+
+	private final File directory;
+
+	/**
+	 * Creates a new FileBlobStore over the passed store directory
+	 * @param directory the store directory
+	 */
+	FileBlobStore(File directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public boolean contains(String hash) {
+		return getFile(hash).exists();
+	}
+
+	@Override
+	public File getFile(String hash) {
+		File subDir = new File(directory, hash.substring(0, 2));
+		return new File(subDir, hash + FileHandler.DATA_EXTENSION);
+	}
+
+	@Override
+	public InputStream open(String hash) throws IOException {
+		return new FileInputStream(getFile(hash));
+	}
+
+	@Override
+	public void put(String hash, File file) throws IOException {
+
+		File blobFile = getFile(hash);
+		IntegrityIndex index = IntegrityIndex.getInstance();
+		if (blobFile.exists()) {
+			if (!file.delete()) {
+				Logger.getInstance().logWarning("Failed to delete " + file + " after sharing blob " + hash);
+			}
+			index.record(file, null, null);
+			return;
+		}
+
+		File subDir = blobFile.getParentFile();
+		if (!subDir.exists() && !subDir.mkdirs()) {
+			throw new IOException("Creation of " + subDir + " failed");
+		}
+		boolean verified = index.isVerified(file, hash);
+		Files.move(file.toPath(), blobFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		index.record(file, null, null);
+		if (verified) {
+			// a rename keeps the size and modification time
+			index.record(blobFile, IntegrityIndex.fingerprint(blobFile), hash);
+		}
+
+	}
+
+	@Override
+	public boolean delete(String hash) {
+		File blobFile = getFile(hash);
+		IntegrityIndex.getInstance().record(blobFile, null, null);
+		if (!blobFile.delete()) {
+			Logger.getInstance().logWarning("Failed to delete blob " + blobFile);
+			return false;
+		}
+		File subDir = blobFile.getParentFile();
+		String[] remaining = subDir.list();
+		if (remaining != null && remaining.length == 0 && !subDir.delete()) {
+			Logger.getInstance().logWarning("Failed to delete empty store directory " + subDir);
+		}
+		return true;
+	}
+
+	@Override
+	public void forEach(BlobVisitor visitor) throws IOException {
+		File[] subDirs = directory.listFiles(File::isDirectory);
+		if (subDirs == null) {
+			return;
+		}
+		for (File subDir: subDirs) {
+			File[] blobFiles = subDir.listFiles(f -> f.getName().endsWith(FileHandler.DATA_EXTENSION));
+			if (blobFiles == null) {
+				continue;
+			}
+			for (File blobFile: blobFiles) {
+				String name = blobFile.getName();
+				String hash = name.substring(0, name.length() - FileHandler.DATA_EXTENSION.length());
+				visitor.visit(hash, blobFile.length(), blobFile.lastModified());
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		// nothing is held open
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The compression codecs FileIO can apply to the contents of a File
+ * before they are encrypted. A compressed File begins, once decrypted,
+ * with the MAGIC bytes and the ID of its codec. Files without the MAGIC
+ * bytes, which includes every File written before codecs existed and
+ * every File written with NONE, are read as they are, so uncompressed
+ * Files keep exactly the format they always had
+ * @author Cameron Cacic
+ *
+ */
+enum FileCodec {
+
+	NONE(0) {
+		@Override
+		OutputStream wrap(OutputStream stream) {
+			return stream;
+		}
+
+		@Override
+		InputStream wrap(InputStream stream) {
+			return stream;
+		}
+	},
+
+	DEFLATE(1) {
+		@Override
+		OutputStream wrap(OutputStream stream) {
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+			return new DeflaterOutputStream(stream, deflater, FileIO.BUFFER_SIZE) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						deflater.end();
+					}
+				}
+			};
+		}
+
+		@Override
+		InputStream wrap(InputStream stream) {
+			Inflater inflater = new Inflater();
+			return new InflaterInputStream(stream, inflater, FileIO.BUFFER_SIZE) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						inflater.end();
+					}
+				}
+			};
+		}
+	},
+
+	LZ(2) {
+		@Override
+		OutputStream wrap(OutputStream stream) {
+			return new LzCodec.LzOutputStream(stream);
+		}
+
+		@Override
+		InputStream wrap(InputStream stream) {
+			return new LzCodec.LzInputStream(stream);
+		}
+	};
+
+	/**
+	 * Marks the decrypted contents of a File as compressed. No text or
+	 * binary format FileIO writes begins with a zero byte
+	 */
+	static final byte[] MAGIC = new byte[] {0, 'F', 'M', 'Z'};
+
+	private final int id;
+
+	/**
+	 * Creates a new FileCodec
+	 * @param id the ID written after the MAGIC bytes, which must never change
+	 */
+	FileCodec(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Wraps the passed OutputStream so that everything written is compressed
+	 * @param stream the OutputStream to wrap
+	 * @return the compressing OutputStream
+	 */
+	abstract OutputStream wrap(OutputStream stream);
+
+	/**
+	 * Wraps the passed InputStream so that everything read is decompressed
+	 * @param stream the InputStream to wrap
+	 * @return the decompressing InputStream
+	 */
+	abstract InputStream wrap(InputStream stream);
+
+	/**
+	 * Writes the header of this FileCodec to the passed OutputStream and
+	 * wraps it, unless this is NONE, in which case nothing is written
+	 * @param stream the OutputStream to begin the File's contents in
+	 * @return the compressing OutputStream
+	 * @throws IOException if file IO errors occur
+	 */
+	OutputStream encode(OutputStream stream) throws IOException {
+		if (this == NONE) {
+			return stream;
+		}
+		stream.write(MAGIC);
+		stream.write(id);
+		return wrap(stream);
+	}
+
+	/**
+	 * Reads the header of a File's contents from the passed InputStream,
+	 * returning a stream that decompresses what follows with the FileCodec
+	 * it names. If there is no header, the passed InputStream is returned
+	 * as is, positioned at the start of the contents
+	 * @param stream the InputStream over the File's contents, which must support marking
+	 * @return the decompressing InputStream
+	 * @throws IOException if the header names an unknown FileCodec or file IO errors occur
+	 */
+	static InputStream decode(InputStream stream) throws IOException {
+		byte[] head = new byte[MAGIC.length + 1];
+		stream.mark(head.length);
+		int headLength = stream.readNBytes(head, 0, head.length);
+		if (headLength < head.length) {
+			stream.reset();
+			return stream;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (head[i] != MAGIC[i]) {
+				stream.reset();
+				return stream;
+			}
+		}
+		int codecId = head[MAGIC.length] & 0xFF;
+		for (FileCodec codec: values()) {
+			if (codec.id == codecId && codec != NONE) {
+				return codec.wrap(stream);
+			}
+		}
+		throw new IOException("Unknown file codec " + codecId);
+	}
+
+}
@@ -1,15 +1,17 @@
 package com.ccacic.financemanager.fileio;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ccacic.financemanager.event.Event;
 import com.ccacic.financemanager.event.EventManager;
@@ -26,6 +28,7 @@ import com.ccacic.financemanager.model.account.AccountAssembler;
 import com.ccacic.financemanager.model.account.AccountFactory;
 import com.ccacic.financemanager.model.config.GeneralConfig;
 import com.ccacic.financemanager.model.currency.Currency;
+import com.ccacic.financemanager.model.entrychunk.EntryChunk;
 import com.ccacic.financemanager.util.StringProcessing;
 
 /**
@@ -43,6 +46,21 @@ public class FileHandler {
 	public static final String DATA_EXTENSION = ".dat";
 	public static final String ARCH_EXTENSION = ".arc";
 	public static final String TMP_EXTENSION = ".tmp";
+	public static final String JOURNAL_EXTENSION = ".jnl";
+	/**
+	 * The name of the File that exists in a User's directory for as long
+	 * as a session with that User's records is open
+	 */
+	private static final String SESSION_MARKER = "session.lck";
+	
+	/**
+	 * The most threads that will decrypt and parse records at once
+	 */
+	private static final int MAX_LOAD_THREADS = 8;
+	/**
+	 * The most threads that will encode EntryChunks at once while saving
+	 */
+	private static final int MAX_SAVE_THREADS = 8;
 	
 	private static final FileHandler instance = new FileHandler();
 	
@@ -57,12 +75,32 @@ public class FileHandler {
 	private final File dataDir;
 	private final File userDir;
 	
+	/**
+	 * The hash of each record File as of when it was last loaded or written
+	 */
+	private final Map<File, String> savedHashes;
+	/**
+	 * The encoded contents of each AccountHolder and User File as of when
+	 * it was last loaded or written, for skipping writes that would not
+	 * change the File
+	 */
+	private final Map<File, String> savedEncodings;
+	private volatile String savedConfig;
+	/**
+	 * If the session before the current one ended without shutting down
+	 * cleanly, in which case the entry journals hold edits to recover
+	 */
+	private volatile boolean uncleanShutdown;
+	
 	/**
 	 * Creates a new FileHandler and finds or creates the
 	 * required directories
 	 */
 	private FileHandler() {		
 		
+		savedHashes = new ConcurrentHashMap<>();
+		savedEncodings = new ConcurrentHashMap<>();
+		
 		dataDir = new File(System.getProperty("user.dir") + "\\data");
 		if (!dataDir.exists()) {
 			if (!dataDir.mkdir()) {
@@ -177,6 +215,8 @@ public class FileHandler {
 			ParamMap paramMap = StringProcessing.pullParamMap(generalSection.toString());
 			GeneralConfig.getInstance().putValues(paramMap);
 			
+			savedConfig = encodeConfig();
+			
 		} catch (Exception e) {
 			Logger.getInstance().logException(e);
 			return false;
@@ -210,7 +250,13 @@ public class FileHandler {
 	
 	/**
 	 * Loads all the records in the file system into the model
-	 * for the current User. Requires there to be a current User
+	 * for the current User. Requires there to be a current User.
+	 * AccountHolders, and the Accounts within them, are decrypted
+	 * and parsed in parallel on a bounded ForkJoinPool, while the
+	 * NEW_ACCT_HOLDER Events are still fired and waited on in order.
+	 * Files left untouched since they last matched their hashes, as
+	 * remembered by the IntegrityIndex, are not hashed again, and are
+	 * instead checked later by the IntegrityScrubber
 	 * @return if the loading succeeded
 	 */
 	public boolean loadRecords() {
@@ -224,46 +270,64 @@ public class FileHandler {
 		String[] data = new String[] {fileHandlerId, "Loading records...", "Loading"};
 		EventManager.fireEvent(new Event(Event.BLOCKING_PROGRESS_REQUEST, data));
 		
-		List<AccountHolder> accountHolders = new ArrayList<>();
-		double count = currUser.getAcctHoldIds().size() * 2;
-		int completed = 0;
+		IntegrityIndex.getInstance().load(currUser);
+		beginSession(currUser);
+		
+		List<String> acctHoldIds = new ArrayList<>();
 		Iterator<String> acctHoldIdIterator = currUser.getAcctHoldIds().iterator();
 		Set<String> loadedIds = new HashSet<>();
 		while (acctHoldIdIterator.hasNext()) {
-			
 			String acctHoldId = acctHoldIdIterator.next();
-			if (!loadedIds.contains(acctHoldId)) {
-				loadedIds.add(acctHoldId);
-				File acctHoldFile = new File(currUser.getUserDir(), acctHoldId);
-				acctHoldFile = new File(acctHoldFile, acctHoldId + DATA_EXTENSION);
-				String expectedHash = currUser.getHashes().get(acctHoldId);
-				if (expectedHash == null) {
+			if (loadedIds.add(acctHoldId)) {
+				if (currUser.getHashes().get(acctHoldId) == null) {
 					acctHoldIdIterator.remove();
 				} else {
-					try {
-						AccountHolder readAcctHolder = readAcctHolder(acctHoldFile, expectedHash);
-						if (readAcctHolder == null) {
-							acctHoldIdIterator.remove();
-							currUser.getHashes().remove(acctHoldId);
-						} else {
-							accountHolders.add(readAcctHolder);
-						}
-					} catch (IOException e) {
-						Logger.getInstance().logException(e);
-					}
-					
+					acctHoldIds.add(acctHoldId);
 				}
-			} else {
-				count -= 2;
-				completed--;
 			}
-			
-			completed++;
-			EventManager.fireEvent(new Event(Event.UPDATE, completed / count, fileHandlerId));
-			
 		}
 		
-		for (AccountHolder accountHolder: accountHolders) {
+		double count = acctHoldIds.size() * 2;
+		AtomicInteger completed = new AtomicInteger();
+		AccountHolder[] readAcctHolders = new AccountHolder[acctHoldIds.size()];
+		boolean[] missing = new boolean[acctHoldIds.size()];
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(acctHoldIds.size());
+		for (int i = 0; i < acctHoldIds.size(); i++) {
+			final int index = i;
+			tasks.add(ForkJoinTask.adapt(() -> {
+				String acctHoldId = acctHoldIds.get(index);
+				File acctHoldFile = new File(currUser.getUserDir(), acctHoldId);
+				acctHoldFile = new File(acctHoldFile, acctHoldId + DATA_EXTENSION);
+				try {
+					readAcctHolders[index] = readAcctHolder(acctHoldFile, currUser.getHashes().get(acctHoldId));
+					missing[index] = readAcctHolders[index] == null;
+				} catch (IOException e) {
+					Logger.getInstance().logException(e);
+				}
+				EventManager.fireEvent(new Event(Event.UPDATE, completed.incrementAndGet() / count, fileHandlerId));
+			}));
+		}
+		
+		ForkJoinPool loadPool = new ForkJoinPool(Math.min(MAX_LOAD_THREADS, Runtime.getRuntime().availableProcessors()));
+		try {
+			loadPool.invoke(ForkJoinTask.adapt(() -> {
+				ForkJoinTask.invokeAll(tasks);
+			}));
+		} finally {
+			loadPool.shutdown();
+		}
+		
+		for (int i = 0; i < acctHoldIds.size(); i++) {
+			if (missing[i]) {
+				currUser.getAcctHoldIds().remove(acctHoldIds.get(i));
+				currUser.getHashes().remove(acctHoldIds.get(i));
+			}
+		}
+		
+		for (AccountHolder accountHolder: readAcctHolders) {
+			if (accountHolder == null) {
+				continue;
+			}
 			Event lock = EventManager.fireEvent(new Event(Event.NEW_ACCT_HOLDER, accountHolder));
 			synchronized (Objects.requireNonNull(lock)) {
 				try {
@@ -272,15 +336,65 @@ public class FileHandler {
 					Logger.getInstance().logWarning("Interrupted while waiting on new account holder to finish");
 				}
 			}
-			completed++;
-			EventManager.fireEvent(new Event(Event.UPDATE, completed / count, fileHandlerId));
+			EventManager.fireEvent(new Event(Event.UPDATE, completed.incrementAndGet() / count, fileHandlerId));
 		}
 		
+		File userFile = new File(userDir, currUser.getName());
+		userFile = new File(userFile, currUser.getName() + DATA_EXTENSION);
+		savedEncodings.put(userFile, currUser.disassemble().encode());
+		IntegrityIndex.getInstance().save();
+		IntegrityScrubber.getInstance().start();
+		
 		EventManager.fireEvent(new Event(Event.BLOCKING_PROGRESS_END, fileHandlerId));
 		
 		return true;
 	}
 	
+	/**
+	 * Marks the start of a session with the passed User's records,
+	 * remembering if the previous session never reached {@link #endSession()}
+	 * @param user the User whose records are being loaded
+	 */
+	private void beginSession(User user) {
+		File marker = new File(user.getUserDir(), SESSION_MARKER);
+		uncleanShutdown = marker.exists();
+		if (uncleanShutdown) {
+			Logger.getInstance().logWarning("The last session did not shut down cleanly, recovering journaled edits");
+			return;
+		}
+		try {
+			if (!marker.createNewFile()) {
+				Logger.getInstance().logWarning("Session marker " + marker + " already exists");
+			}
+		} catch (IOException e) {
+			Logger.getInstance().logException(e);
+		}
+	}
+	
+	/**
+	 * Marks the current session as cleanly ended. Edits left in the entry
+	 * journals were not chosen to be saved and are discarded on the next load
+	 */
+	public void endSession() {
+		User currUser = User.getCurrentUser();
+		if (currUser == null) {
+			return;
+		}
+		File marker = new File(currUser.getUserDir(), SESSION_MARKER);
+		if (marker.exists() && !marker.delete()) {
+			Logger.getInstance().logWarning("Failed to delete session marker " + marker);
+		}
+	}
+	
+	/**
+	 * Returns if the previous session ended without shutting down cleanly,
+	 * so that journaled edits should be replayed rather than discarded
+	 * @return if journaled edits should be recovered
+	 */
+	public boolean isUncleanShutdown() {
+		return uncleanShutdown;
+	}
+	
 	/**
 	 * Converts the passed File into an AccountHolder, provided
 	 * the hash of the passed File matches the passed expectedHash.
@@ -374,18 +488,42 @@ public class FileHandler {
 		} else {
 			return null;
 		}
+		if (expectedHash != null) {
+			savedHashes.put(acctHoldFile, expectedHash);
+			savedEncodings.put(acctHoldFile, str);
+		}
 		
 		String acctHoldId = EventManager.getUniqueID(aH);
 		File acctHoldDir = acctHoldFile.getParentFile();
+		final List<String> finalAcctIds = acctIds;
+		final List<String> finalHashes = hashes;
+		Account[] readAccounts = new Account[hashes.size()];
+		IOException[] failure = new IOException[1];
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(hashes.size());
 		for (int i = 0; i < hashes.size(); i++) {
-			File acctFile = new File(acctHoldDir, acctIds.get(i));
-			acctFile = new File(acctFile, acctIds.get(i) + DATA_EXTENSION);
-			Account readAccount = readAccount(acctFile, hashes.get(i), acctHoldId);
-			if (readAccount == null) {
-				acctIds.remove(i);
-				hashes.remove(i);
-				i--;
-			} else {
+			final int index = i;
+			tasks.add(ForkJoinTask.adapt(() -> {
+				File acctFile = new File(acctHoldDir, finalAcctIds.get(index));
+				acctFile = new File(acctFile, finalAcctIds.get(index) + DATA_EXTENSION);
+				try {
+					readAccounts[index] = readAccount(acctFile, finalHashes.get(index), acctHoldId);
+				} catch (IOException e) {
+					synchronized (failure) {
+						failure[0] = e;
+					}
+				}
+			}));
+		}
+		// runs on the loading pool when called from it, the common pool otherwise
+		ForkJoinTask.invokeAll(tasks);
+		synchronized (failure) {
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+		}
+		
+		for (Account readAccount: readAccounts) {
+			if (readAccount != null) {
 				EventManager.fireEvent(new Event(Event.NEW_ACCOUNT, readAccount, acctHoldId));
 			}
 		}
@@ -444,118 +582,243 @@ public class FileHandler {
 		ParamMap acctMap = ParamMap.decode(acctStr);
 		acctMap.put(AccountAssembler.ACCT_HOLD_ID, acctHoldId);
 		AccountFactory factory = AccountFactory.getInstance();
-		return factory.requestItem(acctMap);
+		Account account = factory.requestItem(acctMap);
+		if (account != null && expectedHash != null) {
+			savedHashes.put(acctFile, expectedHash);
+			account.markSaved(account.getModificationCount());
+		}
+		return account;
 		
 	}
 	
 	/**
-	 * Writes the current state of the model to the file system
+	 * Writes the current state of the model to the file system. Only
+	 * the records that changed since they were last loaded or written
+	 * are written again. The changed EntryChunks of every Account are
+	 * committed first, encoded in parallel on a bounded ForkJoinPool, so
+	 * the PersistenceService writes them together. Each Account is only
+	 * written once all its EntryChunks are, and keeps its previous file
+	 * otherwise. Which Accounts are dirty is decided before committing, as
+	 * committing their EntryChunks leaves them looking clean. Everything is
+	 * written by the PersistenceService, which is flushed before returning
 	 * @return if the write succeeded
 	 */
 	public boolean writeFiles() {
 
-		if (User.getCurrentUser() == null) {
+		User currUser = User.getCurrentUser();
+		if (currUser == null) {
 			return false;
 		}
 		
-		for (AccountHolder aH: AccountHolder.getAccountHolders()) {
-			User.getCurrentUser().updateHash(aH.getIdentifier(), writeAcctHolder(aH));
+		ReadOnlyList<AccountHolder> acctHolders = AccountHolder.getAccountHolders();
+		Set<Account> dirtyAccounts = new HashSet<>();
+		for (AccountHolder aH: acctHolders) {
+			for (Account a: aH.getAccounts()) {
+				if (a.isDirty()) {
+					dirtyAccounts.add(a);
+				}
+			}
 		}
-		FileIO fileIO = new FileIO();
+		commitEntryChunks(dirtyAccounts);
 		
-		try {
-			
-			User currUser = User.getCurrentUser();
-			File userFile = new File(userDir, currUser.getName());
-			userFile = new File(userFile, currUser.getName() + DATA_EXTENSION);
-			String encodedUser = currUser.disassemble().encode();
-			fileIO.writeToFile(userFile, encodedUser);
-			
-			File configFile = new File(dataDir, "config" + CONFIG_EXTENSION);
-			if (!configFile.exists()) {
-				if (!configFile.createNewFile()) {
-					Logger.getInstance().logError("Failed to create config file " + configFile);
-					Launcher.exitImmediately();
+		List<CompletableFuture<String>> acctHoldWrites = new ArrayList<>(acctHolders.size());
+		for (AccountHolder aH: acctHolders) {
+			acctHoldWrites.add(writeAcctHolder(aH, dirtyAccounts));
+		}
+		for (int i = 0; i < acctHolders.size(); i++) {
+			currUser.updateHash(acctHolders.get(i).getIdentifier(), acctHoldWrites.get(i).join());
+		}
+		
+		File userFile = new File(userDir, currUser.getName());
+		userFile = new File(userFile, currUser.getName() + DATA_EXTENSION);
+		writeIfChanged(userFile, currUser.disassemble().encode());
+		
+		File configFile = new File(dataDir, "config" + CONFIG_EXTENSION);
+		String config = encodeConfig();
+		if (!config.equals(savedConfig) || !configFile.exists()) {
+			// left uncompressed, as it is read as plain text by loadConfig
+			PersistenceService.getInstance().write(configFile, config.getBytes(StandardCharsets.UTF_8), null, FileCodec.NONE)
+				.thenAccept(hash -> savedConfig = config);
+		}
+		
+		PersistenceService.getInstance().flush();
+		IntegrityIndex.getInstance().save();
+		PersistenceService.getInstance().flush();
+		
+		return true;
+	}
+	
+	/**
+	 * Commits the changed EntryChunks of the passed dirty Accounts,
+	 * encoding them in parallel. Fires a SAVE_PROGRESS Event with the
+	 * fraction of EntryChunks written as each one is
+	 * @param dirtyAccounts the Accounts to commit the EntryChunks of
+	 */
+	private void commitEntryChunks(Set<Account> dirtyAccounts) {
+		
+		List<EntryChunk> chunks = new ArrayList<>();
+		for (Account a: dirtyAccounts) {
+			for (EntryChunk chunk: a.getEntryChunks()) {
+				if (chunk.hasUncommittedChanges()) {
+					chunks.add(chunk);
 				}
 			}
-			
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(configFile), StandardCharsets.UTF_8));
-			
-			writer.write("GENERAL");
-			writer.newLine();
-			for (String line: encodeParamMapForConfig(GeneralConfig.getInstance().getValueMap())) {
-				writer.write(line);
-				writer.newLine();
-			}
-			writer.write("END GENERAL");
-			writer.newLine();
-			writer.newLine();
-			
-			for (Category category: AccountHolder.getAllCategories()) {
-				writer.write("CATEGORY");
-				writer.newLine();
-				for (String line: encodeParamMapForConfig(category.encode())) {
-					writer.write(line);
-					writer.newLine();
-				}
-				writer.write("END CATEGORY");
-				writer.newLine();
-				writer.newLine();
+		}
+		if (chunks.isEmpty()) {
+			return;
+		}
+		
+		String fileHandlerId = EventManager.getUniqueID(this);
+		double count = chunks.size();
+		AtomicInteger completed = new AtomicInteger();
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks.size());
+		for (EntryChunk chunk: chunks) {
+			tasks.add(ForkJoinTask.adapt(() -> {
+				chunk.commitChanges().whenComplete((hash, failure) -> EventManager.fireEvent(
+						new Event(Event.SAVE_PROGRESS, completed.incrementAndGet() / count, fileHandlerId)));
+			}));
+		}
+		
+		ForkJoinPool savePool = new ForkJoinPool(Math.min(MAX_SAVE_THREADS, Runtime.getRuntime().availableProcessors()));
+		try {
+			savePool.invoke(ForkJoinTask.adapt(() -> {
+				ForkJoinTask.invokeAll(tasks);
+			}));
+		} finally {
+			savePool.shutdown();
+		}
+		
+	}
+	
+	/**
+	 * Encodes the configuration held by the model in the format
+	 * of the config file
+	 * @return the contents of the config file
+	 */
+	private String encodeConfig() {
+		
+		StringBuilder config = new StringBuilder();
+		String newLine = System.lineSeparator();
+		
+		config.append("GENERAL").append(newLine);
+		for (String line: encodeParamMapForConfig(GeneralConfig.getInstance().getValueMap())) {
+			config.append(line).append(newLine);
+		}
+		config.append("END GENERAL").append(newLine).append(newLine);
+		
+		for (Category category: AccountHolder.getAllCategories()) {
+			config.append("CATEGORY").append(newLine);
+			for (String line: encodeParamMapForConfig(category.encode())) {
+				config.append(line).append(newLine);
 			}
-			
-			for (Currency currency: Currency.getAllCurrencies()) {
-				writer.write("CURRENCY");
-				writer.newLine();
-				for (String line: encodeParamMapForConfig(currency.encode())) {
-					writer.write(line);
-					writer.newLine();
-				}
-				writer.write("END CURRENCY");
-				writer.newLine();
-				writer.newLine();
+			config.append("END CATEGORY").append(newLine).append(newLine);
+		}
+		
+		for (Currency currency: Currency.getAllCurrencies()) {
+			config.append("CURRENCY").append(newLine);
+			for (String line: encodeParamMapForConfig(currency.encode())) {
+				config.append(line).append(newLine);
 			}
-			
-			writer.close();
-			
-		} catch (IOException e) {
-			e.printStackTrace();
+			config.append("END CURRENCY").append(newLine).append(newLine);
 		}
 		
-		return true;
+		return config.toString();
+		
 	}
 	
 	/**
-	 * Writes the passed AccountHolder to the file system
+	 * Queues the passed encoded data to be written to the passed File,
+	 * unless it is identical to what was last loaded from or written to the File
+	 * @param file the File to write to
+	 * @param encoded the encoded data to write
+	 * @return a future for the hash of the File, which completes with
+	 * null if it is not known
+	 */
+	private CompletableFuture<String> writeIfChanged(File file, String encoded) {
+		
+		if (encoded.equals(savedEncodings.get(file)) && file.exists()) {
+			return CompletableFuture.completedFuture(savedHashes.get(file));
+		}
+		
+		return PersistenceService.getInstance().write(file, encoded.getBytes(StandardCharsets.UTF_8))
+			.handle((hash, failure) -> {
+				if (failure != null || hash == null) {
+					return null;
+				}
+				savedHashes.put(file, hash);
+				savedEncodings.put(file, encoded);
+				return hash;
+			});
+		
+	}
+	
+	/**
+	 * Queues the passed AccountHolder to be written to the file system.
+	 * Only the Accounts that are dirty are written, and the AccountHolder's
+	 * own file is only written once the hashes of its Accounts are known,
+	 * and only if its contents or those hashes changed
 	 * @param aH the AccountHolder to write
-	 * @return the hash of the written file
+	 * @param dirtyAccounts the Accounts that were dirty when saving started
+	 * @return a future for the hash of the written file, which completes
+	 * with null if the write failed
 	 */
-	private String writeAcctHolder(AccountHolder aH) {
+	private CompletableFuture<String> writeAcctHolder(AccountHolder aH, Set<Account> dirtyAccounts) {
 		
 		try {
-				
-			File acctHoldDir = new File(User.getCurrentUser().getUserDir(), aH.getIdentifier());
-			if (!acctHoldDir.exists()) {
-				if (!acctHoldDir.mkdir()) {
-					Logger.getInstance().logError("Failed to create account holder directory " + acctHoldDir);
-					Launcher.exitImmediately();
-				}
-			}
+			return queueAcctHolder(aH, dirtyAccounts).exceptionally(ex -> {
+				Logger.getInstance().logError("Failed to write account holder " + aH.getIdentifier() + ": " + ex.getMessage());
+				return null;
+			});
+		} catch (Exception ex) {
+			Logger.getInstance().logException(ex);
+			return CompletableFuture.completedFuture(null);
+		}
+		
+	}
+	
+	/**
+	 * Queues the writes of the passed AccountHolder, for writeAcctHolder
+	 * @param aH the AccountHolder to write
+	 * @param dirtyAccounts the Accounts that were dirty when saving started
+	 * @return a future for the hash of the written file
+	 */
+	private CompletableFuture<String> queueAcctHolder(AccountHolder aH, Set<Account> dirtyAccounts) {
 			
-			StringBuilder encoded = new StringBuilder("id=" + aH.getIdentifier() + ";"
-					+ "name=" + aH.getName() + ";"
-					+ "category=" + aH.getCategory() + ";"
-					+ "main_curr_code=" + aH.getMainCurr().getCode() + ";"
-					+ "accounts={");
+		File acctHoldDir = new File(User.getCurrentUser().getUserDir(), aH.getIdentifier());
+		if (!acctHoldDir.exists()) {
+			if (!acctHoldDir.mkdir()) {
+				Logger.getInstance().logError("Failed to create account holder directory " + acctHoldDir);
+				Launcher.exitImmediately();
+			}
+		}
+		
+		String header = "id=" + aH.getIdentifier() + ";"
+				+ "name=" + ParamMap.escape(aH.getName()) + ";"
+				+ "category=" + aH.getCategory() + ";"
+				+ "main_curr_code=" + aH.getMainCurr().getCode() + ";"
+				+ "accounts={";
+		
+		List<Account> accounts = new ArrayList<>();
+		for (Account a: aH.getAccounts()) {
+			accounts.add(a);
+		}
+		List<CompletableFuture<String>> acctWrites = new ArrayList<>(accounts.size());
+		for (Account a: accounts) {
+			acctWrites.add(writeAccount(acctHoldDir, a, dirtyAccounts.contains(a) || a.isDirty()));
+		}
+		
+		File acctHoldFile = new File(acctHoldDir, aH.getIdentifier() + DATA_EXTENSION);
+		return CompletableFuture.allOf(acctWrites.toArray(new CompletableFuture<?>[0])).thenCompose(v -> {
 			
+			StringBuilder encoded = new StringBuilder(header);
 			List<String> hashes = new ArrayList<>();
-			for (int i = 0; i < aH.getAccounts().size(); i++) {
+			for (int i = 0; i < accounts.size(); i++) {
 				
-				Account a = aH.getAccounts().get(i);
-				String hash = writeAccount(acctHoldDir, a);
+				String hash = acctWrites.get(i).join();
 				if (hash != null) {
 					hashes.add(hash);
-					encoded.append(a.getIdentifier());
-					if (i < aH.getAccounts().size() - 1) {
+					encoded.append(accounts.get(i).getIdentifier());
+					if (i < accounts.size() - 1) {
 						encoded.append(",");
 					}
 				}
@@ -570,26 +833,28 @@ public class FileHandler {
 			}
 			encoded.append("};");
 			
-			File acctHoldFile = new File(acctHoldDir, aH.getIdentifier() + DATA_EXTENSION);
-			FileIO fileIO = new FileIO();
-			return fileIO.writeToFile(acctHoldFile, encoded.toString());
+			return writeIfChanged(acctHoldFile, encoded.toString());
 			
-		} catch (Exception ex) {
-			ex.printStackTrace();
-			return null;
-		}
+		});
 		
 	}
 	
 	/**
-	 * Writes the passed Account to the passed directory,
-	 * which should be the directory of the AccountHolder
-	 * that owns the Account
+	 * Queues the passed Account to be written to the passed directory,
+	 * which should be the directory of the AccountHolder that owns the
+	 * Account. Does nothing if the Account is not dirty and its file is
+	 * already in place. Whether it is dirty is passed in, as its EntryChunks
+	 * have already been committed by the time it is written. If one of its EntryChunks or its own file fails to
+	 * be written, the file as last loaded or written is kept. The journal
+	 * of its Entries is only compacted once its file is durably written,
+	 * so until then the journal can still replay the changes
 	 * @param acctHoldDir the directory to write to
 	 * @param a the Account to write
-	 * @return the hash of the written file
+	 * @param dirty if the Account was dirty when saving started
+	 * @return a future for the hash of the file, which completes with
+	 * null if the write failed and there is no previous file to keep
 	 */
-	private String writeAccount(File acctHoldDir, Account a) {
+	private CompletableFuture<String> writeAccount(File acctHoldDir, Account a, boolean dirty) {
 		
 		try {
 			
@@ -601,18 +866,43 @@ public class FileHandler {
 				}
 			}
 			
+			File acctFile = new File(acctDir, a.getIdentifier() + DATA_EXTENSION);
+			String savedHash = savedHashes.get(acctFile);
+			if (savedHash != null && !dirty && acctFile.exists()) {
+				return CompletableFuture.completedFuture(savedHash);
+			}
+			
+			// modifications made from here on are not guaranteed to be in the file
+			long modificationCount = a.getModificationCount();
+			long journalLength = a.getEntryChunkManager().getJournalLength();
 			AccountFactory accountFactory = AccountFactory.getInstance();
 			ParamMap acctMap = accountFactory.requestDisassembly(a);
+			List<String> chunkHashes = acctMap.getAsList(AccountAssembler.ENTRY_CHUNK_HASHES);
+			if (chunkHashes != null && chunkHashes.contains("null")) {
+				Logger.getInstance().logError("Failed to commit the entries of account " + a.getIdentifier()
+						+ ", keeping its previous file");
+				return CompletableFuture.completedFuture(acctFile.exists() ? savedHash : null);
+			}
 
-			File acctFile = new File(acctDir, a.getIdentifier() + DATA_EXTENSION);
-			FileIO fileIO = new FileIO();
-			return fileIO.writeToFile(acctFile, acctMap.encode());
+			return PersistenceService.getInstance().write(acctFile, acctMap.encode().getBytes(StandardCharsets.UTF_8))
+				.handle((hash, failure) -> {
+					if (failure != null || hash == null) {
+						// the previous file is left in place by a failed write
+						return acctFile.exists() ? savedHash : null;
+					}
+					savedHashes.put(acctFile, hash);
+					a.markSaved(modificationCount);
+					// compacting rewrites the journal, which must not hold up the queued writes
+					PersistenceService.getInstance().runMaintenance(
+							() -> a.getEntryChunkManager().compactJournal(journalLength));
+					return hash;
+				});
 			
 		} catch (Exception ex) {
 			Logger.getInstance().logException(ex);
 		}
 		
-		return null;
+		return CompletableFuture.completedFuture(null);
 	}
 	
 	/**
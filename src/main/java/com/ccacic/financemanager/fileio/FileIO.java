@@ -1,36 +1,197 @@
 package com.ccacic.financemanager.fileio;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 
 import com.ccacic.financemanager.exception.MismatchedHashException;
 import com.ccacic.financemanager.logger.Logger;
+import com.ccacic.financemanager.model.ParamMap;
 import com.ccacic.financemanager.model.config.GeneralConfig;
 
 /**
  * Handles File I/O for reading Files into Strings
  * and writing String to Files, with support for
  * using hashing to confirm the validity of Files
- * and reading/writing encrypted Files
+ * and reading/writing encrypted Files. Files can
+ * also be opened as a Reader or Writer, in which
+ * case data is decrypted or encrypted and hashed
+ * as it streams, so memory use is bounded by the
+ * stream buffers rather than the size of the File.
+ * Contents are compressed with a FileCodec before
+ * they are encrypted, recorded in a header so they
+ * are decompressed transparently when read
  * @author Cameron Cacic
  *
  */
 class FileIO {
-	
+
+	static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * The FileCodec records are written with unless another is passed.
+	 * Records are ParamMap text read once per load, so they are worth
+	 * Deflate's better compression
+	 */
+	static final FileCodec RECORD_CODEC = FileCodec.DEFLATE;
+
+	/**
+	 * An InputStream over the decrypted contents of a File that checks
+	 * the hash of the File when closed. Any bytes not consumed by the
+	 * stream are drained first so the whole File is hashed. A File that
+	 * matched its expected hash is recorded in the IntegrityIndex
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class VerifyingInputStream extends FilterInputStream {
+
+		private final InputStream hashedStream;
+		private final Hashing hashing;
+		private final String expectedHash;
+		private final File sourceFile;
+		private final IntegrityIndex.Fingerprint fingerprint;
+
+		/**
+		 * Creates a new VerifyingInputStream
+		 * @param contentStream the InputStream over the decrypted contents
+		 * @param hashedStream the hashed stream of raw File bytes beneath the content stream
+		 * @param hashing the Hashing wrapping the raw File bytes, null if the File is not hashed
+		 * @param expectedHash the expected hash of the File, null to skip checking
+		 * @param sourceFile the File being read
+		 * @param fingerprint the Fingerprint of the File from before it was opened,
+		 * null if the File is not recorded in the IntegrityIndex
+		 */
+		VerifyingInputStream(InputStream contentStream, InputStream hashedStream, Hashing hashing,
+				String expectedHash, File sourceFile, IntegrityIndex.Fingerprint fingerprint) {
+			super(contentStream);
+			this.hashedStream = hashedStream;
+			this.hashing = hashing;
+			this.expectedHash = expectedHash;
+			this.sourceFile = sourceFile;
+			this.fingerprint = fingerprint;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (hashing == null) {
+				super.close();
+				return;
+			}
+			byte[] drain = new byte[BUFFER_SIZE];
+			while (hashedStream.read(drain) != -1) {
+				// keep hashing the rest of the file
+			}
+			super.close();
+			String hash = hashing.getHash();
+			if (expectedHash != null) {
+				if (!expectedHash.equals(hash)) {
+					throw new MismatchedHashException("Expected hash for " + sourceFile.getName() + " did not match its actual hash",
+							sourceFile, expectedHash, hash);
+				}
+				if (fingerprint != null) {
+					IntegrityIndex.getInstance().record(sourceFile, fingerprint, hash);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * An OutputStream that encrypts and hashes everything written
+	 * to it on the way to a File. The hash of the File is available
+	 * once the stream has been closed
+	 * @author Cameron Cacic
+	 *
+	 */
+	static final class HashedOutputStream extends FilterOutputStream {
+
+		private final Hashing hashing;
+		private boolean closed;
+
+		/**
+		 * Creates a new HashedOutputStream
+		 * @param stream the OutputStream to pass data through
+		 * @param hashing the Hashing wrapping the File's output stream
+		 */
+		HashedOutputStream(OutputStream stream, Hashing hashing) {
+			super(stream);
+			this.hashing = hashing;
+			this.closed = false;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			closed = true;
+		}
+
+		/**
+		 * Returns the hash of the written File. Only valid once
+		 * the HashedOutputStream has been closed
+		 * @return the hash of the written File
+		 */
+		String getHash() {
+			if (!closed) {
+				throw new IllegalStateException("Hash requested before the stream was closed");
+			}
+			return hashing.getHash();
+		}
+
+	}
+
+	/**
+	 * A Writer that encrypts and hashes everything written to
+	 * it on the way to a File. The hash of the File is available
+	 * once the Writer has been closed
+	 * @author Cameron Cacic
+	 *
+	 */
+	static final class HashedWriter extends FilterWriter {
+
+		private final HashedOutputStream stream;
+
+		/**
+		 * Creates a new HashedWriter
+		 * @param stream the HashedOutputStream to write encoded characters to
+		 */
+		HashedWriter(HashedOutputStream stream) {
+			super(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE));
+			this.stream = stream;
+		}
+
+		/**
+		 * Returns the hash of the written File. Only valid once
+		 * the HashedWriter has been closed
+		 * @return the hash of the written File
+		 */
+		String getHash() {
+			return stream.getHash();
+		}
+
+	}
+
 	/**
 	 * Loads the passed File and returns its contents as a String.
-	 * Uses the current User's password for handling encryption, and
+	 * Uses the current User's KeyManager for handling encryption, and
 	 * expects the hash of the File to match the expectedHash. Does
 	 * not check the hash if the expectedHash is null
 	 * @param sourceFile the File to load
@@ -39,14 +200,14 @@ class FileIO {
 	 * @throws IOException if file IO errors occur
 	 */
 	public String loadFile(File sourceFile, String expectedHash) throws IOException {
-		return loadFile(sourceFile, expectedHash, User.getCurrentUser().getPassword());
+		return loadFile(sourceFile, expectedHash, User.getCurrentUser().getKeyManager());
 	}
-	
+
 	/**
 	 * Loads the passed File and returns its contents as a String.
 	 * Uses the passed password for encryption, assumes the File
-	 * is unencrypted if a null password is provided. Expects the 
-	 * hash of the File to match the expectedHash. Does not check 
+	 * is unencrypted if a null password is provided. Expects the
+	 * hash of the File to match the expectedHash. Does not check
 	 * the hash if the expectedHash is null
 	 * @param sourceFile the File to load
 	 * @param expectedHash the expected hash of the File
@@ -55,54 +216,190 @@ class FileIO {
 	 * @throws IOException if file IO errors occur
 	 */
 	public String loadFile(File sourceFile, String expectedHash, String password) throws IOException {
-		
-		Hashing hashing = new Hashing();
-		InputStream stream = new FileInputStream(sourceFile);
-		InputStream wrappedStream = hashing.wrapStream(stream);
+		return loadFile(sourceFile, expectedHash, password == null ? null : new KeyManager(password));
+	}
+
+	/**
+	 * Loads the passed File and returns its contents as a String.
+	 * Uses the passed KeyManager for decryption, assumes the File
+	 * is unencrypted if a null KeyManager is provided. Expects the
+	 * hash of the File to match the expectedHash. Does not check
+	 * the hash if the expectedHash is null
+	 * @param sourceFile the File to load
+	 * @param expectedHash the expected hash of the File
+	 * @param keyManager the KeyManager to perform decryption with
+	 * @return the File's contents as a String
+	 * @throws IOException if file IO errors occur
+	 */
+	String loadFile(File sourceFile, String expectedHash, KeyManager keyManager) throws IOException {
+
+		Reader reader = openReader(sourceFile, expectedHash, keyManager);
+		if (reader == null) {
+			return null;
+		}
+
 		StringBuilder readFile = new StringBuilder();
-		
-		if (password != null) {
-			
-			Encryption encryption = new Encryption(wrappedStream, password);
-			byte[] bytes = encryption.getDataDecrypted();
-			if (bytes == null) {
+		try (reader) {
+			char[] buffer = new char[BUFFER_SIZE];
+			int len;
+			while ((len = reader.read(buffer)) != -1) {
+				readFile.append(buffer, 0, len);
+			}
+		}
+		return readFile.toString();
+
+	}
+
+	/**
+	 * Opens the passed File as a Reader over its decrypted contents,
+	 * using the current User's KeyManager. The hash of the File is
+	 * checked against the expectedHash when the Reader is closed,
+	 * which throws a MismatchedHashException if they differ
+	 * @param sourceFile the File to open
+	 * @param expectedHash the expected hash of the File
+	 * @return a Reader over the File's contents, or null if decryption failed
+	 * @throws IOException if file IO errors occur
+	 */
+	public Reader openReader(File sourceFile, String expectedHash) throws IOException {
+		return openReader(sourceFile, expectedHash, User.getCurrentUser().getKeyManager());
+	}
+
+	/**
+	 * Opens the passed File as a Reader over its decrypted contents,
+	 * using the passed KeyManager. Assumes the File is unencrypted if
+	 * a null KeyManager is provided. The hash of the File is checked
+	 * against the expectedHash when the Reader is closed, which throws
+	 * a MismatchedHashException if they differ. Does not check the
+	 * hash if the expectedHash is null
+	 * @param sourceFile the File to open
+	 * @param expectedHash the expected hash of the File
+	 * @param keyManager the KeyManager to perform decryption with
+	 * @return a Reader over the File's contents, or null if decryption failed
+	 * @throws IOException if file IO errors occur
+	 */
+	Reader openReader(File sourceFile, String expectedHash, KeyManager keyManager) throws IOException {
+		InputStream stream = openInputStream(sourceFile, expectedHash, keyManager);
+		if (stream == null) {
+			return null;
+		}
+		return new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	/**
+	 * Opens the passed File as an InputStream over its decrypted bytes,
+	 * using the current User's KeyManager. The hash of the File is
+	 * checked against the expectedHash when the stream is closed,
+	 * which throws a MismatchedHashException if they differ
+	 * @param sourceFile the File to open
+	 * @param expectedHash the expected hash of the File
+	 * @return an InputStream over the File's contents, or null if decryption failed
+	 * @throws IOException if file IO errors occur
+	 */
+	InputStream openInputStream(File sourceFile, String expectedHash) throws IOException {
+		return openInputStream(sourceFile, expectedHash, User.getCurrentUser().getKeyManager());
+	}
+
+	/**
+	 * Opens the passed File as an InputStream over its decrypted bytes,
+	 * using the passed KeyManager. Assumes the File is unencrypted if
+	 * a null KeyManager is provided. The hash of the File is checked
+	 * against the expectedHash when the stream is closed, which throws
+	 * a MismatchedHashException if they differ. Does not check the
+	 * hash if the expectedHash is null
+	 * @param sourceFile the File to open
+	 * @param expectedHash the expected hash of the File
+	 * @param keyManager the KeyManager to perform decryption with
+	 * @return an InputStream over the File's contents, or null if decryption failed
+	 * @throws IOException if file IO errors occur
+	 */
+	InputStream openInputStream(File sourceFile, String expectedHash, KeyManager keyManager) throws IOException {
+
+		// a File untouched since it last matched its hash is not hashed again
+		Hashing hashing = null;
+		IntegrityIndex.Fingerprint fingerprint = null;
+		InputStream hashedStream = new FileInputStream(sourceFile);
+		if (expectedHash == null || !IntegrityIndex.getInstance().isVerified(sourceFile, expectedHash)) {
+			fingerprint = IntegrityIndex.fingerprint(sourceFile);
+			hashing = new Hashing();
+			hashedStream = hashing.wrapStream(hashedStream);
+		}
+		return openContentStream(hashedStream, hashing, sourceFile, expectedHash, fingerprint, keyManager);
+
+	}
+
+	/**
+	 * Opens the passed raw bytes of a File kept somewhere other than a File
+	 * of its own as an InputStream over its decrypted bytes, using the passed
+	 * KeyManager. Assumes the bytes are unencrypted if a null KeyManager is
+	 * provided. The hash of the bytes is always checked against the
+	 * expectedHash when the stream is closed, as there is no File for the
+	 * IntegrityIndex to remember, which throws a MismatchedHashException if
+	 * they differ. Does not check the hash if the expectedHash is null
+	 * @param rawStream the raw bytes of the File
+	 * @param sourceFile the File the bytes were written as, used to report failures
+	 * @param expectedHash the expected hash of the File
+	 * @param keyManager the KeyManager to perform decryption with
+	 * @return an InputStream over the File's contents, or null if decryption failed
+	 * @throws IOException if file IO errors occur
+	 */
+	InputStream openInputStream(InputStream rawStream, File sourceFile, String expectedHash, KeyManager keyManager)
+			throws IOException {
+		Hashing hashing = new Hashing();
+		return openContentStream(hashing.wrapStream(rawStream), hashing, sourceFile, expectedHash, null, keyManager);
+	}
+
+	/**
+	 * Decrypts and decompresses the passed raw bytes of a File
+	 * @param hashedStream the raw bytes of the File, hashed if hashing is not null
+	 * @param hashing the Hashing wrapping the raw bytes, or null if they are not hashed
+	 * @param sourceFile the File being read
+	 * @param expectedHash the expected hash of the File
+	 * @param fingerprint the Fingerprint of the File from before it was opened, or null
+	 * @param keyManager the KeyManager to perform decryption with
+	 * @return an InputStream over the File's contents, or null if decryption failed
+	 * @throws IOException if file IO errors occur
+	 */
+	private static InputStream openContentStream(InputStream hashedStream, Hashing hashing, File sourceFile,
+			String expectedHash, IntegrityIndex.Fingerprint fingerprint, KeyManager keyManager) throws IOException {
+
+		InputStream contentStream = hashedStream;
+		if (keyManager != null) {
+			Encryption encryption = new Encryption(keyManager);
+			contentStream = encryption.wrapStream(hashedStream);
+			if (contentStream == null) {
+				hashedStream.close();
 				Logger.getInstance().logError("Decryption failed on file " + sourceFile);
 				return null;
 			}
-			wrappedStream.close();
-			readFile = new StringBuilder(new String(bytes, StandardCharsets.UTF_8));
-			
-		} else {
-			
-			BufferedReader reader = new BufferedReader(new InputStreamReader(wrappedStream, StandardCharsets.UTF_8));
-			while (reader.ready()) {
-				readFile.append(reader.readLine());
-			}
-			reader.close();
-			
 		}
-		
-		String hash = hashing.getHash();
-		if (expectedHash != null && !expectedHash.equals(hash)) {
-			throw new MismatchedHashException("Expected hash for " + sourceFile.getName() + " did not match its actual hash",
-					expectedHash, hash);
+
+		InputStream bufferedStream = new BufferedInputStream(contentStream, BUFFER_SIZE);
+		InputStream decodedStream;
+		try {
+			decodedStream = FileCodec.decode(bufferedStream);
+		} catch (IOException e) {
+			bufferedStream.close();
+			throw e;
 		}
-		return readFile.toString();
-		
+		if (decodedStream != bufferedStream) {
+			decodedStream = new BufferedInputStream(decodedStream, BUFFER_SIZE);
+		}
+		return new VerifyingInputStream(decodedStream, hashedStream, hashing, expectedHash, sourceFile, fingerprint);
+
 	}
-	
+
 	/**
 	 * Writes the passed data to the passed File using the
-	 * current User's password to perform encryption
+	 * current User's KeyManager to perform encryption
 	 * @param file the File to write to
 	 * @param data the data to write
 	 * @return the hash of the written File
 	 * @throws IOException if file IO errors occur
 	 */
 	public String writeToFile(File file, String data) throws IOException {
-		return writeToFile(file, data, User.getCurrentUser().getPassword());
+		return writeToFile(file, data, User.getCurrentUser().getKeyManager());
 	}
-	
+
 	/**
 	 * Writes the passed data to the passed File using the
 	 * passed password to perform encryption. If the password
@@ -114,76 +411,175 @@ class FileIO {
 	 * @throws IOException if file IO errors occur
 	 */
 	public String writeToFile(File file, String data, String password) throws IOException {
-		ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
-		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(byteOutStream, StandardCharsets.UTF_8));
-		writer.write(data);
-		writer.close();
-		byte[] bytes = byteOutStream.toByteArray();
-		return writeToFile(file, bytes, password);
+		return writeToFile(file, data, password == null ? null : new KeyManager(password));
+	}
+
+	/**
+	 * Writes the passed data to the passed File using the
+	 * passed KeyManager to perform encryption. If the KeyManager
+	 * is null then no encryption is performed
+	 * @param file the File to write to
+	 * @param data the data to write
+	 * @param keyManager the KeyManager to perform encryption with
+	 * @return the hash of the written File
+	 * @throws IOException if file IO errors occur
+	 */
+	String writeToFile(File file, String data, KeyManager keyManager) throws IOException {
+		HashedWriter writer = openWriter(file, keyManager);
+		try (writer) {
+			writer.write(data);
+		}
+		return writer.getHash();
 	}
-	
+
+	/**
+	 * Writes the encoding of the passed ParamMap to the passed File using
+	 * the passed KeyManager to perform encryption, streaming it straight
+	 * into the encrypting Writer instead of encoding it as a whole first.
+	 * If the KeyManager is null then no encryption is performed
+	 * @param file the File to write to
+	 * @param paramMap the ParamMap to write
+	 * @param keyManager the KeyManager to perform encryption with
+	 * @return the hash of the written File
+	 * @throws IOException if file IO errors occur
+	 */
+	String writeToFile(File file, ParamMap paramMap, KeyManager keyManager) throws IOException {
+		HashedWriter writer = openWriter(file, keyManager);
+		try (writer) {
+			paramMap.encode(writer);
+		}
+		return writer.getHash();
+	}
+
 	/**
 	 * Writes the passed bytes to the passed File using the
-	 * current User's password to perform encryption
+	 * current User's KeyManager to perform encryption
 	 * @param file the File to write to
 	 * @param bytes the bytes to write
 	 * @return the hash of the written File
 	 * @throws IOException if file IO errors occur
 	 */
 	public String writeToFile(File file, byte[] bytes) throws IOException {
-		return writeToFile(file, bytes, User.getCurrentUser().getPassword());
+		return writeToFile(file, bytes, User.getCurrentUser().getKeyManager());
 	}
-	
+
 	/**
 	 * Writes the passed bytes to the passed File using the
-	 * passed password to perform encryption. If the password
+	 * passed KeyManager to perform encryption. If the KeyManager
 	 * is null then no encryption is performed
 	 * @param file the File to write to
 	 * @param bytes the bytes to write
-	 * @param password the password to perform encryption with
+	 * @param keyManager the KeyManager to perform encryption with
 	 * @return the hash of the written File
 	 * @throws IOException if file IO errors occur
 	 */
-    private String writeToFile(File file, byte[] bytes, String password) throws IOException {
-		
-		if (!file.getParentFile().mkdirs()) {
-			throw new IOException("Failed to create directories described in " + file.getParentFile());
+	String writeToFile(File file, byte[] bytes, KeyManager keyManager) throws IOException {
+		return writeToFile(file, bytes, keyManager, RECORD_CODEC);
+	}
+
+	/**
+	 * Writes the passed bytes to the passed File, compressing them with
+	 * the passed FileCodec and then encrypting them with the passed
+	 * KeyManager. If the KeyManager is null then no encryption is performed
+	 * @param file the File to write to
+	 * @param bytes the bytes to write
+	 * @param keyManager the KeyManager to perform encryption with
+	 * @param codec the FileCodec to compress with
+	 * @return the hash of the written File
+	 * @throws IOException if file IO errors occur
+	 */
+	String writeToFile(File file, byte[] bytes, KeyManager keyManager, FileCodec codec) throws IOException {
+		HashedOutputStream stream = openOutputStream(file, keyManager, codec);
+		try (stream) {
+			stream.write(bytes);
 		}
-		if (!file.createNewFile()) {
-			throw new IOException("Failed to create " + file);
+		return stream.getHash();
+	}
+
+	/**
+	 * Opens the passed File as a Writer using the current User's
+	 * KeyManager to perform encryption. The hash of the File can be
+	 * retrieved from the returned HashedWriter once it is closed
+	 * @param file the File to write to
+	 * @return a HashedWriter into the File
+	 * @throws IOException if file IO errors occur
+	 */
+	HashedWriter openWriter(File file) throws IOException {
+		return openWriter(file, User.getCurrentUser().getKeyManager());
+	}
+
+	/**
+	 * Opens the passed File as a Writer using the passed KeyManager
+	 * to perform encryption. If the KeyManager is null then no
+	 * encryption is performed. The hash of the File can be retrieved
+	 * from the returned HashedWriter once it is closed
+	 * @param file the File to write to
+	 * @param keyManager the KeyManager to perform encryption with
+	 * @return a HashedWriter into the File
+	 * @throws IOException if file IO errors occur
+	 */
+	HashedWriter openWriter(File file, KeyManager keyManager) throws IOException {
+		return new HashedWriter(openOutputStream(file, keyManager));
+	}
+
+	/**
+	 * Opens the passed File as an OutputStream using the current
+	 * User's KeyManager to perform encryption. The hash of the File
+	 * can be retrieved from the returned HashedOutputStream once it
+	 * is closed
+	 * @param file the File to write to
+	 * @return a HashedOutputStream into the File
+	 * @throws IOException if file IO errors occur
+	 */
+	HashedOutputStream openOutputStream(File file) throws IOException {
+		return openOutputStream(file, User.getCurrentUser().getKeyManager());
+	}
+
+	/**
+	 * Opens the passed File as an OutputStream that encrypts with the
+	 * passed KeyManager, compressing with RECORD_CODEC
+	 * @param file the File to write to
+	 * @param keyManager the KeyManager to perform encryption with
+	 * @return a HashedOutputStream into the File
+	 * @throws IOException if file IO errors occur
+	 */
+	HashedOutputStream openOutputStream(File file, KeyManager keyManager) throws IOException {
+		return openOutputStream(file, keyManager, RECORD_CODEC);
+	}
+
+	/**
+	 * Opens the passed File as an OutputStream that compresses with the
+	 * passed FileCodec and then encrypts with the passed KeyManager. If the
+	 * KeyManager is null, or no Cipher can be created, then no encryption
+	 * is performed. The hash of the File can be retrieved from the returned
+	 * HashedOutputStream once it is closed
+	 * @param file the File to write to
+	 * @param keyManager the KeyManager to perform encryption with
+	 * @param codec the FileCodec to compress with
+	 * @return a HashedOutputStream into the File
+	 * @throws IOException if file IO errors occur
+	 */
+	HashedOutputStream openOutputStream(File file, KeyManager keyManager, FileCodec codec) throws IOException {
+
+		File parent = file.getParentFile();
+		if (!parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Failed to create directories described in " + parent);
 		}
-		
+
 		Hashing hashing = new Hashing();
-		if (password != null) {
-			
-			Encryption encryption = new Encryption(new ByteArrayInputStream(bytes), password);
-			byte[] encData = encryption.getDataEncrypted();
-			if (encData == null) {
-				
+		OutputStream hashedStream = hashing.wrapStream(new FileOutputStream(file));
+		OutputStream contentStream = hashedStream;
+		if (keyManager != null) {
+			Encryption encryption = new Encryption(keyManager);
+			contentStream = encryption.wrapStream(hashedStream);
+			if (contentStream == null) {
 				GeneralConfig.getInstance().setEncrypted(false);
-				OutputStream outputStream = hashing.wrapStream(new FileOutputStream(file));
-				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
-				writer.write(new String(bytes, StandardCharsets.UTF_8));
-				writer.close();
-				
-			} else {
-				
-				OutputStream byteWriter = hashing.wrapStream(new FileOutputStream(file));
-				byteWriter.write(encData);
-				byteWriter.close();
-				
+				contentStream = hashedStream;
 			}
-			
-		} else {
-		
-			OutputStream outputStream = hashing.wrapStream(new FileOutputStream(file));
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
-			writer.write(new String(bytes, StandardCharsets.UTF_8));
-			writer.close();
-		}
-		
-		return hashing.getHash();
-		
+		}
+		contentStream = codec.encode(contentStream);
+		return new HashedOutputStream(new BufferedOutputStream(contentStream, BUFFER_SIZE), hashing);
+
 	}
 
 }
@@ -1,27 +1,46 @@
 package com.ccacic.financemanager.fileio;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.DigestInputStream;
-import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 import com.ccacic.financemanager.launcher.Launcher;
 import com.ccacic.financemanager.logger.Logger;
 
 /**
  * Wraps input and output streams to produce a hash of the content that
- * flowed through them. Uses SHA-256 to create the hash
+ * flowed through them. Uses SHA-256 to create the hash. Content in the
+ * AES-GCM format of Encryption is already authenticated by the tags of
+ * its segments, so only its header, segment headers, and tags are hashed,
+ * which identifies the content just as well once it is decrypted without
+ * a second pass over every byte. All other content is hashed in full
  * @author Cameron Cacic
  *
  */
 class Hashing {
 	
 	private static final String algorithm = "SHA-256";
+
+	/**
+	 * What the next bytes of the content are
+	 */
+	private enum Part {
+		PREFIX, HEADER, SEGMENT_HEADER, CIPHERTEXT, TAG, ALL
+	}
 	
 	private final MessageDigest messageDigest;
 	private String hash;
+	private Part part;
+	private int remaining;
+	private int segmentHeader;
+	private boolean lastSegment;
+	private final byte[] prefix;
+	private int prefixLength;
 	
 	/**
 	 * Creates a new, empty Hashing
@@ -37,6 +56,8 @@ class Hashing {
 		}
 		messageDigest = md;
 		hash = null;
+		prefix = new byte[Encryption.AUTHENTICATED_FORMAT.length];
+		reset();
 	}
 	
 	/**
@@ -46,9 +67,41 @@ class Hashing {
 	 * @return the wrapped InputStream
 	 */
 	public InputStream wrapStream(InputStream stream) {
-		messageDigest.reset();
-		hash = null;
-		return new DigestInputStream(stream, messageDigest);
+		reset();
+		return new FilterInputStream(stream) {
+
+			@Override
+			public int read() throws IOException {
+				int b = in.read();
+				if (b != -1) {
+					update(new byte[] {(byte) b}, 0, 1);
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = in.read(b, off, len);
+				if (read > 0) {
+					update(b, off, read);
+				}
+				return read;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				// skipped bytes must still be hashed
+				byte[] skipped = new byte[(int) Math.min(n, FileIO.BUFFER_SIZE)];
+				int read = read(skipped, 0, skipped.length);
+				return Math.max(read, 0);
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+
+		};
 	}
 	
 	/**
@@ -58,9 +111,22 @@ class Hashing {
 	 * @return the wrapped OutputStream
 	 */
 	public OutputStream wrapStream(OutputStream stream) {
-		messageDigest.reset();
-		hash = null;
-		return new DigestOutputStream(stream, messageDigest);
+		reset();
+		return new FilterOutputStream(stream) {
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				update(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				update(b, off, len);
+			}
+
+		};
 	}
 	
 	/**
@@ -73,6 +139,9 @@ class Hashing {
 	 */
 	public String getHash() {
 		if (hash == null) {
+			if (part == Part.PREFIX) {
+				messageDigest.update(prefix, 0, prefixLength);
+			}
 			byte[] bytes = messageDigest.digest();
 			StringBuilder stringBuilder = new StringBuilder(bytes.length * 2);
 			for (byte b: bytes) {
@@ -83,4 +152,105 @@ class Hashing {
 		return hash;
 	}
 
+	/**
+	 * Resets this Hashing to the start of new content
+	 */
+	private void reset() {
+		messageDigest.reset();
+		hash = null;
+		part = Part.PREFIX;
+		remaining = prefix.length;
+		prefixLength = 0;
+		segmentHeader = 0;
+		lastSegment = false;
+	}
+
+	/**
+	 * Passes the next bytes of the content to the MessageDigest, skipping
+	 * those that are ciphertext of the AES-GCM format
+	 * @param b the bytes
+	 * @param off where the bytes begin
+	 * @param len how many bytes there are
+	 */
+	private void update(byte[] b, int off, int len) {
+		while (len > 0) {
+			if (part == Part.ALL) {
+				messageDigest.update(b, off, len);
+				return;
+			}
+			int taken = Math.min(len, remaining);
+			switch (part) {
+			case PREFIX:
+				System.arraycopy(b, off, prefix, prefixLength, taken);
+				prefixLength += taken;
+				break;
+			case SEGMENT_HEADER:
+				for (int i = off; i < off + taken; i++) {
+					segmentHeader = (segmentHeader << 8) | (b[i] & 0xFF);
+				}
+				messageDigest.update(b, off, taken);
+				break;
+			case CIPHERTEXT:
+				break;
+			default:
+				messageDigest.update(b, off, taken);
+				break;
+			}
+			off += taken;
+			len -= taken;
+			remaining -= taken;
+			if (remaining == 0) {
+				nextPart();
+			}
+		}
+	}
+
+	/**
+	 * Moves on to the part of the content after the current one
+	 */
+	private void nextPart() {
+		switch (part) {
+		case PREFIX:
+			messageDigest.update(prefix, 0, prefixLength);
+			if (Arrays.equals(prefix, Encryption.AUTHENTICATED_FORMAT)) {
+				part = Part.HEADER;
+				remaining = Encryption.AUTHENTICATED_HEADER_LENGTH - prefix.length;
+			} else {
+				part = Part.ALL;
+			}
+			break;
+		case HEADER:
+		case TAG:
+			if (lastSegment) {
+				// anything after the final segment is hashed in full
+				part = Part.ALL;
+			} else {
+				part = Part.SEGMENT_HEADER;
+				remaining = Encryption.SEGMENT_HEADER_LENGTH;
+				segmentHeader = 0;
+			}
+			break;
+		case SEGMENT_HEADER:
+			int length = segmentHeader & ~Encryption.FINAL_SEGMENT;
+			lastSegment = (segmentHeader & Encryption.FINAL_SEGMENT) != 0;
+			if (length > Encryption.SEGMENT_SIZE) {
+				// malformed, so nothing is skipped
+				part = Part.ALL;
+			} else if (length == 0) {
+				part = Part.TAG;
+				remaining = Encryption.TAG_LENGTH;
+			} else {
+				part = Part.CIPHERTEXT;
+				remaining = length;
+			}
+			break;
+		case CIPHERTEXT:
+			part = Part.TAG;
+			remaining = Encryption.TAG_LENGTH;
+			break;
+		default:
+			break;
+		}
+	}
+
 }
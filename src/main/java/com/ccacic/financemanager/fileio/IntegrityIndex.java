@@ -0,0 +1,207 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.ccacic.financemanager.logger.Logger;
+
+/**
+ * Remembers the size, modification time and hash of every File whose
+ * hash was checked or written, so a File that has not been touched since
+ * does not have to be hashed again to be trusted. Kept encrypted with the
+ * current User's KeyManager alongside the user file, so it survives from
+ * one session to the next. Thread safe
+ * @author Cameron Cacic
+ *
+ */
+final class IntegrityIndex {
+
+	/**
+	 * The size and modification time of a File, along with its hash
+	 * as of when the size and modification time were read
+	 * @author Cameron Cacic
+	 *
+	 */
+	static final class Fingerprint {
+
+		private final long size;
+		private final long modified;
+		private final String hash;
+
+		/**
+		 * Creates a new Fingerprint
+		 * @param size the size of the File
+		 * @param modified the modification time of the File in nanoseconds
+		 * @param hash the hash of the File, or null if not known yet
+		 */
+		private Fingerprint(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+
+		/**
+		 * Returns a copy of this Fingerprint with the passed hash
+		 * @param hash the hash of the File
+		 * @return the Fingerprint with its hash
+		 */
+		Fingerprint withHash(String hash) {
+			return new Fingerprint(size, modified, hash);
+		}
+
+		/**
+		 * Checks if the passed Fingerprint has the same size and
+		 * modification time as this one
+		 * @param other the Fingerprint to compare
+		 * @return if the File appears unchanged
+		 */
+		boolean sameFile(Fingerprint other) {
+			return other != null && size == other.size && modified == other.modified;
+		}
+
+	}
+
+	private static final String INDEX_EXTENSION = ".idx";
+
+	private static final IntegrityIndex instance = new IntegrityIndex();
+
+	/**
+	 * Returns the singleton instance of IntegrityIndex
+	 * @return the instance of IntegrityIndex
+	 */
+	static IntegrityIndex getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Reads the size and modification time of the passed File
+	 * @param file the File to read
+	 * @return the Fingerprint of the File without a hash, or null if it cannot be read
+	 */
+	static Fingerprint fingerprint(File file) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			return new Fingerprint(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), null);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private final Map<File, Fingerprint> fingerprints;
+	private volatile File indexFile;
+	private volatile boolean changed;
+
+	/**
+	 * Creates the empty IntegrityIndex
+	 */
+	private IntegrityIndex() {
+		fingerprints = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Replaces the contents of the index with those kept for the passed
+	 * User. Entries for Files that changed since are dropped
+	 * @param user the User to load the index of
+	 */
+	void load(User user) {
+
+		fingerprints.clear();
+		changed = false;
+		indexFile = new File(user.getUserDir(), user.getName() + INDEX_EXTENSION);
+		if (!indexFile.exists()) {
+			return;
+		}
+
+		try {
+			String contents = new FileIO().loadFile(indexFile, null);
+			if (contents == null) {
+				return;
+			}
+			for (String line: contents.split("\n")) {
+				String[] fields = line.split(" ", 4);
+				if (fields.length < 4) {
+					continue;
+				}
+				File file = new File(fields[3]);
+				Fingerprint fingerprint = new Fingerprint(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0]);
+				if (fingerprint.sameFile(fingerprint(file))) {
+					fingerprints.put(file, fingerprint);
+				} else {
+					changed = true;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			Logger.getInstance().logWarning("Discarding unreadable integrity index " + indexFile + ": " + e.getMessage());
+			fingerprints.clear();
+			changed = true;
+		}
+
+	}
+
+	/**
+	 * Queues the index to be written with the PersistenceService if it
+	 * changed since it was loaded or last saved
+	 */
+	void save() {
+
+		File file = indexFile;
+		if (file == null || !changed) {
+			return;
+		}
+		changed = false;
+		StringBuilder contents = new StringBuilder();
+		for (Map.Entry<File, Fingerprint> entry: fingerprints.entrySet()) {
+			Fingerprint fingerprint = entry.getValue();
+			contents.append(fingerprint.hash).append(' ')
+				.append(fingerprint.size).append(' ')
+				.append(fingerprint.modified).append(' ')
+				.append(entry.getKey().getPath()).append('\n');
+		}
+		PersistenceService.getInstance().write(file, contents.toString().getBytes(StandardCharsets.UTF_8))
+			.exceptionally(e -> {
+				changed = true;
+				return null;
+			});
+
+	}
+
+	/**
+	 * Checks if the passed File is known to have the passed hash and has
+	 * not been touched since its hash was checked or written
+	 * @param file the File to check
+	 * @param expectedHash the hash the File should have
+	 * @return if the File can be trusted without hashing it
+	 */
+	boolean isVerified(File file, String expectedHash) {
+		Fingerprint known = fingerprints.get(file.getAbsoluteFile());
+		return known != null && expectedHash.equals(known.hash) && known.sameFile(fingerprint(file));
+	}
+
+	/**
+	 * Records that the passed File had the passed hash when it had the
+	 * passed Fingerprint. Nothing is recorded if the File has been touched
+	 * since the Fingerprint was read
+	 * @param file the File that was hashed
+	 * @param before the Fingerprint of the File from before it was hashed
+	 * @param hash the hash of the File
+	 */
+	void record(File file, Fingerprint before, String hash) {
+		file = file.getAbsoluteFile();
+		if (file.equals(indexFile)) {
+			return;
+		}
+		if (before != null && hash != null && before.sameFile(fingerprint(file))) {
+			Fingerprint previous = fingerprints.put(file, before.withHash(hash));
+			changed |= previous == null || !previous.sameFile(before) || !hash.equals(previous.hash);
+		} else if (fingerprints.remove(file) != null) {
+			changed = true;
+		}
+	}
+
+}
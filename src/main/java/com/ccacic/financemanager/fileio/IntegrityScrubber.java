@@ -0,0 +1,288 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ccacic.financemanager.event.Event;
+import com.ccacic.financemanager.event.EventManager;
+import com.ccacic.financemanager.logger.Logger;
+import com.ccacic.financemanager.model.config.GeneralConfig;
+
+/**
+ * Checks the records and archives of the current User in the background,
+ * so corruption is found before the affected Account is opened instead of
+ * while it is being loaded. A single daemon Thread at the lowest priority
+ * waits out the busy period after the records are loaded, then runs a
+ * background IntegrityVerifier over everything, hashing every File even
+ * if the IntegrityIndex trusts it. Its reads are held to the scrub rate
+ * in GeneralConfig and wait entirely while the PersistenceService has
+ * writes queued. The outcome of the last complete pass is kept in a
+ * health file alongside the user file, so passes are spaced by the scrub
+ * interval across sessions and known problems are reported again as soon
+ * as the records are loaded. Problems are reported with an
+ * INTEGRITY_PROBLEM Event carrying the list of Corruptions. Thread safe
+ * @author Cameron Cacic
+ *
+ */
+public final class IntegrityScrubber {
+
+	private static final String HEALTH_EXTENSION = ".health";
+	/**
+	 * How long after the records are loaded the first pass may begin
+	 */
+	private static final long STARTUP_DELAY_MILLIS = 60_000;
+	/**
+	 * How long to wait before running a pass again that overlapped a save
+	 */
+	private static final long RETRY_DELAY_MILLIS = 10 * 60_000;
+	/**
+	 * How long stopping waits for a pass to wind down
+	 */
+	private static final long STOP_WAIT_MILLIS = 2_000;
+
+	private static final IntegrityScrubber instance = new IntegrityScrubber();
+
+	/**
+	 * Returns the singleton instance of IntegrityScrubber
+	 * @return the instance of IntegrityScrubber
+	 */
+	public static IntegrityScrubber getInstance() {
+		return instance;
+	}
+
+	private Thread thread;
+	private volatile IoThrottle throttle;
+	private volatile boolean stopping;
+	private volatile File healthFile;
+	private volatile List<IntegrityVerifier.Corruption> problems;
+	private volatile long lastScrubbed;
+
+	/**
+	 * Creates the IntegrityScrubber
+	 */
+	private IntegrityScrubber() {
+		problems = Collections.emptyList();
+	}
+
+	/**
+	 * Starts scrubbing the records of the current User in the background,
+	 * stopping any scrub of a previous User first. Problems remembered from
+	 * an earlier pass are reported right away. Does nothing if there is
+	 * no current User
+	 */
+	public synchronized void start() {
+
+		User user = User.getCurrentUser();
+		if (user == null) {
+			Logger.getInstance().logWarning("Cannot scrub records without a specified user");
+			return;
+		}
+		stop();
+
+		healthFile = new File(user.getUserDir(), user.getName() + HEALTH_EXTENSION);
+		loadHealth();
+		List<IntegrityVerifier.Corruption> known = problems;
+		if (!known.isEmpty()) {
+			Logger.getInstance().logWarning(known.size() + " records failed their last integrity scrub");
+			EventManager.fireEvent(new Event(Event.INTEGRITY_PROBLEM, known));
+		}
+
+		stopping = false;
+		thread = new Thread(this::scrubLoop, "integrity-scrubber");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+
+	}
+
+	/**
+	 * Stops scrubbing, abandoning a pass in progress, which leaves the
+	 * health file as of the last complete pass
+	 */
+	public synchronized void stop() {
+
+		if (thread == null) {
+			return;
+		}
+		stopping = true;
+		IoThrottle current = throttle;
+		if (current != null) {
+			current.cancel();
+		}
+		thread.interrupt();
+		try {
+			thread.join(STOP_WAIT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+
+	}
+
+	/**
+	 * Returns the problems found by the last complete pass
+	 * @return the Corruptions found
+	 */
+	public List<IntegrityVerifier.Corruption> getProblems() {
+		return problems;
+	}
+
+	/**
+	 * Returns when the last complete pass finished
+	 * @return the time in milliseconds since the epoch, 0 if there has not been one
+	 */
+	public long getLastScrubbed() {
+		return lastScrubbed;
+	}
+
+	/**
+	 * Runs passes, each a scrub interval after the last, until stopped
+	 */
+	private void scrubLoop() {
+
+		try {
+			Thread.sleep(STARTUP_DELAY_MILLIS);
+			while (!stopping) {
+				long wait = lastScrubbed + GeneralConfig.getInstance().getScrubInterval() - System.currentTimeMillis();
+				if (wait > 0) {
+					Thread.sleep(wait);
+				} else if (!scrub()) {
+					Thread.sleep(RETRY_DELAY_MILLIS);
+				}
+			}
+		} catch (InterruptedException e) {
+			Logger.getInstance().logDebug("Integrity scrubber stopped");
+		}
+
+	}
+
+	/**
+	 * Runs a single pass over the records and archives of the current User,
+	 * recording its outcome in the health file. A pass that found problems
+	 * while records were being saved is not trusted, as a File may have been
+	 * read between being rewritten and its new hash being recorded
+	 * @return if the pass completed and its outcome was recorded
+	 */
+	boolean scrub() {
+
+		PersistenceService persistence = PersistenceService.getInstance();
+		IoThrottle current = new IoThrottle(GeneralConfig.getInstance().getScrubRate(),
+				() -> persistence.getQueueDepth() > 0);
+		throttle = current;
+		if (stopping) {
+			current.cancel();
+		}
+
+		long start = System.currentTimeMillis();
+		long writes = persistence.getWrites();
+		IntegrityVerifier.Report report = new IntegrityVerifier(current).verifyEverything();
+		throttle = null;
+		if (current.isCanceled()) {
+			return false;
+		}
+		List<IntegrityVerifier.Corruption> found = report.getCorruptions();
+		if (!found.isEmpty() && persistence.getWrites() != writes) {
+			Logger.getInstance().logDebug("Integrity scrub overlapped a save, running it again later");
+			return false;
+		}
+
+		long finish = System.currentTimeMillis();
+		problems = Collections.unmodifiableList(found);
+		lastScrubbed = finish;
+		saveHealth(report, current.getBytes());
+		IntegrityIndex.getInstance().save();
+		Logger.getInstance().logInfo("Integrity scrub hashed " + report.getHashed() + " files (" + current.getBytes()
+				+ " bytes) in " + (finish - start) / 1000 + "s and found " + found.size() + " problems");
+		if (!found.isEmpty()) {
+			for (IntegrityVerifier.Corruption corruption: found) {
+				Logger.getInstance().logWarning("Integrity scrub found " + corruption.getFile() + " corrupt, expected hash "
+						+ corruption.getExpectedHash() + " but found " + corruption.getActualHash());
+			}
+			EventManager.fireEvent(new Event(Event.INTEGRITY_PROBLEM, problems));
+		}
+		return true;
+
+	}
+
+	/**
+	 * Reads the outcome of the last complete pass from the health file
+	 */
+	private void loadHealth() {
+
+		problems = Collections.emptyList();
+		lastScrubbed = 0;
+		if (!healthFile.exists()) {
+			return;
+		}
+
+		try {
+			String contents = new FileIO().loadFile(healthFile, null);
+			if (contents == null) {
+				return;
+			}
+			List<IntegrityVerifier.Corruption> loaded = new ArrayList<>();
+			for (String line: contents.split("\n")) {
+				String[] fields = line.split(" ", 4);
+				if (fields[0].equals("scrubbed") && fields.length >= 2) {
+					lastScrubbed = Long.parseLong(fields[1]);
+				} else if (fields[0].equals("corrupt") && fields.length == 4) {
+					loaded.add(new IntegrityVerifier.Corruption(new File(fields[3]), fromField(fields[1]), fromField(fields[2])));
+				}
+			}
+			problems = Collections.unmodifiableList(loaded);
+		} catch (IOException | RuntimeException e) {
+			Logger.getInstance().logWarning("Discarding unreadable health file " + healthFile + ": " + e.getMessage());
+			problems = Collections.emptyList();
+			lastScrubbed = 0;
+		}
+
+	}
+
+	/**
+	 * Queues the outcome of a complete pass to be written to the health file
+	 * @param report the Report of the pass
+	 * @param bytes how many bytes the pass read
+	 */
+	private void saveHealth(IntegrityVerifier.Report report, long bytes) {
+
+		StringBuilder contents = new StringBuilder();
+		contents.append("scrubbed ").append(lastScrubbed).append(' ')
+			.append(report.getHashed()).append(' ')
+			.append(bytes).append('\n');
+		for (IntegrityVerifier.Corruption corruption: report.getCorruptions()) {
+			contents.append("corrupt ")
+				.append(toField(corruption.getExpectedHash())).append(' ')
+				.append(toField(corruption.getActualHash())).append(' ')
+				.append(corruption.getFile().getPath()).append('\n');
+		}
+		PersistenceService.getInstance().write(healthFile, contents.toString().getBytes(StandardCharsets.UTF_8))
+			.exceptionally(e -> {
+				Logger.getInstance().logWarning("Failed to write health file " + healthFile + ": " + e.getMessage());
+				return null;
+			});
+
+	}
+
+	/**
+	 * Converts a possibly null hash into a field of the health file
+	 * @param hash the hash, or null
+	 * @return the field
+	 */
+	private static String toField(String hash) {
+		return hash == null ? "-" : hash;
+	}
+
+	/**
+	 * Converts a field of the health file back into a possibly null hash
+	 * @param field the field
+	 * @return the hash, or null
+	 */
+	private static String fromField(String field) {
+		return "-".equals(field) ? null : field;
+	}
+
+}
@@ -0,0 +1,602 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ccacic.financemanager.exception.MismatchedHashException;
+import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.model.account.AccountAssembler;
+import com.ccacic.financemanager.util.StringProcessing;
+
+/**
+ * Checks the records of the current User against the hashes they are
+ * expected to have. The records form a hash tree: the User holds the
+ * hash of each AccountHolder file, each AccountHolder file holds the
+ * hashes of its Account files, and each Account file holds the hashes
+ * of its EntryChunk files, which are found in the ChunkStore by hash.
+ * Any AccountHolder or Account can therefore be checked on its own, and
+ * its children are checked in parallel once their parent's hashes are
+ * trusted. EntryChunk files are hashed without being decompressed or
+ * parsed, and Files the IntegrityIndex knows to be untouched since they
+ * last matched are not hashed at all. Every File that fails is reported
+ * individually. Archives are checked by reading every section back and
+ * making sure the blobs they point at are intact. An IntegrityVerifier
+ * made for the background hashes every File regardless of the
+ * IntegrityIndex, on a single low priority Thread and with its reads
+ * held back by an IoThrottle
+ * @author Cameron Cacic
+ *
+ */
+public class IntegrityVerifier {
+
+	/**
+	 * A File that did not have its expected hash
+	 * @author Cameron Cacic
+	 *
+	 */
+	public static final class Corruption {
+
+		private final File file;
+		private final String expectedHash;
+		private final String actualHash;
+
+		/**
+		 * Creates a new Corruption
+		 * @param file the File that failed
+		 * @param expectedHash the expected hash of the File, or null for an archive that could not be read
+		 * @param actualHash the actual hash of the File, or null if it could not be read
+		 */
+		public Corruption(File file, String expectedHash, String actualHash) {
+			this.file = file;
+			this.expectedHash = expectedHash;
+			this.actualHash = actualHash;
+		}
+
+		/**
+		 * Returns the File that failed
+		 * @return the File
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns the expected hash of the File
+		 * @return the expected hash, or null for an archive that could not be read
+		 */
+		public String getExpectedHash() {
+			return expectedHash;
+		}
+
+		/**
+		 * Returns the actual hash of the File
+		 * @return the actual hash, or null if the File is missing or could not be read
+		 */
+		public String getActualHash() {
+			return actualHash;
+		}
+
+	}
+
+	/**
+	 * The outcome of checking part of the hash tree. Thread safe
+	 * @author Cameron Cacic
+	 *
+	 */
+	public static final class Report {
+
+		private final List<Corruption> corruptions;
+		private final AtomicInteger hashed;
+		private final AtomicInteger skipped;
+		/**
+		 * The blobs already checked, which archives may share with Accounts and with each other
+		 */
+		private final Set<String> checkedBlobs;
+
+		/**
+		 * Creates a new, empty Report
+		 */
+		private Report() {
+			corruptions = Collections.synchronizedList(new ArrayList<>());
+			hashed = new AtomicInteger();
+			skipped = new AtomicInteger();
+			checkedBlobs = ConcurrentHashMap.newKeySet();
+		}
+
+		/**
+		 * Checks if every File checked had its expected hash
+		 * @return if nothing was corrupt
+		 */
+		public boolean isIntact() {
+			return corruptions.isEmpty();
+		}
+
+		/**
+		 * Returns every File that did not have its expected hash
+		 * @return the Corruptions found
+		 */
+		public List<Corruption> getCorruptions() {
+			synchronized (corruptions) {
+				return new ArrayList<>(corruptions);
+			}
+		}
+
+		/**
+		 * Returns how many Files were hashed
+		 * @return the hashed File count
+		 */
+		public int getHashed() {
+			return hashed.get();
+		}
+
+		/**
+		 * Returns how many Files were trusted without hashing, as they
+		 * were untouched since they last matched their hashes
+		 * @return the skipped File count
+		 */
+		public int getSkipped() {
+			return skipped.get();
+		}
+
+	}
+
+	/**
+	 * The most threads that will check Files at once
+	 */
+	private static final int MAX_VERIFY_THREADS = 8;
+
+	private final User user;
+	private final IntegrityIndex index;
+	/**
+	 * Holds back the reads of a background IntegrityVerifier, null otherwise
+	 */
+	private final IoThrottle throttle;
+
+	/**
+	 * Creates a new IntegrityVerifier for the current User
+	 */
+	public IntegrityVerifier() {
+		this(null);
+	}
+
+	/**
+	 * Creates a new IntegrityVerifier for the current User, which checks
+	 * Files in the background through the passed IoThrottle if there is one
+	 * @param throttle the IoThrottle to read through, or null to check in the foreground
+	 */
+	IntegrityVerifier(IoThrottle throttle) {
+		this.user = User.getCurrentUser();
+		this.index = IntegrityIndex.getInstance();
+		this.throttle = throttle;
+		if (user == null) {
+			throw new UnsupportedOperationException("Cannot verify records without a specified user");
+		}
+	}
+
+	/**
+	 * Checks every AccountHolder of the User along with everything beneath it
+	 * @return the Report of the check
+	 */
+	public Report verifyUser() {
+		Report report = new Report();
+		run(userTasks(report));
+		return report;
+	}
+
+	/**
+	 * Checks every AccountHolder of the User along with everything beneath
+	 * it, then every archive, not checking blobs the archives share with
+	 * Accounts again
+	 * @return the Report of the check
+	 */
+	Report verifyEverything() {
+		Report report = new Report();
+		run(userTasks(report));
+		run(archiveTasks(report));
+		return report;
+	}
+
+	/**
+	 * Lists a task for checking each AccountHolder of the User
+	 * @param report the Report to add to
+	 * @return the tasks
+	 */
+	private List<ForkJoinTask<?>> userTasks(Report report) {
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (String acctHoldId: new ArrayList<>(user.getAcctHoldIds())) {
+			String expectedHash = user.getHashes().get(acctHoldId);
+			tasks.add(ForkJoinTask.adapt(() -> verifyAcctHolder(report, acctHoldId, expectedHash)));
+		}
+		return tasks;
+	}
+
+	/**
+	 * Checks the AccountHolder with the passed ID along with everything beneath it
+	 * @param acctHoldId the ID of the AccountHolder
+	 * @return the Report of the check
+	 */
+	public Report verifyAcctHolder(String acctHoldId) {
+		Report report = new Report();
+		String expectedHash = user.getHashes().get(acctHoldId);
+		run(Collections.singletonList(ForkJoinTask.adapt(() -> verifyAcctHolder(report, acctHoldId, expectedHash))));
+		return report;
+	}
+
+	/**
+	 * Checks the Account with the passed ID along with its EntryChunks
+	 * @param acctHoldId the ID of the AccountHolder owning the Account
+	 * @param acctId the ID of the Account
+	 * @param expectedHash the expected hash of the Account file
+	 * @return the Report of the check
+	 */
+	public Report verifyAccount(String acctHoldId, String acctId, String expectedHash) {
+		Report report = new Report();
+		File acctHoldDir = new File(user.getUserDir(), acctHoldId);
+		run(Collections.singletonList(ForkJoinTask.adapt(() -> verifyAccount(report, acctHoldDir, acctId, expectedHash))));
+		return report;
+	}
+
+	/**
+	 * Checks every archive of the User, along with the blobs they point at
+	 * in the ChunkStore. Archives in the older single String format have no
+	 * sections to check and are skipped
+	 * @return the Report of the check
+	 */
+	public Report verifyArchives() {
+		Report report = new Report();
+		run(archiveTasks(report));
+		return report;
+	}
+
+	/**
+	 * Lists a task for checking each archive of the User
+	 * @param report the Report to add to
+	 * @return the tasks
+	 */
+	private List<ForkJoinTask<?>> archiveTasks(Report report) {
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (File archiveFile: Archiver.listArchives(new File(user.getUserDir(), "archives"))) {
+			tasks.add(ForkJoinTask.adapt(() -> verifyArchive(report, archiveFile)));
+		}
+		return tasks;
+	}
+
+	/**
+	 * Runs the passed tasks on a bounded ForkJoinPool and waits for them,
+	 * or on a single low priority Thread in the background
+	 * @param tasks the tasks to run
+	 */
+	private void run(List<ForkJoinTask<?>> tasks) {
+		ForkJoinPool pool;
+		if (throttle == null) {
+			pool = new ForkJoinPool(Math.min(MAX_VERIFY_THREADS, Runtime.getRuntime().availableProcessors()));
+		} else {
+			pool = new ForkJoinPool(1, p -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}, null, false);
+		}
+		try {
+			pool.invoke(ForkJoinTask.adapt(() -> {
+				ForkJoinTask.invokeAll(tasks);
+			}));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Checks an AccountHolder file, then its Accounts in parallel
+	 * @param report the Report to add to
+	 * @param acctHoldId the ID of the AccountHolder
+	 * @param expectedHash the expected hash of the AccountHolder file
+	 */
+	private void verifyAcctHolder(Report report, String acctHoldId, String expectedHash) {
+
+		File acctHoldDir = new File(user.getUserDir(), acctHoldId);
+		File acctHoldFile = new File(acctHoldDir, acctHoldId + FileHandler.DATA_EXTENSION);
+		String contents = loadNode(report, acctHoldFile, expectedHash);
+		if (contents == null) {
+			return;
+		}
+
+		List<String> acctIds = new ArrayList<>();
+		List<String> hashes = new ArrayList<>();
+		String[][] args = StringProcessing.pullArgs(contents);
+		for (int i = 0; i < Math.min(args[0].length, args[1].length); i++) {
+			if (args[0][i].equals("accounts")) {
+				acctIds = StringProcessing.decodeList(args[1][i]);
+			} else if (args[0][i].equals("hashes")) {
+				hashes = StringProcessing.decodeList(args[1][i]);
+			}
+		}
+
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int i = 0; i < Math.min(acctIds.size(), hashes.size()); i++) {
+			String acctId = acctIds.get(i);
+			String hash = hashes.get(i);
+			tasks.add(ForkJoinTask.adapt(() -> verifyAccount(report, acctHoldDir, acctId, hash)));
+		}
+		ForkJoinTask.invokeAll(tasks);
+
+	}
+
+	/**
+	 * Checks an Account file, then its EntryChunks in parallel
+	 * @param report the Report to add to
+	 * @param acctHoldDir the directory of the owning AccountHolder
+	 * @param acctId the ID of the Account
+	 * @param expectedHash the expected hash of the Account file
+	 */
+	private void verifyAccount(Report report, File acctHoldDir, String acctId, String expectedHash) {
+
+		File acctDir = new File(acctHoldDir, acctId);
+		String contents = loadNode(report, new File(acctDir, acctId + FileHandler.DATA_EXTENSION), expectedHash);
+		if (contents == null) {
+			return;
+		}
+
+		ParamMap acctMap = ParamMap.decode(contents);
+		List<String> chunkIds = acctMap.getAsList(AccountAssembler.ENTRY_CHUNK_IDS);
+		List<String> hashes = acctMap.getAsList(AccountAssembler.ENTRY_CHUNK_HASHES);
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int i = 0; i < Math.min(chunkIds.size(), hashes.size()); i++) {
+			if ("".equals(chunkIds.get(i)) || "".equals(hashes.get(i))) {
+				continue;
+			}
+			String hash = hashes.get(i);
+			File chunkFile = new File(acctDir, chunkIds.get(i) + FileHandler.DATA_EXTENSION);
+			report.checkedBlobs.add(hash);
+			tasks.add(ForkJoinTask.adapt(() -> verifyChunk(report, chunkFile, hash)));
+		}
+		ForkJoinTask.invokeAll(tasks);
+
+	}
+
+	/**
+	 * Decrypts and checks a File holding the hashes of its children
+	 * @param report the Report to add to
+	 * @param file the File to load
+	 * @param expectedHash the expected hash of the File
+	 * @return the contents of the File, or null if it cannot be trusted
+	 */
+	private String loadNode(Report report, File file, String expectedHash) {
+
+		if (!file.exists()) {
+			report.corruptions.add(new Corruption(file, expectedHash, null));
+			return null;
+		}
+		if (throttle == null && expectedHash != null && index.isVerified(file, expectedHash)) {
+			report.skipped.incrementAndGet();
+		} else {
+			report.hashed.incrementAndGet();
+		}
+		try {
+			String contents;
+			if (throttle == null) {
+				contents = new FileIO().loadFile(file, expectedHash, user.getKeyManager());
+			} else {
+				contents = loadThrottled(file, expectedHash);
+			}
+			if (contents == null) {
+				report.corruptions.add(new Corruption(file, expectedHash, null));
+			}
+			return contents;
+		} catch (MismatchedHashException e) {
+			report.corruptions.add(new Corruption(file, expectedHash, e.getActualHash()));
+		} catch (IOException e) {
+			report.corruptions.add(new Corruption(file, expectedHash, null));
+		}
+		return null;
+
+	}
+
+	/**
+	 * Decrypts a File through the IoThrottle, always hashing it
+	 * @param file the File to load
+	 * @param expectedHash the expected hash of the File
+	 * @return the contents of the File, or null if decryption failed
+	 * @throws IOException if the File does not have its expected hash or file IO errors occur
+	 */
+	private String loadThrottled(File file, String expectedHash) throws IOException {
+		InputStream stream = new FileIO().openInputStream(throttle.wrap(new FileInputStream(file)), file,
+				expectedHash, user.getKeyManager());
+		if (stream == null) {
+			return null;
+		}
+		try (stream) {
+			return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Checks the source file of an EntryChunk, which is a blob in the
+	 * ChunkStore unless the EntryChunk was last committed before the store
+	 * existed
+	 * @param report the Report to add to
+	 * @param chunkFile the File of the EntryChunk
+	 * @param expectedHash the expected hash of the source file
+	 */
+	private void verifyChunk(Report report, File chunkFile, String expectedHash) {
+
+		ChunkStore store = ChunkStore.getInstance();
+		if (!store.contains(expectedHash)) {
+			verifyLeaf(report, chunkFile, expectedHash);
+			return;
+		}
+		File blobFile;
+		try {
+			blobFile = store.getBlobFile(expectedHash);
+		} catch (IOException e) {
+			report.corruptions.add(new Corruption(chunkFile, expectedHash, null));
+			return;
+		}
+		if (blobFile != null) {
+			verifyLeaf(report, blobFile, expectedHash);
+			return;
+		}
+
+		// a blob sharing a page File with others has no fingerprint of its own to skip it by
+		report.hashed.incrementAndGet();
+		Hashing hashing = new Hashing();
+		try (InputStream raw = hashing.wrapStream(throttled(store.openBlob(expectedHash)))) {
+			if (!drain(raw)) {
+				report.corruptions.add(new Corruption(chunkFile, expectedHash, null));
+				return;
+			}
+		} catch (IOException e) {
+			report.corruptions.add(new Corruption(chunkFile, expectedHash, null));
+			return;
+		}
+		String hash = hashing.getHash();
+		if (!expectedHash.equals(hash)) {
+			report.corruptions.add(new Corruption(chunkFile, expectedHash, hash));
+		}
+
+	}
+
+	/**
+	 * Checks a File with no children by hashing its raw bytes, and
+	 * authenticating its segments if it is in the AES-GCM format
+	 * @param report the Report to add to
+	 * @param file the File to check
+	 * @param expectedHash the expected hash of the File
+	 */
+	private void verifyLeaf(Report report, File file, String expectedHash) {
+
+		if (throttle == null && index.isVerified(file, expectedHash)) {
+			report.skipped.incrementAndGet();
+			return;
+		}
+		report.hashed.incrementAndGet();
+
+		IntegrityIndex.Fingerprint fingerprint = IntegrityIndex.fingerprint(file);
+		Hashing hashing = new Hashing();
+		try (InputStream raw = hashing.wrapStream(throttled(new FileInputStream(file)))) {
+			if (!drain(raw)) {
+				report.corruptions.add(new Corruption(file, expectedHash, null));
+				return;
+			}
+		} catch (IOException e) {
+			report.corruptions.add(new Corruption(file, expectedHash, null));
+			return;
+		}
+		String hash = hashing.getHash();
+		if (expectedHash.equals(hash)) {
+			index.record(file, fingerprint, hash);
+		} else {
+			report.corruptions.add(new Corruption(file, expectedHash, hash));
+		}
+
+	}
+
+	/**
+	 * Checks an archive by reading back every section it holds itself and
+	 * checking every blob it points at. Entries reference sections are
+	 * checked with the archive holding them
+	 * @param report the Report to add to
+	 * @param archiveFile the archive File to check
+	 */
+	private void verifyArchive(Report report, File archiveFile) {
+
+		try {
+			if (!ArchiveReader.isArchive(archiveFile)) {
+				report.skipped.incrementAndGet();
+				return;
+			}
+		} catch (IOException e) {
+			report.corruptions.add(new Corruption(archiveFile, null, null));
+			return;
+		}
+		report.hashed.incrementAndGet();
+
+		List<String> blobHashes = new ArrayList<>();
+		try (ArchiveReader reader = new ArchiveReader(archiveFile, user.getKeyManager())) {
+			for (ArchiveSection section: reader.getSections()) {
+				if (throttle != null) {
+					throttle.acquire(section.getLength());
+				}
+				switch (section.getKind()) {
+				case ENTRIES:
+					int[] count = new int[1];
+					reader.readEntries(section, entryMap -> count[0]++);
+					if (count[0] != section.getCount()) {
+						throw new IOException("Entry chunk " + section.getId() + " holds " + count[0]
+								+ " entries instead of " + section.getCount());
+					}
+					break;
+				case ENTRIES_BLOB:
+					blobHashes.add(section.getHash());
+					break;
+				case ENTRIES_REF:
+					break;
+				default:
+					reader.readMap(section);
+					break;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			report.corruptions.add(new Corruption(archiveFile, null, null));
+			return;
+		}
+
+		ChunkStore store = ChunkStore.getInstance();
+		for (String hash: blobHashes) {
+			if (!report.checkedBlobs.add(hash)) {
+				continue;
+			}
+			if (!store.contains(hash)) {
+				report.corruptions.add(new Corruption(archiveFile, hash, null));
+			} else {
+				verifyChunk(report, archiveFile, hash);
+			}
+		}
+
+	}
+
+	/**
+	 * Wraps the passed InputStream in the IoThrottle, if there is one
+	 * @param stream the InputStream to wrap
+	 * @return the throttled InputStream, or the passed one in the foreground
+	 */
+	private InputStream throttled(InputStream stream) {
+		return throttle == null ? stream : throttle.wrap(stream);
+	}
+
+	/**
+	 * Reads the passed hashing InputStream to its end, authenticating its
+	 * segments on the way if it is in the AES-GCM format
+	 * @param hashedStream the InputStream hashing the raw bytes
+	 * @return false if a segment fails authentication
+	 * @throws IOException if file IO errors occur or a later segment fails authentication
+	 */
+	private boolean drain(InputStream hashedStream) throws IOException {
+		InputStream stream = hashedStream;
+		if (user.getKeyManager() != null) {
+			// only the tags of an authenticated file are hashed, so its segments are authenticated instead
+			stream = new Encryption(user.getKeyManager()).wrapAuthenticated(hashedStream);
+			if (stream == null) {
+				return false;
+			}
+		}
+		byte[] buffer = new byte[FileIO.BUFFER_SIZE];
+		while (stream.read(buffer) != -1) {
+			// hash the whole file
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,148 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Holds background reads to a number of bytes per second, and holds them
+ * entirely while the passed condition reports the program to be busy.
+ * Reads may run ahead of the rate by up to BURST_NANOS worth of bytes
+ * before being made to wait. Once the IoThrottle is canceled, or if a
+ * Thread waiting on it is interrupted, reads fail with an
+ * InterruptedIOException. Thread safe
+ * @author Cameron Cacic
+ *
+ */
+final class IoThrottle {
+
+	/**
+	 * How far ahead of the rate reads may run before waiting
+	 */
+	private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	/**
+	 * The longest to wait before checking again if the program is still
+	 * busy or the IoThrottle was canceled
+	 */
+	private static final long WAIT_MILLIS = 250;
+
+	private final long bytesPerSecond;
+	private final BooleanSupplier busy;
+	private long nextFree;
+	private long bytes;
+	private volatile boolean canceled;
+
+	/**
+	 * Creates a new IoThrottle
+	 * @param bytesPerSecond the most bytes to allow per second, or 0 for no limit
+	 * @param busy reports if the program is busy, in which case reads wait until it is not
+	 */
+	IoThrottle(long bytesPerSecond, BooleanSupplier busy) {
+		this.bytesPerSecond = bytesPerSecond;
+		this.busy = busy;
+		this.nextFree = System.nanoTime();
+	}
+
+	/**
+	 * Counts the passed number of bytes as read, waiting until reading
+	 * them fits within the rate
+	 * @param count how many bytes were or are about to be read
+	 * @throws InterruptedIOException if the IoThrottle is canceled or the Thread is interrupted while waiting
+	 */
+	void acquire(long count) throws InterruptedIOException {
+
+		try {
+			while (!canceled && busy.getAsBoolean()) {
+				Thread.sleep(WAIT_MILLIS);
+			}
+			long wait = 0;
+			synchronized (this) {
+				bytes += count;
+				if (bytesPerSecond > 0) {
+					long now = System.nanoTime();
+					nextFree = Math.max(nextFree, now) + count * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+					wait = nextFree - now - BURST_NANOS;
+				}
+			}
+			long end = System.nanoTime() + wait;
+			while (!canceled && wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(Math.min(wait, TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS)));
+				wait = end - System.nanoTime();
+			}
+			if (canceled) {
+				throw new InterruptedIOException("Throttled read canceled");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Throttled read interrupted");
+		}
+
+	}
+
+	/**
+	 * Fails every read through the IoThrottle from now on, including
+	 * those already waiting
+	 */
+	void cancel() {
+		canceled = true;
+	}
+
+	/**
+	 * Checks if the IoThrottle was canceled
+	 * @return if the IoThrottle was canceled
+	 */
+	boolean isCanceled() {
+		return canceled;
+	}
+
+	/**
+	 * Returns how many bytes have been read through the IoThrottle
+	 * @return the byte count
+	 */
+	synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Wraps the passed InputStream so that every read is counted by the
+	 * IoThrottle, waiting after it until it fits within the rate
+	 * @param stream the InputStream to wrap
+	 * @return the throttled InputStream
+	 */
+	InputStream wrap(InputStream stream) {
+		return new FilterInputStream(stream) {
+
+			@Override
+			public int read() throws IOException {
+				int read = super.read();
+				if (read != -1) {
+					acquire(1);
+				}
+				return read;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				if (read > 0) {
+					acquire(read);
+				}
+				return read;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = super.skip(n);
+				if (skipped > 0) {
+					acquire(skipped);
+				}
+				return skipped;
+			}
+
+		};
+	}
+
+}
@@ -0,0 +1,266 @@
+package com.ccacic.financemanager.fileio;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Manages the secret keys derived from a password for the lifespan of
+ * a session. The expensive PBKDF2 derivation is performed once per
+ * master salt to produce a master key, and individual files are then
+ * given their own keys cheaply through HKDF (RFC 5869) over a per-file
+ * salt. Both master keys and file keys are held in bounded caches that
+ * are zeroed out when evicted or when the KeyManager is destroyed.
+ * Also provides the legacy per-file PBKDF2 derivation for reading files
+ * written before key management existed. Thread safe
+ * @author Cameron Cacic
+ *
+ */
+class KeyManager {
+
+	static final int SALT_LENGTH = 16;
+	static final int LEGACY_SALT_LENGTH = 8;
+
+	private static final String PBKDF2 = "PBKDF2WithHmacSHA256";
+	private static final String HMAC = "HmacSHA256";
+	private static final int ITERATIONS = 10000;
+	private static final int KEY_BITS = 128;
+
+	private static final int MAX_MASTER_KEYS = 8;
+	private static final int MAX_FILE_KEYS = 512;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	/**
+	 * Fills a new array of the passed length with secure random bytes
+	 * @param length the length of the array
+	 * @return the random bytes
+	 */
+	static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * A LinkedHashMap in access order that zeroes out the key bytes
+	 * of its eldest mapping when it grows past its bound
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class ZeroizingCache extends LinkedHashMap<ByteBuffer, byte[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int bound;
+
+		/**
+		 * Creates a new ZeroizingCache holding at most the passed number of keys
+		 * @param bound the maximum number of keys
+		 */
+		ZeroizingCache(int bound) {
+			super(16, 0.75f, true);
+			this.bound = bound;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, byte[]> eldest) {
+			if (size() > bound) {
+				Arrays.fill(eldest.getValue(), (byte) 0);
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Zeroes out and removes every key in the cache
+		 */
+		void zeroize() {
+			for (byte[] key: values()) {
+				Arrays.fill(key, (byte) 0);
+			}
+			clear();
+		}
+
+	}
+
+	private final char[] password;
+	private byte[] sessionSalt;
+	private final ZeroizingCache masterKeys;
+	private final ZeroizingCache fileKeys;
+	private boolean destroyed;
+
+	/**
+	 * Creates a new KeyManager for the passed password. A fresh
+	 * session salt is generated, so the master key for newly
+	 * written files is derived at most once per KeyManager
+	 * @param password the password to derive keys from
+	 */
+	KeyManager(String password) {
+		this.password = password.toCharArray();
+		this.sessionSalt = randomBytes(SALT_LENGTH);
+		this.masterKeys = new ZeroizingCache(MAX_MASTER_KEYS);
+		this.fileKeys = new ZeroizingCache(MAX_FILE_KEYS);
+		this.destroyed = false;
+	}
+
+	/**
+	 * Returns a copy of the master salt used for files written
+	 * during this session
+	 * @return the session master salt
+	 */
+	synchronized byte[] getSessionSalt() {
+		return sessionSalt.clone();
+	}
+
+	/**
+	 * Sets the master salt used for files written from now on, such as
+	 * the salt a User keeps across sessions once its file has been read.
+	 * Master keys already derived stay cached
+	 * @param sessionSalt the master salt to write files with
+	 */
+	synchronized void setSessionSalt(byte[] sessionSalt) {
+		checkDestroyed();
+		this.sessionSalt = sessionSalt.clone();
+	}
+
+	/**
+	 * Returns the AES key for a file written with the passed master
+	 * and file salts, deriving and caching it if needed. Derivation
+	 * happens outside of this KeyManager's lock so that files can be
+	 * opened in parallel, at the cost of occasionally deriving the
+	 * same key twice
+	 * @param masterSalt the master salt recorded in the file
+	 * @param fileSalt the file salt recorded in the file
+	 * @return the file's AES key
+	 * @throws GeneralSecurityException if the key cannot be derived
+	 */
+	SecretKeySpec getFileKey(byte[] masterSalt, byte[] fileSalt) throws GeneralSecurityException {
+
+		byte[] cacheId = new byte[masterSalt.length + fileSalt.length];
+		System.arraycopy(masterSalt, 0, cacheId, 0, masterSalt.length);
+		System.arraycopy(fileSalt, 0, cacheId, masterSalt.length, fileSalt.length);
+		ByteBuffer fileId = ByteBuffer.wrap(cacheId);
+		ByteBuffer saltId = ByteBuffer.wrap(masterSalt.clone());
+
+		byte[] masterKey;
+		synchronized (this) {
+			checkDestroyed();
+			byte[] fileKey = fileKeys.get(fileId);
+			if (fileKey != null) {
+				return new SecretKeySpec(fileKey, "AES");
+			}
+			masterKey = masterKeys.get(saltId);
+			if (masterKey != null) {
+				masterKey = masterKey.clone();
+			}
+		}
+
+		if (masterKey == null) {
+			masterKey = pbkdf2(masterSalt);
+			synchronized (this) {
+				checkDestroyed();
+				if (!masterKeys.containsKey(saltId)) {
+					masterKeys.put(saltId, masterKey.clone());
+				}
+			}
+		}
+
+		byte[] fileKey = hkdf(masterKey, fileSalt);
+		Arrays.fill(masterKey, (byte) 0);
+		SecretKeySpec spec = new SecretKeySpec(fileKey, "AES");
+		synchronized (this) {
+			checkDestroyed();
+			if (!fileKeys.containsKey(fileId)) {
+				fileKeys.put(fileId, fileKey);
+			} else {
+				Arrays.fill(fileKey, (byte) 0);
+			}
+		}
+		return spec;
+
+	}
+
+	/**
+	 * Returns the AES key for a file written in the legacy format,
+	 * where each file's key came straight from PBKDF2 over its salt.
+	 * These keys are not cached, as legacy files are rewritten in
+	 * the current format the next time they are saved
+	 * @param salt the legacy salt recorded in the file
+	 * @return the file's AES key
+	 * @throws GeneralSecurityException if the key cannot be derived
+	 */
+	SecretKeySpec getLegacyKey(byte[] salt) throws GeneralSecurityException {
+		checkDestroyed();
+		byte[] key = pbkdf2(salt);
+		SecretKeySpec spec = new SecretKeySpec(key, "AES");
+		Arrays.fill(key, (byte) 0);
+		return spec;
+	}
+
+	/**
+	 * Zeroes out the password and every cached key. The KeyManager
+	 * can no longer be used afterwards
+	 */
+	synchronized void destroy() {
+		Arrays.fill(password, '\0');
+		masterKeys.zeroize();
+		fileKeys.zeroize();
+		destroyed = true;
+	}
+
+	/**
+	 * Runs PBKDF2WithHmacSHA256 over the password with the passed salt
+	 * @param salt the salt
+	 * @return the derived key bytes
+	 * @throws GeneralSecurityException if the key cannot be derived
+	 */
+	private byte[] pbkdf2(byte[] salt) throws GeneralSecurityException {
+		SecretKeyFactory factory = SecretKeyFactory.getInstance(PBKDF2);
+		PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, KEY_BITS);
+		try {
+			return factory.generateSecret(spec).getEncoded();
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * Derives a file key from the master key using HKDF-SHA256, with
+	 * the file salt as the extraction salt and no info string
+	 * @param masterKey the input keying material
+	 * @param fileSalt the file salt
+	 * @return the derived key bytes
+	 * @throws GeneralSecurityException if the key cannot be derived
+	 */
+	private static byte[] hkdf(byte[] masterKey, byte[] fileSalt) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance(HMAC);
+		mac.init(new SecretKeySpec(fileSalt, HMAC));
+		byte[] prk = mac.doFinal(masterKey);
+		mac.init(new SecretKeySpec(prk, HMAC));
+		Arrays.fill(prk, (byte) 0);
+		mac.update((byte) 1);
+		byte[] okm = mac.doFinal();
+		byte[] key = Arrays.copyOf(okm, KEY_BITS / 8);
+		Arrays.fill(okm, (byte) 0);
+		return key;
+	}
+
+	/**
+	 * Throws an IllegalStateException if this KeyManager was destroyed
+	 */
+	private void checkDestroyed() {
+		if (destroyed) {
+			throw new IllegalStateException("Key manager has been destroyed");
+		}
+	}
+
+}
@@ -0,0 +1,288 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.util.ParamTokenizer;
+
+/**
+ * Reads archives in the older single String format one AccountHolder
+ * at a time from a Reader, such as one over a decrypting stream, so
+ * the archive is never held in memory as a whole. Every character is
+ * visited once. The Entries of each Account are split apart but left
+ * encoded, so that they can be decoded on other threads
+ * @author Cameron Cacic
+ *
+ */
+class LegacyArchiveReader implements Closeable {
+
+	/**
+	 * A disassembled AccountHolder read from a legacy archive
+	 * @author Cameron Cacic
+	 *
+	 */
+	static final class LegacyAcctHolder {
+
+		private final ParamMap acctHoldMap;
+		private final List<LegacyAccount> accounts;
+
+		/**
+		 * Creates a new, empty LegacyAcctHolder
+		 */
+		private LegacyAcctHolder() {
+			acctHoldMap = new ParamMap();
+			accounts = new ArrayList<>();
+		}
+
+		/**
+		 * Returns the fields of the AccountHolder, without its Accounts
+		 * @return the disassembled AccountHolder
+		 */
+		ParamMap getAcctHoldMap() {
+			return acctHoldMap;
+		}
+
+		/**
+		 * Returns the Accounts of the AccountHolder
+		 * @return the LegacyAccounts
+		 */
+		List<LegacyAccount> getAccounts() {
+			return accounts;
+		}
+
+	}
+
+	/**
+	 * A disassembled Account read from a legacy archive
+	 * @author Cameron Cacic
+	 *
+	 */
+	static final class LegacyAccount {
+
+		private final ParamMap acctMap;
+		private final List<String> encodedEntries;
+
+		/**
+		 * Creates a new LegacyAccount
+		 * @param acctMap the disassembled Account, without its Entries
+		 * @param encodedEntries the encoded Entries of the Account
+		 */
+		private LegacyAccount(ParamMap acctMap, List<String> encodedEntries) {
+			this.acctMap = acctMap;
+			this.encodedEntries = encodedEntries;
+		}
+
+		/**
+		 * Returns the disassembled Account, without its Entries
+		 * @return the disassembled Account
+		 */
+		ParamMap getAcctMap() {
+			return acctMap;
+		}
+
+		/**
+		 * Returns the Entries of the Account, each encoded as a ParamMap
+		 * without its enclosing brackets
+		 * @return the encoded Entries
+		 */
+		List<String> getEncodedEntries() {
+			return encodedEntries;
+		}
+
+	}
+
+	private static final String ACCT_HOLD_MARKER = "~ACCOUNT_HOLDER";
+	private static final String ACCOUNTS = "accounts";
+	private static final String ENTRIES = "entries";
+
+	private final Reader reader;
+
+	/**
+	 * Creates a new LegacyArchiveReader
+	 * @param reader the Reader over the decrypted archive
+	 */
+	LegacyArchiveReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Reads the next AccountHolder in the archive
+	 * @return the next LegacyAcctHolder, or null if there are no more
+	 * @throws IOException if the archive ends partway through an AccountHolder
+	 * or file IO errors occur
+	 */
+	LegacyAcctHolder next() throws IOException {
+
+		if (!skipPast(ACCT_HOLD_MARKER) || !skipPast("{")) {
+			return null;
+		}
+
+		LegacyAcctHolder acctHolder = new LegacyAcctHolder();
+		StringBuilder key = new StringBuilder();
+		int c;
+		while ((c = read()) != '}') {
+			if (c == -1) {
+				throw new IOException("Archive ends partway through an account holder");
+			}
+			if (c != '=') {
+				key.append((char) c);
+				continue;
+			}
+
+			String field = key.toString().trim();
+			key.setLength(0);
+			c = skipWhitespace();
+			if (c == '{' && ACCOUNTS.equals(field)) {
+				readAccounts(acctHolder.accounts);
+				skipPast(";");
+			} else if (c == '{') {
+				StringBuilder value = new StringBuilder();
+				readBracketed(value);
+				acctHolder.acctHoldMap.put(field, value.toString().trim());
+				skipPast(";");
+			} else {
+				StringBuilder value = new StringBuilder();
+				while (c != ';') {
+					if (c == -1) {
+						throw new IOException("Archive ends partway through an account holder");
+					}
+					value.append((char) c);
+					c = read();
+				}
+				acctHolder.acctHoldMap.put(field, value.toString().trim());
+			}
+		}
+		return acctHolder;
+
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Reads the bracketed list of Accounts of an AccountHolder, just past
+	 * its opening bracket, into the passed List
+	 * @param accounts the List to add the read LegacyAccounts to
+	 * @throws IOException if the archive ends partway through or file IO errors occur
+	 */
+	private void readAccounts(List<LegacyAccount> accounts) throws IOException {
+		int c;
+		while ((c = skipWhitespace()) != '}') {
+			if (c == -1) {
+				throw new IOException("Archive ends partway through a list of accounts");
+			}
+			if (c == '{') {
+				StringBuilder encoded = new StringBuilder();
+				readBracketed(encoded);
+				accounts.add(decodeAccount(encoded));
+			}
+		}
+	}
+
+	/**
+	 * Splits an encoded Account into its fields and its encoded Entries
+	 * in a single pass
+	 * @param encoded the encoded Account, without its enclosing brackets
+	 * @return the LegacyAccount
+	 */
+	private static LegacyAccount decodeAccount(CharSequence encoded) {
+
+		ParamMap acctMap = new ParamMap();
+		List<String> encodedEntries = new ArrayList<>();
+		ParamTokenizer pairs = new ParamTokenizer(encoded);
+		while (pairs.nextPair(',', false)) {
+			String field = pairs.getKey();
+			if (ENTRIES.equals(field)) {
+				ParamTokenizer sections = new ParamTokenizer(encoded, pairs.getValueStart(), pairs.getValueEnd());
+				if (sections.nextSection()) {
+					ParamTokenizer entries = new ParamTokenizer(encoded, sections.getSectionStart(), sections.getSectionEnd());
+					while (entries.nextSection()) {
+						encodedEntries.add(entries.getSection());
+					}
+				}
+			} else {
+				acctMap.put(field, pairs.getValue());
+			}
+		}
+		return new LegacyAccount(acctMap, encodedEntries);
+
+	}
+
+	/**
+	 * Reads up to the bracket closing one just read, appending everything
+	 * in between to the passed StringBuilder
+	 * @param builder the StringBuilder to append to
+	 * @throws IOException if the archive ends partway through or file IO errors occur
+	 */
+	private void readBracketed(StringBuilder builder) throws IOException {
+		int unpaired = 1;
+		while (true) {
+			int c = read();
+			if (c == -1) {
+				throw new IOException("Archive ends partway through a bracketed section");
+			}
+			if (c == '{') {
+				unpaired++;
+			} else if (c == '}' && --unpaired == 0) {
+				return;
+			}
+			builder.append((char) c);
+		}
+	}
+
+	/**
+	 * Reads up to and including the next occurrence of the passed marker
+	 * @param marker the marker to read past
+	 * @return if the marker was found before the archive ended
+	 * @throws IOException if file IO errors occur
+	 */
+	private boolean skipPast(String marker) throws IOException {
+		int matched = 0;
+		while (matched < marker.length()) {
+			int c = read();
+			if (c == -1) {
+				return false;
+			}
+			if (c == marker.charAt(matched)) {
+				matched++;
+			} else {
+				matched = c == marker.charAt(0) ? 1 : 0;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads past any whitespace
+	 * @return the first character that is not whitespace, or -1 at the end of the archive
+	 * @throws IOException if file IO errors occur
+	 */
+	private int skipWhitespace() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c != -1 && Character.isWhitespace(c));
+		return c;
+	}
+
+	/**
+	 * Reads the next character, dropping line breaks as older archives were
+	 * read line by line
+	 * @return the next character, or -1 at the end of the archive
+	 * @throws IOException if file IO errors occur
+	 */
+	private int read() throws IOException {
+		int c;
+		do {
+			c = reader.read();
+		} while (c == '\n' || c == '\r');
+		return c;
+	}
+
+}
@@ -0,0 +1,441 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 style compressor that trades some compression for speed
+ * compared to Deflate. Data is split into blocks of at most BLOCK_SIZE
+ * bytes, each preceded by its raw length and its compressed length, with
+ * a compressed length of 0 marking a block stored as is because it did
+ * not compress. A raw length of 0 ends the stream. A compressed block is
+ * a series of sequences, each a token byte holding a literal count and a
+ * match length in its high and low four bits, the literals, then a two
+ * byte offset back to the match. Counts that do not fit in four bits are
+ * continued in bytes of 255 and a final byte. The last sequence of a
+ * block is literals only. Matches are found through a hash table of the
+ * positions of the last four byte sequences seen, with no chaining.
+ * Buffers and the hash table are sized to the data rather than to a
+ * whole block, so small Files stay cheap to compress
+ * @author Cameron Cacic
+ *
+ */
+final class LzCodec {
+
+	static final int BLOCK_SIZE = 64 * 1024;
+
+	private static final int MIN_MATCH = 4;
+	private static final int MAX_OFFSET = 0xFFFF;
+	private static final int MAX_HASH_BITS = 14;
+	private static final int MIN_HASH_BITS = 8;
+	/**
+	 * How large the buffers of a stream begin, as most Files are far
+	 * smaller than a block
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+
+	/**
+	 * Compresses LzCodec blocks on their way to another OutputStream.
+	 * Closing the stream ends it and closes the stream beneath it
+	 * @author Cameron Cacic
+	 *
+	 */
+	static final class LzOutputStream extends FilterOutputStream {
+
+		private final DataOutputStream data;
+		private byte[] block;
+		private byte[] compressed;
+		private int[] table;
+		private int length;
+		private boolean closed;
+
+		/**
+		 * Creates a new LzOutputStream
+		 * @param stream the OutputStream to write compressed blocks to
+		 */
+		LzOutputStream(OutputStream stream) {
+			super(stream);
+			this.data = new DataOutputStream(stream);
+			this.block = new byte[INITIAL_BUFFER_SIZE];
+			this.compressed = new byte[0];
+			this.table = new int[0];
+			this.length = 0;
+			this.closed = false;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			makeRoom();
+			block[length++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				makeRoom();
+				int copied = Math.min(len, block.length - length);
+				System.arraycopy(b, off, block, length, copied);
+				length += copied;
+				off += copied;
+				len -= copied;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (length > 0) {
+					writeBlock();
+				}
+				data.writeInt(0);
+				data.flush();
+			} finally {
+				out.close();
+			}
+		}
+
+		/**
+		 * Makes room in the block buffer for at least one more byte, growing
+		 * it up to BLOCK_SIZE and writing it once full
+		 * @throws IOException if file IO errors occur
+		 */
+		private void makeRoom() throws IOException {
+			if (length < block.length) {
+				return;
+			}
+			if (block.length < BLOCK_SIZE) {
+				block = Arrays.copyOf(block, Math.min(block.length * 2, BLOCK_SIZE));
+			} else {
+				writeBlock();
+			}
+		}
+
+		/**
+		 * Compresses and writes the buffered block, storing it as is if it
+		 * does not get smaller
+		 * @throws IOException if file IO errors occur
+		 */
+		private void writeBlock() throws IOException {
+			if (compressed.length < maxCompressedLength(length)) {
+				compressed = new byte[maxCompressedLength(length)];
+			}
+			int tableSize = tableSize(length);
+			if (table.length != tableSize) {
+				table = new int[tableSize];
+			}
+			int compressedLength = compress(block, length, compressed, table);
+			data.writeInt(length);
+			if (compressedLength < length) {
+				data.writeInt(compressedLength);
+				data.write(compressed, 0, compressedLength);
+			} else {
+				data.writeInt(0);
+				data.write(block, 0, length);
+			}
+			length = 0;
+		}
+
+	}
+
+	/**
+	 * Decompresses LzCodec blocks read from another InputStream
+	 * @author Cameron Cacic
+	 *
+	 */
+	static final class LzInputStream extends InputStream {
+
+		private final DataInputStream data;
+		private byte[] block;
+		private byte[] compressed;
+		private int position;
+		private int length;
+		private boolean ended;
+
+		/**
+		 * Creates a new LzInputStream
+		 * @param stream the InputStream to read compressed blocks from
+		 */
+		LzInputStream(InputStream stream) {
+			this.data = new DataInputStream(stream);
+			this.block = new byte[0];
+			this.compressed = new byte[0];
+			this.position = 0;
+			this.length = 0;
+			this.ended = false;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (position == length && !readBlock()) {
+				return -1;
+			}
+			return block[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (position == length && !readBlock()) {
+				return -1;
+			}
+			int copied = Math.min(len, length - position);
+			System.arraycopy(block, position, b, off, copied);
+			position += copied;
+			return copied;
+		}
+
+		@Override
+		public int available() {
+			return length - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			data.close();
+		}
+
+		/**
+		 * Reads and decompresses the next block
+		 * @return if a block was read, false once the stream has ended
+		 * @throws IOException if the stream is damaged or file IO errors occur
+		 */
+		private boolean readBlock() throws IOException {
+			if (ended) {
+				return false;
+			}
+			int rawLength;
+			try {
+				rawLength = data.readInt();
+			} catch (EOFException e) {
+				throw new IOException("Compressed stream ends without its end marker", e);
+			}
+			if (rawLength == 0) {
+				ended = true;
+				return false;
+			}
+			int compressedLength = data.readInt();
+			if (rawLength < 0 || rawLength > BLOCK_SIZE || compressedLength < 0
+					|| compressedLength > maxCompressedLength(rawLength)) {
+				throw new IOException("Damaged compressed block of length " + rawLength);
+			}
+			if (block.length < rawLength) {
+				block = new byte[rawLength];
+			}
+			if (compressed.length < compressedLength) {
+				compressed = new byte[compressedLength];
+			}
+			if (compressedLength == 0) {
+				data.readFully(block, 0, rawLength);
+			} else {
+				data.readFully(compressed, 0, compressedLength);
+				decompress(compressed, compressedLength, block, rawLength);
+			}
+			position = 0;
+			length = rawLength;
+			return true;
+		}
+
+	}
+
+	/**
+	 * Not instantiable
+	 */
+	private LzCodec() {
+		// static methods only
+	}
+
+	/**
+	 * Returns the most bytes compressing the passed number of bytes can produce
+	 * @param length the number of bytes to compress
+	 * @return the largest possible compressed length
+	 */
+	static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Returns the size of hash table to compress the passed number of
+	 * bytes with, a power of two between 2^MIN_HASH_BITS and 2^MAX_HASH_BITS
+	 * @param length the number of bytes to compress
+	 * @return the size of the hash table
+	 */
+	static int tableSize(int length) {
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1));
+		return 1 << Math.max(MIN_HASH_BITS, Math.min(MAX_HASH_BITS, bits));
+	}
+
+	/**
+	 * Compresses the first length bytes of source into destination
+	 * @param source the bytes to compress
+	 * @param length how many bytes to compress
+	 * @param destination where to write the compressed bytes, at least
+	 * maxCompressedLength long
+	 * @param table the hash table to find matches with, a power of two in
+	 * size and reset on each call
+	 * @return the compressed length
+	 */
+	static int compress(byte[] source, int length, byte[] destination, int[] table) {
+
+		Arrays.fill(table, -1);
+		int shift = 32 - Integer.numberOfTrailingZeros(table.length);
+		int anchor = 0;
+		int in = 0;
+		int out = 0;
+		int limit = length - MIN_MATCH;
+		while (in <= limit) {
+			int sequence = readInt(source, in);
+			int slot = (sequence * 0x9E3779B1) >>> shift;
+			int candidate = table[slot];
+			table[slot] = in;
+			if (candidate < 0 || in - candidate > MAX_OFFSET || readInt(source, candidate) != sequence) {
+				in++;
+				continue;
+			}
+			int matchLength = MIN_MATCH;
+			while (in + matchLength < length && source[candidate + matchLength] == source[in + matchLength]) {
+				matchLength++;
+			}
+			out = writeSequence(source, anchor, in - anchor, destination, out, in - candidate, matchLength);
+			in += matchLength;
+			anchor = in;
+		}
+		return writeSequence(source, anchor, length - anchor, destination, out, 0, 0);
+
+	}
+
+	/**
+	 * Decompresses a block into destination
+	 * @param source the compressed block
+	 * @param length the length of the compressed block
+	 * @param destination where to write the decompressed bytes
+	 * @param rawLength how many bytes the block decompresses to
+	 * @throws IOException if the block is damaged
+	 */
+	static void decompress(byte[] source, int length, byte[] destination, int rawLength) throws IOException {
+
+		int in = 0;
+		int out = 0;
+		try {
+			while (true) {
+				int token = source[in++] & 0xFF;
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int next;
+					do {
+						next = source[in++] & 0xFF;
+						literals += next;
+					} while (next == 255);
+				}
+				if (in + literals > length || out + literals > rawLength) {
+					throw new IOException("Damaged compressed block");
+				}
+				System.arraycopy(source, in, destination, out, literals);
+				in += literals;
+				out += literals;
+				if (in == length) {
+					break;
+				}
+
+				int offset = (source[in++] & 0xFF) | (source[in++] & 0xFF) << 8;
+				int matchLength = (token & 0x0F) + MIN_MATCH;
+				if ((token & 0x0F) == 15) {
+					int next;
+					do {
+						next = source[in++] & 0xFF;
+						matchLength += next;
+					} while (next == 255);
+				}
+				int from = out - offset;
+				if (offset == 0 || from < 0 || out + matchLength > rawLength) {
+					throw new IOException("Damaged compressed block");
+				}
+				// byte by byte, as a match may overlap the bytes it produces
+				for (int i = 0; i < matchLength; i++) {
+					destination[out++] = destination[from + i];
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Damaged compressed block", e);
+		}
+		if (out != rawLength) {
+			throw new IOException("Compressed block decompressed to " + out + " bytes instead of " + rawLength);
+		}
+
+	}
+
+	/**
+	 * Writes a sequence of literals followed by a match, or just the
+	 * literals if the match length is 0
+	 * @param source the bytes being compressed
+	 * @param literalStart where the literals begin in source
+	 * @param literals how many literals to write
+	 * @param destination where to write the sequence
+	 * @param out where the sequence begins in destination
+	 * @param offset how far back the match begins
+	 * @param matchLength the length of the match, or 0 for the last sequence
+	 * @return where the sequence ends in destination
+	 */
+	private static int writeSequence(byte[] source, int literalStart, int literals, byte[] destination, int out,
+			int offset, int matchLength) {
+
+		int token = out++;
+		int literalBits = Math.min(literals, 15);
+		out = writeCount(destination, out, literals - 15, literalBits == 15);
+		System.arraycopy(source, literalStart, destination, out, literals);
+		out += literals;
+		int matchBits = 0;
+		if (matchLength > 0) {
+			destination[out++] = (byte) offset;
+			destination[out++] = (byte) (offset >>> 8);
+			matchBits = Math.min(matchLength - MIN_MATCH, 15);
+			out = writeCount(destination, out, matchLength - MIN_MATCH - 15, matchBits == 15);
+		}
+		destination[token] = (byte) (literalBits << 4 | matchBits);
+		return out;
+
+	}
+
+	/**
+	 * Writes the part of a count that did not fit in its four bits of the token
+	 * @param destination where to write the count
+	 * @param out where the count begins in destination
+	 * @param remaining the part of the count left to write
+	 * @param continued if the count filled its four bits, and so must be continued
+	 * @return where the count ends in destination
+	 */
+	private static int writeCount(byte[] destination, int out, int remaining, boolean continued) {
+		if (!continued) {
+			return out;
+		}
+		while (remaining >= 255) {
+			destination[out++] = (byte) 255;
+			remaining -= 255;
+		}
+		destination[out++] = (byte) remaining;
+		return out;
+	}
+
+	/**
+	 * Reads four bytes as an int
+	 * @param bytes the bytes to read from
+	 * @param index where the int begins
+	 * @return the int
+	 */
+	private static int readInt(byte[] bytes, int index) {
+		return (bytes[index] & 0xFF) | (bytes[index + 1] & 0xFF) << 8
+				| (bytes[index + 2] & 0xFF) << 16 | (bytes[index + 3] & 0xFF) << 24;
+	}
+
+}
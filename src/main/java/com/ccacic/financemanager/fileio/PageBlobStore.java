@@ -0,0 +1,1089 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.ccacic.financemanager.logger.Logger;
+
+/**
+ * A BlobStore keeping every blob in a single page File, so a User with
+ * thousands of EntryChunks has two Files in their store directory rather
+ * than thousands. The page File is split into fixed size pages, each
+ * ending in a CRC32 of its contents:
+ * <ul>
+ * <li>page 0 holds the metadata: the page count, the free list and the root of the index</li>
+ * <li>the index is a B+tree keyed by the binary hash of each blob, whose leaves
+ * hold where the blob's first page is, its length and when it was put</li>
+ * <li>a blob is a chain of data pages, each pointing at the next</li>
+ * <li>pages freed by deleted blobs are chained into the free list and reused</li>
+ * </ul>
+ * Every change is a transaction. Pages appended past the end of the page
+ * File are written in place first, as nothing committed refers to them,
+ * and every other changed page is written to the write ahead log, which is
+ * forced before the pages are written in place. A log found complete when
+ * the page File is opened is applied again, and an incomplete one is
+ * discarded along with its transaction. Pages are not encrypted, as the
+ * blobs are already encrypted Files and the index only holds their hashes,
+ * the same as the names of the Files of a FileBlobStore. The index is not
+ * rebalanced when blobs are deleted, as hashes are spread evenly enough
+ * that leaves seldom empty out. Thread safe
+ * @author Cameron Cacic
+ *
+ */
+final class PageBlobStore implements BlobStore {
+
+	static final String FILE_NAME = "blobs.pages";
+	static final String LOG_NAME = "blobs.pages.log";
+
+	static final int PAGE_SIZE = 4096;
+	private static final int PAYLOAD_SIZE = PAGE_SIZE - Integer.BYTES;
+	private static final byte[] MAGIC = new byte[] {'F', 'M', 'P', 'S'};
+	private static final byte[] LOG_MAGIC = new byte[] {'F', 'M', 'P', 'L'};
+	private static final int VERSION = 1;
+
+	private static final byte META = 1;
+	private static final byte LEAF = 2;
+	private static final byte BRANCH = 3;
+	private static final byte DATA = 4;
+	private static final byte FREE = 5;
+
+	private static final int KEY_LENGTH = 32;
+	private static final int NODE_HEADER = 1 + Short.BYTES + Integer.BYTES;
+	private static final int LEAF_ENTRY = KEY_LENGTH + Integer.BYTES + 2 * Long.BYTES;
+	private static final int BRANCH_ENTRY = KEY_LENGTH + Integer.BYTES;
+	private static final int MAX_LEAF_ENTRIES = (PAYLOAD_SIZE - NODE_HEADER) / LEAF_ENTRY;
+	private static final int MAX_BRANCH_ENTRIES = (PAYLOAD_SIZE - NODE_HEADER) / BRANCH_ENTRY;
+	private static final int DATA_HEADER = 1 + Integer.BYTES + Short.BYTES;
+	private static final int DATA_CAPACITY = PAYLOAD_SIZE - DATA_HEADER;
+
+	private static final int META_PAGE = 0;
+	private static final int MAX_CACHED_PAGES = 512;
+
+	/**
+	 * Checks if the passed store directory holds a page File
+	 * @param directory the store directory
+	 * @return if there is a page File
+	 */
+	static boolean exists(File directory) {
+		return new File(directory, FILE_NAME).exists();
+	}
+
+	/**
+	 * A page split in two by an insertion into the index, along with the
+	 * first key of the new right page
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class Split {
+
+		private final byte[] key;
+		private final int page;
+
+		/**
+		 * Creates a new Split
+		 * @param key the first key of the new right page
+		 * @param page the new right page
+		 */
+		Split(byte[] key, int page) {
+			this.key = key;
+			this.page = page;
+		}
+
+	}
+
+	/**
+	 * A blob as recorded in a leaf of the index
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class Entry {
+
+		private final byte[] key;
+		private final int firstPage;
+		private final long length;
+		private final long lastModified;
+
+		/**
+		 * Creates a new Entry
+		 * @param key the binary hash of the blob
+		 * @param firstPage the first data page of the blob
+		 * @param length the length of the blob in bytes
+		 * @param lastModified when the blob was put
+		 */
+		Entry(byte[] key, int firstPage, long length, long lastModified) {
+			this.key = key;
+			this.firstPage = firstPage;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+	}
+
+	private final File directory;
+	private final File pageFile;
+	private final File logFile;
+	private final FileChannel channel;
+	private final FileChannel logChannel;
+	private final FileLock lock;
+	private final CRC32 crc;
+
+	/**
+	 * Committed index and metadata pages, in access order
+	 */
+	private final Map<Integer, byte[]> cache;
+	/**
+	 * The pages changed by the current transaction, in the order first changed
+	 */
+	private final Map<Integer, byte[]> dirty;
+
+	private int pageCount;
+	private int committedPageCount;
+	private int freeHead;
+	private int freeCount;
+	private int root;
+	private int blobCount;
+	private boolean closed;
+
+	/**
+	 * Opens the page File in the passed store directory, creating it if it
+	 * does not exist and applying its write ahead log if one was left behind
+	 * @param directory the store directory
+	 * @throws IOException if the page File is damaged, in use by another process, or file IO errors occur
+	 */
+	PageBlobStore(File directory) throws IOException {
+
+		this.directory = directory;
+		this.pageFile = new File(directory, FILE_NAME);
+		this.logFile = new File(directory, LOG_NAME);
+		this.crc = new CRC32();
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+				return size() > MAX_CACHED_PAGES;
+			}
+		};
+		this.dirty = new LinkedHashMap<>();
+
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Creation of " + directory + " failed");
+		}
+		channel = FileChannel.open(pageFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		FileChannel openedLog = null;
+		FileLock acquired = null;
+		try {
+			try {
+				acquired = channel.tryLock();
+			} catch (OverlappingFileLockException e) {
+				acquired = null;
+			}
+			if (acquired == null) {
+				throw new IOException("Page file " + pageFile + " is in use");
+			}
+			openedLog = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		logChannel = openedLog;
+		lock = acquired;
+
+		try {
+			recover();
+			if (channel.size() == 0) {
+				initialize();
+			} else {
+				readMeta();
+			}
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+
+	}
+
+	@Override
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the page File
+	 * @return the page File
+	 */
+	File getPageFile() {
+		return pageFile;
+	}
+
+	@Override
+	public synchronized boolean contains(String hash) throws IOException {
+		checkOpen();
+		byte[] key = toKey(hash);
+		return key != null && find(key) != null;
+	}
+
+	@Override
+	public File getFile(String hash) {
+		return null;
+	}
+
+	/**
+	 * Reads the whole blob while the page File is locked, so that a blob
+	 * deleted afterwards cannot have its pages reused under the reader.
+	 * Blobs are the Files of single EntryChunks, small enough to hold
+	 */
+	@Override
+	public synchronized InputStream open(String hash) throws IOException {
+
+		checkOpen();
+		byte[] key = toKey(hash);
+		Entry entry = key == null ? null : find(key);
+		if (entry == null) {
+			throw new IOException("Page file " + pageFile + " has no blob " + hash);
+		}
+		if (entry.length > Integer.MAX_VALUE) {
+			throw new IOException("Blob " + hash + " is too large to read");
+		}
+
+		byte[] blob = new byte[(int) entry.length];
+		int position = 0;
+		int page = entry.firstPage;
+		while (page != 0) {
+			byte[] payload = readPage(page, false);
+			if (payload[0] != DATA) {
+				throw new IOException("Page " + page + " of blob " + hash + " is not a data page");
+			}
+			int used = getShort(payload, 1 + Integer.BYTES);
+			if (used > DATA_CAPACITY || position + used > blob.length) {
+				throw new IOException("Page " + page + " of blob " + hash + " is damaged");
+			}
+			System.arraycopy(payload, DATA_HEADER, blob, position, used);
+			position += used;
+			page = getInt(payload, 1);
+		}
+		if (position != blob.length) {
+			throw new IOException("Blob " + hash + " is missing " + (blob.length - position) + " bytes");
+		}
+		return new ByteArrayInputStream(blob);
+
+	}
+
+	@Override
+	public synchronized void put(String hash, File file) throws IOException {
+
+		checkOpen();
+		byte[] key = toKey(hash);
+		if (key == null) {
+			throw new IllegalArgumentException(hash + " is not a chunk hash");
+		}
+		if (find(key) != null) {
+			if (!file.delete()) {
+				Logger.getInstance().logWarning("Failed to delete " + file + " after sharing blob " + hash);
+			}
+			return;
+		}
+
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file), FileIO.BUFFER_SIZE)) {
+
+			long length = 0;
+			int firstPage = 0;
+			byte[] previous = null;
+			int used;
+			do {
+				int page = allocate();
+				byte[] payload = dirty.get(page);
+				payload[0] = DATA;
+				used = in.readNBytes(payload, DATA_HEADER, DATA_CAPACITY);
+				putShort(payload, 1 + Integer.BYTES, used);
+				length += used;
+				if (previous == null) {
+					firstPage = page;
+				} else {
+					putInt(previous, 1, page);
+				}
+				previous = payload;
+			} while (used == DATA_CAPACITY && peek(in));
+
+			insert(key, firstPage, length, System.currentTimeMillis());
+			blobCount++;
+			commit();
+
+		} catch (IOException | RuntimeException e) {
+			rollback();
+			throw e;
+		}
+
+		IntegrityIndex.getInstance().record(file, null, null);
+		if (!file.delete()) {
+			Logger.getInstance().logWarning("Failed to delete " + file + " after storing blob " + hash);
+		}
+
+	}
+
+	@Override
+	public synchronized boolean delete(String hash) throws IOException {
+
+		checkOpen();
+		byte[] key = toKey(hash);
+		Entry entry = key == null ? null : find(key);
+		if (entry == null) {
+			return false;
+		}
+
+		try {
+			int page = entry.firstPage;
+			while (page != 0) {
+				byte[] payload = readPage(page, false);
+				int next = payload[0] == DATA ? getInt(payload, 1) : 0;
+				free(page);
+				page = next;
+			}
+			remove(key);
+			blobCount--;
+			commit();
+		} catch (IOException | RuntimeException e) {
+			rollback();
+			throw e;
+		}
+		return true;
+
+	}
+
+	@Override
+	public void forEach(BlobVisitor visitor) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		synchronized (this) {
+			checkOpen();
+			scan(entries);
+		}
+		for (Entry entry: entries) {
+			visitor.visit(toHash(entry.key), entry.length, entry.lastModified);
+		}
+	}
+
+	/**
+	 * Returns how many blobs the page File holds
+	 * @return the blob count
+	 */
+	synchronized int getBlobCount() {
+		return blobCount;
+	}
+
+	/**
+	 * Returns how many pages the page File holds, including free pages
+	 * @return the page count
+	 */
+	synchronized int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * Returns how many pages are in the free list
+	 * @return the free page count
+	 */
+	synchronized int getFreeCount() {
+		return freeCount;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (lock != null && lock.isValid()) {
+				lock.release();
+			}
+		} finally {
+			try {
+				channel.close();
+			} finally {
+				if (logChannel != null) {
+					logChannel.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Throws an IOException if the page File was closed
+	 * @throws IOException if the page File was closed
+	 */
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Page file " + pageFile + " is closed");
+		}
+	}
+
+	/**
+	 * Checks if the passed InputStream has another byte without consuming it
+	 * @param in the InputStream, which must support marking
+	 * @return if there is another byte
+	 * @throws IOException if file IO errors occur
+	 */
+	private static boolean peek(InputStream in) throws IOException {
+		in.mark(1);
+		boolean more = in.read() != -1;
+		in.reset();
+		return more;
+	}
+
+	/* ----- the index ----- */
+
+	/**
+	 * Finds the Entry of the passed key in the index
+	 * @param key the key to find
+	 * @return the Entry, or null if the key is not in the index
+	 * @throws IOException if file IO errors occur
+	 */
+	private Entry find(byte[] key) throws IOException {
+		int page = root;
+		while (true) {
+			byte[] node = readPage(page, true);
+			if (node[0] == LEAF) {
+				int index = searchLeaf(node, key);
+				if (index < 0) {
+					return null;
+				}
+				return readLeafEntry(node, index);
+			} else if (node[0] == BRANCH) {
+				page = branchChild(node, key);
+			} else {
+				throw new IOException("Page " + page + " of " + pageFile + " is not an index page");
+			}
+		}
+	}
+
+	/**
+	 * Inserts the passed blob into the index, growing a new root if the
+	 * old one splits
+	 * @param key the key of the blob
+	 * @param firstPage the first data page of the blob
+	 * @param length the length of the blob
+	 * @param lastModified when the blob was put
+	 * @throws IOException if file IO errors occur
+	 */
+	private void insert(byte[] key, int firstPage, long length, long lastModified) throws IOException {
+		byte[] entry = new byte[LEAF_ENTRY];
+		System.arraycopy(key, 0, entry, 0, KEY_LENGTH);
+		putInt(entry, KEY_LENGTH, firstPage);
+		putLong(entry, KEY_LENGTH + Integer.BYTES, length);
+		putLong(entry, KEY_LENGTH + Integer.BYTES + Long.BYTES, lastModified);
+		Split split = insert(root, key, entry);
+		if (split != null) {
+			int newRoot = allocate();
+			byte[] node = dirty.get(newRoot);
+			node[0] = BRANCH;
+			putShort(node, 1, 1);
+			putInt(node, 3, root);
+			System.arraycopy(split.key, 0, node, NODE_HEADER, KEY_LENGTH);
+			putInt(node, NODE_HEADER + KEY_LENGTH, split.page);
+			root = newRoot;
+		}
+	}
+
+	/**
+	 * Inserts the passed leaf entry beneath the passed page
+	 * @param page the page to insert beneath
+	 * @param key the key of the entry
+	 * @param entry the leaf entry
+	 * @return the Split of the passed page, or null if it did not split
+	 * @throws IOException if file IO errors occur
+	 */
+	private Split insert(int page, byte[] key, byte[] entry) throws IOException {
+
+		byte[] node = readPage(page, true);
+		if (node[0] == LEAF) {
+			int index = searchLeaf(node, key);
+			if (index >= 0) {
+				System.arraycopy(entry, 0, writable(page), NODE_HEADER + index * LEAF_ENTRY, LEAF_ENTRY);
+				return null;
+			}
+			return insertEntry(page, -index - 1, entry, LEAF_ENTRY, MAX_LEAF_ENTRIES);
+		} else if (node[0] != BRANCH) {
+			throw new IOException("Page " + page + " of " + pageFile + " is not an index page");
+		}
+
+		int index = branchIndex(node, key);
+		int child = index < 0 ? getInt(node, 3) : getInt(node, NODE_HEADER + index * BRANCH_ENTRY + KEY_LENGTH);
+		Split split = insert(child, key, entry);
+		if (split == null) {
+			return null;
+		}
+		byte[] branchEntry = new byte[BRANCH_ENTRY];
+		System.arraycopy(split.key, 0, branchEntry, 0, KEY_LENGTH);
+		putInt(branchEntry, KEY_LENGTH, split.page);
+		return insertEntry(page, index + 1, branchEntry, BRANCH_ENTRY, MAX_BRANCH_ENTRIES);
+
+	}
+
+	/**
+	 * Inserts the passed entry into the passed index page at the passed
+	 * position, splitting the page in two if it is full. A leaf keeps its
+	 * entries on both sides and links the new page after it, while a branch
+	 * moves the middle key up and gives its child to the new page
+	 * @param page the index page
+	 * @param position where the entry goes
+	 * @param entry the entry
+	 * @param entryLength the length of an entry of the page
+	 * @param maxEntries how many entries fit in the page
+	 * @return the Split of the page, or null if it did not split
+	 * @throws IOException if file IO errors occur
+	 */
+	private Split insertEntry(int page, int position, byte[] entry, int entryLength, int maxEntries) throws IOException {
+
+		byte[] node = writable(page);
+		int count = getShort(node, 1);
+		int at = NODE_HEADER + position * entryLength;
+		int end = NODE_HEADER + count * entryLength;
+		if (count < maxEntries) {
+			System.arraycopy(node, at, node, at + entryLength, end - at);
+			System.arraycopy(entry, 0, node, at, entryLength);
+			putShort(node, 1, count + 1);
+			return null;
+		}
+
+		byte[] entries = new byte[(count + 1) * entryLength];
+		System.arraycopy(node, NODE_HEADER, entries, 0, at - NODE_HEADER);
+		System.arraycopy(entry, 0, entries, at - NODE_HEADER, entryLength);
+		System.arraycopy(node, at, entries, at - NODE_HEADER + entryLength, end - at);
+
+		int right = allocate();
+		byte[] rightNode = dirty.get(right);
+		rightNode[0] = node[0];
+		int leftCount = (count + 1) / 2;
+		Arrays.fill(node, NODE_HEADER, PAYLOAD_SIZE, (byte) 0);
+		System.arraycopy(entries, 0, node, NODE_HEADER, leftCount * entryLength);
+		putShort(node, 1, leftCount);
+
+		byte[] splitKey = Arrays.copyOfRange(entries, leftCount * entryLength, leftCount * entryLength + KEY_LENGTH);
+		if (node[0] == LEAF) {
+			int rightCount = count + 1 - leftCount;
+			System.arraycopy(entries, leftCount * entryLength, rightNode, NODE_HEADER, rightCount * entryLength);
+			putShort(rightNode, 1, rightCount);
+			putInt(rightNode, 3, getInt(node, 3));
+			putInt(node, 3, right);
+		} else {
+			// the middle entry moves up, its child becoming the first child of the right page
+			int rightCount = count - leftCount;
+			putInt(rightNode, 3, getInt(entries, leftCount * entryLength + KEY_LENGTH));
+			System.arraycopy(entries, (leftCount + 1) * entryLength, rightNode, NODE_HEADER, rightCount * entryLength);
+			putShort(rightNode, 1, rightCount);
+		}
+		return new Split(splitKey, right);
+
+	}
+
+	/**
+	 * Removes the passed key from the leaf holding it
+	 * @param key the key to remove
+	 * @throws IOException if file IO errors occur
+	 */
+	private void remove(byte[] key) throws IOException {
+		int page = root;
+		while (true) {
+			byte[] node = readPage(page, true);
+			if (node[0] == BRANCH) {
+				page = branchChild(node, key);
+				continue;
+			}
+			int index = searchLeaf(node, key);
+			if (index < 0) {
+				return;
+			}
+			node = writable(page);
+			int count = getShort(node, 1);
+			int at = NODE_HEADER + index * LEAF_ENTRY;
+			int end = NODE_HEADER + count * LEAF_ENTRY;
+			System.arraycopy(node, at + LEAF_ENTRY, node, at, end - at - LEAF_ENTRY);
+			Arrays.fill(node, end - LEAF_ENTRY, end, (byte) 0);
+			putShort(node, 1, count - 1);
+			return;
+		}
+	}
+
+	/**
+	 * Adds every Entry of the index to the passed List, in key order
+	 * @param entries the List to add to
+	 * @throws IOException if file IO errors occur
+	 */
+	private void scan(List<Entry> entries) throws IOException {
+		int page = root;
+		byte[] node = readPage(page, true);
+		while (node[0] == BRANCH) {
+			page = getInt(node, 3);
+			node = readPage(page, true);
+		}
+		while (true) {
+			int count = getShort(node, 1);
+			for (int i = 0; i < count; i++) {
+				entries.add(readLeafEntry(node, i));
+			}
+			page = getInt(node, 3);
+			if (page == 0) {
+				return;
+			}
+			node = readPage(page, true);
+		}
+	}
+
+	/**
+	 * Binary searches a leaf for the passed key
+	 * @param node the leaf
+	 * @param key the key
+	 * @return the index of the key, or -(insertion point) - 1 if it is not in the leaf
+	 */
+	private static int searchLeaf(byte[] node, byte[] key) {
+		int low = 0;
+		int high = getShort(node, 1) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int at = NODE_HEADER + middle * LEAF_ENTRY;
+			int comparison = Arrays.compareUnsigned(node, at, at + KEY_LENGTH, key, 0, KEY_LENGTH);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -low - 1;
+	}
+
+	/**
+	 * Finds the last entry of a branch whose key is no greater than the passed key
+	 * @param node the branch
+	 * @param key the key
+	 * @return the index of the entry, or -1 if the key belongs to the first child
+	 */
+	private static int branchIndex(byte[] node, byte[] key) {
+		int low = 0;
+		int high = getShort(node, 1) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int at = NODE_HEADER + middle * BRANCH_ENTRY;
+			if (Arrays.compareUnsigned(node, at, at + KEY_LENGTH, key, 0, KEY_LENGTH) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low - 1;
+	}
+
+	/**
+	 * Returns the child of a branch the passed key belongs beneath
+	 * @param node the branch
+	 * @param key the key
+	 * @return the page of the child
+	 */
+	private static int branchChild(byte[] node, byte[] key) {
+		int index = branchIndex(node, key);
+		return index < 0 ? getInt(node, 3) : getInt(node, NODE_HEADER + index * BRANCH_ENTRY + KEY_LENGTH);
+	}
+
+	/**
+	 * Reads the entry at the passed index of a leaf
+	 * @param node the leaf
+	 * @param index the index of the entry
+	 * @return the Entry
+	 */
+	private static Entry readLeafEntry(byte[] node, int index) {
+		int at = NODE_HEADER + index * LEAF_ENTRY;
+		return new Entry(Arrays.copyOfRange(node, at, at + KEY_LENGTH), getInt(node, at + KEY_LENGTH),
+				getLong(node, at + KEY_LENGTH + Integer.BYTES), getLong(node, at + KEY_LENGTH + Integer.BYTES + Long.BYTES));
+	}
+
+	/* ----- pages and transactions ----- */
+
+	/**
+	 * Writes an empty page File holding the metadata page and an empty leaf
+	 * @throws IOException if file IO errors occur
+	 */
+	private void initialize() throws IOException {
+		pageCount = 1;
+		committedPageCount = 0;
+		freeHead = 0;
+		freeCount = 0;
+		blobCount = 0;
+		dirty.put(META_PAGE, new byte[PAYLOAD_SIZE]);
+		root = allocate();
+		dirty.get(root)[0] = LEAF;
+		commit();
+	}
+
+	/**
+	 * Reads the metadata page from the page File, discarding any changes
+	 * that were not committed
+	 * @throws IOException if the metadata page is damaged or file IO errors occur
+	 */
+	private void readMeta() throws IOException {
+		byte[] meta = readPageFromDisk(META_PAGE);
+		if (meta[0] != META || !Arrays.equals(meta, 1, 1 + MAGIC.length, MAGIC, 0, MAGIC.length)) {
+			throw new IOException(pageFile + " is not a page file");
+		}
+		int offset = 1 + MAGIC.length;
+		int version = getInt(meta, offset);
+		int pageSize = getInt(meta, offset + 4);
+		if (version != VERSION || pageSize != PAGE_SIZE) {
+			throw new IOException("Unsupported page file version " + version + " with page size " + pageSize);
+		}
+		pageCount = getInt(meta, offset + 8);
+		committedPageCount = pageCount;
+		freeHead = getInt(meta, offset + 12);
+		freeCount = getInt(meta, offset + 16);
+		root = getInt(meta, offset + 20);
+		blobCount = getInt(meta, offset + 24);
+		cache.put(META_PAGE, meta);
+	}
+
+	/**
+	 * Records the metadata of the current transaction in the metadata page
+	 */
+	private void writeMeta() {
+		byte[] meta = new byte[PAYLOAD_SIZE];
+		meta[0] = META;
+		System.arraycopy(MAGIC, 0, meta, 1, MAGIC.length);
+		int offset = 1 + MAGIC.length;
+		putInt(meta, offset, VERSION);
+		putInt(meta, offset + 4, PAGE_SIZE);
+		putInt(meta, offset + 8, pageCount);
+		putInt(meta, offset + 12, freeHead);
+		putInt(meta, offset + 16, freeCount);
+		putInt(meta, offset + 20, root);
+		putInt(meta, offset + 24, blobCount);
+		dirty.put(META_PAGE, meta);
+	}
+
+	/**
+	 * Returns the payload of the passed page as the current transaction sees it
+	 * @param page the page
+	 * @param cached if the page should be kept in the cache, which is only
+	 * worthwhile for index pages
+	 * @return the payload of the page, which must not be changed
+	 * @throws IOException if the page is damaged or file IO errors occur
+	 */
+	private byte[] readPage(int page, boolean cached) throws IOException {
+		byte[] payload = dirty.get(page);
+		if (payload == null) {
+			payload = cache.get(page);
+		}
+		if (payload == null) {
+			if (page <= META_PAGE || page >= pageCount) {
+				throw new IOException("Page " + page + " is outside of " + pageFile);
+			}
+			payload = readPageFromDisk(page);
+			if (cached) {
+				cache.put(page, payload);
+			}
+		}
+		return payload;
+	}
+
+	/**
+	 * Reads the payload of the passed page from the page File, checking its CRC32
+	 * @param page the page
+	 * @return the payload of the page
+	 * @throws IOException if the page is damaged or file IO errors occur
+	 */
+	private byte[] readPageFromDisk(int page) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+		long position = (long) page * PAGE_SIZE;
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Page " + page + " of " + pageFile + " is truncated");
+			}
+		}
+		byte[] image = buffer.array();
+		crc.reset();
+		crc.update(image, 0, PAYLOAD_SIZE);
+		if ((int) crc.getValue() != getInt(image, PAYLOAD_SIZE)) {
+			throw new IOException("Page " + page + " of " + pageFile + " is damaged");
+		}
+		return Arrays.copyOf(image, PAYLOAD_SIZE);
+	}
+
+	/**
+	 * Returns the payload of the passed page for the current transaction to change
+	 * @param page the page
+	 * @return the changeable payload of the page
+	 * @throws IOException if the page is damaged or file IO errors occur
+	 */
+	private byte[] writable(int page) throws IOException {
+		byte[] payload = dirty.get(page);
+		if (payload == null) {
+			payload = readPage(page, false).clone();
+			dirty.put(page, payload);
+		}
+		return payload;
+	}
+
+	/**
+	 * Allocates an empty page for the current transaction, reusing the
+	 * head of the free list if there is one
+	 * @return the page
+	 * @throws IOException if the free list is damaged or file IO errors occur
+	 */
+	private int allocate() throws IOException {
+		int page;
+		if (freeHead != 0) {
+			page = freeHead;
+			byte[] free = readPage(page, false);
+			if (free[0] != FREE) {
+				throw new IOException("Page " + page + " in the free list of " + pageFile + " is not free");
+			}
+			freeHead = getInt(free, 1);
+			freeCount--;
+		} else {
+			page = pageCount++;
+		}
+		dirty.put(page, new byte[PAYLOAD_SIZE]);
+		return page;
+	}
+
+	/**
+	 * Adds the passed page to the free list in the current transaction
+	 * @param page the page
+	 */
+	private void free(int page) {
+		byte[] free = new byte[PAYLOAD_SIZE];
+		free[0] = FREE;
+		putInt(free, 1, freeHead);
+		dirty.put(page, free);
+		freeHead = page;
+		freeCount++;
+	}
+
+	/**
+	 * Commits the current transaction. Pages past the end of the committed
+	 * page File are written and forced first. Every other page, including the
+	 * metadata page, is then written to the write ahead log, which is forced
+	 * before the pages are written in place. The log is emptied once the
+	 * page File has been forced
+	 * @throws IOException if file IO errors occur
+	 */
+	private void commit() throws IOException {
+
+		writeMeta();
+		List<Integer> logged = new ArrayList<>();
+		boolean appended = false;
+		for (Map.Entry<Integer, byte[]> page: dirty.entrySet()) {
+			if (page.getKey() >= committedPageCount) {
+				writeImage(channel, (long) page.getKey() * PAGE_SIZE, seal(page.getValue()));
+				appended = true;
+			} else {
+				logged.add(page.getKey());
+			}
+		}
+		if (appended) {
+			channel.force(false);
+		}
+
+		if (!logged.isEmpty()) {
+			ByteBuffer log = ByteBuffer.allocate(LOG_MAGIC.length + Integer.BYTES
+					+ logged.size() * (Integer.BYTES + PAGE_SIZE) + Integer.BYTES);
+			log.put(LOG_MAGIC);
+			log.putInt(logged.size());
+			for (int page: logged) {
+				log.putInt(page);
+				log.put(seal(dirty.get(page)));
+			}
+			crc.reset();
+			crc.update(log.array(), 0, log.position());
+			log.putInt((int) crc.getValue());
+			log.flip();
+			logChannel.truncate(0);
+			writeImage(logChannel, 0, log);
+			logChannel.force(false);
+			for (int page: logged) {
+				writeImage(channel, (long) page * PAGE_SIZE, seal(dirty.get(page)));
+			}
+			channel.force(false);
+			logChannel.truncate(0);
+		}
+
+		committedPageCount = pageCount;
+		for (Map.Entry<Integer, byte[]> page: dirty.entrySet()) {
+			byte type = page.getValue()[0];
+			if (type == LEAF || type == BRANCH || type == META) {
+				cache.put(page.getKey(), page.getValue());
+			} else {
+				cache.remove(page.getKey());
+			}
+		}
+		dirty.clear();
+
+	}
+
+	/**
+	 * Discards the current transaction, returning to the last committed state
+	 * @throws IOException if the metadata page cannot be read back
+	 */
+	private void rollback() throws IOException {
+		dirty.clear();
+		cache.remove(META_PAGE);
+		readMeta();
+	}
+
+	/**
+	 * Applies the write ahead log to the page File if it holds a complete
+	 * transaction, then empties it
+	 * @throws IOException if file IO errors occur
+	 */
+	private void recover() throws IOException {
+
+		long size = logChannel.size();
+		if (size == 0) {
+			return;
+		}
+		int header = LOG_MAGIC.length + Integer.BYTES;
+		ByteBuffer log = size <= Integer.MAX_VALUE ? ByteBuffer.allocate((int) size) : null;
+		if (log != null) {
+			while (log.hasRemaining() && logChannel.read(log, log.position()) >= 0) {
+				// read the whole log
+			}
+		}
+		byte[] bytes = log == null ? new byte[0] : log.array();
+		boolean complete = bytes.length >= header + Integer.BYTES
+				&& Arrays.equals(bytes, 0, LOG_MAGIC.length, LOG_MAGIC, 0, LOG_MAGIC.length);
+		int count = complete ? getInt(bytes, LOG_MAGIC.length) : 0;
+		complete &= count >= 0 && (long) header + (long) count * (Integer.BYTES + PAGE_SIZE) + Integer.BYTES == bytes.length;
+		if (complete) {
+			crc.reset();
+			crc.update(bytes, 0, bytes.length - Integer.BYTES);
+			complete = (int) crc.getValue() == getInt(bytes, bytes.length - Integer.BYTES);
+		}
+
+		if (complete) {
+			for (int i = 0; i < count; i++) {
+				int at = header + i * (Integer.BYTES + PAGE_SIZE);
+				int page = getInt(bytes, at);
+				writeImage(channel, (long) page * PAGE_SIZE, ByteBuffer.wrap(bytes, at + Integer.BYTES, PAGE_SIZE));
+			}
+			channel.force(false);
+			Logger.getInstance().logInfo("Applied " + count + " logged pages to " + pageFile);
+		} else {
+			Logger.getInstance().logWarning("Discarded an incomplete transaction of " + pageFile);
+		}
+		logChannel.truncate(0);
+		logChannel.force(false);
+
+	}
+
+	/**
+	 * Returns the image of a page as written to disk, its payload followed by a CRC32
+	 * @param payload the payload of the page
+	 * @return the image of the page
+	 */
+	private ByteBuffer seal(byte[] payload) {
+		ByteBuffer image = ByteBuffer.allocate(PAGE_SIZE);
+		image.put(payload);
+		crc.reset();
+		crc.update(payload, 0, PAYLOAD_SIZE);
+		image.putInt((int) crc.getValue());
+		image.flip();
+		return image;
+	}
+
+	/**
+	 * Writes the whole passed buffer to the passed FileChannel at the passed position
+	 * @param target the FileChannel to write to
+	 * @param position where to write
+	 * @param buffer what to write
+	 * @throws IOException if file IO errors occur
+	 */
+	private static void writeImage(FileChannel target, long position, ByteBuffer buffer) throws IOException {
+		long at = position;
+		while (buffer.hasRemaining()) {
+			at += target.write(buffer, at);
+		}
+	}
+
+	/* ----- encoding ----- */
+
+	/**
+	 * Converts a hash made by Hashing to the binary key it is indexed by
+	 * @param hash the hash
+	 * @return the key, or null if the String is not a hash Hashing makes
+	 */
+	private static byte[] toKey(String hash) {
+		if (hash == null || hash.length() != 2 * KEY_LENGTH) {
+			return null;
+		}
+		byte[] key = new byte[KEY_LENGTH];
+		for (int i = 0; i < KEY_LENGTH; i++) {
+			int high = Character.digit(hash.charAt(2 * i), 16);
+			int low = Character.digit(hash.charAt(2 * i + 1), 16);
+			if (high < 0 || low < 0 || Character.isLowerCase(hash.charAt(2 * i)) || Character.isLowerCase(hash.charAt(2 * i + 1))) {
+				return null;
+			}
+			key[i] = (byte) ((high << 4) | low);
+		}
+		return key;
+	}
+
+	/**
+	 * Converts a binary key back into the hash it was made from
+	 * @param key the key
+	 * @return the hash
+	 */
+	private static String toHash(byte[] key) {
+		StringBuilder hash = new StringBuilder(2 * KEY_LENGTH);
+		for (byte b: key) {
+			hash.append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+			hash.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+		}
+		return hash.toString();
+	}
+
+	private static int getShort(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+	}
+
+	private static void putShort(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 8);
+		bytes[offset + 1] = (byte) value;
+	}
+
+	private static int getInt(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+				| ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	private static long getLong(byte[] bytes, int offset) {
+		return ((long) getInt(bytes, offset) << 32) | (getInt(bytes, offset + 4) & 0xFFFFFFFFL);
+	}
+
+	private static void putLong(byte[] bytes, int offset, long value) {
+		putInt(bytes, offset, (int) (value >>> 32));
+		putInt(bytes, offset + 4, (int) value);
+	}
+
+}
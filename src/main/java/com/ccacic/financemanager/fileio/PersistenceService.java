@@ -0,0 +1,466 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.ccacic.financemanager.logger.Logger;
+
+/**
+ * Writes Files behind the threads that request them. Writes are queued
+ * per File and performed by a single daemon I/O thread, so EventManager
+ * threads and the FX thread never wait on encryption or the disk. A
+ * write queued for a File that already has a write waiting replaces the
+ * waiting contents instead of being queued again, and both callers get
+ * the same future. The I/O thread takes everything queued at once as a
+ * batch and compresses, encrypts and hashes its Files in parallel on a
+ * bounded ForkJoinPool. Each File is written to a temporary File beside
+ * it, forced to the storage device and only then renamed over the File,
+ * so a failed or interrupted write leaves the previous contents intact.
+ * No future of a batch is completed before the whole batch is in place.
+ * Callers queueing more than the
+ * pending byte limit are held back until the I/O thread catches up.
+ * Upkeep that follows a write, such as compacting a journal, runs on a
+ * separate low priority maintenance thread so it never holds up the
+ * writes queued behind it.
+ * Counts writes, coalesced writes, batches and back pressure waits for
+ * diagnostics. Thread safe
+ * @author Cameron Cacic
+ *
+ */
+public final class PersistenceService {
+
+	/**
+	 * The most bytes that may wait to be written before callers are held back
+	 */
+	private static final long MAX_PENDING_BYTES = 64L * 1024 * 1024;
+	/**
+	 * The most Files of a batch that are encoded and written at once
+	 */
+	private static final int MAX_WRITE_THREADS = 8;
+
+	private static final PersistenceService instance = new PersistenceService();
+
+	/**
+	 * Returns the singleton instance of PersistenceService
+	 * @return the instance of PersistenceService
+	 */
+	public static PersistenceService getInstance() {
+		return instance;
+	}
+
+	/**
+	 * A write waiting for the I/O thread
+	 * @author Cameron Cacic
+	 *
+	 */
+	private static final class PendingWrite {
+
+		private final File file;
+		private final CompletableFuture<String> future;
+		private byte[] bytes;
+		private KeyManager keyManager;
+		private FileCodec codec;
+
+		/**
+		 * Creates a new PendingWrite
+		 * @param file the File to write to
+		 * @param bytes the bytes to write
+		 * @param keyManager the KeyManager to encrypt with, or null
+		 * @param codec the FileCodec to compress with
+		 */
+		PendingWrite(File file, byte[] bytes, KeyManager keyManager, FileCodec codec) {
+			this.file = file;
+			this.future = new CompletableFuture<>();
+			this.bytes = bytes;
+			this.keyManager = keyManager;
+			this.codec = codec;
+		}
+
+	}
+
+	private final Thread ioThread;
+	private final ForkJoinPool writePool;
+	private final ExecutorService maintenanceExecutor;
+	private volatile Thread maintenanceThread;
+	private final Set<CompletableFuture<Void>> maintenance;
+	private final LinkedHashMap<File, PendingWrite> pending;
+	private final List<PendingWrite> inFlight;
+	private long pendingBytes;
+
+	private long writes;
+	private long coalescedWrites;
+	private long batches;
+	private long bytesWritten;
+	private long backPressureWaits;
+	private long backPressureMillis;
+	private int maxQueueDepth;
+
+	/**
+	 * Creates the PersistenceService and starts its I/O thread
+	 */
+	private PersistenceService() {
+		pending = new LinkedHashMap<>();
+		inFlight = new ArrayList<>();
+		pendingBytes = 0;
+		writePool = new ForkJoinPool(Math.min(MAX_WRITE_THREADS, Runtime.getRuntime().availableProcessors()));
+		ioThread = new Thread(this::writeLoop, "persistence-writer");
+		ioThread.setDaemon(true);
+		ioThread.start();
+		maintenance = ConcurrentHashMap.newKeySet();
+		maintenanceExecutor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "persistence-maintenance");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			maintenanceThread = thread;
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues the passed bytes to be written to the passed File using the
+	 * current User's KeyManager to perform encryption
+	 * @param file the File to write to
+	 * @param bytes the bytes to write, which must not be changed afterwards
+	 * @return a future for the hash of the written File
+	 */
+	public CompletableFuture<String> write(File file, byte[] bytes) {
+		return write(file, bytes, User.getCurrentUser().getKeyManager());
+	}
+
+	/**
+	 * Queues the passed bytes to be written to the passed File using the
+	 * passed KeyManager to perform encryption. If the KeyManager is null
+	 * then no encryption is performed. If a write to the File is already
+	 * waiting, its bytes are replaced and its future is returned
+	 * @param file the File to write to
+	 * @param bytes the bytes to write, which must not be changed afterwards
+	 * @param keyManager the KeyManager to perform encryption with
+	 * @return a future for the hash of the written File
+	 */
+	CompletableFuture<String> write(File file, byte[] bytes, KeyManager keyManager) {
+		return write(file, bytes, keyManager, FileIO.RECORD_CODEC);
+	}
+
+	/**
+	 * Queues the passed bytes to be written to the passed File, compressed
+	 * with the passed FileCodec and then encrypted with the passed
+	 * KeyManager. If the KeyManager is null then no encryption is
+	 * performed. If a write to the File is already waiting, its bytes are
+	 * replaced and its future is returned
+	 * @param file the File to write to
+	 * @param bytes the bytes to write, which must not be changed afterwards
+	 * @param keyManager the KeyManager to perform encryption with
+	 * @param codec the FileCodec to compress with
+	 * @return a future for the hash of the written File
+	 */
+	synchronized CompletableFuture<String> write(File file, byte[] bytes, KeyManager keyManager, FileCodec codec) {
+
+		file = file.getAbsoluteFile();
+		if (Thread.currentThread() != ioThread && pendingBytes + bytes.length > MAX_PENDING_BYTES
+				&& pendingBytes > 0) {
+			backPressureWaits++;
+			long start = System.currentTimeMillis();
+			while (pendingBytes + bytes.length > MAX_PENDING_BYTES && pendingBytes > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Logger.getInstance().logWarning("Interrupted while waiting to queue a write to " + file);
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			backPressureMillis += System.currentTimeMillis() - start;
+		}
+
+		PendingWrite write = pending.get(file);
+		if (write != null) {
+			pendingBytes -= write.bytes.length;
+			write.bytes = bytes;
+			write.keyManager = keyManager;
+			write.codec = codec;
+			coalescedWrites++;
+		} else {
+			write = new PendingWrite(file, bytes, keyManager, codec);
+			pending.put(file, write);
+			maxQueueDepth = Math.max(maxQueueDepth, pending.size());
+			notifyAll();
+		}
+		pendingBytes += bytes.length;
+		return write.future;
+
+	}
+
+	/**
+	 * Queues the passed task to run on the low priority maintenance
+	 * thread, after the maintenance tasks queued before it. For upkeep
+	 * that must not hold up the I/O thread
+	 * @param task the task to run
+	 * @return a future completed once the task has run
+	 */
+	public CompletableFuture<Void> runMaintenance(Runnable task) {
+		CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				Logger.getInstance().logException(e);
+			}
+		}, maintenanceExecutor);
+		maintenance.add(future);
+		future.whenComplete((result, failure) -> maintenance.remove(future));
+		return future;
+	}
+
+	/**
+	 * Waits until every write queued before this call has been written
+	 * and forced to the storage device, whether it succeeded or not,
+	 * along with the maintenance those writes queued
+	 */
+	public void flush() {
+
+		List<PendingWrite> writes = new ArrayList<>();
+		synchronized (this) {
+			writes.addAll(inFlight);
+			writes.addAll(pending.values());
+		}
+		if (Thread.currentThread() == ioThread || Thread.currentThread() == maintenanceThread) {
+			return;
+		}
+		synchronized (this) {
+			// a batch leaves inFlight only once its futures' callbacks have queued their maintenance
+			while (writes.stream().anyMatch(write -> pending.containsValue(write) || inFlight.contains(write))) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Logger.getInstance().logWarning("Interrupted while waiting for queued writes");
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+		CompletableFuture.allOf(maintenance.toArray(new CompletableFuture<?>[0])).join();
+
+	}
+
+	/**
+	 * Returns how many Files are waiting to be written
+	 * @return the queue depth
+	 */
+	public synchronized int getQueueDepth() {
+		return pending.size();
+	}
+
+	/**
+	 * Returns the most Files that have been waiting to be written at once
+	 * @return the maximum queue depth
+	 */
+	public synchronized int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	/**
+	 * Returns how many bytes are waiting to be written
+	 * @return the pending byte count
+	 */
+	public synchronized long getPendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * Returns how many Files have been written
+	 * @return the write count
+	 */
+	public synchronized long getWrites() {
+		return writes;
+	}
+
+	/**
+	 * Returns how many writes replaced a write to the same File that was
+	 * still waiting, and so were never written on their own
+	 * @return the coalesced write count
+	 */
+	public synchronized long getCoalescedWrites() {
+		return coalescedWrites;
+	}
+
+	/**
+	 * Returns how many batches the I/O thread has written and forced
+	 * @return the batch count
+	 */
+	public synchronized long getBatches() {
+		return batches;
+	}
+
+	/**
+	 * Returns how many unencrypted bytes have been written
+	 * @return the written byte count
+	 */
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Returns how many times a caller was held back because too many
+	 * bytes were waiting to be written
+	 * @return the back pressure wait count
+	 */
+	public synchronized long getBackPressureWaits() {
+		return backPressureWaits;
+	}
+
+	/**
+	 * Returns the total milliseconds callers spent held back
+	 * @return the back pressure wait time
+	 */
+	public synchronized long getBackPressureMillis() {
+		return backPressureMillis;
+	}
+
+	/**
+	 * Takes everything queued as a batch, writes it and forces it to the
+	 * storage device, then completes the batch's futures
+	 */
+	private void writeLoop() {
+		while (true) {
+			try {
+
+				List<PendingWrite> batch;
+				synchronized (this) {
+					while (pending.isEmpty()) {
+						wait();
+					}
+					batch = new ArrayList<>(pending.values());
+					pending.clear();
+					inFlight.addAll(batch);
+				}
+
+				Map<PendingWrite, String> hashes = new ConcurrentHashMap<>();
+				Map<PendingWrite, Throwable> failures = new ConcurrentHashMap<>();
+				List<ForkJoinTask<?>> tasks = new ArrayList<>(batch.size());
+				for (PendingWrite write: batch) {
+					tasks.add(ForkJoinTask.adapt(() -> {
+						try {
+							hashes.put(write, replace(write));
+						} catch (IOException | RuntimeException e) {
+							failures.put(write, e);
+						}
+					}));
+				}
+				writePool.invoke(ForkJoinTask.adapt(() -> {
+					ForkJoinTask.invokeAll(tasks);
+				}));
+				long batchBytes = 0;
+				Set<File> directories = new LinkedHashSet<>();
+				for (PendingWrite write: batch) {
+					if (hashes.containsKey(write)) {
+						batchBytes += write.bytes.length;
+						directories.add(write.file.getParentFile());
+					}
+				}
+				for (File directory: directories) {
+					syncDirectory(directory);
+				}
+
+				synchronized (this) {
+					for (PendingWrite write: batch) {
+						pendingBytes -= write.bytes.length;
+					}
+					writes += batch.size() - failures.size();
+					batches++;
+					bytesWritten += batchBytes;
+					notifyAll();
+				}
+				for (PendingWrite write: batch) {
+					Throwable failure = failures.get(write);
+					if (failure != null) {
+						Logger.getInstance().logError("Failed to write " + write.file + ": " + failure.getMessage());
+						write.future.completeExceptionally(failure);
+					} else {
+						write.future.complete(hashes.get(write));
+					}
+				}
+				synchronized (this) {
+					inFlight.clear();
+					notifyAll();
+				}
+
+			} catch (InterruptedException e) {
+				Logger.getInstance().logError("Persistence thread interrupted");
+				return;
+			} catch (RuntimeException e) {
+				Logger.getInstance().logException(e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the passed PendingWrite to a temporary File beside its File,
+	 * forces it to the storage device and renames it over the File. The
+	 * File keeps its previous contents if anything fails
+	 * @param write the PendingWrite to write
+	 * @return the hash of the written File
+	 * @throws IOException if file IO errors occur
+	 */
+	private static String replace(PendingWrite write) throws IOException {
+
+		File tmpFile = new File(write.file.getParentFile(), write.file.getName() + FileHandler.TMP_EXTENSION);
+		IntegrityIndex index = IntegrityIndex.getInstance();
+		String hash;
+		try {
+			hash = new FileIO().writeToFile(tmpFile, write.bytes, write.keyManager, write.codec);
+			sync(tmpFile);
+			Files.move(tmpFile.toPath(), write.file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | RuntimeException e) {
+			if (tmpFile.exists() && !tmpFile.delete()) {
+				Logger.getInstance().logWarning("Failed to delete temporary file " + tmpFile);
+			}
+			throw e;
+		}
+		// a rename keeps the size and modification time
+		index.record(write.file, IntegrityIndex.fingerprint(write.file), hash);
+		return hash;
+
+	}
+
+	/**
+	 * Forces the contents of the passed File to the storage device
+	 * @param file the File to force
+	 * @throws IOException if file IO errors occur
+	 */
+	private static void sync(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Forces the entries of the passed directory to the storage device, so
+	 * the Files renamed into it stay renamed. Not every platform can open a
+	 * directory, in which case the renames are left to the file system
+	 * @param directory the directory to force
+	 */
+	private static void syncDirectory(File directory) {
+		try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// directories cannot be opened on every platform
+		}
+	}
+
+}
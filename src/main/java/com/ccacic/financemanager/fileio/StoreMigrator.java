@@ -0,0 +1,156 @@
+package com.ccacic.financemanager.fileio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the blobs of a ChunkStore directory between a FileBlobStore and a
+ * PageBlobStore. Blobs are copied as they are, so no key is needed, and
+ * each is hashed on the way to make sure it is copied intact. Nothing is
+ * deleted from the old BlobStore until every blob is in the new one, and
+ * a page File is only placed in the store directory once it is complete,
+ * so an interrupted migration leaves the old BlobStore in use and can
+ * simply be run again. Must not be run while the program is using the
+ * store directory
+ * @author Cameron Cacic
+ *
+ */
+class StoreMigrator {
+
+	/**
+	 * The subdirectory a new page File is built in
+	 */
+	private static final String STAGING_NAME = "migrate$";
+
+	/**
+	 * Runs the migration
+	 * @param args the store directory, followed by pages or files for the BlobStore to migrate to
+	 * @throws IOException if a blob fails to copy or file IO errors occur
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length != 2 || !("pages".equals(args[1]) || "files".equals(args[1]))) {
+			System.err.println("Usage: StoreMigrator <store directory> pages|files");
+			System.exit(1);
+			return;
+		}
+		File storeDir = new File(args[0]);
+		int moved = "pages".equals(args[1]) ? toPages(storeDir) : toFiles(storeDir);
+		System.out.println("Migrated " + moved + " blobs in " + storeDir);
+
+	}
+
+	/**
+	 * Moves every blob in the passed store directory from a File of its own into a page File
+	 * @param storeDir the store directory
+	 * @return how many blobs were moved
+	 * @throws IOException if a blob fails to copy or file IO errors occur
+	 */
+	static int toPages(File storeDir) throws IOException {
+
+		FileBlobStore source = new FileBlobStore(storeDir);
+		File staging = new File(storeDir, STAGING_NAME);
+		// a page File already in place is from a migration interrupted while deleting Files
+		boolean resumed = PageBlobStore.exists(storeDir);
+		File targetDir = resumed ? storeDir : staging;
+		List<String> hashes;
+		try (PageBlobStore target = new PageBlobStore(targetDir)) {
+			hashes = copy(source, target, targetDir);
+		}
+
+		if (!resumed) {
+			Files.move(new File(staging, PageBlobStore.FILE_NAME).toPath(),
+					new File(storeDir, PageBlobStore.FILE_NAME).toPath(), StandardCopyOption.ATOMIC_MOVE);
+			deleteIfExists(new File(staging, PageBlobStore.LOG_NAME));
+			deleteIfExists(staging);
+		}
+		for (String hash: hashes) {
+			source.delete(hash);
+		}
+		return hashes.size();
+
+	}
+
+	/**
+	 * Moves every blob in the page File of the passed store directory into a File of its own
+	 * @param storeDir the store directory
+	 * @return how many blobs were moved
+	 * @throws IOException if a blob fails to copy or file IO errors occur
+	 */
+	static int toFiles(File storeDir) throws IOException {
+
+		if (!PageBlobStore.exists(storeDir)) {
+			return 0;
+		}
+		FileBlobStore target = new FileBlobStore(storeDir);
+		List<String> hashes;
+		try (PageBlobStore source = new PageBlobStore(storeDir)) {
+			hashes = copy(source, target, storeDir);
+		}
+		// the Files are only used once the page File is gone
+		deleteIfExists(new File(storeDir, PageBlobStore.FILE_NAME));
+		deleteIfExists(new File(storeDir, PageBlobStore.LOG_NAME));
+		return hashes.size();
+
+	}
+
+	/**
+	 * Copies every blob of the passed source BlobStore the passed target
+	 * BlobStore does not have yet, through a temporary File in the passed
+	 * directory
+	 * @param source the BlobStore to copy from
+	 * @param target the BlobStore to copy to
+	 * @param tmpDir the directory to write temporary Files in
+	 * @return the hashes of every blob in the source BlobStore
+	 * @throws IOException if a blob does not match its hash or file IO errors occur
+	 */
+	private static List<String> copy(BlobStore source, BlobStore target, File tmpDir) throws IOException {
+
+		List<String> hashes = new ArrayList<>();
+		byte[] buffer = new byte[FileIO.BUFFER_SIZE];
+		source.forEach((hash, length, lastModified) -> {
+			hashes.add(hash);
+			if (target.contains(hash)) {
+				return;
+			}
+			File tmpFile = File.createTempFile("blob", FileHandler.TMP_EXTENSION, tmpDir);
+			Hashing hashing = new Hashing();
+			try (InputStream in = hashing.wrapStream(source.open(hash));
+					OutputStream out = new FileOutputStream(tmpFile)) {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+			} catch (IOException e) {
+				deleteIfExists(tmpFile);
+				throw e;
+			}
+			String actualHash = hashing.getHash();
+			if (!hash.equals(actualHash)) {
+				deleteIfExists(tmpFile);
+				throw new IOException("Blob " + hash + " hashes to " + actualHash + ", migration stopped");
+			}
+			// the blob counts as just stored, which only delays its garbage collection
+			target.put(hash, tmpFile);
+		});
+		return hashes;
+
+	}
+
+	/**
+	 * Deletes the passed File if it exists
+	 * @param file the File to delete
+	 * @throws IOException if the File exists but cannot be deleted
+	 */
+	private static void deleteIfExists(File file) throws IOException {
+		Files.deleteIfExists(file.toPath());
+	}
+
+}
@@ -21,6 +21,7 @@ public class User {
 	private static final String NAME = "name";
 	private static final String ACCT_HOLD_IDS = "acct_hold_ids";
 	private static final String HASHES = "hashes";
+	private static final String MASTER_SALT = "master_salt";
 
 	private static User currentUser;
 	
@@ -34,23 +35,28 @@ public class User {
 	
 	/**
 	 * Sets the current User of the system to the User specified
-	 * in the passed File
+	 * in the passed File. The previous User stays current, with
+	 * its keys intact, unless the new User loads successfully. The
+	 * writes queued with the previous User's keys are flushed before
+	 * those keys are destroyed
 	 * @param userFile the File representing the new current User
+	 * @return if the new User became the current User
 	 */
-	public static void setCurrentUser(File userFile) {
+	public static boolean setCurrentUser(File userFile) {
+		User user = null;
 		try {
 			
 			if (userFile.exists()) {
 				try {
-					currentUser = new User(userFile);
+					user = new User(userFile);
 				} catch (IllegalArgumentException e) {
-					currentUser = null;
+					return false;
 				}
 			} else {
 				PasswordFetcher passwordFetcher = new PasswordFetcher();
 				String password = passwordFetcher.fetchNewPassword();
 				if (password == null) {
-					return;
+					return false;
 				}
 				if (!userFile.getParentFile().mkdirs()) {
 					throw new IOException("Failed to create directories described in " + userFile.getParentFile());
@@ -58,20 +64,36 @@ public class User {
 				if (!userFile.createNewFile()) {
 					throw new IOException("Failed to create user file " + userFile);
 				}
-				currentUser = new User(userFile.getName().substring(0, userFile.getName().lastIndexOf('.')), password);
+				user = new User(userFile.getName().substring(0, userFile.getName().lastIndexOf('.')), password);
 				FileIO fileIO = new FileIO();
-				fileIO.writeToFile(userFile, currentUser.disassemble().encode(), password);
+				fileIO.writeToFile(userFile, user.disassemble(), user.keyManager);
 			}
 			
 		} catch (IOException e) {
 			e.printStackTrace();
+			if (user != null) {
+				user.keyManager.destroy();
+			}
+			return false;
+		}
+		User previous = currentUser;
+		if (previous != null) {
+			// writes queued with the previous User's keys must reach the disk first
+			PersistenceService.getInstance().flush();
+			FileHandler.getInstance().endSession();
+		}
+		currentUser = user;
+		if (previous != null) {
+			previous.keyManager.destroy();
 		}
+		return true;
 	}
 	
 	
 	
 	private String name;
 	private String password;
+	private KeyManager keyManager;
 	private List<String> acctHoldIds;
 	private Map<String, String> hashes;
 	private File userDir;
@@ -91,10 +113,21 @@ public class User {
 			throw new IllegalArgumentException("Failed to get password");
 		}
 		
-		FileIO fileIO = new FileIO();
-		ParamMap map = ParamMap.decode(fileIO.loadFile(userFile, null, password));
+		keyManager = new KeyManager(password);
+		ParamMap map;
+		try {
+			FileIO fileIO = new FileIO();
+			map = ParamMap.decode(fileIO.loadFile(userFile, null, keyManager));
+		} catch (IOException | RuntimeException e) {
+			keyManager.destroy();
+			throw e;
+		}
 		
 		name = map.get(NAME);
+		String masterSalt = map.get(MASTER_SALT);
+		if (masterSalt != null && masterSalt.length() == 2 * KeyManager.SALT_LENGTH) {
+			keyManager.setSessionSalt(fromHex(masterSalt));
+		}
 		acctHoldIds = map.getAsList(ACCT_HOLD_IDS);
 		
 		hashes = new HashMap<>();
@@ -118,6 +151,7 @@ public class User {
 	private User(String name, String password) {
 		this.name = name;
 		this.password = password;
+		this.keyManager = new KeyManager(password);
 		this.acctHoldIds = new ArrayList<>();
 		this.hashes = new HashMap<>();
 		this.userDir = new File(FileHandler.getInstance().getUserDir(), name);
@@ -168,6 +202,15 @@ public class User {
 		return password;
 	}
 	
+	/**
+	 * Returns the KeyManager holding the keys derived from the
+	 * User's password for the current session
+	 * @return the KeyManager
+	 */
+	KeyManager getKeyManager() {
+		return keyManager;
+	}
+	
 	/**
 	 * Returns the AccountHolder ID's associated with this User.
 	 * Lines up index-wise with the hashes associated with this
@@ -237,7 +280,35 @@ public class User {
 			listHashes.add(hashes.get(acctHoldID));
 		}
 		paramMap.put(HASHES, listHashes);
+		paramMap.put(MASTER_SALT, toHex(keyManager.getSessionSalt()));
 		return paramMap;
 	}
 	
+	/**
+	 * Converts the passed bytes into a String of hexadecimal digits
+	 * @param bytes the bytes to convert
+	 * @return the hexadecimal String
+	 */
+	private static String toHex(byte[] bytes) {
+		StringBuilder stringBuilder = new StringBuilder(bytes.length * 2);
+		for (byte b: bytes) {
+			stringBuilder.append(String.format("%02X", b));
+		}
+		return stringBuilder.toString();
+	}
+	
+	/**
+	 * Converts the passed String of hexadecimal digits into bytes,
+	 * the reverse of toHex
+	 * @param hex the hexadecimal String
+	 * @return the bytes
+	 */
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+	
 }
@@ -16,11 +16,15 @@ import com.ccacic.financemanager.controller.entry.FXEntryFrameContainer;
 import com.ccacic.financemanager.controller.entry.StockEntryFXFactory;
 import com.ccacic.financemanager.controller.main.BlockingProgressActivity;
 import com.ccacic.financemanager.controller.main.ConfirmationActivity;
+import com.ccacic.financemanager.controller.main.IntegrityProblemActivity;
 import com.ccacic.financemanager.controller.main.MainActivity;
 import com.ccacic.financemanager.controller.main.PasswordActivity;
 import com.ccacic.financemanager.event.EventManager;
 import com.ccacic.financemanager.fileio.Archiver;
+import com.ccacic.financemanager.fileio.ChunkStore;
 import com.ccacic.financemanager.fileio.FileHandler;
+import com.ccacic.financemanager.fileio.IntegrityScrubber;
+import com.ccacic.financemanager.fileio.PersistenceService;
 import com.ccacic.financemanager.logger.Logger;
 import com.ccacic.financemanager.logger.Logger.Severity;
 import com.ccacic.financemanager.model.account.AccountFactory;
@@ -66,6 +70,7 @@ public class Launcher extends Application {
 		Archiver.register();
 		PasswordActivity.register();
 		ConfirmationActivity.register();
+		IntegrityProblemActivity.register();
 		BlockingProgressActivity.register();
 		launch(args);
 	}
@@ -96,6 +101,11 @@ public class Launcher extends Application {
 		Logger.getInstance().logDebug("Program shutting down gracefully");
 		/*FileHandler fileHandler = FileHandler.getInstance();
 		fileHandler.writeFiles();*/
+		IntegrityScrubber.getInstance().stop();
+		// writes already queued, such as a save still finishing, must reach the disk
+		PersistenceService.getInstance().flush();
+		FileHandler.getInstance().endSession();
+		ChunkStore.getInstance().close();
 		UpdateRatesThread.stopAllThreads();
 		Logger.stopLogging();
 		EventManager.haltEventThreads();
@@ -150,5 +150,19 @@ public class Delta {
 			}
 		}
 	}
+	
+	/**
+	 * Returns true if any of the deltas held reflect a meaningful
+	 * change, as determined by deltaEntryHasChange
+	 * @return if the Delta reflects any meaningful change
+	 */
+	public boolean hasChange() {
+		for (String id: deltaMap.keySet()) {
+			if (deltaEntryHasChange(id)) {
+				return true;
+			}
+		}
+		return false;
+	}
 
 }
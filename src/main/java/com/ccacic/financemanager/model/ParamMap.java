@@ -1,5 +1,7 @@
 package com.ccacic.financemanager.model;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
 import java.util.*;
@@ -7,6 +9,9 @@ import java.util.*;
 import com.ccacic.financemanager.exception.InvalidCurrencyCodeException;
 import com.ccacic.financemanager.logger.Logger;
 import com.ccacic.financemanager.model.currency.Currency;
+import com.ccacic.financemanager.util.DateTimeCodec;
+import com.ccacic.financemanager.util.InternTable;
+import com.ccacic.financemanager.util.ParamTokenizer;
 import com.ccacic.financemanager.util.StringProcessing;
 
 /**
@@ -15,7 +20,10 @@ import com.ccacic.financemanager.util.StringProcessing;
  * These utilities include conversion of ParamMaps to and from
  * Strings in their entirety, a reserved key for class types,
  * and data getter methods that wrap the conversion of Strings to
- * various common types, such as ints and doubles
+ * various common types, such as ints and doubles. Fields are kept
+ * in key order, so equal ParamMaps always encode identically, and
+ * encoding escapes the characters that would otherwise be read as
+ * structure, so any key or value decodes back exactly
  * @author Cameron Cacic
  *
  */
@@ -26,7 +34,59 @@ public final class ParamMap {
 	 * be stored at this key but they will be returned through
 	 * the getType method
 	 */
-	private static final String TYPE_KEY = "class";
+	public static final String TYPE_KEY = "class";
+	
+	/**
+	 * Escapes every character of the passed String that would otherwise
+	 * be read as structure, so it can be placed inside a bracket section
+	 * or a ParamMap and read back unchanged with unescape
+	 * @param str the String to escape
+	 * @return the escaped String
+	 */
+	public static String escape(String str) {
+		if (str == null) {
+			return null;
+		}
+		StringBuilder escaped = new StringBuilder(str.length());
+		try {
+			escape(str, escaped);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return escaped.toString();
+	}
+	
+	/**
+	 * Reverses escape, removing the escapes from the passed String
+	 * @param str the String to unescape
+	 * @return the unescaped String
+	 */
+	public static String unescape(String str) {
+		if (str == null) {
+			return null;
+		}
+		return ParamTokenizer.unescape(str, 0, str.length());
+	}
+	
+	/**
+	 * Appends the passed CharSequence to the passed Appendable, escaping
+	 * every character that would otherwise be read as structure
+	 * @param str the CharSequence to append
+	 * @param out the Appendable to append to
+	 * @throws IOException if the Appendable fails
+	 */
+	public static void escape(CharSequence str, Appendable out) throws IOException {
+		int length = str.length();
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			char c = str.charAt(i);
+			if (ParamTokenizer.isSpecial(c)) {
+				out.append(str, start, i).append(ParamTokenizer.ESCAPE).append(c);
+				start = i + 1;
+			}
+		}
+		out.append(str, start, length);
+	}
 	
 	/**
 	 * Decodes the passed String into a ParamMap, assuming
@@ -39,7 +99,7 @@ public final class ParamMap {
 	 * @param str the String to decode
 	 * @return the decoded String as a ParamMap
 	 */
-	public static ParamMap decode(String str) {
+	public static ParamMap decode(CharSequence str) {
 		return decode(str, true);
 	}
 	
@@ -49,37 +109,49 @@ public final class ParamMap {
 	 * @param bracketed if the String is wrapped in curly brackets
 	 * @return the decoded String as a ParamMap
 	 */
-	public static ParamMap decode(String str, boolean bracketed) {
-		ParamMap paramMap = new ParamMap();
-		if (str == null || str.indexOf('=') < 0) {
-			return paramMap;
+	public static ParamMap decode(CharSequence str, boolean bracketed) {
+		return decode(str, bracketed, InternTable.NONE);
+	}
+	
+	/**
+	 * Decodes the passed String into a ParamMap, taking keys, the type
+	 * and bracketed values from the passed InternTable. Other values, such
+	 * as IDs, dates and amounts, are rarely shared and are left out of it
+	 * @param str the String to decode
+	 * @param bracketed if the String is wrapped in curly brackets
+	 * @param table the InternTable to share Strings through
+	 * @return the decoded String as a ParamMap
+	 */
+	public static ParamMap decode(CharSequence str, boolean bracketed, InternTable table) {
+		if (str == null) {
+			return new ParamMap();
 		}
-		String pulled = bracketed ? StringProcessing.pullBracketSection(str, 0) : str;
-		List<String> pairs = new ArrayList<>();
-		
-		int startIndex = 0;
-		int endIndex = Objects.requireNonNull(pulled).indexOf(',');
-		while (endIndex > startIndex) {
-			int brackIndex = pulled.indexOf('{', startIndex);
-			String pair;
-			if (brackIndex > startIndex && brackIndex < endIndex) {
-				String section = StringProcessing.pullBracketSection(pulled, startIndex);
-				pair = pulled.substring(startIndex, brackIndex) + "{" + section + "}";
-				startIndex += pair.length() + 1;
-			} else {
-				pair = pulled.substring(startIndex, endIndex);
-				startIndex = endIndex + 1;
+		if (bracketed) {
+			ParamTokenizer sections = new ParamTokenizer(str);
+			if (sections.nextSection()) {
+				return decode(str, sections.getSectionStart(), sections.getSectionEnd(), table);
 			}
-			pairs.add(pair);
-			endIndex = pulled.indexOf(',', startIndex);
-		}
-		if (startIndex < pulled.length()) {
-			pairs.add(pulled.substring(startIndex));
 		}
-
-		for (String pair: pairs) {
-			String[] equalSplit = pair.split("=", 2);
-			paramMap.put(equalSplit[0].trim(), equalSplit[1].trim());
+		return decode(str, 0, str.length(), table);
+	}
+	
+	/**
+	 * Decodes the unbracketed ParamMap between the passed indices
+	 * of the passed CharSequence
+	 * @param str the CharSequence to decode from
+	 * @param begin the index the ParamMap starts at
+	 * @param end the index the ParamMap ends at
+	 * @param table the InternTable to share Strings through
+	 * @return the decoded ParamMap
+	 */
+	private static ParamMap decode(CharSequence str, int begin, int end, InternTable table) {
+		ParamMap paramMap = new ParamMap();
+		ParamTokenizer pairs = new ParamTokenizer(str, begin, end);
+		while (pairs.nextPair(',', false)) {
+			String key = pairs.getKey(table);
+			boolean shared = key.equals(TYPE_KEY)
+					|| pairs.getValueStart() < pairs.getValueEnd() && str.charAt(pairs.getValueStart()) == '{';
+			paramMap.put(key, shared ? pairs.getValue(table) : pairs.getValue());
 		}
 		return paramMap;
 	}
@@ -92,11 +164,14 @@ public final class ParamMap {
 	 * @param str the String to decode
 	 * @return a List of decoded ParamMaps
 	 */
-	public static List<ParamMap> decodeList(String str) {
+	public static List<ParamMap> decodeList(CharSequence str) {
 		List<ParamMap> list = new ArrayList<>();
-		List<String> seperated = StringProcessing.pullBracketSections(str);
-		for (String map: seperated) {
-			list.add(decode(map, false));
+		if (str == null) {
+			return list;
+		}
+		ParamTokenizer sections = new ParamTokenizer(str);
+		while (sections.nextSection()) {
+			list.add(decode(str, sections.getSectionStart(), sections.getSectionEnd(), InternTable.NONE));
 		}
 		return list;
 	}
@@ -127,7 +202,7 @@ public final class ParamMap {
 	 * Creates a new, empty ParamMap
 	 */
 	public ParamMap() {
-		map = new HashMap<>();
+		map = new TreeMap<>();
 	}
 	
 	/**
@@ -136,8 +211,7 @@ public final class ParamMap {
 	 * @param paramMap the ParamMap to pull fields from
 	 */
 	public ParamMap(ParamMap paramMap) {
-		this.map = new HashMap<>();
-		this.map.putAll(paramMap.map);
+		this.map = new TreeMap<>(paramMap.map);
 	}
 	
 	/**
@@ -319,7 +393,7 @@ public final class ParamMap {
 		}
 		
 		try {
-			return LocalDateTime.parse(map.get(key));
+			return DateTimeCodec.parse(map.get(key));
 		} catch (DateTimeParseException e) {
 			Logger.getInstance().logException(e);
 			return LocalDateTime.MIN;
@@ -345,10 +419,17 @@ public final class ParamMap {
 	 */
 	public List<ParamMap> getAsParamMaps(String key) {
 		List<ParamMap> list = new ArrayList<>();
-		String stripped = StringProcessing.pullBracketSection(map.get(key), 0);
-		List<String> encodedParamMaps = StringProcessing.pullBracketSections(stripped);
-		for (String encodedParamMap: encodedParamMaps) {
-			list.add(decode(encodedParamMap, false));
+		String value = map.get(key);
+		if (value == null) {
+			return list;
+		}
+		ParamTokenizer outer = new ParamTokenizer(value);
+		if (!outer.nextSection()) {
+			return list;
+		}
+		ParamTokenizer sections = new ParamTokenizer(value, outer.getSectionStart(), outer.getSectionEnd());
+		while (sections.nextSection()) {
+			list.add(decode(value, sections.getSectionStart(), sections.getSectionEnd(), InternTable.NONE));
 		}
 		return list;
 	}
@@ -455,11 +536,44 @@ public final class ParamMap {
 	 * @return a String representing this ParamMap
 	 */
 	public String encode() {
-		return toString();
+		StringBuilder encoded = new StringBuilder();
+		try {
+			encode(encoded);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return encoded.toString();
+	}
+	
+	/**
+	 * Writes the String representation of the ParamMap straight to the
+	 * passed Appendable, such as a Writer, one field at a time in key
+	 * order. Nothing is built up beyond what the Appendable holds
+	 * @param out the Appendable to write to
+	 * @throws IOException if the Appendable fails
+	 */
+	public void encode(Appendable out) throws IOException {
+		out.append('{');
+		boolean first = true;
+		for (Map.Entry<String, String> field: map.entrySet()) {
+			if (!first) {
+				out.append(", ");
+			}
+			first = false;
+			escape(field.getKey(), out);
+			out.append('=');
+			String value = field.getValue();
+			if (value == null) {
+				out.append("null");
+			} else {
+				escape(value, out);
+			}
+		}
+		out.append('}');
 	}
 	
 	@Override
 	public String toString() {
-		return map.toString();
+		return encode();
 	}
 }
@@ -23,6 +23,8 @@ public abstract class Account extends Unique {
 	private Currency currency;
 	protected String exchangeID;
 	private LocalDateTime dateTimeCreated;
+	private long modificationCount;
+	private long savedModificationCount = -1;
 	
 	/**
 	 * Assembler method for setting the dateTimeCreated
@@ -166,4 +168,48 @@ public abstract class Account extends Unique {
 		return exchangeID;
 	}
 	
+	
+	/**
+	 * Marks the Account as modified since it was last saved. Changes
+	 * to the Entries of the Account are tracked by its EntryChunks
+	 * instead, see EntryChunkManager.hasUncommittedChanges
+	 */
+	public synchronized void markDirty() {
+		modificationCount++;
+	}
+	
+	/**
+	 * Returns the number of times the Account has been marked as
+	 * modified, for passing to markSaved once the Account is saved
+	 * @return the modification count
+	 */
+	public synchronized long getModificationCount() {
+		return modificationCount;
+	}
+	
+	/**
+	 * Marks the Account as saved as of the passed modification count,
+	 * so that modifications made while it was being saved still leave
+	 * it dirty
+	 * @param modificationCount the modification count at the start of saving
+	 */
+	public synchronized void markSaved(long modificationCount) {
+		savedModificationCount = modificationCount;
+	}
+	
+	/**
+	 * Checks if the Account or any of its EntryChunks have been
+	 * modified since the Account was last saved or loaded. New
+	 * Accounts are always dirty
+	 * @return if the Account needs to be saved
+	 */
+	public boolean isDirty() {
+		synchronized (this) {
+			if (modificationCount != savedModificationCount) {
+				return true;
+			}
+		}
+		return entryChunkManager.hasUncommittedChanges();
+	}
+	
 }
@@ -1,13 +1,13 @@
 package com.ccacic.financemanager.model.account;
 
 import java.io.File;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.ccacic.financemanager.event.Event;
 import com.ccacic.financemanager.event.EventListener;
@@ -25,6 +25,7 @@ import com.ccacic.financemanager.model.entrychunk.EntryChunk;
 import com.ccacic.financemanager.model.entrychunk.EntryChunkManager;
 import com.ccacic.financemanager.model.entrychunk.EntryChunkProducer;
 import com.ccacic.financemanager.model.tag.Tag;
+import com.ccacic.financemanager.util.DateTimeCodec;
 
 /**
  * Assembles Accounts and contains static data about them. See Assembler for more details
@@ -40,6 +41,7 @@ public abstract class AccountAssembler<T extends Account> extends UniqueAssemble
 	public static final String EXCHANGE_ID = "exchangeid";
 	public static final String ENTRY_CHUNK_IDS = "entry_chunk_ids";
 	public static final String ENTRY_CHUNK_HASHES = "entry_chunk_hashes";
+	public static final String ENTRY_CHUNK_MANIFEST = "entry_chunk_manifest";
 	public static final String DATE_RESOLUTION = "date_resolution";
 	public static final String ACCT_HOLD_ID = "acct_hold_id";
 	
@@ -161,6 +163,11 @@ public abstract class AccountAssembler<T extends Account> extends UniqueAssemble
 				return new EntryChunk(entryChunkFile, expectedHash);
 			}
 			
+			@Override
+			public EntryChunk createEntryChunk(File entryChunkFile, String expectedHash, ParamMap summary) {
+				return new EntryChunk(entryChunkFile, expectedHash, summary);
+			}
+			
 		};
 	}
 	
@@ -187,10 +194,17 @@ public abstract class AccountAssembler<T extends Account> extends UniqueAssemble
 			}
 		}
 		
+		Map<String, ParamMap> entryChunkIdToSummaryMap = new HashMap<>();
+		if (paramMap.contains(ENTRY_CHUNK_MANIFEST)) {
+			for (ParamMap summary: paramMap.getAsParamMaps(ENTRY_CHUNK_MANIFEST)) {
+				entryChunkIdToSummaryMap.put(summary.get(ID), summary);
+			}
+		}
+		
 		preloadIdentifier(paramMap, account);
 		
-		EntryChunkManager entryChunkManager = new EntryChunkManager(entryChunkIdToHashMap, paramMap.get(ACCT_HOLD_ID),
-				account.getIdentifier(), DateResolution.valueOf(paramMap.get(DATE_RESOLUTION)),
+		EntryChunkManager entryChunkManager = new EntryChunkManager(entryChunkIdToHashMap, entryChunkIdToSummaryMap,
+				paramMap.get(ACCT_HOLD_ID), account.getIdentifier(), DateResolution.valueOf(paramMap.get(DATE_RESOLUTION)),
 				getEntryChunkProducer());
 		
 		account.entryChunkManager(entryChunkManager);
@@ -204,12 +218,14 @@ public abstract class AccountAssembler<T extends Account> extends UniqueAssemble
 		EventManager.addListener(account, e -> {
 			Entry newEntry = (Entry) e.getData();
 			entryChunkManager.addEntry(newEntry);
+			account.markDirty();
 			EventManager.fireEvent(new Event(Event.UPDATE, id));
 		}, Event.NEW_ENTRY, id);
 		
 		EventManager.addListener(account, e -> {
 			Entry deleteEntry = (Entry) e.getData();
 			entryChunkManager.removeEntry(deleteEntry);
+			account.markDirty();
 			EventManager.fireEvent(new Event(Event.UPDATE, id));
 		}, Event.DELETE_ENTRY, id);
 		
@@ -225,7 +241,7 @@ public abstract class AccountAssembler<T extends Account> extends UniqueAssemble
 		
 		if (paramMap.contains(TIME_CREATED)) {
 			delta.addPartialDelta(TIME_CREATED, account.getDateTimeCreated());
-			account.dateTimeCreated(LocalDateTime.parse(paramMap.get(TIME_CREATED)));
+			account.dateTimeCreated(DateTimeCodec.parse(paramMap.get(TIME_CREATED)));
 			delta.addPartialDelta(TIME_CREATED, account.getDateTimeCreated());
 		}
 		
@@ -249,32 +265,67 @@ public abstract class AccountAssembler<T extends Account> extends UniqueAssemble
 		
 		modifyAccount((T) account, paramMap, delta);
 		
+		if (delta.hasChange()) {
+			account.markDirty();
+		}
+		
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public ParamMap disassembleUniqueItem(Account account) {
-		ParamMap paramMap = disassembleAccount((T) account);
-		
-		paramMap.putType(account.getClass().getSimpleName());
-		
-		paramMap.put(TIME_CREATED, account.getDateTimeCreated().toString());
-		paramMap.put(NAME, account.getName());
-		paramMap.put(CURRENCY, account.getCurrency().getCode());
-		paramMap.put(EXCHANGE_ID, account.getExchangeID());
+		ParamMap paramMap = disassembleFields(account);
 		
 		EntryChunkManager entryChunkManager = account.getEntryChunkManager();
-		
-		paramMap.put(DATE_RESOLUTION, entryChunkManager.getDateResolution().name());
 		List<String> hashes = new ArrayList<>();
 		List<String> idStrings = new ArrayList<>();
+		List<ParamMap> manifest = new ArrayList<>();
 		List<EntryChunk> chunks = entryChunkManager.getEntryChunks();
+		// queue every commit first so encoding overlaps with writing
+		List<CompletableFuture<String>> commits = new ArrayList<>(chunks.size());
 		for (EntryChunk chunk : chunks) {
-			hashes.add(chunk.commitChanges());
-			idStrings.add(chunk.getIdentifier());
+			commits.add(chunk.commitChanges());
+		}
+		for (int i = 0; i < chunks.size(); i++) {
+			hashes.add(commits.get(i).join());
+			idStrings.add(chunks.get(i).getIdentifier());
+			manifest.add(chunks.get(i).getSummary());
 		}
 		paramMap.put(ENTRY_CHUNK_HASHES, hashes);
 		paramMap.put(ENTRY_CHUNK_IDS, idStrings);
+		paramMap.put(ENTRY_CHUNK_MANIFEST, manifest);
+		
+		return paramMap;
+	}
+	
+	/**
+	 * Disassembles the passed Account without its EntryChunks, so none
+	 * of them are committed and the Account is left exactly as it was
+	 * @param account the Account to disassemble
+	 * @return the ParamMap of the Account, without its EntryChunks
+	 */
+	public ParamMap disassembleWithoutEntries(Account account) {
+		ParamMap paramMap = disassembleFields(account);
+		paramMap.put(ID, account.getIdentifier());
+		return paramMap;
+	}
+	
+	/**
+	 * Disassembles the fields of the passed Account, leaving out its
+	 * ID and its EntryChunks
+	 * @param account the Account to disassemble
+	 * @return the partially filled ParamMap
+	 */
+	@SuppressWarnings("unchecked")
+	private ParamMap disassembleFields(Account account) {
+		ParamMap paramMap = disassembleAccount((T) account);
+		
+		paramMap.putType(account.getClass().getSimpleName());
+		
+		paramMap.put(TIME_CREATED, DateTimeCodec.format(account.getDateTimeCreated()));
+		paramMap.put(NAME, account.getName());
+		paramMap.put(CURRENCY, account.getCurrency().getCode());
+		paramMap.put(EXCHANGE_ID, account.getExchangeID());
+		paramMap.put(DATE_RESOLUTION, account.getEntryChunkManager().getDateResolution().name());
 		
 		return paramMap;
 	}
@@ -123,6 +123,21 @@ public class AccountFactory extends Factory<Account> {
 		return assembler.getTags();
 	}
 	
+	/**
+	 * Disassembles the passed Account without its EntryChunks, so none
+	 * of them are committed and the Account is left exactly as it was
+	 * @param a the Account to disassemble
+	 * @return the ParamMap of the Account, or null if no AccountAssembler is found
+	 */
+	public ParamMap requestDisassemblyWithoutEntries(Account a) {
+		AccountAssembler<? extends Account> assembler = (AccountAssembler<? extends Account>) assemblerMap.get(a.getClass().getSimpleName());
+		if (assembler == null) {
+			Logger.getInstance().logError("AccountAssembler not found for '" + a.getClass().getSimpleName() + "'");
+			return null;
+		}
+		return assembler.disassembleWithoutEntries(a);
+	}
+	
 	@Override
 	public Account requestItem(ParamMap paramMap) {
 		return super.requestItem(paramMap);
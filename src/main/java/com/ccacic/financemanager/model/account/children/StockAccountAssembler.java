@@ -98,6 +98,11 @@ public class StockAccountAssembler extends AccountAssembler<StockAccount> {
 			public EntryChunk createEntryChunk(File entryChunkFile, String expectedHash) {
 				return new StockEntryChunk(entryChunkFile, expectedHash);
 			}
+			
+			@Override
+			public EntryChunk createEntryChunk(File entryChunkFile, String expectedHash, ParamMap summary) {
+				return new StockEntryChunk(entryChunkFile, expectedHash, summary);
+			}
 		};
 	}
 
@@ -11,8 +11,15 @@ public class GeneralConfig {
 	
 	public static final String DEFAULT_CURR = "default_currency";
 	public static final String DATA_FETCH_TIME = "data_fetch_time";
+	public static final String ENTRY_CACHE_BUDGET = "entry_cache_budget_mb";
+	public static final String SCRUB_RATE = "scrub_rate_kb";
+	public static final String SCRUB_INTERVAL = "scrub_interval_hours";
 	private static final String ENCRYPTED = "encrypted";
 	
+	private static final long DEFAULT_ENTRY_CACHE_BUDGET = 64;
+	private static final long DEFAULT_SCRUB_RATE = 2048;
+	private static final long DEFAULT_SCRUB_INTERVAL = 24;
+	
 	private static final GeneralConfig instance = new GeneralConfig();
 	
 	/**
@@ -33,6 +40,9 @@ public class GeneralConfig {
 		valueMap.put(DEFAULT_CURR, "USD");
 		valueMap.put(DATA_FETCH_TIME, "60000");
 		valueMap.put(ENCRYPTED, "false");
+		valueMap.put(ENTRY_CACHE_BUDGET, DEFAULT_ENTRY_CACHE_BUDGET + "");
+		valueMap.put(SCRUB_RATE, DEFAULT_SCRUB_RATE + "");
+		valueMap.put(SCRUB_INTERVAL, DEFAULT_SCRUB_INTERVAL + "");
 	}
 	
 	/**
@@ -68,6 +78,50 @@ public class GeneralConfig {
 		valueMap.put(ENCRYPTED, enc);
 	}
 	
+	/**
+	 * Returns the memory budget for Entries held in memory, in bytes.
+	 * The config stores the budget in megabytes, and falls back to the
+	 * default budget if the stored value is not a positive number
+	 * @return the Entry memory budget in bytes
+	 */
+	public long getEntryCacheBudget() {
+		long megabytes = valueMap.getAsLong(ENTRY_CACHE_BUDGET);
+		if (megabytes <= 0) {
+			megabytes = DEFAULT_ENTRY_CACHE_BUDGET;
+		}
+		return megabytes * 1024 * 1024;
+	}
+	
+	/**
+	 * Returns how many bytes per second the background integrity scrub
+	 * may read. The config stores the rate in kilobytes per second, and
+	 * falls back to the default rate if the stored value is not a
+	 * positive number
+	 * @return the scrub rate in bytes per second
+	 */
+	public long getScrubRate() {
+		long kilobytes = valueMap.getAsLong(SCRUB_RATE);
+		if (kilobytes <= 0) {
+			kilobytes = DEFAULT_SCRUB_RATE;
+		}
+		return kilobytes * 1024;
+	}
+	
+	/**
+	 * Returns how long the background integrity scrub waits after one
+	 * complete pass before starting the next. The config stores the
+	 * interval in hours, and falls back to the default interval if the
+	 * stored value is not a positive number
+	 * @return the scrub interval in milliseconds
+	 */
+	public long getScrubInterval() {
+		long hours = valueMap.getAsLong(SCRUB_INTERVAL);
+		if (hours <= 0) {
+			hours = DEFAULT_SCRUB_INTERVAL;
+		}
+		return hours * 60 * 60 * 1000;
+	}
+	
 	/**
 	 * Returns the ParamMap backing the config
 	 * @return the backing ParamMap
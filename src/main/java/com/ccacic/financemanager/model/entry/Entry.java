@@ -3,6 +3,7 @@ import java.io.File;
 import java.time.LocalDateTime;
 import java.util.List;
 import com.ccacic.financemanager.model.Unique;
+import com.ccacic.financemanager.util.DateTimeCodec;
 
 /**
  * The lowest layer of the model. Entries record the date and time they
@@ -15,6 +16,7 @@ import com.ccacic.financemanager.model.Unique;
 public abstract class Entry extends Unique implements Comparable<Entry> {
 
 	private LocalDateTime dateTime;
+	private long epochMinute = DateTimeCodec.NO_MINUTE;
 	private String descr;
 	protected double amount;
 	private List<File> files;
@@ -26,6 +28,7 @@ public abstract class Entry extends Unique implements Comparable<Entry> {
 	 */
 	Entry dateTime(LocalDateTime dateTime) {
 		this.dateTime = dateTime;
+		this.epochMinute = DateTimeCodec.toEpochMinute(dateTime);
 		return this;
 	}
 	
@@ -67,6 +70,15 @@ public abstract class Entry extends Unique implements Comparable<Entry> {
 		return dateTime;
 	}
 	
+	/**
+	 * Returns the minutes from the epoch to the date and time the Entry
+	 * occured, for ordering Entries without comparing LocalDateTimes
+	 * @return the epoch minute, or DateTimeCodec.NO_MINUTE if there is no date and time
+	 */
+	public long getEpochMinute() {
+		return epochMinute;
+	}
+	
 	/**
 	 * Returns all the Files relevant to the Entry
 	 * @return a List of Files
@@ -1,16 +1,14 @@
 package com.ccacic.financemanager.model.entry;
 
-import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-
-import com.ccacic.financemanager.logger.Logger;
 import com.ccacic.financemanager.model.Delta;
 import com.ccacic.financemanager.model.ParamMap;
 import com.ccacic.financemanager.model.UniqueAssembler;
+import com.ccacic.financemanager.util.InternTable;
 
 /**
- * Assembles Entries and contains static data about them. See Assembler for more details
+ * Assembles Entries and contains static data about them. Every Entry type
+ * declares its fields in an EntrySchema, which does the actual assembly.
+ * See Assembler for more details
  * @author Cameron Cacic
  *
  * @param <T> the type to assemble, extends Entry
@@ -24,46 +22,28 @@ public abstract class EntryAssembler<T extends Entry> extends UniqueAssembler<En
 
 	private final String displayName;
 	private final boolean showsTime;
+	private final EntrySchema<T> schema;
 	
 	/**
-	 * Creates a new EntryAssembler with static data about its type
-	 * @param assemblerName the name of the Assembler
+	 * Creates a new EntryAssembler with static data about its type. The passed
+	 * EntrySchema describes the fields specific to the Entry type, and
+	 * EntryAssembler adds the fields common to all Entries to it
 	 * @param displayName the name to show to the user for the Entry type
 	 * @param showsTime if the Entry type should display its time alongside its date
+	 * @param schema the EntrySchema of the Entry type, which also names the Assembler
 	 */
-	protected EntryAssembler(String assemblerName, String displayName, boolean showsTime) {
-		super(assemblerName);
+	protected EntryAssembler(String displayName, boolean showsTime, EntrySchema<T> schema) {
+		super(schema.getType());
 		this.displayName = displayName;
 		this.showsTime = showsTime;
+		this.schema = schema
+				.id(ID, Entry::getIdentifier, Entry::setIdentifier)
+				.dateTime(DATE_TIME, Entry::getDateTime, Entry::dateTime)
+				.text(DESCRIPTION, Entry::getDescription, Entry::description)
+				.number(AMOUNT, Entry::getAmount, Entry::amount)
+				.files(FILES, Entry::getFiles, Entry::files);
 	}
 	
-	/**
-	 * Begins the assembly of the Entry. EntryAssembler will continue the
-	 * assembly with Entry specific fields with the returned value
-	 * @param paramMap the ParamMap to assemble from
-	 * @return the partially assembled Entry instance
-	 */
-	protected abstract T assembleEntry(ParamMap paramMap);
-	
-	/**
-	 * Begins the modification of the passed Entry instance using the passed
-	 * ParamMap to source new values from. Changes made are to be recorded in
-	 * the pass-through Delta instance
-	 * @param entry the Entry to modify
-	 * @param paramMap the ParamMap to source new values from
-	 * @param delta the Delta to record all changes made in
-	 */
-	protected abstract void modifyEntry(T entry, ParamMap paramMap, Delta delta);
-	
-	/**
-	 * Begins disassembly of the passed Entry instance. EntryAssembler will
-	 * continue the disassembly with Entry specific fields into the returned
-	 * ParamMap
-	 * @param entry the Entry instance to disassemble
-	 * @return the partially filled ParamMap
-	 */
-	protected abstract ParamMap disassembleEntry(T entry);
-	
 	/**
 	 * Returns the display name
 	 * @return the display name
@@ -80,94 +60,48 @@ public abstract class EntryAssembler<T extends Entry> extends UniqueAssembler<En
 		return showsTime;
 	}
 	
+	/**
+	 * Returns the EntrySchema describing every field of the Entry type
+	 * @return the EntrySchema
+	 */
+	public EntrySchema<T> getSchema() {
+		return schema;
+	}
+	
 	@Override
 	protected Entry assembleUniqueItem(ParamMap paramMap) {
-		Entry entry = assembleEntry(paramMap);
-		
-		if (entry == null) {
-			Logger.getInstance().logError("A null Entry is being assembled");
-			return null;
-		}
-		
-		EntryFactory entryFactory = EntryFactory.getInstance();
-		
-		if (paramMap.contains(DATE_TIME)) {
-			entry.dateTime(paramMap.getAsLocalDateTime(DATE_TIME));
-		}
-		
-		entry.description(paramMap.getAsBracketed(DESCRIPTION))
-		.amount(paramMap.getAsDouble(AMOUNT));
-		
-		List<File> files = new ArrayList<>();
-		String filesStr = paramMap.getAsBracketed(FILES);
-		if (filesStr != null) {
-			String[] filesSplit = filesStr.split(",");
-			for (String fileStr: filesSplit) {
-				File file = new File(fileStr.trim());
-				if (file.isFile()) {
-					files.add(file);
-				}
-			}
-		}
-		entry.files(files);
-		
+		return schema.assemble(paramMap);
+	}
+	
+	/**
+	 * Assembles an Entry from the passed ParamMap as assembleItem does,
+	 * taking its text and Files from the passed InternTable
+	 * @param paramMap the ParamMap to assemble from
+	 * @param table the InternTable to share text and Files through
+	 * @return the Entry
+	 */
+	public Entry assembleItem(ParamMap paramMap, InternTable table) {
+		Entry entry = schema.assemble(paramMap, table);
+		entry.setIdentifier(paramMap.get(ID));
 		return entry;
 	}
 	
 	@SuppressWarnings("unchecked")
 	@Override
 	public void modifyItem(Entry entry, ParamMap paramMap, Delta delta) {
-		
-		if (paramMap.contains(DATE_TIME)) {
-			delta.addPartialDelta(DATE_TIME, entry.getDateTime());
-			entry.dateTime(paramMap.getAsLocalDateTime(DATE_TIME));
-			delta.addPartialDelta(DATE_TIME, entry.getDateTime());
-		}
-		
-		if (paramMap.contains(DESCRIPTION)) {
-			delta.addPartialDelta(DESCRIPTION, entry.getDescription());
-			entry.description(paramMap.getAsBracketed(DESCRIPTION));
-			delta.addPartialDelta(DESCRIPTION, entry.getDescription());
-		}
-		
-		if (paramMap.contains(AMOUNT)) {
-			delta.addPartialDelta(AMOUNT, entry.getAmount());
-			entry.amount(paramMap.getAsDouble(AMOUNT));
-			delta.addPartialDelta(AMOUNT, entry.getAmount());
-		}
-		
-		if (paramMap.contains(FILES)) {
-			delta.addPartialDelta(FILES, entry.getFiles());
-			List<File> files = new ArrayList<>();
-			String filesStr = paramMap.getAsBracketed(FILES);
-			if (filesStr != null) {
-				String[] filesSplit = filesStr.split(",");
-				for (String file: filesSplit) {
-					files.add(new File(file));
-				}
-			}
-			entry.files(files);
-			delta.addPartialDelta(FILES, entry.getFiles());
-		}
-		modifyEntry((T) entry, paramMap, delta);
-		
+		schema.modify((T) entry, paramMap, delta);
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	protected ParamMap disassembleUniqueItem(Entry entry) {
-		ParamMap paramMap = disassembleEntry((T) entry);
-		
-		paramMap.putType(entry.getClass().getSimpleName());
-		
-		EntryFactory entryFactory = EntryFactory.getInstance();
-		
-		paramMap.put(DATE_TIME, entry.getDateTime().toString());
-		paramMap.put(DESCRIPTION, "{" + entry.getDescription() + "}");
-		paramMap.put(AMOUNT, entry.getAmount() + "");
-		paramMap.put(FILES, entry.getFiles());
-		
-		return paramMap;
+		return schema.disassemble((T) entry);
+	}
+	
+	@Override
+	public ParamMap disassembleItem(Entry entry) {
+		// the EntrySchema already holds the ID
+		return disassembleUniqueItem(entry);
 	}
 	
 }
@@ -1,7 +1,10 @@
 package com.ccacic.financemanager.model.entry;
 
+import com.ccacic.financemanager.logger.Logger;
 import com.ccacic.financemanager.model.Factory;
 import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.util.InternTable;
+import com.ccacic.financemanager.util.ParamTokenizer;
 
 /**
  * A singleton Factory for producing Entries
@@ -79,4 +82,80 @@ public class EntryFactory extends Factory<Entry> {
 		return super.requestItem(paramMap);
 	}
 	
+	/**
+	 * Assembles an Entry from the passed ParamMap as requestItem does,
+	 * taking its text and Files from the passed InternTable
+	 * @param paramMap the ParamMap to assemble with
+	 * @param table the InternTable to share text and Files through
+	 * @return the Entry, or null if its type has no Assembler
+	 */
+	public Entry requestItem(ParamMap paramMap, InternTable table) {
+		EntryAssembler<? extends Entry> assembler = (EntryAssembler<? extends Entry>) assemblerMap.get(paramMap.getType());
+		if (assembler == null) {
+			Logger.getInstance().logError("No assembler found for type " + paramMap.getType());
+			return null;
+		}
+		return assembler.assembleItem(paramMap, table);
+	}
+	
+	/**
+	 * Returns the EntrySchema of the passed Entry type
+	 * @param key the Entry type
+	 * @return the EntrySchema, or null if the type has no Assembler
+	 */
+	public EntrySchema<? extends Entry> getSchema(String key) {
+		if (key == null) {
+			return null;
+		}
+		EntryAssembler<? extends Entry> assembler = (EntryAssembler<? extends Entry>) assemblerMap.get(key);
+		return assembler == null ? null : assembler.getSchema();
+	}
+	
+	/**
+	 * Returns the EntrySchema of the passed Entry
+	 * @param entry the Entry
+	 * @return the EntrySchema, or null if the Entry type has no Assembler
+	 */
+	public EntrySchema<? extends Entry> getSchema(Entry entry) {
+		return getSchema(entry.getClass().getSimpleName());
+	}
+	
+	/**
+	 * Decodes an Entry straight from the passed span of an encoded ParamMap,
+	 * without its curly brackets, through the EntrySchema of its type
+	 * instead of a ParamMap
+	 * @param text the CharSequence to decode from
+	 * @param begin the index the ParamMap starts at
+	 * @param end the index the ParamMap ends at
+	 * @return the Entry, or null if its type has no Assembler
+	 */
+	public Entry requestItem(CharSequence text, int begin, int end) {
+		return requestItem(text, begin, end, InternTable.NONE);
+	}
+	
+	/**
+	 * Decodes an Entry straight from the passed span of an encoded ParamMap
+	 * as requestItem does, taking its text and Files from the passed InternTable
+	 * @param text the CharSequence to decode from
+	 * @param begin the index the ParamMap starts at
+	 * @param end the index the ParamMap ends at
+	 * @param table the InternTable to share text and Files through
+	 * @return the Entry, or null if its type has no Assembler
+	 */
+	public Entry requestItem(CharSequence text, int begin, int end, InternTable table) {
+		String type = null;
+		ParamTokenizer pairs = new ParamTokenizer(text, begin, end);
+		while (pairs.nextPair(',', false)) {
+			if (pairs.isKey(ParamMap.TYPE_KEY)) {
+				type = pairs.getValue();
+			}
+		}
+		EntrySchema<? extends Entry> schema = getSchema(type);
+		if (schema == null) {
+			Logger.getInstance().logError("No assembler found for type " + type);
+			return null;
+		}
+		return schema.decode(text, begin, end, table);
+	}
+	
 }
@@ -0,0 +1,656 @@
+package com.ccacic.financemanager.model.entry;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import com.ccacic.financemanager.logger.Logger;
+import com.ccacic.financemanager.model.Delta;
+import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.util.DateTimeCodec;
+import com.ccacic.financemanager.util.InternTable;
+import com.ccacic.financemanager.util.ParamTokenizer;
+import com.ccacic.financemanager.util.StringProcessing;
+
+/**
+ * Describes the fields of an Entry type, each with a name, a FieldType and
+ * typed access to where the Entry keeps it, so Entries can be read and
+ * written without going through a ParamMap. Doubles are read and written
+ * as primitives. Fields are kept in order of their names, which is also
+ * the order their keys take in an encoded ParamMap. Each EntryAssembler
+ * has an EntrySchema, and its ParamMap based assembly is an adapter over
+ * it. Thread safe once its EntryAssembler has been created
+ * @author Cameron Cacic
+ *
+ * @param <T> the type of Entry described, extends Entry
+ */
+public final class EntrySchema<T extends Entry> {
+
+	/**
+	 * The kinds of value a field can hold, each with the String form it
+	 * takes in a ParamMap
+	 * @author Cameron Cacic
+	 *
+	 */
+	public enum FieldType {
+
+		/**
+		 * The identifier of the Entry, a String that is usually a UUID
+		 */
+		ID,
+		/**
+		 * A String stored as it is
+		 */
+		STRING,
+		/**
+		 * A String of free text, escaped and bracketed in a ParamMap
+		 */
+		TEXT,
+		/**
+		 * A double
+		 */
+		DOUBLE,
+		/**
+		 * A LocalDateTime
+		 */
+		DATE_TIME,
+		/**
+		 * A List of Files, bracketed and comma separated in a ParamMap.
+		 * Only Files that exist are kept when assembling, while modifying
+		 * keeps every File listed
+		 */
+		FILES;
+
+		/**
+		 * Converts the String form of a value into the value. A missing
+		 * List of Files is read as an empty List, and a missing double
+		 * or one that fails to parse as 0.0
+		 * @param param the String form, or null if it is missing
+		 * @return the value
+		 */
+		public Object parse(String param) {
+			return parse(param, InternTable.NONE);
+		}
+
+		/**
+		 * Converts the String form of a value into the value, taking text
+		 * and Files from the passed InternTable
+		 * @param param the String form, or null if it is missing
+		 * @param table the InternTable to share text and Files through
+		 * @return the value
+		 */
+		public Object parse(String param, InternTable table) {
+			switch (this) {
+			case DOUBLE:
+				return parseDouble(param);
+			case DATE_TIME:
+				if (param == null) {
+					return null;
+				}
+				try {
+					return DateTimeCodec.parse(param);
+				} catch (DateTimeParseException e) {
+					Logger.getInstance().logException(e);
+					return LocalDateTime.MIN;
+				}
+			case TEXT:
+				return table.intern(ParamMap.unescape(StringProcessing.pullBracketSection(param, 0)));
+			case FILES:
+				String filesStr = StringProcessing.pullBracketSection(param, 0);
+				if (filesStr == null) {
+					return new ArrayList<File>();
+				}
+				List<String> paths = new ArrayList<>();
+				Collections.addAll(paths, filesStr.split(","));
+				return toFiles(paths, table);
+			default:
+				return param;
+			}
+		}
+
+		/**
+		 * Converts the String form of a double into the double
+		 * @param param the String form, or null if it is missing
+		 * @return the double, 0.0 if it is missing or fails to parse
+		 */
+		public double parseDouble(String param) {
+			try {
+				return Double.parseDouble(param);
+			} catch (NumberFormatException | NullPointerException e) {
+				return 0.0;
+			}
+		}
+
+		/**
+		 * Converts a value into its String form, the reverse of parse
+		 * @param value the value, a Double for DOUBLE fields
+		 * @return the String form
+		 */
+		public String format(Object value) {
+			switch (this) {
+			case TEXT:
+				return "{" + ParamMap.escape((String) value) + "}";
+			case FILES:
+				if (value == null) {
+					return null;
+				}
+				StringBuilder files = new StringBuilder("{");
+				boolean first = true;
+				for (Object file: (Iterable<?>) value) {
+					if (!first) {
+						files.append(',');
+					}
+					first = false;
+					files.append(file);
+				}
+				return files.append('}').toString();
+			case DATE_TIME:
+				return value == null ? null : DateTimeCodec.format((LocalDateTime) value);
+			default:
+				return value == null ? null : value.toString();
+			}
+		}
+
+	}
+
+	/**
+	 * A single field of an Entry type
+	 * @author Cameron Cacic
+	 *
+	 * @param <T> the type of Entry the field belongs to
+	 */
+	public static final class Field<T extends Entry> {
+
+		private final String name;
+		private final FieldType type;
+		private final Function<T, ?> getter;
+		private final BiConsumer<T, Object> setter;
+		private final ToDoubleFunction<T> doubleGetter;
+		private final ObjDoubleConsumer<T> doubleSetter;
+
+		/**
+		 * Creates a new Field
+		 * @param name the key of the field
+		 * @param type the FieldType of the field
+		 * @param getter reads the field from an Entry, null for DOUBLE fields
+		 * @param setter writes the field to an Entry, null for DOUBLE fields
+		 * @param doubleGetter reads a DOUBLE field from an Entry
+		 * @param doubleSetter writes a DOUBLE field to an Entry
+		 */
+		private Field(String name, FieldType type, Function<T, ?> getter, BiConsumer<T, Object> setter,
+				ToDoubleFunction<T> doubleGetter, ObjDoubleConsumer<T> doubleSetter) {
+			this.name = name;
+			this.type = type;
+			this.getter = getter;
+			this.setter = setter;
+			this.doubleGetter = doubleGetter;
+			this.doubleSetter = doubleSetter;
+		}
+
+		/**
+		 * Returns the name of the field, its key in a ParamMap
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the FieldType of the field
+		 * @return the FieldType
+		 */
+		public FieldType getFieldType() {
+			return type;
+		}
+
+		/**
+		 * Returns the value of the field in the passed Entry, which must
+		 * be of the type the field belongs to. Not for DOUBLE fields
+		 * @param entry the Entry to read from
+		 * @return the value
+		 */
+		@SuppressWarnings("unchecked")
+		public Object get(Entry entry) {
+			return getter.apply((T) entry);
+		}
+
+		/**
+		 * Sets the value of the field in the passed Entry, which must be
+		 * of the type the field belongs to. Not for DOUBLE fields
+		 * @param entry the Entry to write to
+		 * @param value the value, of the class the FieldType holds
+		 */
+		@SuppressWarnings("unchecked")
+		public void set(Entry entry, Object value) {
+			setter.accept((T) entry, value);
+		}
+
+		/**
+		 * Returns the value of the DOUBLE field in the passed Entry
+		 * @param entry the Entry to read from
+		 * @return the value
+		 */
+		@SuppressWarnings("unchecked")
+		public double getDouble(Entry entry) {
+			return doubleGetter.applyAsDouble((T) entry);
+		}
+
+		/**
+		 * Sets the value of the DOUBLE field in the passed Entry
+		 * @param entry the Entry to write to
+		 * @param value the value
+		 */
+		@SuppressWarnings("unchecked")
+		public void setDouble(Entry entry, double value) {
+			doubleSetter.accept((T) entry, value);
+		}
+
+		/**
+		 * Sets the field in the passed Entry from its String form
+		 * @param entry the Entry to write to
+		 * @param param the String form, or null if it is missing
+		 */
+		public void read(Entry entry, String param) {
+			read(entry, param, InternTable.NONE);
+		}
+
+		/**
+		 * Sets the field in the passed Entry from its String form, taking
+		 * text and Files from the passed InternTable
+		 * @param entry the Entry to write to
+		 * @param param the String form, or null if it is missing
+		 * @param table the InternTable to share text and Files through
+		 */
+		public void read(Entry entry, String param, InternTable table) {
+			if (type == FieldType.DOUBLE) {
+				setDouble(entry, type.parseDouble(param));
+			} else {
+				set(entry, type.parse(param, table));
+			}
+		}
+
+		/**
+		 * Returns the String form of the field in the passed Entry
+		 * @param entry the Entry to read from
+		 * @return the String form
+		 */
+		public String write(Entry entry) {
+			if (type == FieldType.DOUBLE) {
+				return Double.toString(getDouble(entry));
+			}
+			return type.format(get(entry));
+		}
+
+	}
+
+	/**
+	 * Keeps the Files at the passed paths that exist
+	 * @param paths the paths of the Files
+	 * @return a new List of the Files that exist
+	 */
+	public static List<File> toFiles(Iterable<String> paths) {
+		return toFiles(paths, InternTable.NONE);
+	}
+
+	/**
+	 * Keeps the Files at the passed paths that exist, taking them from
+	 * the passed InternTable
+	 * @param paths the paths of the Files
+	 * @param table the InternTable to share Files through
+	 * @return a new List of the Files that exist
+	 */
+	public static List<File> toFiles(Iterable<String> paths, InternTable table) {
+		List<File> files = new ArrayList<>();
+		for (String path: paths) {
+			File file = table.file(path.trim());
+			if (file.isFile()) {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	private final String type;
+	private final Supplier<T> constructor;
+	private final List<Field<T>> fields;
+
+	/**
+	 * Creates a new EntrySchema without any fields
+	 * @param type the type name of the Entry, its simple class name
+	 * @param constructor creates a blank Entry of the type
+	 */
+	public EntrySchema(String type, Supplier<T> constructor) {
+		this.type = type;
+		this.constructor = constructor;
+		this.fields = new ArrayList<>();
+	}
+
+	/**
+	 * Adds an ID field
+	 * @param name the key of the field
+	 * @param getter reads the field
+	 * @param setter writes the field
+	 * @return this EntrySchema, for chaining
+	 */
+	public EntrySchema<T> id(String name, Function<T, String> getter, BiConsumer<T, String> setter) {
+		return add(name, FieldType.ID, getter, setter);
+	}
+
+	/**
+	 * Adds a STRING field
+	 * @param name the key of the field
+	 * @param getter reads the field
+	 * @param setter writes the field
+	 * @return this EntrySchema, for chaining
+	 */
+	public EntrySchema<T> string(String name, Function<T, String> getter, BiConsumer<T, String> setter) {
+		return add(name, FieldType.STRING, getter, setter);
+	}
+
+	/**
+	 * Adds a TEXT field
+	 * @param name the key of the field
+	 * @param getter reads the field
+	 * @param setter writes the field
+	 * @return this EntrySchema, for chaining
+	 */
+	public EntrySchema<T> text(String name, Function<T, String> getter, BiConsumer<T, String> setter) {
+		return add(name, FieldType.TEXT, getter, setter);
+	}
+
+	/**
+	 * Adds a DATE_TIME field
+	 * @param name the key of the field
+	 * @param getter reads the field
+	 * @param setter writes the field
+	 * @return this EntrySchema, for chaining
+	 */
+	public EntrySchema<T> dateTime(String name, Function<T, LocalDateTime> getter, BiConsumer<T, LocalDateTime> setter) {
+		return add(name, FieldType.DATE_TIME, getter, setter);
+	}
+
+	/**
+	 * Adds a FILES field
+	 * @param name the key of the field
+	 * @param getter reads the field
+	 * @param setter writes the field
+	 * @return this EntrySchema, for chaining
+	 */
+	public EntrySchema<T> files(String name, Function<T, List<File>> getter, BiConsumer<T, List<File>> setter) {
+		return add(name, FieldType.FILES, getter, setter);
+	}
+
+	/**
+	 * Adds a DOUBLE field
+	 * @param name the key of the field
+	 * @param getter reads the field
+	 * @param setter writes the field
+	 * @return this EntrySchema, for chaining
+	 */
+	public EntrySchema<T> number(String name, ToDoubleFunction<T> getter, ObjDoubleConsumer<T> setter) {
+		return add(new Field<>(name, FieldType.DOUBLE, null, null, getter, setter));
+	}
+
+	/**
+	 * Adds a field holding an Object
+	 * @param name the key of the field
+	 * @param type the FieldType of the field
+	 * @param getter reads the field
+	 * @param setter writes the field
+	 * @return this EntrySchema, for chaining
+	 */
+	@SuppressWarnings("unchecked")
+	private <V> EntrySchema<T> add(String name, FieldType type, Function<T, V> getter, BiConsumer<T, V> setter) {
+		return add(new Field<>(name, type, getter, (entry, value) -> setter.accept(entry, (V) value), null, null));
+	}
+
+	/**
+	 * Adds the passed Field in order of its name
+	 * @param field the Field to add
+	 * @return this EntrySchema, for chaining
+	 */
+	private EntrySchema<T> add(Field<T> field) {
+		int index = 0;
+		while (index < fields.size() && fields.get(index).getName().compareTo(field.getName()) < 0) {
+			index++;
+		}
+		if (index < fields.size() && fields.get(index).getName().equals(field.getName())) {
+			throw new IllegalArgumentException("Duplicate field " + field.getName() + " in " + type);
+		}
+		fields.add(index, field);
+		return this;
+	}
+
+	/**
+	 * Returns the type name of the Entry, its simple class name
+	 * @return the type name
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the fields of the Entry type in order of their names
+	 * @return an unmodifiable List of the Fields
+	 */
+	public List<Field<T>> getFields() {
+		return Collections.unmodifiableList(fields);
+	}
+
+	/**
+	 * Returns the Field with the passed name
+	 * @param name the name of the Field
+	 * @return the Field, or null if there is none by that name
+	 */
+	public Field<T> getField(String name) {
+		for (Field<T> field: fields) {
+			if (field.getName().equals(name)) {
+				return field;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a blank Entry of the type
+	 * @return the Entry
+	 */
+	public T create() {
+		return constructor.get();
+	}
+
+	/**
+	 * Assembles an Entry from the passed ParamMap. Fields missing from
+	 * the ParamMap take the value parse gives a missing value
+	 * @param paramMap the ParamMap to assemble from
+	 * @return the Entry
+	 */
+	public T assemble(ParamMap paramMap) {
+		return assemble(paramMap, InternTable.NONE);
+	}
+
+	/**
+	 * Assembles an Entry from the passed ParamMap, taking text and Files
+	 * from the passed InternTable
+	 * @param paramMap the ParamMap to assemble from
+	 * @param table the InternTable to share text and Files through
+	 * @return the Entry
+	 */
+	public T assemble(ParamMap paramMap, InternTable table) {
+		T entry = create();
+		for (Field<T> field: fields) {
+			field.read(entry, paramMap.get(field.getName()), table);
+		}
+		return entry;
+	}
+
+	/**
+	 * Modifies the passed Entry with the fields present in the passed
+	 * ParamMap, recording each change in the passed Delta. The ID of an
+	 * Entry never changes. Files are taken as listed, whether they exist
+	 * or not
+	 * @param entry the Entry to modify
+	 * @param paramMap the ParamMap to source new values from
+	 * @param delta the Delta to record all changes made in
+	 */
+	public void modify(T entry, ParamMap paramMap, Delta delta) {
+		for (Field<T> field: fields) {
+			if (field.getFieldType() == FieldType.ID || !paramMap.contains(field.getName())) {
+				continue;
+			}
+			delta.addPartialDelta(field.getName(), value(field, entry));
+			if (field.getFieldType() == FieldType.FILES) {
+				field.set(entry, listFiles(paramMap.get(field.getName())));
+			} else {
+				field.read(entry, paramMap.get(field.getName()));
+			}
+			delta.addPartialDelta(field.getName(), value(field, entry));
+		}
+	}
+
+	/**
+	 * Converts the String form of a List of Files into every File it
+	 * lists, without checking that they exist
+	 * @param param the String form, or null if it is missing
+	 * @return a new List of the Files
+	 */
+	private static List<File> listFiles(String param) {
+		List<File> files = new ArrayList<>();
+		String filesStr = StringProcessing.pullBracketSection(param, 0);
+		if (filesStr != null) {
+			for (String file: filesStr.split(",")) {
+				files.add(new File(file));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Disassembles the passed Entry into a ParamMap
+	 * @param entry the Entry to disassemble
+	 * @return the ParamMap
+	 */
+	public ParamMap disassemble(T entry) {
+		ParamMap paramMap = new ParamMap();
+		paramMap.putType(type);
+		for (Field<T> field: fields) {
+			paramMap.put(field.getName(), field.write(entry));
+		}
+		return paramMap;
+	}
+
+	/**
+	 * Decodes an Entry straight from the passed span of an encoded ParamMap,
+	 * without its curly brackets, as disassemble followed by ParamMap.encode
+	 * would write it. Unknown keys are ignored, a repeated key takes its last
+	 * value, and missing fields take the value parse gives a missing value
+	 * @param text the CharSequence to decode from
+	 * @param begin the index the ParamMap starts at
+	 * @param end the index the ParamMap ends at
+	 * @return the Entry
+	 */
+	public T decode(CharSequence text, int begin, int end) {
+		return decode(text, begin, end, InternTable.NONE);
+	}
+
+	/**
+	 * Decodes an Entry straight from the passed span of an encoded ParamMap,
+	 * taking text and Files from the passed InternTable
+	 * @param text the CharSequence to decode from
+	 * @param begin the index the ParamMap starts at
+	 * @param end the index the ParamMap ends at
+	 * @param table the InternTable to share text and Files through
+	 * @return the Entry
+	 */
+	public T decode(CharSequence text, int begin, int end, InternTable table) {
+		T entry = create();
+		boolean[] found = new boolean[fields.size()];
+		ParamTokenizer pairs = new ParamTokenizer(text, begin, end);
+		while (pairs.nextPair(',', false)) {
+			for (int i = 0; i < found.length; i++) {
+				if (pairs.isKey(fields.get(i).getName())) {
+					fields.get(i).read(entry, pairs.getValue(), table);
+					found[i] = true;
+					break;
+				}
+			}
+		}
+		for (int i = 0; i < found.length; i++) {
+			if (!found[i]) {
+				fields.get(i).read(entry, null, table);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Writes the passed Entry to the passed Appendable exactly as
+	 * disassemble followed by ParamMap.encode would, without building
+	 * the ParamMap
+	 * @param entry the Entry to encode
+	 * @param out the Appendable to write to
+	 * @throws IOException if the Appendable fails
+	 */
+	public void encode(T entry, Appendable out) throws IOException {
+		out.append('{');
+		boolean typeWritten = false;
+		boolean first = true;
+		for (Field<T> field: fields) {
+			if (!typeWritten && field.getName().compareTo(ParamMap.TYPE_KEY) > 0) {
+				first = appendPair(out, first, ParamMap.TYPE_KEY, type);
+				typeWritten = true;
+			}
+			first = appendPair(out, first, field.getName(), field.write(entry));
+		}
+		if (!typeWritten) {
+			appendPair(out, first, ParamMap.TYPE_KEY, type);
+		}
+		out.append('}');
+	}
+
+	/**
+	 * Appends a single escaped key value pair of an encoded ParamMap
+	 * @param out the Appendable to write to
+	 * @param first if the pair is the first in the ParamMap
+	 * @param key the key
+	 * @param value the value
+	 * @return false, as the next pair is no longer the first
+	 * @throws IOException if the Appendable fails
+	 */
+	private static boolean appendPair(Appendable out, boolean first, String key, String value) throws IOException {
+		if (!first) {
+			out.append(", ");
+		}
+		ParamMap.escape(key, out);
+		out.append('=');
+		if (value == null) {
+			out.append("null");
+		} else {
+			ParamMap.escape(value, out);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the value of the passed Field in the passed Entry, boxing doubles
+	 * @param field the Field to read
+	 * @param entry the Entry to read from
+	 * @return the value
+	 */
+	private static Object value(Field<?> field, Entry entry) {
+		if (field.getFieldType() == FieldType.DOUBLE) {
+			return field.getDouble(entry);
+		}
+		return field.get(entry);
+	}
+
+}
@@ -1,8 +1,7 @@
 package com.ccacic.financemanager.model.entry.children;
 
-import com.ccacic.financemanager.model.Delta;
-import com.ccacic.financemanager.model.ParamMap;
 import com.ccacic.financemanager.model.entry.EntryAssembler;
+import com.ccacic.financemanager.model.entry.EntrySchema;
 
 /**
  * Assembles FiatCurrEntries
@@ -27,22 +26,7 @@ public class FiatCurrEntryAssembler extends EntryAssembler<FiatCurrEntry> {
 	 * @param showsTime if FiatCurrEntry should display a time along with a date
 	 */
     private FiatCurrEntryAssembler(String displayName, boolean showsTime) {
-		super(FiatCurrEntry.class.getSimpleName(), displayName, showsTime);
-	}
-
-	@Override
-	public FiatCurrEntry assembleEntry(ParamMap paramMap) {
-		return new FiatCurrEntry();
-	}
-	
-	@Override
-	public void modifyEntry(FiatCurrEntry entry, ParamMap paramMap, Delta delta) {
-
-	}
-
-	@Override
-	public ParamMap disassembleEntry(FiatCurrEntry entry) {
-		return new ParamMap();
+		super(displayName, showsTime, new EntrySchema<>(FiatCurrEntry.class.getSimpleName(), FiatCurrEntry::new));
 	}
 
 }
@@ -1,8 +1,7 @@
 package com.ccacic.financemanager.model.entry.children;
 
-import com.ccacic.financemanager.model.Delta;
-import com.ccacic.financemanager.model.ParamMap;
 import com.ccacic.financemanager.model.entry.EntryAssembler;
+import com.ccacic.financemanager.model.entry.EntrySchema;
 
 /**
  * Assembles StockEntries
@@ -29,30 +28,8 @@ public class StockEntryAssembler extends EntryAssembler<StockEntry> {
 	 * @param showsTime if StockEntry displays a time alongside a date
 	 */
     private StockEntryAssembler(String displayName, boolean showsTime) {
-		super(StockEntry.class.getSimpleName(), displayName, showsTime);
+		super(displayName, showsTime, new EntrySchema<>(StockEntry.class.getSimpleName(), StockEntry::new)
+				.number(SHARES, StockEntry::getShares, StockEntry::shares));
 	}
 
-	@Override
-	public StockEntry assembleEntry(ParamMap paramMap) {
-		StockEntry stockEntry = new StockEntry();
-		stockEntry.shares(paramMap.getAsDouble(SHARES));
-		return stockEntry;
-	}
-
-	@Override
-	public void modifyEntry(StockEntry entry, ParamMap paramMap, Delta delta) {
-		if (paramMap.contains(SHARES)) {
-			delta.addPartialDelta(SHARES, entry.getShares());
-			entry.shares(paramMap.getAsDouble(SHARES));
-			delta.addPartialDelta(SHARES, entry.getShares());
-		}
-	}
-
-	@Override
-	public ParamMap disassembleEntry(StockEntry entry) {
-		ParamMap paramMap = new ParamMap();
-		paramMap.put(SHARES, entry.getShares() + "");
-		return paramMap;
-	}
-	
 }
@@ -2,25 +2,35 @@ package com.ccacic.financemanager.model.entrychunk;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
-import java.lang.ref.WeakReference;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ccacic.financemanager.event.ChangeEvent;
 import com.ccacic.financemanager.event.Event;
 import com.ccacic.financemanager.event.EventListener;
 import com.ccacic.financemanager.event.EventManager;
+import com.ccacic.financemanager.exception.MismatchedHashException;
+import com.ccacic.financemanager.fileio.ChunkStore;
 import com.ccacic.financemanager.fileio.EntryFileIO;
+import com.ccacic.financemanager.fileio.EntryJournal;
 import com.ccacic.financemanager.fileio.FileHandler;
+import com.ccacic.financemanager.fileio.IntegrityVerifier;
 import com.ccacic.financemanager.logger.Logger;
 import com.ccacic.financemanager.model.Delta;
+import com.ccacic.financemanager.model.ParamMap;
 import com.ccacic.financemanager.model.ReadOnlyList;
 import com.ccacic.financemanager.model.Unique;
+import com.ccacic.financemanager.model.UniqueAssembler;
 import com.ccacic.financemanager.model.entry.Entry;
 import com.ccacic.financemanager.model.entry.EntryAssembler;
+import com.ccacic.financemanager.model.entry.EntryFactory;
+import com.ccacic.financemanager.util.DateTimeCodec;
 
 /**
  * The third layer of the model. This layer is typically invisible to
@@ -30,19 +40,22 @@ import com.ccacic.financemanager.model.entry.EntryAssembler;
  * always kept in memory. EntryChunk tracks a source file and a
  * temporary file that contain the original Entries and the modified
  * Entries, respectively. Entries are only placed in memory when they
- * are requested, at which point the unmodifiable List returned to
- * the requester is tracked through a SoftReference. When the
- * SoftReference is garbage collected, the chunk's reference to the
- * modifiable Entries List in memory is nullified. Since the contract
- * for SoftReference is to be garbage collected only as needed, this
- * allows the Entries to remain in memory for as long as there is
- * room for them. For very large records, Entries will be the vast
- * majority of the memory footprint, so storing Entries in this way
- * will prevent very large records from requiring a huge amount of
- * memory. Before the chunk's Entries List is nullified, it is
- * written to the temporary file if any changes have occured to the
- * Entries. This temporary file is written to the source file upon
- * saving the model, and is deleted at the end of the program's life.
+ * are requested, at which point the chunk becomes resident in the
+ * EntryChunkCache. The cache holds the Entries of the most recently
+ * used chunks up to a memory budget set in GeneralConfig, and evicts
+ * the least recently used chunks past it, at which point the chunk's
+ * reference to the modifiable Entries List in memory is nullified.
+ * For very large records, Entries will be the vast majority of the
+ * memory footprint, so storing Entries in this way will prevent very
+ * large records from requiring a huge amount of memory while keeping
+ * the latency of requesting Entries predictable. Every change to the
+ * Entries is appended to the EntryJournal of the owning Account as it
+ * happens, so evicted Entries are simply released and later rebuilt
+ * from the source file and the journal. Only an EntryChunk without a
+ * journal writes its changed Entries to the temporary file before they
+ * are released, which is done by the single spill thread of the
+ * EntryChunkCache. Changes are written to a new source file upon
+ * saving the model, which is then kept in the ChunkStore by its hash.
  * 
  * EntryChunks have the additional use of breaking up Accounts into
  * smaller chunks of Entries. How the Entries managed by an Account
@@ -66,27 +79,57 @@ import com.ccacic.financemanager.model.entry.EntryAssembler;
  */
 public class EntryChunk extends Unique implements EventListener {
 	
-	private SoftReference<ReadOnlyList<Entry>> entriesReadOnlyRef;
-	private final ReferenceQueue<ReadOnlyList<Entry>> referenceQueue;
+	public static final String EARLIEST = "earliest";
+	public static final String LATEST = "latest";
+	public static final String ENTRY_COUNT = "entry_count";
+	public static final String TOTAL = "total";
+	public static final String HASH = "hash";
+	public static final String FORMAT = "format";
+	
+	private ReadOnlyList<Entry> entriesReadOnly;
 	private List<Entry> entries;
 	private final Object entriesLock = new Object();
 	private boolean useTmp;
 	private boolean changed;
 	
-	private final File sourceFile;
+	/**
+	 * The File commits are written to before being moved into the ChunkStore,
+	 * which still holds the last committed Entries if the EntryChunk was last
+	 * committed before the store existed or could not be moved into it
+	 */
+	private final File chunkFile;
 	private final File tmpFile;
 	private String expectedSrcHash;
 	private String expectedTmpHash;
+	/**
+	 * If the source file was read in an older format, so the next commit
+	 * rewrites it in the current one even without other changes
+	 */
+	private boolean legacySource;
+	/**
+	 * The latest commit queued with the PersistenceService, until its hash is recorded
+	 */
+	private CompletableFuture<String> pendingCommit;
+	/**
+	 * The future handed out for the pending commit, completing once its hash is recorded
+	 */
+	private CompletableFuture<String> pendingResult;
 	private final EntryFileIO entryFileIO;
-	
-	private Thread fileDumpThread;
+	private EntryJournal journal;
 	
 	private double total;
 	private int entryCount;
 	
 	private LocalDateTime earliest;
+	private long earliestMinute = DateTimeCodec.NO_MINUTE;
 	private LocalDateTime latest;
+	private long latestMinute = DateTimeCodec.NO_MINUTE;
 	private boolean empty;
+	private boolean unreadableReported;
+	/**
+	 * How many holders of the Entries, such as views, need them kept in memory
+	 */
+	private final AtomicInteger pins = new AtomicInteger();
 	
 	/**
 	 * Creates a new EntryChunk with the passed File as the source file to source
@@ -100,32 +143,62 @@ public class EntryChunk extends Unique implements EventListener {
 		
 		entryFileIO = new EntryFileIO();
 		
-		this.sourceFile = entryChunkFile;
+		this.chunkFile = entryChunkFile;
 		String tmpName = "tmp$" + getIdentifier() + FileHandler.TMP_EXTENSION;
-		this.tmpFile = new File(sourceFile.getParentFile(), tmpName);
+		this.tmpFile = new File(chunkFile.getParentFile(), tmpName);
 		
 		this.expectedSrcHash = expectedHash;
-		this.referenceQueue = new ReferenceQueue<>();
-		this.useTmp = tmpFile.exists();
+		this.useTmp = false;
 		this.changed = false;
 		
 		total = 0.0;
 		try {
 			entries = new ArrayList<>();
-			entriesReadOnlyRef = new SoftReference<>(new ReadOnlyList<>(entries), referenceQueue);
-			List<Entry> loadedEntries = entryFileIO.loadEntries(sourceFile, expectedHash);
+			entriesReadOnly = new ReadOnlyList<>(entries);
+			List<Entry> loadedEntries = new ArrayList<>();
+			legacySource = !ChunkStore.getInstance().readEntries(chunkFile, expectedHash, loadedEntries::add);
 			for (Entry entry: loadedEntries) {
 				addEntry(entry, false);
 			}
 			entryCount = entries.size();
 		} catch (IOException e) {
 			Logger.getInstance().logException(e);
-			entriesReadOnlyRef = new SoftReference<>(null);
+			entries = null;
+			entriesReadOnly = null;
 		}
 		empty = false;
 		
-		fileDumpThread = new Thread(getFileDump());
-		fileDumpThread.start();
+	}
+	
+	/**
+	 * Creates a new EntryChunk with the passed File as the source file, taking
+	 * its total, Entry count and date range from the passed summary instead of
+	 * reading the source file. The Entries are only loaded, and checked against
+	 * the passed expected hash, once something requests them
+	 * @param entryChunkFile the File to source Entries from
+	 * @param expectedHash the expected hash of the source file
+	 * @param summary the summary of the EntryChunk, as returned by getSummary
+	 */
+	public EntryChunk(File entryChunkFile, String expectedHash, ParamMap summary) {
+		setIdentifier(entryChunkFile.getName().substring(0, entryChunkFile.getName().lastIndexOf('.')));
+		
+		entryFileIO = new EntryFileIO();
+		
+		this.chunkFile = entryChunkFile;
+		String tmpName = "tmp$" + getIdentifier() + FileHandler.TMP_EXTENSION;
+		this.tmpFile = new File(chunkFile.getParentFile(), tmpName);
+		
+		this.expectedSrcHash = expectedHash;
+		this.useTmp = false;
+		this.changed = false;
+		
+		entries = null;
+		entriesReadOnly = null;
+		total = summary.getAsDouble(TOTAL);
+		entryCount = summary.getAsInt(ENTRY_COUNT);
+		setEarliest(summary.getAsLocalDateTime(EARLIEST));
+		setLatest(summary.getAsLocalDateTime(LATEST));
+		empty = entryCount == 0;
 		
 	}
 	
@@ -140,60 +213,84 @@ public class EntryChunk extends Unique implements EventListener {
 		
 		entryFileIO = new EntryFileIO();
 		
-		sourceFile = new File(entryChunkDirectory, getIdentifier() + FileHandler.DATA_EXTENSION);
+		chunkFile = new File(entryChunkDirectory, getIdentifier() + FileHandler.DATA_EXTENSION);
 		expectedSrcHash = null;
 		String tmpName = "tmp$" + getIdentifier() + FileHandler.TMP_EXTENSION;
 		tmpFile = new File(entryChunkDirectory, tmpName);
 		
-		referenceQueue = new ReferenceQueue<>();
-		useTmp = true;
+		useTmp = false;
 		changed = false;
 		
 		entries = new ArrayList<>();
-		entries.add(firstEntry);
+		entriesReadOnly = new ReadOnlyList<>(entries);
 		empty = false;
-		try {
-			expectedTmpHash = entryFileIO.writeEntries(tmpFile, entries);
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		}
-		entries.clear();
-		entriesReadOnlyRef = new SoftReference<>(new ReadOnlyList<>(entries), referenceQueue);
 		addEntry(firstEntry, false);
-		
-		fileDumpThread = new Thread(getFileDump());
-		fileDumpThread.start();
 	}
 	
 	/**
-	 * Gets an instance of the Runnable that handles dumping the entries list
-	 * to the file system
-	 * @return the file dump Runnable
+	 * Gives the EntryChunk the EntryJournal of its Account. From then on
+	 * every change to its Entries is appended to the journal, and evicted
+	 * Entries are rebuilt from the source file and the journal instead of
+	 * being spilled to the temporary file. Entries that are not in a source
+	 * file yet are recorded right away
+	 * @param journal the EntryJournal to record changes in
 	 */
-	private Runnable getFileDump() {
-		return () -> {
-			WeakReference<EntryChunk> parent = new WeakReference<>(this);
-			boolean interrupted = false;
-			while (parent.get() != null && !interrupted) {
-				
-				try {
-					referenceQueue.remove();
-					// wait until work being done on entries is finished
-					synchronized (entriesLock) {
-						if (changed) {
-							expectedTmpHash = entryFileIO.writeEntries(tmpFile, entries);
-						}
-						changed = false;
-						entries = null;
-						useTmp = true;
-						interrupted = Thread.interrupted();
+	void setJournal(EntryJournal journal) {
+		synchronized (entriesLock) {
+			this.journal = journal;
+			if (!hasSource()) {
+				ReadOnlyList<Entry> reference = acquireEntries(false);
+				if (reference != null) {
+					for (Entry entry: reference) {
+						record(EntryJournal.Operation.ADD, entry);
 					}
-				} catch (InterruptedException | IOException e) {
-					interrupted = true;
 				}
-				
 			}
-		};
+		}
+	}
+	
+	/**
+	 * Called by the spill thread of the EntryChunkCache once this EntryChunk
+	 * has been evicted. Releases the Entries, first writing them to the
+	 * temporary file if they have changed and are not journaled. Does
+	 * nothing if the EntryChunk was made resident again in the meantime,
+	 * and keeps the Entries resident while a commit is still being written
+	 * or while they are pinned. The released Entries are no longer listened
+	 * to, as the Entries read back later are new objects
+	 */
+	void evict() {
+		
+		EntryChunkCache cache = EntryChunkCache.getInstance();
+		// wait until work being done on entries is finished
+		synchronized (entriesLock) {
+			if (entries == null || empty || cache.isResident(this)) {
+				return;
+			}
+			if (pendingCommit != null || isPinned()) {
+				// the source file cannot be read back until the commit is written,
+				// and pinned Entries are still held by something that may edit them
+				cache.resize(this, entries.size());
+				return;
+			}
+			try {
+				if (changed && journal == null) {
+					expectedTmpHash = entryFileIO.writeEntries(tmpFile, entries);
+					useTmp = true;
+					changed = false;
+					cache.recordSpill();
+				}
+				for (Entry entry: entries) {
+					EventManager.removeListener(this, Event.UPDATE, EventManager.getUniqueID(entry));
+				}
+				entries = null;
+				entriesReadOnly = null;
+			} catch (IOException e) {
+				// keep the entries in memory and resident
+				Logger.getInstance().logException(e);
+				cache.resize(this, entries.size());
+			}
+		}
+		
 	}
 	
 	/**
@@ -204,25 +301,47 @@ public class EntryChunk extends Unique implements EventListener {
 	 * @param isNewEntry if a NEW_ENTRY event should be fired
 	 */
 	private void addEntry(Entry entry, boolean isNewEntry) {
+		addEntry(entry, isNewEntry, true);
+	}
+	
+	/**
+	 * Adds the passed Entry to the EntryChunk, with the passed
+	 * isNewEntry boolean dictating if a NEW_ENTRY event should
+	 * be fired and the passed journaled boolean dictating if the
+	 * addition is recorded in the EntryJournal right away
+	 * @param entry the Entry to add
+	 * @param isNewEntry if a NEW_ENTRY event should be fired
+	 * @param journaled if the addition should be recorded
+	 */
+	private void addEntry(Entry entry, boolean isNewEntry, boolean journaled) {
 		
-		// prevents the fileDumpThread from nullifying entries
+		// prevents the spill thread from nullifying entries
 		synchronized (entriesLock) {
 			
 			// makes sure entries is nonnull
-			ReadOnlyList<Entry> reference = getEntries();
+			ReadOnlyList<Entry> reference = acquireEntries(false);
+			if (reference == null) {
+				Logger.getInstance().logError("Entry " + entry.getIdentifier() + " not added to unreadable entry chunk "
+						+ getIdentifier());
+				return;
+			}
 			
 			changed |= entries.add(entry);
+			if (journaled) {
+				record(EntryJournal.Operation.ADD, entry);
+			}
 			total += entry.getAmount();
 			entryCount++;
+			EntryChunkCache.getInstance().resize(this, entries.size());
 			
 			if (earliest == null || latest == null) {
-				earliest = entry.getDateTime();
-				latest = entry.getDateTime();
+				setEarliest(entry);
+				setLatest(entry);
 			} else {
-				if (earliest.isAfter(entry.getDateTime())) {
-					earliest = entry.getDateTime();
-				} else if (latest.isBefore(entry.getDateTime())) {
-					latest = entry.getDateTime();
+				if (DateTimeCodec.compare(earliest, earliestMinute, entry.getDateTime(), entry.getEpochMinute()) > 0) {
+					setEarliest(entry);
+				} else if (DateTimeCodec.compare(latest, latestMinute, entry.getDateTime(), entry.getEpochMinute()) < 0) {
+					setLatest(entry);
 				}
 			}
 			
@@ -232,8 +351,7 @@ public class EntryChunk extends Unique implements EventListener {
 			if (isNewEntry) {
 				EventManager.fireEvent(new Event(Event.NEW_ENTRY, entry, id));
 			}
-			String entryId = EventManager.getUniqueID(entry);
-			EventManager.addListener(entry, this, Event.UPDATE, entryId);
+			listenTo(entry);
 		}
 		
 	}
@@ -246,6 +364,21 @@ public class EntryChunk extends Unique implements EventListener {
 		addEntry(entry, true);
 	}
 	
+	/**
+	 * Adds all the passed Entries to the EntryChunk. Their additions
+	 * are recorded in the EntryJournal together, so the whole batch
+	 * costs a single forced write
+	 * @param newEntries the Entries to add
+	 */
+	final void addEntries(List<Entry> newEntries) {
+		synchronized (entriesLock) {
+			for (Entry entry: newEntries) {
+				addEntry(entry, true, false);
+			}
+			recordAll(EntryJournal.Operation.ADD, newEntries);
+		}
+	}
+	
 	/**
 	 * Called at the end of adding a new Entry to the EntryChunk
 	 * but before any Events are fired. Intended to be overridden
@@ -264,37 +397,49 @@ public class EntryChunk extends Unique implements EventListener {
 	 */
 	final void removeEntry(Entry entry) {
 		
-		// prevents fileDumpThread from nullifying entries
+		// prevents the spill thread from nullifying entries
 		synchronized (entriesLock) {
 			
 			// makes sure entries is nonnull
-			ReadOnlyList<Entry> reference = getEntries();
+			ReadOnlyList<Entry> reference = acquireEntries(false);
+			if (reference == null) {
+				Logger.getInstance().logError("Entry " + entry.getIdentifier() + " not removed from unreadable entry chunk "
+						+ getIdentifier());
+				return;
+			}
 			
-			changed = entries.remove(entry);
-			if (changed) {
+			if (entries.remove(entry)) {
+				changed = true;
+				record(EntryJournal.Operation.REMOVE, entry);
+				EventManager.removeListener(this, Event.UPDATE, EventManager.getUniqueID(entry));
 				total -= entry.getAmount();
 				entryCount--;
+				EntryChunkCache.getInstance().resize(this, entries.size());
 
 				if (!reference.isEmpty()) {
-					if (earliest.isEqual(entry.getDateTime())) {
-						earliest = LocalDateTime.MAX;
+					if (DateTimeCodec.compare(earliest, earliestMinute, entry.getDateTime(), entry.getEpochMinute()) == 0) {
+						Entry first = null;
 						for (Entry e : reference) {
-							if (earliest.isAfter(e.getDateTime())) {
-								earliest = e.getDateTime();
+							if (first == null || DateTimeCodec.compare(first.getDateTime(), first.getEpochMinute(),
+									e.getDateTime(), e.getEpochMinute()) > 0) {
+								first = e;
 							}
 						}
+						setEarliest(first);
 					}
-					if (latest.isEqual(entry.getDateTime())) {
-						latest = LocalDateTime.MIN;
+					if (DateTimeCodec.compare(latest, latestMinute, entry.getDateTime(), entry.getEpochMinute()) == 0) {
+						Entry last = null;
 						for (Entry e : reference) {
-							if (latest.isBefore(e.getDateTime())) {
-								latest = e.getDateTime();
+							if (last == null || DateTimeCodec.compare(last.getDateTime(), last.getEpochMinute(),
+									e.getDateTime(), e.getEpochMinute()) < 0) {
+								last = e;
 							}
 						}
+						setLatest(last);
 					}
 				} else {
-					earliest = null;
-					latest = null;
+					setEarliest((LocalDateTime) null);
+					setLatest((LocalDateTime) null);
 					empty = true;
 				}
 
@@ -305,17 +450,13 @@ public class EntryChunk extends Unique implements EventListener {
 
 				if (entries.isEmpty()) {
 					Logger.getInstance().logDebug("Entry chunk " + getIdentifier() + " is empty, deleting files");
-					fileDumpThread.interrupt();
-					try {
-						fileDumpThread.join();
-					} catch (InterruptedException e) {
-						Logger.getInstance().logException(e);
-					}
-					if (!tmpFile.delete()) {
+					EntryChunkCache.getInstance().remove(this);
+					if (tmpFile.exists() && !tmpFile.delete()) {
 						Logger.getInstance().logWarning("Failed to delete temporary file " + tmpFile);
 					}
-					if (!sourceFile.delete()) {
-						Logger.getInstance().logWarning("Failed to delete source file " + sourceFile);
+					// a blob in the ChunkStore is left for garbage collection, as archives may reference it
+					if (chunkFile.exists() && !chunkFile.delete()) {
+						Logger.getInstance().logWarning("Failed to delete source file " + chunkFile);
 					}
 				}
 			}
@@ -336,82 +477,410 @@ public class EntryChunk extends Unique implements EventListener {
 	}
 	
 	/**
-	 * Returns an unmodifiable List of Entries managed by this EntryChunk
-	 * @return an unmodifiable List of Entries
+	 * Returns an unmodifiable List of Entries managed by this EntryChunk.
+	 * If they cannot be read, such as when the source file is missing or
+	 * fails its hash check, the problem is reported once and null is returned
+	 * @return an unmodifiable List of Entries, or null if they cannot be read
 	 */
 	public ReadOnlyList<Entry> getEntries() {
+		return acquireEntries(true);
+	}
+
+	/**
+	 * Returns the Entries as getEntries does and keeps them in memory until
+	 * unpin is called as many times as pin. Anything that holds on to the
+	 * Entries and may edit them, such as a view, should pin them, as
+	 * released Entries are read back as new objects
+	 * @return an unmodifiable List of Entries, or null if they cannot be
+	 * read, in which case nothing is pinned
+	 */
+	public ReadOnlyList<Entry> pin() {
+		synchronized (entriesLock) {
+			ReadOnlyList<Entry> reference = acquireEntries(true);
+			if (reference != null) {
+				pins.incrementAndGet();
+			}
+			return reference;
+		}
+	}
+
+	/**
+	 * Releases a pin taken by pin, letting the EntryChunkCache evict the
+	 * Entries again once no pins are left
+	 */
+	public void unpin() {
+		if (pins.getAndUpdate(count -> Math.max(0, count - 1)) == 0) {
+			Logger.getInstance().logWarning("Entry chunk " + getIdentifier() + " unpinned more than it was pinned");
+		}
+	}
+
+	/**
+	 * Checks if the Entries are pinned in memory. Read without the Entries
+	 * lock, so the EntryChunkCache can check it while choosing what to evict
+	 * @return if the Entries are pinned
+	 */
+	boolean isPinned() {
+		return pins.get() > 0;
+	}
+
+	/**
+	 * Passes the disassembled Entries of this EntryChunk to the passed
+	 * EntryMapConsumer one at a time. If the Entries are not in memory
+	 * and the source file is up to date, they are streamed straight from
+	 * the source file without being loaded into the EntryChunkCache
+	 * @param consumer the EntryMapConsumer to pass each disassembled Entry to
+	 * @throws IOException if file IO errors occur
+	 */
+	public void forEachEntryMap(EntryFileIO.EntryMapConsumer consumer) throws IOException {
+
+		synchronized (entriesLock) {
+			if (entries == null && !hasUncommittedChanges() && pendingCommit == null && hasSource()) {
+				ChunkStore.getInstance().readEntryMaps(chunkFile, expectedSrcHash, consumer);
+				return;
+			}
+			ReadOnlyList<Entry> reference = acquireEntries(true);
+			if (reference == null) {
+				throw new IOException("Failed to read the entries of entry chunk " + getIdentifier());
+			}
+			EntryFactory factory = EntryFactory.getInstance();
+			for (Entry entry: reference) {
+				consumer.accept(factory.requestDisassembly(entry));
+			}
+		}
+
+	}
+
+	/**
+	 * Returns an unmodifiable List of Entries managed by this EntryChunk,
+	 * reading them from the file system if they are not in memory and
+	 * marking the EntryChunk as recently used in the EntryChunkCache
+	 * @param request if this is a request for the Entries, as opposed to
+	 * the EntryChunk making sure its own Entries are in memory, in which
+	 * case finding them already in memory is not counted as a cache hit
+	 * @return an unmodifiable List of Entries, or null if they cannot be read
+	 */
+	private ReadOnlyList<Entry> acquireEntries(boolean request) {
 		
 		ReadOnlyList<Entry> readOnlyEntries;
 		
 		synchronized (entriesLock) {
 			
-			readOnlyEntries = entriesReadOnlyRef.get();
-			if (readOnlyEntries == null) {
+			EntryChunkCache cache = EntryChunkCache.getInstance();
+			boolean hit = entries != null;
+			if (!hit) {
 
 				try {
-
-					fileDumpThread.interrupt();
-					fileDumpThread.join();
-
+					List<Entry> loaded;
 					if (useTmp) {
-						entries = entryFileIO.loadEntries(tmpFile, expectedTmpHash);
+						loaded = entryFileIO.loadEntries(tmpFile, expectedTmpHash);
+					} else if (hasSource()) {
+						loaded = new ArrayList<>();
+						legacySource |= !ChunkStore.getInstance().readEntries(chunkFile, expectedSrcHash, loaded::add);
 					} else {
-						entries = entryFileIO.loadEntries(sourceFile, expectedSrcHash);
+						loaded = new ArrayList<>();
 					}
-					readOnlyEntries = new ReadOnlyList<>(entries);
-					entriesReadOnlyRef = new SoftReference<>(readOnlyEntries, referenceQueue);
-					fileDumpThread = new Thread(getFileDump());
-					fileDumpThread.start();
-
-				} catch (IOException | InterruptedException e) {
+					if (journal != null && journal.hasRecords(getIdentifier())) {
+						replay(loaded, journal.readRecords(getIdentifier()));
+					}
+					entries = loaded;
+				} catch (IOException e) {
 					Logger.getInstance().logException(e);
+					reportUnreadable(e);
 					return null;
 				}
+				entriesReadOnly = new ReadOnlyList<>(entries);
+				for (Entry entry: entries) {
+					listenTo(entry);
+				}
 
 			}
+			readOnlyEntries = entriesReadOnly;
+			if (hit && !request) {
+				cache.resize(this, entries.size());
+			} else {
+				cache.access(this, entries.size(), hit);
+			}
 		}
 		
 		return readOnlyEntries;
 		
 	}
 	
+	/**
+	 * Reports that the Entries could not be read by firing an
+	 * INTEGRITY_PROBLEM Event for the file they were read from, once per
+	 * EntryChunk so repeated requests do not report it again
+	 * @param e the IOException reading the Entries failed with
+	 */
+	private void reportUnreadable(IOException e) {
+		if (unreadableReported) {
+			return;
+		}
+		unreadableReported = true;
+		IntegrityVerifier.Corruption corruption;
+		if (e instanceof MismatchedHashException) {
+			MismatchedHashException mismatch = (MismatchedHashException) e;
+			corruption = new IntegrityVerifier.Corruption(useTmp ? tmpFile : chunkFile,
+					mismatch.getExpectedHash(), mismatch.getActualHash());
+		} else {
+			corruption = new IntegrityVerifier.Corruption(useTmp ? tmpFile : chunkFile,
+					useTmp ? expectedTmpHash : expectedSrcHash, null);
+		}
+		Logger.getInstance().logError("Entries of entry chunk " + getIdentifier() + " could not be read");
+		EventManager.fireEvent(new Event(Event.INTEGRITY_PROBLEM, Collections.singletonList(corruption)));
+	}
+	
+	/**
+	 * Applies the passed EntryJournal Records to the Entries just read
+	 * from the source file. Every Operation is applied only if it still
+	 * has an effect, so Records already reflected in the source file can
+	 * be replayed safely. The Entries are indexed by ID once up front,
+	 * keeping their order, with added Entries going at the end
+	 * @param entries the Entries read from the source file
+	 * @param records the Records of this EntryChunk
+	 */
+	private static void replay(List<Entry> entries, List<EntryJournal.Record> records) {
+		EntryFactory factory = EntryFactory.getInstance();
+		Map<String, Entry> byId = new LinkedHashMap<>();
+		for (Entry entry: entries) {
+			byId.put(entry.getIdentifier(), entry);
+		}
+		for (EntryJournal.Record record: records) {
+			ParamMap entryMap = record.getEntryMap();
+			String entryId = entryMap.get(UniqueAssembler.ID);
+			Entry entry = byId.get(entryId);
+			switch (record.getOperation()) {
+			case ADD:
+				if (entry == null) {
+					Entry added = factory.requestItem(entryMap);
+					byId.put(added.getIdentifier(), added);
+				}
+				break;
+			case REMOVE:
+				if (entry != null) {
+					byId.remove(entryId);
+				}
+				break;
+			case MODIFY:
+				if (entry != null) {
+					factory.modifyItem(entry, entryMap);
+				}
+				break;
+			}
+		}
+		entries.clear();
+		entries.addAll(byId.values());
+	}
+	
+	/**
+	 * Appends a Record of the passed Operation on the passed Entry to
+	 * the EntryJournal, if there is one. Should appending fail, the
+	 * EntryChunk makes sure its Entries are in memory and stops
+	 * journaling, falling back to the temporary file
+	 * @param operation the Operation performed
+	 * @param entry the Entry it was performed on
+	 */
+	private void record(EntryJournal.Operation operation, Entry entry) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.append(operation, getIdentifier(), EntryFactory.getInstance().requestDisassembly(entry));
+		} catch (IOException e) {
+			Logger.getInstance().logException(e);
+			acquireEntries(false);
+			journal = null;
+		}
+	}
+	
+	/**
+	 * Records the same Operation on each of the passed Entries in the
+	 * EntryJournal at once
+	 * @param operation the Operation performed
+	 * @param recorded the Entries it was performed on
+	 */
+	private void recordAll(EntryJournal.Operation operation, List<Entry> recorded) {
+		if (journal == null) {
+			return;
+		}
+		List<ParamMap> entryMaps = new ArrayList<>(recorded.size());
+		for (Entry entry: recorded) {
+			entryMaps.add(EntryFactory.getInstance().requestDisassembly(entry));
+		}
+		try {
+			journal.appendAll(operation, getIdentifier(), entryMaps);
+		} catch (IOException e) {
+			Logger.getInstance().logException(e);
+			acquireEntries(false);
+			journal = null;
+		}
+	}
+	
+	/**
+	 * Copies the passed modified Entry onto the resident Entry with the same
+	 * ID if the passed Entry is not the resident one itself, as is the case
+	 * for an Entry held on to from before the Entries were last released.
+	 * Must be called while holding the Entries lock with the Entries in memory
+	 * @param modified the modified Entry
+	 */
+	private void applyToResident(Entry modified) {
+		Entry resident = null;
+		for (Entry entry: entries) {
+			if (entry == modified) {
+				return;
+			}
+			if (resident == null && entry.getIdentifier().equals(modified.getIdentifier())) {
+				resident = entry;
+			}
+		}
+		if (resident != null) {
+			EntryFactory factory = EntryFactory.getInstance();
+			factory.modifyItem(resident, factory.requestDisassembly(modified));
+		}
+	}
+	
+	/**
+	 * Registers the EntryChunk for the ChangeEvents of the passed Entry,
+	 * replacing any earlier registration for an Entry with the same ID
+	 * @param entry the Entry to listen to
+	 */
+	private void listenTo(Entry entry) {
+		String entryId = EventManager.getUniqueID(entry);
+		EventManager.removeListener(this, Event.UPDATE, entryId);
+		EventManager.addListener(this, this, Event.UPDATE, entryId);
+	}
+	
+	/**
+	 * Checks if the EntryChunk has changes that are not yet in its source
+	 * file, either held in memory or spilled to the temporary file. Entries
+	 * are marked as changed when they are added or removed, and when a
+	 * ChangeEvent is received for one of them. A source file read in an
+	 * older format also counts as out of date, so it is migrated to the
+	 * current binary format by the next commit
+	 * @return if the source file is out of date
+	 */
+	public boolean hasUncommittedChanges() {
+		synchronized (entriesLock) {
+			return changed || useTmp || legacySource || expectedSrcHash == null;
+		}
+	}
+	
 	/**
 	 * Commits the changes stored in the temporary file to the source file,
-	 * along with any changes still in memory. The temporary file is also
-	 * deleted as it is no longer needed
-	 * @return the new hash of the source file
+	 * along with any changes still in memory. The Entries are encoded right
+	 * away and written by the PersistenceService, after which the temporary
+	 * file is deleted as it is no longer needed. Does nothing if there are
+	 * no uncommitted changes, in which case the future of a commit still
+	 * being written or else the current hash is returned
+	 * @return a future for the new hash of the source file, which completes
+	 * with null if the commit failed
 	 */
-	public String commitChanges() {
+	public CompletableFuture<String> commitChanges() {
 		
-		try {
+		synchronized (entriesLock) {
 			
-			synchronized (entriesLock) {
-				ReadOnlyList<Entry> reference = getEntries();
-				fileDumpThread.interrupt();
-				fileDumpThread.join();
-				expectedSrcHash = entryFileIO.writeEntries(sourceFile, entries);
-				useTmp = false;
-				changed = false;
-				if (!tmpFile.delete()) {
-					Logger.getInstance().logWarning("Failed to delete temp file " + tmpFile);
-				}
+			if (pendingResult != null && !changed && !useTmp && !legacySource) {
+				// nothing changed since the pending commit was encoded
+				return pendingResult;
+			}
+			if (!hasUncommittedChanges()) {
+				return CompletableFuture.completedFuture(expectedSrcHash);
+			}
+			ReadOnlyList<Entry> reference = acquireEntries(false);
+			if (reference == null) {
+				return CompletableFuture.completedFuture(null);
 			}
 			
-		} catch (InterruptedException | IOException e) {
-			Logger.getInstance().logException(e);
-			return null;
+			CompletableFuture<String> commit;
+			try {
+				commit = entryFileIO.writeEntriesLater(chunkFile, entries);
+			} catch (IOException e) {
+				Logger.getInstance().logException(e);
+				return CompletableFuture.completedFuture(null);
+			}
+			pendingCommit = commit;
+			useTmp = false;
+			changed = false;
+			legacySource = false;
+			
+			// off the I/O thread, which must never wait on an Entries lock
+			pendingResult = commit.handleAsync((hash, failure) -> {
+				synchronized (entriesLock) {
+					if (failure != null) {
+						// the Entries are still in memory, as eviction waits on the commit
+						changed = true;
+						hash = null;
+					} else if (pendingCommit == commit) {
+						expectedSrcHash = hash;
+						try {
+							ChunkStore.getInstance().store(chunkFile, hash);
+						} catch (IOException e) {
+							// still readable where it was written
+							Logger.getInstance().logException(e);
+						}
+						if (tmpFile.exists() && !tmpFile.delete()) {
+							Logger.getInstance().logWarning("Failed to delete temp file " + tmpFile);
+						}
+					}
+					if (pendingCommit == commit) {
+						pendingCommit = null;
+						pendingResult = null;
+					}
+					return hash;
+				}
+			});
+			return pendingResult;
+			
 		}
 		
-		return expectedSrcHash;
-		
 	}
 	
 	/**
-	 * Returns the source file
-	 * @return the source file
+	 * Returns a summary of the EntryChunk holding its total, Entry count,
+	 * date range and the hash of its source file, which can be passed back
+	 * into the summary constructor to recreate the EntryChunk without
+	 * reading its Entries. The format of the source file is recorded only
+	 * once it is the current binary format, so a source file in an older
+	 * format is read in full, and migrated, the next time it is loaded.
+	 * Should be called once commitChanges completes so the
+	 * recorded hash is current. Subclasses that maintain additional fields
+	 * should add them to the returned ParamMap
+	 * @return the summary of the EntryChunk
 	 */
-	public File getSourceFile() {
-		return sourceFile;
+	public ParamMap getSummary() {
+		ParamMap summary = new ParamMap();
+		summary.put(UniqueAssembler.ID, getIdentifier());
+		summary.put(HASH, expectedSrcHash);
+		summary.put(ENTRY_COUNT, entryCount + "");
+		summary.put(TOTAL, total + "");
+		if (!legacySource) {
+			summary.put(FORMAT, EntryFileIO.FORMAT_VERSION + "");
+		}
+		if (earliest != null && latest != null) {
+			summary.put(EARLIEST, DateTimeCodec.format(earliest));
+			summary.put(LATEST, DateTimeCodec.format(latest));
+		}
+		return summary;
+	}
+	
+	/**
+	 * Returns the hash of the source file if it holds every change to the
+	 * Entries, with no commit still being written
+	 * @return the hash of the source file, or null if it is out of date
+	 */
+	public String getCommittedHash() {
+		synchronized (entriesLock) {
+			return hasUncommittedChanges() || pendingCommit != null ? null : expectedSrcHash;
+		}
+	}
+	
+	/**
+	 * Checks if there are committed Entries to read, either from the
+	 * ChunkStore or from the File of the EntryChunk
+	 * @return if the EntryChunk has a source
+	 */
+	private boolean hasSource() {
+		return ChunkStore.getInstance().holds(chunkFile, expectedSrcHash);
 	}
 	
 	/**
@@ -456,6 +925,58 @@ public class EntryChunk extends Unique implements EventListener {
 		return latest;
 	}
 	
+	/**
+	 * Returns the epoch minute of getEarliest
+	 * @return the earliest epoch minute, or DateTimeCodec.NO_MINUTE if there is none
+	 */
+	public long getEarliestMinute() {
+		return earliestMinute;
+	}
+	
+	/**
+	 * Returns the epoch minute of getLatest
+	 * @return the latest epoch minute, or DateTimeCodec.NO_MINUTE if there is none
+	 */
+	public long getLatestMinute() {
+		return latestMinute;
+	}
+	
+	/**
+	 * Sets the earliest LocalDateTime, along with its epoch minute
+	 * @param earliest the earliest LocalDateTime, or null
+	 */
+	private void setEarliest(LocalDateTime earliest) {
+		this.earliest = earliest;
+		this.earliestMinute = DateTimeCodec.toEpochMinute(earliest);
+	}
+	
+	/**
+	 * Sets the earliest LocalDateTime to that of the passed Entry
+	 * @param entry the Entry with the earliest date and time
+	 */
+	private void setEarliest(Entry entry) {
+		this.earliest = entry.getDateTime();
+		this.earliestMinute = entry.getEpochMinute();
+	}
+	
+	/**
+	 * Sets the latest LocalDateTime, along with its epoch minute
+	 * @param latest the latest LocalDateTime, or null
+	 */
+	private void setLatest(LocalDateTime latest) {
+		this.latest = latest;
+		this.latestMinute = DateTimeCodec.toEpochMinute(latest);
+	}
+	
+	/**
+	 * Sets the latest LocalDateTime to that of the passed Entry
+	 * @param entry the Entry with the latest date and time
+	 */
+	private void setLatest(Entry entry) {
+		this.latest = entry.getDateTime();
+		this.latestMinute = entry.getEpochMinute();
+	}
+	
 	/**
 	 * Checks if the EntryChunk is empty. Empty EntryChunks
 	 * should be discarded as an empty EntryChunk will have
@@ -469,7 +990,15 @@ public class EntryChunk extends Unique implements EventListener {
 	@Override
 	public void onEvent(Event event) {
 		Delta delta = (Delta) event.getData();
-		total += delta.getNewValueAsDouble(EntryAssembler.AMOUNT) - delta.getOldValueAsDouble(EntryAssembler.AMOUNT);
+		synchronized (entriesLock) {
+			changed = true;
+			Entry modified = (Entry) delta.getObject();
+			if (entries != null) {
+				applyToResident(modified);
+			}
+			record(EntryJournal.Operation.MODIFY, modified);
+			total += delta.getNewValueAsDouble(EntryAssembler.AMOUNT) - delta.getOldValueAsDouble(EntryAssembler.AMOUNT);
+		}
 		String id = EventManager.getUniqueID(this);
 		EventManager.fireEvent(new ChangeEvent(delta, id));
 	}
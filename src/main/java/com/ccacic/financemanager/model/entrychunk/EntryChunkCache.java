@@ -0,0 +1,199 @@
+package com.ccacic.financemanager.model.entrychunk;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.ccacic.financemanager.logger.Logger;
+import com.ccacic.financemanager.model.config.GeneralConfig;
+
+/**
+ * Decides which EntryChunks keep their Entries in memory. Every EntryChunk
+ * with Entries in memory is resident in the cache along with an estimate
+ * of the bytes its Entries occupy, in least recently used order. Once the
+ * resident estimate grows past the budget in GeneralConfig, the least
+ * recently used EntryChunks are evicted. Evicted EntryChunks are handed to
+ * a single daemon spill thread, which writes any changed Entries that are
+ * not journaled to their temporary files before releasing them, so the
+ * threads requesting Entries never wait on another EntryChunk's file IO.
+ * Pinned EntryChunks stay resident and are passed over when evicting.
+ * Counts hits, misses, evictions and spills for diagnostics
+ * @author Cameron Cacic
+ *
+ */
+public final class EntryChunkCache {
+
+	/**
+	 * A rough estimate of the heap used by a single Entry in memory,
+	 * including its identifier, description, date and listener bookkeeping
+	 */
+	static final long BYTES_PER_ENTRY = 384;
+
+	private static final EntryChunkCache instance = new EntryChunkCache();
+
+	/**
+	 * Returns the singleton instance of EntryChunkCache
+	 * @return the instance of EntryChunkCache
+	 */
+	public static EntryChunkCache getInstance() {
+		return instance;
+	}
+
+	private final LinkedHashMap<EntryChunk, Long> resident;
+	private final BlockingQueue<EntryChunk> evicted;
+	private long residentBytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long spills;
+
+	/**
+	 * Creates the EntryChunkCache and starts its spill thread
+	 */
+	private EntryChunkCache() {
+		resident = new LinkedHashMap<>(16, 0.75f, true);
+		evicted = new LinkedBlockingQueue<>();
+		residentBytes = 0;
+		Thread spillThread = new Thread(this::spillLoop, "entry-chunk-spiller");
+		spillThread.setDaemon(true);
+		spillThread.start();
+	}
+
+	/**
+	 * Records a request for the Entries of the passed EntryChunk, marking
+	 * it as the most recently used and evicting other EntryChunks if the
+	 * budget is exceeded. Must be called while holding the EntryChunk's
+	 * Entries lock
+	 * @param chunk the EntryChunk whose Entries were requested
+	 * @param entryCount how many Entries the EntryChunk holds in memory
+	 * @param hit if the Entries were already in memory
+	 */
+	synchronized void access(EntryChunk chunk, int entryCount, boolean hit) {
+		if (hit) {
+			hits++;
+		} else {
+			misses++;
+		}
+		resize(chunk, entryCount);
+	}
+
+	/**
+	 * Updates the size estimate of the passed EntryChunk, marking it as the
+	 * most recently used and evicting other EntryChunks if the budget is
+	 * exceeded. Must be called while holding the EntryChunk's Entries lock
+	 * @param chunk the EntryChunk whose Entries changed
+	 * @param entryCount how many Entries the EntryChunk holds in memory
+	 */
+	synchronized void resize(EntryChunk chunk, int entryCount) {
+
+		long bytes = entryCount * BYTES_PER_ENTRY;
+		Long oldBytes = resident.put(chunk, bytes);
+		residentBytes += bytes - (oldBytes == null ? 0 : oldBytes);
+
+		long budget = GeneralConfig.getInstance().getEntryCacheBudget();
+		Iterator<Map.Entry<EntryChunk, Long>> iter = resident.entrySet().iterator();
+		while (residentBytes > budget && iter.hasNext()) {
+			Map.Entry<EntryChunk, Long> eldest = iter.next();
+			if (eldest.getKey() == chunk || eldest.getKey().isPinned()) {
+				continue;
+			}
+			iter.remove();
+			residentBytes -= eldest.getValue();
+			evictions++;
+			evicted.add(eldest.getKey());
+		}
+
+	}
+
+	/**
+	 * Removes the passed EntryChunk from the cache without spilling it,
+	 * such as when it is deleted
+	 * @param chunk the EntryChunk to remove
+	 */
+	synchronized void remove(EntryChunk chunk) {
+		Long bytes = resident.remove(chunk);
+		if (bytes != null) {
+			residentBytes -= bytes;
+		}
+	}
+
+	/**
+	 * Checks if the passed EntryChunk is resident. An evicted EntryChunk
+	 * that was requested again before the spill thread reached it is
+	 * resident again and must not be released
+	 * @param chunk the EntryChunk to check
+	 * @return if the EntryChunk is resident
+	 */
+	synchronized boolean isResident(EntryChunk chunk) {
+		return resident.containsKey(chunk);
+	}
+
+	/**
+	 * Records that an evicted EntryChunk wrote its changes to its temporary file
+	 */
+	synchronized void recordSpill() {
+		spills++;
+	}
+
+	/**
+	 * Returns how many requests for Entries found them already in memory
+	 * @return the hit count
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns how many requests for Entries had to read them from a File
+	 * @return the miss count
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns how many EntryChunks have been evicted to stay within budget
+	 * @return the eviction count
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns how many evicted EntryChunks had to write changes to their
+	 * temporary files before being released
+	 * @return the spill count
+	 */
+	public synchronized long getSpills() {
+		return spills;
+	}
+
+	/**
+	 * Returns the estimated bytes of all resident Entries
+	 * @return the resident byte estimate
+	 */
+	public synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * Waits for evicted EntryChunks and releases their Entries,
+	 * spilling them first if they have changed
+	 */
+	private void spillLoop() {
+		while (true) {
+			try {
+				evicted.take().evict();
+			} catch (InterruptedException e) {
+				Logger.getInstance().logError("Entry chunk spill thread interrupted");
+				return;
+			} catch (RuntimeException e) {
+				Logger.getInstance().logException(e);
+			}
+		}
+	}
+
+}
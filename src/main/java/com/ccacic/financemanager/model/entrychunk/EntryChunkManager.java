@@ -1,20 +1,32 @@
 package com.ccacic.financemanager.model.entrychunk;
 
 import java.io.File;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.ccacic.financemanager.event.ChangeEvent;
 import com.ccacic.financemanager.event.Event;
 import com.ccacic.financemanager.event.EventManager;
+import com.ccacic.financemanager.fileio.EntryFileIO;
+import com.ccacic.financemanager.fileio.EntryJournal;
 import com.ccacic.financemanager.fileio.FileHandler;
 import com.ccacic.financemanager.fileio.User;
 import com.ccacic.financemanager.logger.Logger;
+import com.ccacic.financemanager.model.Delta;
+import com.ccacic.financemanager.model.ParamMap;
 import com.ccacic.financemanager.model.ReadOnlyList;
+import com.ccacic.financemanager.model.UniqueAssembler;
 import com.ccacic.financemanager.model.entry.Entry;
+import com.ccacic.financemanager.model.entry.EntryAssembler;
+import com.ccacic.financemanager.model.entry.EntryFactory;
+import com.ccacic.financemanager.util.DateTimeCodec;
 
 /**
  * In charge of creating, managing, and deleting EntryChunks. Operates at a given
@@ -22,7 +34,10 @@ import com.ccacic.financemanager.model.entry.Entry;
  * extremes of the DateResolution. If the amount of Entries in a single chunk
  * exceeds a threshold value, then the chunk should be broken up into new chunks
  * each with a narrower range, or if no narrower range can be created at the given
- * DateResolution, then the DateResolution itself will be narrowed
+ * DateResolution, then the DateResolution itself will be narrowed. Changes to
+ * the Entries are recorded in an EntryJournal kept next to the EntryChunks, and
+ * any changes left in it by a session that ended without saving are replayed
+ * when the EntryChunkManager is created
  * @author Cameron Cacic
  *
  */
@@ -35,22 +50,26 @@ public class EntryChunkManager {
 	private final DateResolutionManager resolutionManager;
 	private File entryChunkDirectory;
 	private final EntryChunkProducer producer;
+	private final EntryJournal journal;
 	
 	/**
 	 * Creates a new EntryChunkManager
 	 * @param entryChunkIdToHashMap maps the IDs of the EntryChunks it manages to the expected
 	 * hashes of their source files
+	 * @param entryChunkIdToSummaryMap maps the IDs of the EntryChunks it manages to their
+	 * summaries. EntryChunks with a summary matching their expected hash are not read until
+	 * their Entries are needed, while the rest are read in full to recreate their summaries
 	 * @param acctHoldId the ID of the AccountHolder that owns the manager
 	 * @param acctId the ID of the Account that owns the manager
 	 * @param resolution the DateResolution to begin operating at
 	 * @param producer the EntryChunkProducer to instantiate EntryChunks from
 	 */
-	public EntryChunkManager(Map<String, String> entryChunkIdToHashMap, String acctHoldId, String acctId,
-			DateResolution resolution, EntryChunkProducer producer) {
+	public EntryChunkManager(Map<String, String> entryChunkIdToHashMap, Map<String, ParamMap> entryChunkIdToSummaryMap,
+			String acctHoldId, String acctId, DateResolution resolution, EntryChunkProducer producer) {
 		
 		this.producer = producer;
 		
-		chunkMap = new RangeMap<>();
+		chunkMap = new RangeMap<>(DateTimeCodec::toEpochMinute);
 		resolutionManager = new DateResolutionManager(resolution);
 		
 		entryChunkDirectory = new File(User.getCurrentUser().getUserDir(), acctHoldId);
@@ -58,42 +77,86 @@ public class EntryChunkManager {
 		if (!entryChunkDirectory.exists() && !entryChunkIdToHashMap.isEmpty()) {
 			throw new IllegalArgumentException("Entry chunk directory " + entryChunkDirectory.getAbsolutePath() + " does not exist");
 		}
+		journal = new EntryJournal(new File(entryChunkDirectory, acctId + FileHandler.JOURNAL_EXTENSION));
 		
 		for (String chunkId: entryChunkIdToHashMap.keySet()) {
 			
 			File entryChunkFile = new File(entryChunkDirectory, chunkId + FileHandler.DATA_EXTENSION);
-			EntryChunk chunk = producer.createEntryChunk(entryChunkFile, entryChunkIdToHashMap.get(chunkId));
+			String expectedHash = entryChunkIdToHashMap.get(chunkId);
+			ParamMap summary = entryChunkIdToSummaryMap.get(chunkId);
 			
-			if (chunk.getEntries() == null || chunk.getEntries().isEmpty()) {
-				Logger.getInstance().logWarning("Empty entry chunk " + entryChunkFile.getName() + " encountered and removed");
-				if (!entryChunkFile.delete()) {
-					Logger.getInstance().logWarning("Failed to delete entry chunk file " + entryChunkFile);
+			EntryChunk chunk;
+			LocalDateTime min;
+			LocalDateTime max;
+			if (summary != null && expectedHash.equals(summary.get(EntryChunk.HASH))
+					&& summary.contains(EntryChunk.EARLIEST) && summary.contains(EntryChunk.LATEST)
+					&& summary.getAsInt(EntryChunk.FORMAT) == EntryFileIO.FORMAT_VERSION) {
+				
+				chunk = producer.createEntryChunk(entryChunkFile, expectedHash, summary);
+				if (chunk.isEmpty()) {
+					Logger.getInstance().logWarning("Empty entry chunk " + entryChunkFile.getName() + " encountered and removed");
+					if (entryChunkFile.exists() && !entryChunkFile.delete()) {
+						Logger.getInstance().logWarning("Failed to delete entry chunk file " + entryChunkFile);
+					}
+					continue;
 				}
-				continue;
-				//throw new IllegalArgumentException("Entry chunks are never allowed to be empty");
-			}
-			
-			LocalDateTime min = LocalDateTime.MAX;
-			LocalDateTime max = LocalDateTime.MIN;
-			for (Entry entry: chunk.getEntries()) {
-				if (entry.getDateTime().isBefore(min)) {
-					min = entry.getDateTime();
+				min = chunk.getEarliest();
+				max = chunk.getLatest();
+				
+			} else {
+				
+				chunk = producer.createEntryChunk(entryChunkFile, expectedHash);
+				ReadOnlyList<Entry> chunkEntries = chunk.getEntries();
+				if (chunkEntries == null) {
+					// reported by the EntryChunk, its file is kept for recovery
+					Logger.getInstance().logWarning("Unreadable entry chunk " + entryChunkFile.getName() + " skipped");
+					continue;
+				}
+				if (chunkEntries.isEmpty()) {
+					Logger.getInstance().logWarning("Empty entry chunk " + entryChunkFile.getName() + " encountered and removed");
+					if (entryChunkFile.exists() && !entryChunkFile.delete()) {
+						Logger.getInstance().logWarning("Failed to delete entry chunk file " + entryChunkFile);
+					}
+					continue;
+					//throw new IllegalArgumentException("Entry chunks are never allowed to be empty");
 				}
-				if (entry.getDateTime().isAfter(max)) {
-					max = entry.getDateTime();
+				
+				Entry first = null;
+				Entry last = null;
+				for (Entry entry: chunkEntries) {
+					if (first == null || DateTimeCodec.compare(entry.getDateTime(), entry.getEpochMinute(),
+							first.getDateTime(), first.getEpochMinute()) < 0) {
+						first = entry;
+					}
+					if (last == null || DateTimeCodec.compare(entry.getDateTime(), entry.getEpochMinute(),
+							last.getDateTime(), last.getEpochMinute()) > 0) {
+						last = entry;
+					}
 				}
+				min = first.getDateTime();
+				max = last.getDateTime();
+				
 			}
 			
+			chunk.setJournal(journal);
+			
 			LocalDateTime[] resolvedRange = resolutionManager.getResolvedRange(min, max);
 			final LocalDateTime finalMin = resolvedRange[0];
 			final LocalDateTime finalMax = resolvedRange[1];
+			final long finalMinMinute = DateTimeCodec.toEpochMinute(finalMin);
+			final long finalMaxMinute = DateTimeCodec.toEpochMinute(finalMax);
 			chunkMap.put(finalMin, finalMax, chunk);
 			
 			String id = EventManager.getUniqueID(this);
 			String chunkEventId = EventManager.getUniqueID(chunk);
 			EventManager.addListener(chunk, e -> {
-				for (Entry entry: chunk.getEntries()) {
-					if (entry.getDateTime().isBefore(finalMin) || entry.getDateTime().isAfter(finalMax)) {
+				ReadOnlyList<Entry> chunkEntries = chunk.getEntries();
+				if (chunkEntries == null) {
+					return;
+				}
+				for (Entry entry: chunkEntries) {
+					if (DateTimeCodec.compare(entry.getDateTime(), entry.getEpochMinute(), finalMin, finalMinMinute) < 0
+							|| DateTimeCodec.compare(entry.getDateTime(), entry.getEpochMinute(), finalMax, finalMaxMinute) > 0) {
 						chunk.removeEntry(entry);
 						if (chunk.isEmpty()) {
 							chunkMap.removeEntry(chunk);
@@ -107,17 +170,135 @@ public class EntryChunkManager {
 			}, Event.UPDATE, chunkEventId);
 			
 		}
+		
+		recoverJournal();
 	}
 	
 	/**
-	 * Adds the passed Entry to the proper EntryChunk, creating a new EntryChunk
-	 * if one is required or breaking up existing EntryChunks if they are too large
-	 * @param entry the Entry to add
+	 * Replays the changes left in the EntryJournal by a session that crashed
+	 * before saving them. A session that shut down cleanly without saving
+	 * left its changes unsaved on purpose, so they are discarded instead,
+	 * as reported by {@link FileHandler#isUncleanShutdown()}. Each change is applied through the same methods
+	 * as when it was first made, and so is journaled again under the current
+	 * EntryChunks before the recovered Records are dropped. Changes already
+	 * reflected in the EntryChunks are skipped. The journal is read once, and
+	 * each Entry is looked for only in the EntryChunk its Record names and
+	 * the one covering its last known LocalDateTime, so replaying reads no
+	 * more EntryChunks than the changes touch
 	 */
-	public void addEntry(Entry entry) {
+	private void recoverJournal() {
 		
-		LocalDateTime entryDate = entry.getDateTime();
-		EntryChunk chunk = chunkMap.getNearestEntry(entryDate, (o1, o2) -> {
+		try {
+			
+			List<EntryJournal.Record> records = journal.recover();
+			if (records.isEmpty()) {
+				return;
+			}
+			if (!FileHandler.getInstance().isUncleanShutdown()) {
+				Logger.getInstance().logInfo("Discarding " + records.size() + " changes to the entries in "
+						+ entryChunkDirectory + " that were not saved");
+				journal.compact(journal.getLength());
+				return;
+			}
+			Logger.getInstance().logInfo("Replaying " + records.size() + " unsaved changes to the entries in "
+					+ entryChunkDirectory);
+			long recoveredLength = journal.getLength();
+			
+			Map<String, EntryChunk> chunksById = new HashMap<>();
+			for (EntryChunk chunk: chunkMap.values()) {
+				chunksById.put(chunk.getIdentifier(), chunk);
+			}
+			Map<String, LocalDateTime> dateTimesById = new HashMap<>();
+			
+			EntryFactory factory = EntryFactory.getInstance();
+			for (EntryJournal.Record record: records) {
+				ParamMap entryMap = record.getEntryMap();
+				String entryId = entryMap.get(UniqueAssembler.ID);
+				if (entryMap.contains(EntryAssembler.DATE_TIME)) {
+					dateTimesById.put(entryId, entryMap.getAsLocalDateTime(EntryAssembler.DATE_TIME));
+				}
+				EntryChunk chunk = findEntryChunk(chunksById.get(record.getChunkId()), entryId,
+						dateTimesById.get(entryId));
+				Entry entry = chunk == null ? null : findEntry(chunk, entryId);
+				switch (record.getOperation()) {
+				case ADD:
+					if (entry == null) {
+						addEntry(factory.requestItem(entryMap));
+					}
+					break;
+				case REMOVE:
+					if (entry != null) {
+						removeEntry(chunk, entry);
+					}
+					break;
+				case MODIFY:
+					if (entry != null) {
+						Delta delta = factory.modifyItem(entry, entryMap);
+						chunk.onEvent(new ChangeEvent(delta, entryId));
+						dateTimesById.put(entryId, entry.getDateTime());
+					}
+					break;
+				}
+			}
+			
+			journal.compact(recoveredLength);
+			
+		} catch (IOException e) {
+			Logger.getInstance().logException(e);
+		}
+		
+	}
+	
+	/**
+	 * Finds the EntryChunk holding the Entry with the passed ID, trying
+	 * the passed EntryChunk and then the one whose range covers or is
+	 * nearest to the passed LocalDateTime. Only those EntryChunks are read
+	 * @param recorded the EntryChunk the Entry was recorded in, or null if
+	 * it no longer exists
+	 * @param entryId the ID of the Entry
+	 * @param dateTime the LocalDateTime the Entry was last known to have, or null
+	 * @return the EntryChunk holding the Entry, or null if neither does
+	 */
+	private EntryChunk findEntryChunk(EntryChunk recorded, String entryId, LocalDateTime dateTime) {
+		
+		if (recorded != null && findEntry(recorded, entryId) != null) {
+			return recorded;
+		}
+		if (dateTime != null) {
+			EntryChunk nearest = getNearestEntryChunk(dateTime);
+			if (nearest != null && nearest != recorded && findEntry(nearest, entryId) != null) {
+				return nearest;
+			}
+		}
+		return null;
+		
+	}
+	
+	/**
+	 * Finds the Entry with the passed ID in the passed EntryChunk
+	 * @param chunk the EntryChunk to search
+	 * @param entryId the ID of the Entry
+	 * @return the Entry, or null if the EntryChunk does not hold it
+	 */
+	private static Entry findEntry(EntryChunk chunk, String entryId) {
+		ReadOnlyList<Entry> entries = chunk.getEntries();
+		if (entries != null) {
+			for (Entry entry: entries) {
+				if (entry.getIdentifier().equals(entryId)) {
+					return entry;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the EntryChunk whose range is nearest to the passed LocalDateTime
+	 * @param dateTime the LocalDateTime to search by
+	 * @return the nearest EntryChunk, or null if there are none
+	 */
+	private EntryChunk getNearestEntryChunk(LocalDateTime dateTime) {
+		return chunkMap.getNearestEntry(dateTime, (o1, o2) -> {
 			
 			long diff = o2.until(o1, ChronoUnit.MINUTES);
 			int iDiff;
@@ -129,19 +310,42 @@ public class EntryChunkManager {
 			return iDiff;
 			
 		});
+	}
+	
+	/**
+	 * Adds the passed Entry to the proper EntryChunk, creating a new EntryChunk
+	 * if one is required or breaking up existing EntryChunks if they are too large.
+	 * An Entry without a date and time has no EntryChunk to go in and is skipped
+	 * @param entry the Entry to add
+	 */
+	public void addEntry(Entry entry) {
+		
+		LocalDateTime entryDate = entry.getDateTime();
+		if (entryDate == null) {
+			Logger.getInstance().logWarning("Skipping Entry " + entry.getIdentifier() + " without a date and time");
+			return;
+		}
+		EntryChunk chunk = getNearestEntryChunk(entryDate);
 		
 		if (chunk == null || chunk.getEarliest().getYear() != entry.getDateTime().getYear()) {
 			
 			chunk = producer.createEntryChunk(entryChunkDirectory, entry);
+			chunk.setJournal(journal);
 			chunkMap.put(entryDate, entryDate, chunk);
 			
 			String id = EventManager.getUniqueID(this);
 			String chunkId = EventManager.getUniqueID(chunk);
 			final EntryChunk chunkRef = chunk;
 			EventManager.addListener(chunk, e -> {
-				for (Entry entry2: chunkRef.getEntries()) {
-					if (entry2.getDateTime().isBefore(chunkRef.getEarliest())
-							|| entry2.getDateTime().isAfter(chunkRef.getLatest())) {
+				ReadOnlyList<Entry> chunkEntries = chunkRef.getEntries();
+				if (chunkEntries == null) {
+					return;
+				}
+				for (Entry entry2: chunkEntries) {
+					if (DateTimeCodec.compare(entry2.getDateTime(), entry2.getEpochMinute(),
+							chunkRef.getEarliest(), chunkRef.getEarliestMinute()) < 0
+							|| DateTimeCodec.compare(entry2.getDateTime(), entry2.getEpochMinute(),
+							chunkRef.getLatest(), chunkRef.getLatestMinute()) > 0) {
 						chunkRef.removeEntry(entry2);
 						if (chunkRef.isEmpty()) {
 							chunkMap.removeEntry(chunkRef);
@@ -158,7 +362,14 @@ public class EntryChunkManager {
 			
 		} else {
 			
-			Entry testEntry = chunk.getEntries().get(0);
+			ReadOnlyList<Entry> chunkEntries = chunk.getEntries();
+			if (chunkEntries == null) {
+				// reported by the EntryChunk
+				Logger.getInstance().logError("Entry " + entry.getIdentifier() + " not added to unreadable entry chunk "
+						+ chunk.getIdentifier());
+				return;
+			}
+			Entry testEntry = chunkEntries.get(0);
 			
 			chunk.addEntry(entry);
 			
@@ -173,13 +384,46 @@ public class EntryChunkManager {
 	
 	/**
 	 * Adds all the passed Entries to the proper EntryChunks, creating new EntryChunks
-	 * if required or breaking up existing EntryChunks if they are too large
+	 * if required or breaking up existing EntryChunks if they are too large. The
+	 * Entries are added in date order, and each run of Entries bound for the same
+	 * EntryChunk is added to it as a single batch. Entries without a date and
+	 * time are skipped as addEntry skips them
 	 * @param entries the Entries to add
 	 */
 	public void addAllEntries(Collection<Entry> entries) {
-		for (Entry entry: entries) {
-			addEntry(entry);
+		
+		List<Entry> sorted = new ArrayList<>(entries);
+		sorted.sort(Comparator.comparing(Entry::getDateTime, Comparator.nullsFirst(Comparator.naturalOrder())));
+		
+		EntryChunk batchChunk = null;
+		List<Entry> batch = new ArrayList<>();
+		for (Entry entry: sorted) {
+			
+			if (entry.getDateTime() == null) {
+				addEntry(entry);
+				continue;
+			}
+			EntryChunk chunk = getNearestEntryChunk(entry.getDateTime());
+			boolean needsNewChunk = chunk == null || chunk.getEarliest().getYear() != entry.getDateTime().getYear();
+			if ((needsNewChunk || chunk != batchChunk) && !batch.isEmpty()) {
+				batchChunk.addEntries(batch);
+				batch = new ArrayList<>();
+			}
+			
+			if (needsNewChunk) {
+				addEntry(entry);
+				batchChunk = null;
+			} else {
+				chunkMap.expandRange(entry.getDateTime(), chunk.getEarliest());
+				batchChunk = chunk;
+				batch.add(entry);
+			}
+			
 		}
+		if (!batch.isEmpty()) {
+			batchChunk.addEntries(batch);
+		}
+		
 	}
 	
 	/**
@@ -192,26 +436,26 @@ public class EntryChunkManager {
 	public void removeEntry(Entry entry) {
 		
 		LocalDateTime entryDate = entry.getDateTime();
-		EntryChunk chunk = chunkMap.getNearestEntry(entryDate, (o1, o2) -> {
-			
-			long diff = o2.until(o1, ChronoUnit.MINUTES);
-			int iDiff;
-			if (diff > Integer.MAX_VALUE) {
-				iDiff = Integer.MAX_VALUE;
-			} else {
-				iDiff = (int) diff;
-			}
-			return iDiff;
-			
-		});
+		EntryChunk chunk = getNearestEntryChunk(entryDate);
+		if (chunk != null) {
+			removeEntry(chunk, entry);
+		}
 		
+	}
+	
+	/**
+	 * Removes the passed Entry from the passed EntryChunk, deleting
+	 * the EntryChunk if it becomes empty
+	 * @param chunk the EntryChunk holding the Entry
+	 * @param entry the Entry to remove
+	 */
+	private void removeEntry(EntryChunk chunk, Entry entry) {
 		chunk.removeEntry(entry);
 		if (chunk.isEmpty()) {
 			chunkMap.removeEntry(chunk);
 			String id = EventManager.getUniqueID(chunk);
 			EventManager.fireEvent(new Event(Event.DELETE_ENTRY_CHUNK, id));
 		}
-		
 	}
 	
 	/**
@@ -235,17 +479,59 @@ public class EntryChunkManager {
 	
 	/**
 	 * Returns an unmodifiable List of all the Entries from all the EntryChunks
-	 * managed by the EntryChunkManager
+	 * managed by the EntryChunkManager. EntryChunks whose Entries cannot be
+	 * read are left out, having reported the problem themselves
 	 * @return an unmodifiable List of Entries
 	 */
 	public ReadOnlyList<Entry> getEntries() {
 		List<Entry> entries = new ArrayList<>();
 		for (EntryChunk chunk: getEntryChunks()) {
-			ReadOnlyList.addAll(entries, chunk.getEntries());
+			ReadOnlyList<Entry> chunkEntries = chunk.getEntries();
+			if (chunkEntries != null) {
+				ReadOnlyList.addAll(entries, chunkEntries);
+			}
 		}
 		return new ReadOnlyList<>(entries);
 	}
 	
+	/**
+	 * Checks if any of the EntryChunks in this EntryChunkManager
+	 * have changes that have not been committed to their source files
+	 * @return if any EntryChunk has uncommitted changes
+	 */
+	public boolean hasUncommittedChanges() {
+		for (EntryChunk chunk: getEntryChunks()) {
+			if (chunk.hasUncommittedChanges()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the length of the EntryJournal, to be passed to
+	 * compactJournal once the EntryChunks have been committed and the
+	 * Account file naming their hashes has been written
+	 * @return the length of the EntryJournal
+	 */
+	public long getJournalLength() {
+		return journal.getLength();
+	}
+	
+	/**
+	 * Drops the EntryJournal Records covered by committing the
+	 * EntryChunks, keeping any appended after the passed length
+	 * was taken
+	 * @param committedLength the journal length taken before committing
+	 */
+	public void compactJournal(long committedLength) {
+		try {
+			journal.compact(committedLength);
+		} catch (IOException e) {
+			Logger.getInstance().logException(e);
+		}
+	}
+	
 	/**
 	 * Returns the DateResolution currently in use
 	 * @return the DateResolution
@@ -2,6 +2,7 @@ package com.ccacic.financemanager.model.entrychunk;
 
 import java.io.File;
 
+import com.ccacic.financemanager.model.ParamMap;
 import com.ccacic.financemanager.model.entry.Entry;
 
 /**
@@ -19,6 +20,16 @@ public interface EntryChunkProducer {
 	 */
 	EntryChunk createEntryChunk(File entryChunkFile, String expectedHash);
 	
+	/**
+	 * Creates a new EntryChunk using the source file, expected hash and summary
+	 * constructor, which does not read the source File
+	 * @param entryChunkFile the source File to get Entries from
+	 * @param expectedHash the expected hash of the source File
+	 * @param summary the summary of the EntryChunk
+	 * @return the new EntryChunk instance
+	 */
+	EntryChunk createEntryChunk(File entryChunkFile, String expectedHash, ParamMap summary);
+	
 	/**
 	 * Creates a new EntryChunk using the directory and first Entry constructor
 	 * @param entryChunkDirectory the directory to create the EntryChunk within
@@ -1,6 +1,7 @@
 package com.ccacic.financemanager.model.entrychunk;
 
 import java.util.*;
+import java.util.function.ToLongFunction;
 
 /**
  * Provides an implementation of Map that uses Ranges as keys. Instead of values being
@@ -9,6 +10,12 @@ import java.util.*;
  * As such, the key type used to define the Range must have natural ordering and
  * implement Comparable. 
  * 
+ * A RangeMap may also be given a coarse key, a long that orders keys the same
+ * way as their natural ordering except that distinct keys may share it, such as
+ * the minute of a date and time. Keys are then compared by their coarse keys,
+ * kept alongside the bounds of each range, and only compared by their natural
+ * ordering when their coarse keys are equal.
+ * 
  * Note that Set and Collection operations are currently unsupported (entrySet(),
  * keySet(), values()).
  * 
@@ -60,9 +67,12 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 		/**
 		 * Checks if the passed value falls within the Range, inclusive
 		 * @param test the value to check
-		 * @return if the value is within the Range
+		 * @return if the value is within the Range, false if it is null
 		 */
 		public boolean inRange(K test) {
+			if (test == null) {
+				return false;
+			}
 			int compLow = test.compareTo(low);
 			int compHigh = test.compareTo(high);
 			return compLow >= 0 && compHigh <= 0;
@@ -80,6 +90,8 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 		
 		private K low;
 		private K high;
+		private long lowKey;
+		private long highKey;
 		private V data;
 		
 		private Node left;
@@ -92,7 +104,9 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 		 * @param data the data contained by this Node
 		 */
 		Node(K low, K high, V data) {
-			if (low.compareTo(high) > 0  || high.compareTo(low) < 0) {
+			this.lowKey = coarse(low);
+			this.highKey = coarse(high);
+			if (compare(low, lowKey, high, highKey) > 0) {
 				throw new IllegalArgumentException("Improper range, low: " + low + " high: " + high);
 			}
 			this.low = low;
@@ -104,6 +118,7 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 		
 	}
 	
+	private final ToLongFunction<? super K> coarseKey;
 	private Node root;
 	private int size;
 	
@@ -111,10 +126,45 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 	 * Creates a new, empty RangeMap
 	 */
 	public RangeMap() {
+		this(null);
+	}
+	
+	/**
+	 * Creates a new, empty RangeMap that compares keys by the passed coarse key first
+	 * @param coarseKey gives each key a long ordered the same as the key, or null for none
+	 */
+	public RangeMap(ToLongFunction<? super K> coarseKey) {
+		this.coarseKey = coarseKey;
 		root = null;
 		size = 0;
 	}
 	
+	/**
+	 * Returns the coarse key of the passed key
+	 * @param key the key
+	 * @return the coarse key, or 0 if the RangeMap has no coarse key
+	 */
+	private long coarse(K key) {
+		return coarseKey == null ? 0 : coarseKey.applyAsLong(key);
+	}
+	
+	/**
+	 * Compares two keys by their coarse keys, and by their natural ordering
+	 * if their coarse keys are equal
+	 * @param first the first key
+	 * @param firstKey the coarse key of the first key
+	 * @param second the second key
+	 * @param secondKey the coarse key of the second key
+	 * @return less than, equal to, or greater than 0 if the first key is less than,
+	 * equal to, or greater than the second
+	 */
+	private int compare(K first, long firstKey, K second, long secondKey) {
+		if (firstKey != secondKey) {
+			return firstKey < secondKey ? -1 : 1;
+		}
+		return first.compareTo(second);
+	}
+	
 	/**
 	 * Converts the range given to a String
 	 * @param low the lower bound
@@ -131,22 +181,23 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 	 * if it's low bound is strictly greater than the other range's high bound, and equal to another
 	 * range if their low and high bounds are equal. Intersecting ranges are forbidden and will
 	 * throw an IllegalArgumentException
-	 * @param low the low bound of the range
-	 * @param high the high bound of the range
+	 * @param range the node holding the range
 	 * @param node the node to compare the range to
 	 * @return -1, 0, 1 if the range is less than, equal to, or greater than the node's range
 	 */
-	private int compareToNode(K low, K high, Node node) {
+	private int compareToNode(Node range, Node node) {
 		if (node == null) {
 			return 0;
 		}
-		int lowComp = node.low.compareTo(low);
-		int highComp = node.high.compareTo(high);
+		K low = range.low;
+		K high = range.high;
+		int lowComp = compare(node.low, node.lowKey, low, range.lowKey);
+		int highComp = compare(node.high, node.highKey, high, range.highKey);
 		if (lowComp == 0 && highComp == 0) {
 			return 0;
 		}
-		int lowToHigh = node.low.compareTo(high);
-		int highToLow = node.high.compareTo(low);
+		int lowToHigh = compare(node.low, node.lowKey, high, range.highKey);
+		int highToLow = compare(node.high, node.highKey, low, range.lowKey);
 		if (highToLow < 0) {
 			return 1;
 		} else if (highToLow == 0) {
@@ -181,16 +232,16 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 	public V put(K low, K high, V data) {
 		
 		V oldData = null;
+		Node newNode = new Node(low, high, data);
 		if (root == null) {
-			root = new Node(low, high, data);
+			root = newNode;
 		} else {
 			
 			Node onNode = root;
-			Node newNode = new Node(low, high, data);
 			
 			boolean searching = true;
 			while (searching) {
-				int comp = compareToNode(low, high, onNode);
+				int comp = compareToNode(newNode, onNode);
 				if (comp == -1) {
 					if (onNode.left == null) {
 						onNode.left = newNode;
@@ -221,13 +272,14 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 	 * Determines if the given key is in the range of the node, and if not if it's
 	 * less than the range or greater than the range
 	 * @param key the key
+	 * @param coarse the coarse key of the key
 	 * @param node the node
 	 * @return -1, 0, 1 if the key is less than the range, within the range, or greater
 	 * than the range
 	 */
-	private int inNodeRange(K key, Node node) {
-		int compLow = key.compareTo(node.low);
-		int compHigh = key.compareTo(node.high);
+	private int inNodeRange(K key, long coarse, Node node) {
+		int compLow = compare(key, coarse, node.low, node.lowKey);
+		int compHigh = compare(key, coarse, node.high, node.highKey);
 		if (compLow < 0) {
 			return -1;
 		} else if (compLow == 0) {
@@ -250,12 +302,17 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 	 */
 	private V get(K key) {
 
+		if (key == null) {
+			return null;
+		}
+
+		long coarse = coarse(key);
 		Node onNode = root;
 		while (true) {
 			if (onNode == null) {
 				return null;
 			}
-			int comp = inNodeRange(key, onNode);
+			int comp = inNodeRange(key, coarse, onNode);
 			if (comp < 0) {
 				onNode = onNode.left;
 			} else if (comp == 0) {
@@ -272,20 +329,21 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 	 * distance, unless a comparator is provided to draw a distance from. If the distances are equal,
 	 * then the nearest entry that is less than the given key is returned. If the key maps to a range
 	 * already in the map then that entry is returned since its distance to that entry is zero. Only
-	 * returns null when the map is empty
+	 * returns null when the map is empty or the key is null
 	 * @param key the key to search with
 	 * @param comparator the comparator to determine distance with (optional, can pass null)
 	 * @return the nearest entry to the given key
 	 */
 	public V getNearestEntry(K key, Comparator<K> comparator) {
 		
-		if (root == null) {
+		if (root == null || key == null) {
 			return null;
 		}
 		
 		if (comparator == null) {
 			comparator = Comparator.naturalOrder();
 		}
+		long coarse = coarse(key);
 		
 		Stack<Node> nodeTrace = new Stack<>();
 		Stack<Boolean> leftChildTrace = new Stack<>();
@@ -336,7 +394,7 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 				
 			}
 			
-			int comp = inNodeRange(key, onNode);
+			int comp = inNodeRange(key, coarse, onNode);
 			if (comp < 0) {
 				nodeTrace.push(onNode);
 				leftChildTrace.push(true);
@@ -361,9 +419,10 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 	 */
 	private Node getNode(K key) {
 		
+		long coarse = coarse(key);
 		Node onNode = root;
 		while (onNode != null) {
-			int comp = inNodeRange(key, onNode);
+			int comp = inNodeRange(key, coarse, onNode);
 			if (comp < 0) {
 				onNode = onNode.left;
 			} else if (comp == 0) {
@@ -411,10 +470,11 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 		V data = removeKey(oldKey);
 		K newLow;
 		K newHigh;
-		if (newKey.compareTo(toUpdate.low) <= 0) {
+		long newCoarse = coarse(newKey);
+		if (compare(newKey, newCoarse, toUpdate.low, toUpdate.lowKey) <= 0) {
 			newLow = newKey;
 			newHigh = toUpdate.high;
-		} else if (newKey.compareTo(toUpdate.high) >= 0) {
+		} else if (compare(newKey, newCoarse, toUpdate.high, toUpdate.highKey) >= 0) {
 			newLow = toUpdate.low;
 			newHigh = newKey;
 		} else {
@@ -545,7 +605,8 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 		if (root == null) {
 			return null;
 		}
-		if (inNodeRange(key, root) == 0) {
+		long coarse = coarse(key);
+		if (inNodeRange(key, coarse, root) == 0) {
 			V data = root.data;
 			root = removeNode(root);
 			size--;
@@ -556,8 +617,8 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 		stack.push(root);
 		while (!stack.isEmpty()) {
 			Node onNode = stack.pop();
-			int leftComp = onNode.left != null ? inNodeRange(key, onNode.left) : -1;
-			int rightComp = onNode.right != null ? inNodeRange(key, onNode.right) : -1;
+			int leftComp = onNode.left != null ? inNodeRange(key, coarse, onNode.left) : -1;
+			int rightComp = onNode.right != null ? inNodeRange(key, coarse, onNode.right) : -1;
 			if (leftComp == 0) {
 				V data = onNode.left.data;
 				onNode.left = removeNode(onNode.left);
@@ -570,7 +631,7 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 				size--;
 				return data;
 			}
-			int onComp = inNodeRange(key, onNode);
+			int onComp = inNodeRange(key, coarse, onNode);
 			if (onComp < 0 && onNode.left != null) {
 				stack.push(onNode.left);
 			} else if (onNode.right != null) {
@@ -648,7 +709,9 @@ public class RangeMap<K extends Comparable<? super K>, V> implements Map<RangeMa
 		
 		Set<V> values = new HashSet<>(size);
 		Stack<Node> stack = new Stack<>();
-		stack.push(root);
+		if (root != null) {
+			stack.push(root);
+		}
 		
 		while (!stack.isEmpty()) {
 			
@@ -4,6 +4,8 @@ import java.io.File;
 
 import com.ccacic.financemanager.event.Event;
 import com.ccacic.financemanager.model.Delta;
+import com.ccacic.financemanager.model.ParamMap;
+import com.ccacic.financemanager.model.ReadOnlyList;
 import com.ccacic.financemanager.model.entry.Entry;
 import com.ccacic.financemanager.model.entry.children.StockEntry;
 import com.ccacic.financemanager.model.entry.children.StockEntryAssembler;
@@ -17,6 +19,8 @@ import com.ccacic.financemanager.model.entrychunk.EntryChunk;
  */
 public class StockEntryChunk extends EntryChunk {
 	
+	public static final String SHARE_TOTAL = "share_total";
+	
 	/* The share total is set to its proper value during the EntryChunk
 	 * constructor, and then the share total is instantiated to zero.
 	 * Unless some way is discovered to overcome this, all children of
@@ -31,12 +35,27 @@ public class StockEntryChunk extends EntryChunk {
 	 */
 	public StockEntryChunk(File entryChunkFile, String expectedHash) {
 		super(entryChunkFile, expectedHash);
-		for (Entry entry: getEntries())	{
-			StockEntry stockEntry = (StockEntry) entry;
-			shareTotal += stockEntry.getShares();
+		ReadOnlyList<Entry> entries = getEntries();
+		if (entries != null) {
+			for (Entry entry: entries) {
+				StockEntry stockEntry = (StockEntry) entry;
+				shareTotal += stockEntry.getShares();
+			}
 		}
 	}
 	
+	/**
+	 * Creates a new StockEntryChunk with the passed source file, expected source
+	 * file hash and summary, leaving the Entries unloaded
+	 * @param entryChunkFile the source file
+	 * @param expectedHash the expected hash of the source file
+	 * @param summary the summary of the StockEntryChunk
+	 */
+	public StockEntryChunk(File entryChunkFile, String expectedHash, ParamMap summary) {
+		super(entryChunkFile, expectedHash, summary);
+		shareTotal = summary.getAsDouble(SHARE_TOTAL);
+	}
+	
 	/**
 	 * Creates a new StockEntryChunk with the passed directory and first Entry
 	 * @param entryChunkDirectory the directory
@@ -68,6 +87,13 @@ public class StockEntryChunk extends EntryChunk {
 		return shareTotal;
 	}
 	
+	@Override
+	public ParamMap getSummary() {
+		ParamMap summary = super.getSummary();
+		summary.put(SHARE_TOTAL, shareTotal + "");
+		return summary;
+	}
+	
 	@Override
 	public void onEvent(Event event) {
 		Delta delta = (Delta) event.getData();
@@ -0,0 +1,253 @@
+package com.ccacic.financemanager.util;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.chrono.IsoChronology;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parses and formats LocalDateTimes in the fixed ISO-8601 shapes
+ * LocalDateTime.toString produces, yyyy-MM-ddTHH:mm with optional seconds
+ * and a fraction of 3, 6 or 9 digits, by hand instead of through a
+ * DateTimeFormatter. Text in any other shape, or that does not make a valid
+ * date and time, is passed on to LocalDateTime.parse, so both accept and
+ * reject exactly the same text and return the same results. Also converts
+ * LocalDateTimes to and from minutes since the epoch, which order the same
+ * way as the LocalDateTimes they come from down to the minute
+ * @author Cameron Cacic
+ *
+ */
+public final class DateTimeCodec {
+
+	/**
+	 * The epoch minute given to a null LocalDateTime
+	 */
+	public static final long NO_MINUTE = Long.MIN_VALUE;
+
+	private static final int SHORTEST = 16;
+	private static final int LONGEST = 29;
+
+	/**
+	 * Not to be instantiated
+	 */
+	private DateTimeCodec() {
+
+	}
+
+	/**
+	 * Parses the passed text into a LocalDateTime
+	 * @param text the text to parse
+	 * @return the LocalDateTime
+	 * @throws DateTimeParseException if the text is not a LocalDateTime
+	 */
+	public static LocalDateTime parse(CharSequence text) {
+		return parse(text, 0, text.length());
+	}
+
+	/**
+	 * Parses the passed span of the passed text into a LocalDateTime
+	 * @param text the text to parse
+	 * @param start the index the span starts at
+	 * @param end the index the span ends at
+	 * @return the LocalDateTime
+	 * @throws DateTimeParseException if the span is not a LocalDateTime
+	 */
+	public static LocalDateTime parse(CharSequence text, int start, int end) {
+
+		int length = end - start;
+		if (length < SHORTEST || length > LONGEST || length == SHORTEST + 1 || length == SHORTEST + 2
+				|| text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-'
+				|| (text.charAt(start + 10) | 0x20) != 't' || text.charAt(start + 13) != ':') {
+			return slowParse(text, start, end);
+		}
+		int year = digits(text, start, 4);
+		int month = digits(text, start + 5, 2);
+		int day = digits(text, start + 8, 2);
+		int hour = digits(text, start + 11, 2);
+		int minute = digits(text, start + 14, 2);
+		int second = 0;
+		int nano = 0;
+		if (length > SHORTEST) {
+			if (text.charAt(start + 16) != ':') {
+				return slowParse(text, start, end);
+			}
+			second = digits(text, start + 17, 2);
+			if (length > SHORTEST + 3) {
+				if (text.charAt(start + 19) != '.') {
+					return slowParse(text, start, end);
+				}
+				int fraction = length - SHORTEST - 4;
+				if (fraction == 0) {
+					return slowParse(text, start, end);
+				}
+				nano = digits(text, start + 20, fraction);
+				for (int i = fraction; i < 9 && nano >= 0; i++) {
+					nano *= 10;
+				}
+			}
+		}
+		if ((year | month | day | hour | minute | second | nano) < 0 || month < 1 || month > 12 || day < 1
+				|| day > 28 && day > lengthOfMonth(year, month) || hour > 23 || minute > 59 || second > 59) {
+			return slowParse(text, start, end);
+		}
+		return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+
+	}
+
+	/**
+	 * Formats the passed LocalDateTime the same as LocalDateTime.toString
+	 * @param dateTime the LocalDateTime to format
+	 * @return the formatted LocalDateTime
+	 */
+	public static String format(LocalDateTime dateTime) {
+		return appendTo(dateTime, new StringBuilder(LONGEST)).toString();
+	}
+
+	/**
+	 * Appends the passed LocalDateTime to the passed StringBuilder the same
+	 * as LocalDateTime.toString would
+	 * @param dateTime the LocalDateTime to format
+	 * @param builder the StringBuilder to append to
+	 * @return the StringBuilder, for chaining
+	 */
+	public static StringBuilder appendTo(LocalDateTime dateTime, StringBuilder builder) {
+		int year = dateTime.getYear();
+		if (year < 0 || year > 9999) {
+			return builder.append(dateTime);
+		}
+		appendDigits(builder, year, 4).append('-');
+		appendDigits(builder, dateTime.getMonthValue(), 2).append('-');
+		appendDigits(builder, dateTime.getDayOfMonth(), 2).append('T');
+		appendDigits(builder, dateTime.getHour(), 2).append(':');
+		appendDigits(builder, dateTime.getMinute(), 2);
+		int second = dateTime.getSecond();
+		int nano = dateTime.getNano();
+		if (second > 0 || nano > 0) {
+			appendDigits(builder.append(':'), second, 2);
+			if (nano > 0) {
+				builder.append('.');
+				if (nano % 1_000_000 == 0) {
+					appendDigits(builder, nano / 1_000_000, 3);
+				} else if (nano % 1000 == 0) {
+					appendDigits(builder, nano / 1000, 6);
+				} else {
+					appendDigits(builder, nano, 9);
+				}
+			}
+		}
+		return builder;
+	}
+
+	/**
+	 * Returns the whole minutes from the epoch to the passed LocalDateTime,
+	 * taken as UTC. Seconds and fractions of seconds are dropped
+	 * @param dateTime the LocalDateTime, or null
+	 * @return the epoch minute, or NO_MINUTE if the LocalDateTime is null
+	 */
+	public static long toEpochMinute(LocalDateTime dateTime) {
+		if (dateTime == null) {
+			return NO_MINUTE;
+		}
+		return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60);
+	}
+
+	/**
+	 * Returns the LocalDateTime at the start of the passed epoch minute
+	 * @param epochMinute the minutes from the epoch, taken as UTC
+	 * @return the LocalDateTime
+	 */
+	public static LocalDateTime ofEpochMinute(long epochMinute) {
+		return LocalDateTime.ofEpochSecond(epochMinute * 60, 0, ZoneOffset.UTC);
+	}
+
+	/**
+	 * Compares two LocalDateTimes by their epoch minutes, only comparing the
+	 * LocalDateTimes themselves if they fall in the same minute. Gives the
+	 * same result as comparing the LocalDateTimes directly. A null
+	 * LocalDateTime, whose epoch minute is NO_MINUTE, comes before all others
+	 * @param first the first LocalDateTime
+	 * @param firstMinute the epoch minute of the first LocalDateTime
+	 * @param second the second LocalDateTime
+	 * @param secondMinute the epoch minute of the second LocalDateTime
+	 * @return less than, equal to, or greater than 0 if the first is before, the same as, or after the second
+	 */
+	public static int compare(LocalDateTime first, long firstMinute, LocalDateTime second, long secondMinute) {
+		if (firstMinute != secondMinute) {
+			return firstMinute < secondMinute ? -1 : 1;
+		}
+		if (first == null || second == null) {
+			return first == second ? 0 : first == null ? -1 : 1;
+		}
+		return first.compareTo(second);
+	}
+
+	/**
+	 * Reads the passed number of decimal digits as an int
+	 * @param text the text to read from
+	 * @param at the index of the first digit
+	 * @param count the number of digits, at most 9
+	 * @return the int, or -1 if any of the characters is not a digit
+	 */
+	private static int digits(CharSequence text, int at, int count) {
+		int value = 0;
+		for (int i = at; i < at + count; i++) {
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Appends the passed non-negative int, padded with leading zeros
+	 * @param builder the StringBuilder to append to
+	 * @param value the int to append, with no more than count digits
+	 * @param count the number of digits to append
+	 * @return the StringBuilder, for chaining
+	 */
+	private static StringBuilder appendDigits(StringBuilder builder, int value, int count) {
+		int divisor = 1;
+		for (int i = 1; i < count; i++) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			builder.append((char) ('0' + value / divisor % 10));
+		}
+		return builder;
+	}
+
+	/**
+	 * Returns the number of days in the passed month
+	 * @param year the year the month is in
+	 * @param month the month, from 1 to 12
+	 * @return the number of days
+	 */
+	private static int lengthOfMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return IsoChronology.INSTANCE.isLeapYear(year) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * Parses the passed span of the passed text with LocalDateTime.parse
+	 * @param text the text to parse
+	 * @param start the index the span starts at
+	 * @param end the index the span ends at
+	 * @return the LocalDateTime
+	 * @throws DateTimeParseException if the span is not a LocalDateTime
+	 */
+	private static LocalDateTime slowParse(CharSequence text, int start, int end) {
+		return LocalDateTime.parse(text.subSequence(start, end));
+	}
+
+}
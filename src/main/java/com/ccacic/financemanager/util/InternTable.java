@@ -0,0 +1,233 @@
+package com.ccacic.financemanager.util;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out a single canonical instance of each String and attachment File
+ * seen while decoding, so that the many Entries of a load sharing a type
+ * name, key, description or attachment hold the same instance instead of a
+ * copy each. Meant to live for a single load and then be dropped, keeping
+ * nothing alive past it. Holds at most its capacity of Strings and of Files,
+ * past which new ones are handed out as they are without being kept. Also
+ * estimates how much heap the copies it replaced would have taken, assuming
+ * compressed references and compact Strings. Instances are not thread safe,
+ * except for NONE
+ * @author Cameron Cacic
+ *
+ */
+public final class InternTable {
+
+	/**
+	 * The number of Strings and of Files kept by default, enough for the
+	 * keys, types and recurring values of any single EntryChunk
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+	/**
+	 * Keeps nothing, handing out every String and File as it is
+	 */
+	public static final InternTable NONE = new InternTable(0);
+
+	private static final int STRING_BYTES = 24;
+	private static final int ARRAY_BYTES = 16;
+	private static final int FILE_BYTES = 32;
+
+	private final int capacity;
+	private final String[] strings;
+	private final Map<String, File> files;
+	private int size;
+	private long hits;
+	private long savedBytes;
+
+	/**
+	 * Creates a new, empty InternTable of the default capacity
+	 */
+	public InternTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new, empty InternTable
+	 * @param capacity the most Strings and the most Files to keep
+	 */
+	public InternTable(int capacity) {
+		this.capacity = capacity;
+		// at most half full, so probing always reaches an empty slot
+		this.strings = new String[capacity == 0 ? 0 : Integer.highestOneBit(capacity * 2 - 1) << 1];
+		this.files = new HashMap<>();
+	}
+
+	/**
+	 * Returns the canonical instance of the passed String, which becomes
+	 * the canonical instance if there is none yet
+	 * @param str the String, or null
+	 * @return the canonical instance, or null if the String is null
+	 */
+	public String intern(String str) {
+		if (str == null || capacity == 0) {
+			return str;
+		}
+		int slot = find(str, 0, str.length(), str.hashCode());
+		String canonical = strings[slot];
+		if (canonical == null) {
+			add(slot, str);
+			return str;
+		}
+		if (canonical != str) {
+			hits++;
+			savedBytes += sizeOf(canonical);
+		}
+		return canonical;
+	}
+
+	/**
+	 * Returns the canonical instance of the String held by the passed span
+	 * of the passed CharSequence, only making a String of the span if
+	 * there is no canonical instance yet
+	 * @param text the CharSequence holding the String
+	 * @param start the index the span starts at
+	 * @param end the index the span ends at
+	 * @return the canonical instance
+	 */
+	public String intern(CharSequence text, int start, int end) {
+		if (capacity == 0) {
+			return text.subSequence(start, end).toString();
+		}
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + text.charAt(i);
+		}
+		int slot = find(text, start, end, hash);
+		String canonical = strings[slot];
+		if (canonical == null) {
+			canonical = text.subSequence(start, end).toString();
+			add(slot, canonical);
+		} else {
+			hits++;
+			savedBytes += sizeOf(canonical);
+		}
+		return canonical;
+	}
+
+	/**
+	 * Returns the canonical File at the passed path, creating it if there
+	 * is none yet. Files are immutable, so Entries may share them
+	 * @param path the path of the File
+	 * @return the canonical File
+	 */
+	public File file(String path) {
+		if (capacity == 0) {
+			return new File(path);
+		}
+		File file = files.get(path);
+		if (file != null) {
+			hits++;
+			savedBytes += FILE_BYTES;
+			if (file.getPath() != path) {
+				savedBytes += sizeOf(path);
+			}
+			return file;
+		}
+		file = new File(path);
+		if (files.size() < capacity) {
+			files.put(path, file);
+		}
+		return file;
+	}
+
+	/**
+	 * Returns the number of Strings and Files kept
+	 * @return the size of the InternTable
+	 */
+	public int getSize() {
+		return size + files.size();
+	}
+
+	/**
+	 * Returns the number of times a canonical instance was handed out in
+	 * place of a copy
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns an estimate of the heap the copies replaced by canonical
+	 * instances would have taken
+	 * @return the estimated bytes saved
+	 */
+	public long getSavedBytes() {
+		return savedBytes;
+	}
+
+	/**
+	 * Finds the slot holding the String equal to the passed span, or the
+	 * empty slot it would be added at
+	 * @param text the CharSequence holding the String
+	 * @param start the index the span starts at
+	 * @param end the index the span ends at
+	 * @param hash the hash code of the String
+	 * @return the slot
+	 */
+	private int find(CharSequence text, int start, int end, int hash) {
+		int mask = strings.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (strings[slot] != null && !matches(strings[slot], hash, text, start, end)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Checks if the passed String is equal to the passed span
+	 * @param str the String
+	 * @param hash the hash code of the span
+	 * @param text the CharSequence holding the span
+	 * @param start the index the span starts at
+	 * @param end the index the span ends at
+	 * @return if they are equal
+	 */
+	private static boolean matches(String str, int hash, CharSequence text, int start, int end) {
+		if (str.hashCode() != hash || str.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < str.length(); i++) {
+			if (str.charAt(i) != text.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps the passed String at the passed empty slot, unless the
+	 * InternTable is full
+	 * @param slot the empty slot
+	 * @param str the String to keep
+	 */
+	private void add(int slot, String str) {
+		if (size < capacity) {
+			strings[slot] = str;
+			size++;
+		}
+	}
+
+	/**
+	 * Estimates the heap taken by the passed String and its characters
+	 * @param str the String
+	 * @return the estimated bytes
+	 */
+	private static long sizeOf(String str) {
+		int bytesPerChar = 1;
+		for (int i = 0; i < str.length(); i++) {
+			if (str.charAt(i) > 0xFF) {
+				bytesPerChar = 2;
+				break;
+			}
+		}
+		return STRING_BYTES + ((ARRAY_BYTES + (long) str.length() * bytesPerChar + 7) & ~7L);
+	}
+
+}
@@ -0,0 +1,442 @@
+package com.ccacic.financemanager.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.ccacic.financemanager.logger.Logger;
+
+/**
+ * Splits encoded ParamMaps and bracket sections in a single pass over a
+ * span of a CharSequence, without copying it. Moving to the next key value
+ * pair or bracket section only records where it starts and ends, and a
+ * String is only made once a key, value or section is asked for. Curly
+ * brackets nest, so separators and brackets inside a bracket section are
+ * part of the section. A backslash escapes the character after it, which
+ * then counts as neither a bracket nor a separator. Keys and values are
+ * returned unescaped, while bracket sections are returned as they are, to
+ * be split further. Reading pairs and reading sections share the same
+ * position, and instances are not thread safe
+ * @author Cameron Cacic
+ *
+ */
+public final class ParamTokenizer {
+
+	/**
+	 * Makes the character after it stand for itself
+	 */
+	public static final char ESCAPE = '\\';
+
+	private final CharSequence text;
+	private final int end;
+	private int position;
+	private int keyStart;
+	private int keyEnd;
+	private int valueStart;
+	private int valueEnd;
+	private int sectionStart;
+	private int sectionEnd;
+
+	/**
+	 * Creates a new ParamTokenizer over the whole of the passed CharSequence
+	 * @param text the CharSequence to split
+	 */
+	public ParamTokenizer(CharSequence text) {
+		this(text, 0, text.length());
+	}
+
+	/**
+	 * Creates a new ParamTokenizer over part of the passed CharSequence
+	 * @param text the CharSequence to split
+	 * @param begin the index to start at
+	 * @param end the index to stop at
+	 */
+	public ParamTokenizer(CharSequence text, int begin, int end) {
+		this.text = text;
+		this.position = begin;
+		this.end = end;
+	}
+
+	/**
+	 * Moves to the next key value pair, which runs up to the next passed
+	 * separator outside of any bracket section. The key is everything
+	 * before the first equals sign outside of a bracket section, and the
+	 * value everything after it. Pieces without an equals sign are skipped
+	 * @param separator the character separating pairs
+	 * @param terminated if every pair must end with the separator, in which
+	 * case anything after the last separator is ignored
+	 * @return if there was another pair
+	 */
+	public boolean nextPair(char separator, boolean terminated) {
+
+		while (position < end) {
+
+			int start = position;
+			int equals = -1;
+			int unpaired = 0;
+			int index = start;
+			for (; index < end; index++) {
+				char c = text.charAt(index);
+				if (escapes(text, index, end)) {
+					index++;
+				} else if (c == '{') {
+					unpaired++;
+				} else if (c == '}') {
+					if (unpaired > 0) {
+						unpaired--;
+					}
+				} else if (unpaired == 0) {
+					if (c == separator) {
+						break;
+					} else if (c == '=' && equals < 0) {
+						equals = index;
+					}
+				}
+			}
+			index = Math.min(index, end);
+			if (index == end && terminated) {
+				position = end;
+				return false;
+			}
+			position = index + 1;
+
+			if (equals >= 0) {
+				keyStart = trimStart(start, equals);
+				keyEnd = trimEnd(keyStart, equals);
+				valueStart = trimStart(equals + 1, index);
+				valueEnd = trimEnd(valueStart, index);
+				return true;
+			}
+
+		}
+		return false;
+
+	}
+
+	/**
+	 * Moves to the next top level bracket section, skipping anything
+	 * before it. A section missing its closing bracket runs to the end
+	 * @return if there was another section
+	 */
+	public boolean nextSection() {
+
+		int open = openingBracket(text, position, end);
+		if (open < 0) {
+			position = end;
+			return false;
+		}
+		int close = closingBracket(text, open, end);
+		sectionStart = open + 1;
+		if (close < 0) {
+			Logger.getInstance().logInfo("Missing closing } after index " + open);
+			sectionEnd = end;
+			position = end;
+		} else {
+			sectionEnd = close;
+			position = close + 1;
+		}
+		return true;
+
+	}
+
+	/**
+	 * Returns the key of the current pair, without surrounding whitespace
+	 * @return the key
+	 */
+	public String getKey() {
+		return unescape(text, keyStart, keyEnd);
+	}
+
+	/**
+	 * Returns the canonical instance of the key of the current pair in the
+	 * passed InternTable, only making a String of it if it is not there yet
+	 * or holds escapes
+	 * @param table the InternTable to take the key from
+	 * @return the key
+	 */
+	public String getKey(InternTable table) {
+		return intern(table, keyStart, keyEnd);
+	}
+
+	/**
+	 * Checks if the key of the current pair is the passed key, without
+	 * making a String of it unless it holds escapes
+	 * @param key the key to compare against
+	 * @return if the keys are equal
+	 */
+	public boolean isKey(String key) {
+		if (keyEnd - keyStart < key.length()) {
+			return false;
+		}
+		for (int i = keyStart; i < keyEnd; i++) {
+			if (text.charAt(i) == ESCAPE) {
+				return getKey().equals(key);
+			}
+		}
+		if (keyEnd - keyStart != key.length()) {
+			return false;
+		}
+		for (int i = 0; i < key.length(); i++) {
+			if (text.charAt(keyStart + i) != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the value of the current pair, without surrounding whitespace
+	 * @return the value
+	 */
+	public String getValue() {
+		return unescape(text, valueStart, valueEnd);
+	}
+
+	/**
+	 * Returns the canonical instance of the value of the current pair in the
+	 * passed InternTable, only making a String of it if it is not there yet
+	 * or holds escapes
+	 * @param table the InternTable to take the value from
+	 * @return the value
+	 */
+	public String getValue(InternTable table) {
+		return intern(table, valueStart, valueEnd);
+	}
+
+	/**
+	 * Returns the contents of the first bracket section in the value of
+	 * the current pair, without surrounding whitespace, or the whole value
+	 * if it has no bracket section. Either is unescaped
+	 * @return the unbracketed value
+	 */
+	public String getUnbracketedValue() {
+		int open = openingBracket(text, valueStart, valueEnd);
+		if (open < 0) {
+			return getValue();
+		}
+		int close = closingBracket(text, open, valueEnd);
+		int start = trimStart(open + 1, close < 0 ? valueEnd : close);
+		return unescape(text, start, trimEnd(start, close < 0 ? valueEnd : close));
+	}
+
+	/**
+	 * Returns the index the value of the current pair starts at
+	 * @return the index of the first character of the value
+	 */
+	public int getValueStart() {
+		return valueStart;
+	}
+
+	/**
+	 * Returns the index the value of the current pair ends at
+	 * @return the index just past the last character of the value
+	 */
+	public int getValueEnd() {
+		return valueEnd;
+	}
+
+	/**
+	 * Returns the contents of the current bracket section, without its brackets
+	 * @return the section
+	 */
+	public String getSection() {
+		return text.subSequence(sectionStart, sectionEnd).toString();
+	}
+
+	/**
+	 * Returns the index the contents of the current bracket section start at
+	 * @return the index just past the opening bracket
+	 */
+	public int getSectionStart() {
+		return sectionStart;
+	}
+
+	/**
+	 * Returns the index the contents of the current bracket section end at
+	 * @return the index of the closing bracket
+	 */
+	public int getSectionEnd() {
+		return sectionEnd;
+	}
+
+	/**
+	 * Checks if the passed character has to be escaped to stand for itself
+	 * @param c the character to check
+	 * @return if the character is special
+	 */
+	public static boolean isSpecial(char c) {
+		return c == ESCAPE || c == ',' || c == '{' || c == '}' || c == '=' || c == ';';
+	}
+
+	/**
+	 * Checks if there is an escape at the passed index, which is only the
+	 * case if a special character follows it. Any other backslash, such as
+	 * one in a path written before escaping was introduced, stands for itself
+	 * @param text the CharSequence to check
+	 * @param index the index to check
+	 * @param end the index the span being read ends at
+	 * @return if the character at the index escapes the next one
+	 */
+	private static boolean escapes(CharSequence text, int index, int end) {
+		return text.charAt(index) == ESCAPE && index + 1 < end && isSpecial(text.charAt(index + 1));
+	}
+
+	/**
+	 * Removes the escapes from the passed span of the passed CharSequence
+	 * @param text the CharSequence to unescape
+	 * @param start the index the span starts at
+	 * @param end the index the span ends at
+	 * @return the unescaped span
+	 */
+	public static String unescape(CharSequence text, int start, int end) {
+		int escape = start;
+		while (escape < end && text.charAt(escape) != ESCAPE) {
+			escape++;
+		}
+		if (escape == end) {
+			return text.subSequence(start, end).toString();
+		}
+		StringBuilder unescaped = new StringBuilder(end - start);
+		unescaped.append(text, start, escape);
+		for (int i = escape; i < end; i++) {
+			if (escapes(text, i, end)) {
+				i++;
+			}
+			unescaped.append(text.charAt(i));
+		}
+		return unescaped.toString();
+	}
+
+	/**
+	 * Removes the escapes from the passed span and returns the canonical
+	 * instance of the result in the passed InternTable
+	 * @param table the InternTable to take the String from
+	 * @param start the index the span starts at
+	 * @param end the index the span ends at
+	 * @return the unescaped span
+	 */
+	private String intern(InternTable table, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (text.charAt(i) == ESCAPE) {
+				return table.intern(unescape(text, start, end));
+			}
+		}
+		return table.intern(text, start, end);
+	}
+
+	/**
+	 * Finds the first unescaped opening bracket in the passed span
+	 * @param text the CharSequence to search
+	 * @param start the index to start searching at
+	 * @param end the index to stop searching at
+	 * @return the index of the opening bracket, or -1 if there is none
+	 */
+	private static int openingBracket(CharSequence text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (escapes(text, i, end)) {
+				i++;
+			} else if (c == '{') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the bracket closing the one at the passed index
+	 * @param text the CharSequence to search
+	 * @param open the index of the opening bracket
+	 * @param end the index to stop searching at
+	 * @return the index of the closing bracket, or -1 if it is missing
+	 */
+	public static int closingBracket(CharSequence text, int open, int end) {
+		int unpaired = 0;
+		for (int i = open; i < end; i++) {
+			char c = text.charAt(i);
+			if (escapes(text, i, end)) {
+				i++;
+			} else if (c == '{') {
+				unpaired++;
+			} else if (c == '}' && --unpaired == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the next top level bracket section from the passed Reader into
+	 * the passed StringBuilder, replacing its contents with those of the
+	 * section without the enclosing curly brackets, escapes included.
+	 * Characters outside of bracket sections are skipped
+	 * @param reader the Reader to read from
+	 * @param section the StringBuilder to read the section into
+	 * @return if there was another section
+	 * @throws IOException if file IO errors occur
+	 */
+	public static boolean readSection(Reader reader, StringBuilder section) throws IOException {
+
+		section.setLength(0);
+		int unpaired = 0;
+		int c = reader.read();
+		while (c != -1) {
+			if (c == ESCAPE) {
+				int escaped = reader.read();
+				if (unpaired > 0) {
+					section.append((char) c);
+				}
+				if (escaped != -1 && isSpecial((char) escaped)) {
+					if (unpaired > 0) {
+						section.append((char) escaped);
+					}
+					c = reader.read();
+				} else {
+					c = escaped;
+				}
+				continue;
+			} else if (c == '{') {
+				if (unpaired++ == 0) {
+					c = reader.read();
+					continue;
+				}
+			} else if (c == '}' && unpaired > 0) {
+				if (--unpaired == 0) {
+					return true;
+				}
+			}
+			if (unpaired > 0) {
+				section.append((char) c);
+			}
+			c = reader.read();
+		}
+		return false;
+
+	}
+
+	/**
+	 * Skips whitespace forward from the passed index
+	 * @param start the index to start at
+	 * @param limit the index to stop at
+	 * @return the index of the first character that is not whitespace, or limit
+	 */
+	private int trimStart(int start, int limit) {
+		while (start < limit && text.charAt(start) <= ' ') {
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 * Skips whitespace backward from the passed index
+	 * @param limit the index to stop at
+	 * @param end the index to start at
+	 * @return the index just past the last character that is not whitespace, or limit
+	 */
+	private int trimEnd(int limit, int end) {
+		while (end > limit && text.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return end;
+	}
+
+}